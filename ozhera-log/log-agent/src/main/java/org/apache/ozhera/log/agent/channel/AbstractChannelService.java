@@ -96,9 +96,17 @@ public abstract class AbstractChannelService implements ChannelService {
         });
 
         channelState.setTotalSendCnt(getLogCounts());
+        channelState.setExportStats(exportStats());
         return channelState;
     }
 
+    /**
+     * State of the line pipeline of the channel, if it has one.
+     */
+    protected ChannelState.ExportStats exportStats() {
+        return null;
+    }
+
     public abstract ChannelDefine getChannelDefine();
 
     public abstract ChannelMemory getChannelMemory();
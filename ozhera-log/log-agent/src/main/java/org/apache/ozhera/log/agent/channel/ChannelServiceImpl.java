@@ -35,6 +35,7 @@ import org.apache.ozhera.log.agent.channel.memory.AgentMemoryService;
 import org.apache.ozhera.log.agent.channel.memory.ChannelMemory;
 import org.apache.ozhera.log.agent.common.ChannelUtil;
 import org.apache.ozhera.log.agent.common.ExecutorUtil;
+import org.apache.ozhera.log.agent.export.LineBatchPipeline;
 import org.apache.ozhera.log.agent.export.MsgExporter;
 import org.apache.ozhera.log.agent.filter.FilterChain;
 import org.apache.ozhera.log.agent.input.Input;
@@ -42,6 +43,7 @@ import org.apache.ozhera.log.api.enums.K8sPodTypeEnum;
 import org.apache.ozhera.log.api.enums.LogTypeEnum;
 import org.apache.ozhera.log.api.model.meta.FilterConf;
 import org.apache.ozhera.log.api.model.msg.LineMessage;
+import org.apache.ozhera.log.common.Config;
 import org.apache.ozhera.log.common.Constant;
 import org.apache.ozhera.log.common.PathUtils;
 import org.apache.ozhera.log.utils.NetUtil;
@@ -65,9 +67,11 @@ import static org.apache.ozhera.log.common.PathUtils.SEPARATOR;
 @Slf4j
 public class ChannelServiceImpl extends AbstractChannelService {
 
+    private static final long EXPORT_CLOSE_TIMEOUT_MILLIS = 10 * 1000;
+
     private AgentMemoryService memoryService;
 
-    private MsgExporter msgExporter;
+    private volatile MsgExporter msgExporter;
 
     private ChannelDefine channelDefine;
 
@@ -90,9 +94,15 @@ public class ChannelServiceImpl extends AbstractChannelService {
 
     private Gson gson = Constant.GSON;
 
-    private List<LineMessage> lineMessageList = new ArrayList<>();
+    /**
+     * Lines of every file go through the pipeline to the exporter, the lock of a file only orders its own
+     * multi-line assembly against the remain line sender.
+     */
+    private LineBatchPipeline linePipeline;
+
+    private final Map<String, ReentrantLock> fileLineLockMap = new ConcurrentHashMap<>();
 
-    private ReentrantLock fileColLock = new ReentrantLock();
+    private final ReentrantLock fileProgressLock = new ReentrantLock();
 
     private ReentrantLock fileReopenLock = new ReentrantLock();
 
@@ -100,8 +110,6 @@ public class ChannelServiceImpl extends AbstractChannelService {
 
     private volatile long logCounts = 0;
 
-    private ScheduledFuture<?> scheduledFuture;
-
     /**
      * collect once flag
      */
@@ -193,9 +201,9 @@ public class ChannelServiceImpl extends AbstractChannelService {
         }
         memoryService.cleanChannelMemoryContent(channelId, patterns);
 
+        startExportPipeline(channelId);
         startCollectFile(channelId, input, patterns);
 
-        startExportQueueDataThread();
         memoryService.refreshMemory(channelMemory);
         log.warn("channelId:{}, channelInstanceId:{} start success! channelDefine:{}", channelId, instanceId(), gson.toJson(this.channelDefine));
     }
@@ -218,20 +226,13 @@ public class ChannelServiceImpl extends AbstractChannelService {
         }
     }
 
-    private void startExportQueueDataThread() {
-        scheduledFuture = ExecutorUtil.scheduleAtFixedRate(() -> {
-            // If the mq message is not sent for more than 10 seconds, it will be sent asynchronously.
-            if (System.currentTimeMillis() - lastSendTime < 10 * 1000 || CollectionUtils.isEmpty(lineMessageList)) {
-                return;
-            }
-            if (CollectionUtils.isNotEmpty(lineMessageList) && fileColLock.tryLock()) {
-                try {
-                    this.doExport(lineMessageList);
-                } finally {
-                    fileColLock.unlock();
-                }
-            }
-        }, 10, 7, TimeUnit.SECONDS);
+    private void startExportPipeline(Long channelId) {
+        int queueSize = Integer.parseInt(Config.ins().get("channel.export.queue.size", "8192"));
+        long lingerMillis = Long.parseLong(Config.ins().get("channel.export.linger.ms", "1000"));
+        linePipeline = new LineBatchPipeline(String.valueOf(channelId), queueSize, lingerMillis,
+                () -> msgExporter.batchExportSize(), this::doExport);
+        linePipeline.start();
+        log.info("channelId:{} export pipeline start, queueSize:{}, lingerMillis:{}", channelId, linePipeline.getCapacity(), lingerMillis);
     }
 
     private void startCollectFile(Long channelId, Input input, List<String> patterns) {
@@ -304,6 +305,7 @@ public class ChannelServiceImpl extends AbstractChannelService {
 
     private ReadListener initFileReadListener(MLog mLog, String patternCode, String ip, String pattern) {
         AtomicReference<ReadResult> readResult = new AtomicReference<>();
+        ReentrantLock fileLineLock = fileLineLockMap.computeIfAbsent(pattern, key -> new ReentrantLock());
         ReadListener listener = new DefaultReadListener(event -> {
             readResult.set(event.getReadResult());
             if (null == readResult.get()) {
@@ -315,20 +317,20 @@ public class ChannelServiceImpl extends AbstractChannelService {
                 String logType = channelDefine.getInput().getType();
                 LogTypeEnum logTypeEnum = LogTypeEnum.name2enum(logType);
                 // Multi-line application log type and opentelemetry type are used to determine the exception stack
-                if (LogTypeEnum.APP_LOG_MULTI == logTypeEnum || LogTypeEnum.OPENTELEMETRY == logTypeEnum) {
-                    l = mLog.append2(l);
-                } else {
-                    // tail single line mode
-                }
-                if (null != l) {
-                    try {
-                        fileColLock.lock();
+                fileLineLock.lock();
+                try {
+                    if (LogTypeEnum.APP_LOG_MULTI == logTypeEnum || LogTypeEnum.OPENTELEMETRY == logTypeEnum) {
+                        l = mLog.append2(l);
+                    } else {
+                        // tail single line mode
+                    }
+                    if (null != l) {
                         wrapDataToSend(l, readResult, pattern, patternCode, ip, ct);
-                    } finally {
-                        fileColLock.unlock();
+                    } else {
+                        log.debug("biz log channelId:{}, not new line:{}", channelDefine.getChannelId(), l);
                     }
-                } else {
-                    log.debug("biz log channelId:{}, not new line:{}", channelDefine.getChannelId(), l);
+                } finally {
+                    fileLineLock.unlock();
                 }
             });
 
@@ -346,8 +348,9 @@ public class ChannelServiceImpl extends AbstractChannelService {
                 MLog mLog = referenceEntry.getValue().getKey();
                 String pattern = referenceEntry.getKey();
                 Long appendTime = mLog.getAppendTime();
-                if (null != appendTime && Instant.now().toEpochMilli() - appendTime > 10 * 1000) {
-                    if (fileColLock.tryLock()) {
+                ReentrantLock fileLineLock = fileLineLockMap.get(pattern);
+                if (null != appendTime && Instant.now().toEpochMilli() - appendTime > 10 * 1000 && null != fileLineLock) {
+                    if (fileLineLock.tryLock()) {
                         try {
                             String remainMsg = mLog.takeRemainMsg2();
                             if (null != remainMsg) {
@@ -355,7 +358,7 @@ public class ChannelServiceImpl extends AbstractChannelService {
                                 wrapDataToSend(remainMsg, referenceEntry.getValue().getValue(), pattern, patternCode, getTailPodIp(pattern), appendTime);
                             }
                         } finally {
-                            fileColLock.unlock();
+                            fileLineLock.unlock();
                         }
                     }
                 }
@@ -366,14 +369,28 @@ public class ChannelServiceImpl extends AbstractChannelService {
     private void wrapDataToSend(String lineMsg, AtomicReference<ReadResult> readResult, String pattern, String patternCode, String ip, long ct) {
         LineMessage lineMessage = createLineMessage(lineMsg, readResult, pattern, patternCode, ip, ct);
 
-        updateChannelMemory(channelMemory, pattern, logTypeEnum, ct, readResult);
-        lineMessageList.add(lineMessage);
-
+        updateFileProgress(pattern, ct, readResult);
         fileReadMap.put(pattern, ct);
-        int batchSize = msgExporter.batchExportSize();
-        if (lineMessageList.size() > batchSize) {
-            List<LineMessage> subList = lineMessageList.subList(0, batchSize);
-            doExport(subList);
+
+        // blocks while the pipeline is full, which holds the reader of this file back
+        if (!linePipeline.put(lineMessage, ct)) {
+            log.debug("channelId:{} export pipeline closed, drop line of file:{}", channelDefine.getChannelId(), pattern);
+        }
+    }
+
+    /**
+     * Every file updates its own progress, only the first line of a new file adds to the shared progress map.
+     */
+    private void updateFileProgress(String pattern, long ct, AtomicReference<ReadResult> readResult) {
+        if (null != channelMemory.getFileProgressMap().get(pattern)) {
+            updateChannelMemory(channelMemory, pattern, logTypeEnum, ct, readResult);
+            return;
+        }
+        fileProgressLock.lock();
+        try {
+            updateChannelMemory(channelMemory, pattern, logTypeEnum, ct, readResult);
+        } finally {
+            fileProgressLock.unlock();
         }
     }
 
@@ -500,6 +517,24 @@ public class ChannelServiceImpl extends AbstractChannelService {
         }
     }
 
+    @Override
+    protected ChannelState.ExportStats exportStats() {
+        LineBatchPipeline pipeline = linePipeline;
+        if (null == pipeline) {
+            return null;
+        }
+        ChannelState.ExportStats exportStats = new ChannelState.ExportStats();
+        exportStats.setQueued(pipeline.queued());
+        exportStats.setCapacity(pipeline.getCapacity());
+        exportStats.setReaderBlockedMillis(pipeline.getReaderBlockedMillis());
+        exportStats.setExportedBatches(pipeline.getExportedBatches());
+        exportStats.setExportedLines(pipeline.getExportedLines());
+        exportStats.setLineLatencyMillis(pipeline.getLineLatencyMillis());
+        exportStats.setLastBatchSize(pipeline.getLastBatchSize());
+        exportStats.setLastBatchMaxLatencyMillis(pipeline.getLastBatchMaxLatencyMillis());
+        return exportStats;
+    }
+
     @Override
     public void close() {
         log.info("Delete the current collection task,channelId:{}", getChannelId());
@@ -508,14 +543,14 @@ public class ChannelServiceImpl extends AbstractChannelService {
             fileEntry.getValue().setStop(true);
             InodeFileComparator.removeFile(fileEntry.getKey());
         }
-        //2. stop exporting
+        //2. stop exporting, the lines already queued are flushed first
+        if (null != linePipeline) {
+            linePipeline.close(EXPORT_CLOSE_TIMEOUT_MILLIS);
+        }
         this.msgExporter.close();
         //3. refresh cache
         memoryService.refreshMemory(channelMemory);
         // stop task
-        if (null != scheduledFuture) {
-            scheduledFuture.cancel(false);
-        }
         if (null != lastFileLineScheduledFuture) {
             lastFileLineScheduledFuture.cancel(false);
         }
@@ -523,8 +558,8 @@ public class ChannelServiceImpl extends AbstractChannelService {
             future.cancel(false);
         }
         log.info("stop file monitor,fileName:", logFileMap.keySet().stream().collect(Collectors.joining(SYMBOL_COMMA)));
-        lineMessageList.clear();
         reOpenMap.clear();
+        fileLineLockMap.clear();
         fileReadMap.clear();
         resultMap.clear();
     }
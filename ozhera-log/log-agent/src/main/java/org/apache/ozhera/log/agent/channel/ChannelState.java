@@ -55,6 +55,11 @@ public class ChannelState implements Serializable {
 
     private Map<String, StateProgress> stateProgressMap;
 
+    /**
+     * Line pipeline between the readers and the exporter, null if the channel exports without one.
+     */
+    private ExportStats exportStats;
+
     @Data
     public static class StateProgress implements Serializable {
         /**
@@ -84,4 +89,30 @@ public class ChannelState implements Serializable {
          */
         private Long ctTime;
     }
+
+    @Data
+    public static class ExportStats implements Serializable {
+        /**
+         * Lines waiting for the exporter.
+         */
+        private Long queued;
+
+        private Integer capacity;
+        /**
+         * Total time the readers were held back by a full pipeline.
+         */
+        private Long readerBlockedMillis;
+
+        private Long exportedBatches;
+
+        private Long exportedLines;
+        /**
+         * Sum of the time from collect to export over the exported lines.
+         */
+        private Long lineLatencyMillis;
+
+        private Integer lastBatchSize;
+
+        private Long lastBatchMaxLatencyMillis;
+    }
 }
@@ -0,0 +1,1302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.log.agent.common.trace;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ozhera.tspandata.TAttributeType;
+import org.apache.ozhera.tspandata.TKind;
+import org.apache.ozhera.tspandata.TStatus;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Encodes a span line of the trace log straight into the thrift compact bytes of its {@link org.apache.ozhera.tspandata.TSpanData}.
+ * <p>
+ * The output is the same as {@code TraceUtil.toBytes(TraceUtil.toTSpanData(line))}, but the line is tokenised once:
+ * the fields are located in place, the tags, events, resource and references are scanned by a small json reader
+ * that applies the ##-escapes of the agent while reading, and the values are kept as slices of one reused char buffer.
+ * No JSONArray, TSpanData or intermediate String is built, and the protocol writes into a reused byte buffer.
+ * <p>
+ * Not thread safe, {@link #get()} returns the instance of the calling thread. The bytes stay valid until the next
+ * {@link #encode(String)}, so copy them with {@link #toByteArray()} or {@link #toUtf8Latin1()} before handing them over.
+ */
+@Slf4j
+public final class SpanLineEncoder {
+
+    private static final ThreadLocal<SpanLineEncoder> LOCAL = ThreadLocal.withInitial(SpanLineEncoder::new);
+
+    private static final char[] LOG_SPLIT = " ||| ".toCharArray();
+    private static final char[] LOG_SPLIT_SHORT = " | ".toCharArray();
+    private static final char[] FIELD_SPLIT = MessageUtil.SPLIT.toCharArray();
+
+    private static final String TAG_KEY_SPAN_KIND = "span.kind";
+    private static final String TAG_KEY_SERVICE_NAME = "service.name";
+    private static final String TAG_KEY_IP = "ip";
+    private static final String TAG_KEY_HOST = "host.name";
+    private static final String REF_TYPE_CHILD_OF = "CHILD_OF";
+
+    private static final String[] ATTRIBUTE_KEYS = {"key", "type", "value"};
+    private static final String[] EVENT_KEYS = {"name", "fields", "timestamp"};
+    private static final String[] RESOURCE_KEYS = {"tags"};
+    private static final String[] REFERENCE_KEYS = {"refType", "traceID", "spanID"};
+
+    private static final int STRING = TAttributeType.STRING.getValue();
+    private static final int BOOLEAN = TAttributeType.BOOLEAN.getValue();
+    private static final int LONG = TAttributeType.LONG.getValue();
+    private static final int DOUBLE = TAttributeType.DOUBLE.getValue();
+
+    /**
+     * Compact protocol type ids.
+     */
+    private static final int CT_BOOLEAN_TRUE = 1;
+    private static final int CT_BOOLEAN_FALSE = 2;
+    private static final int CT_I32 = 5;
+    private static final int CT_I64 = 6;
+    private static final int CT_DOUBLE = 7;
+    private static final int CT_BINARY = 8;
+    private static final int CT_LIST = 9;
+    private static final int CT_STRUCT = 12;
+
+    private static final int V_NULL = 0;
+    private static final int V_STRING = 1;
+    private static final int V_NUMBER = 2;
+    private static final int V_TRUE = 3;
+    private static final int V_FALSE = 4;
+    private static final int V_RAW = 5;
+
+    /**
+     * A slice of {@link #text} packed as start << 32 | length.
+     */
+    private static final long NULL = -1L;
+
+    private static final int INITIAL_BUFFER = 1024;
+
+    private char[] line = new char[INITIAL_BUFFER];
+
+    private final int[] fieldStart = new int[MessageUtil.COUNT];
+
+    private final int[] fieldEnd = new int[MessageUtil.COUNT];
+
+    private char[] text = new char[INITIAL_BUFFER];
+
+    private int textLength;
+
+    private int pos;
+
+    private int end;
+
+    private boolean lineBreakEscapes;
+
+    private int valueKind;
+
+    private long value;
+
+    private Attr[] attrs = new Attr[0];
+
+    private int attrCount;
+
+    private boolean collectSpecial;
+
+    private int kindAttr;
+
+    private int serviceAttr;
+
+    private int ipAttr;
+
+    private int hostAttr;
+
+    private int tagsFrom;
+
+    private int tagsTo;
+
+    private boolean hasResource;
+
+    private int resourceFrom;
+
+    private int resourceTo;
+
+    private Event[] events = new Event[0];
+
+    private int eventCount;
+
+    private Link[] links = new Link[0];
+
+    private int linkCount;
+
+    private long parentTraceId;
+
+    private long parentSpanId;
+
+    private boolean hasParent;
+
+    private long startNanos;
+
+    private long endNanos;
+
+    private int status;
+
+    private byte[] buffer = new byte[INITIAL_BUFFER];
+
+    private int size;
+
+    private final int[] fieldIdStack = new int[8];
+
+    private int depth;
+
+    private int lastFieldId;
+
+    private String serviceName;
+
+    private SpanLineEncoder() {
+    }
+
+    public static SpanLineEncoder get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * @return false if the line is not a valid span, the error is logged like {@link TraceUtil} does
+     */
+    public boolean encode(String spanStr) {
+        size = 0;
+        serviceName = null;
+        try {
+            if (!split(spanStr)) {
+                log.error("message count illegal : " + spanStr);
+                return false;
+            }
+            parse();
+            write();
+            return true;
+        } catch (RuntimeException e) {
+            size = 0;
+            serviceName = null;
+            log.error("Failed to convert span to thrift,spanStr={}", spanStr, e);
+            return false;
+        }
+    }
+
+    /**
+     * tags["service.name"] of the last encoded span, or null.
+     */
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    /**
+     * The thrift bytes of the last encoded span.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * The thrift bytes of the last encoded span in the form they had on the wire so far: the UTF-8 encoding of
+     * {@code new String(bytes, ISO_8859_1)}, i.e. what the kafka StringSerializer writes for that String.
+     */
+    public byte[] toUtf8Latin1() {
+        int length = size;
+        for (int i = 0; i < size; i++) {
+            if (buffer[i] < 0) {
+                length++;
+            }
+        }
+        byte[] ret = new byte[length];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            byte b = buffer[i];
+            if (b >= 0) {
+                ret[n++] = b;
+            } else {
+                ret[n++] = (byte) (0xC0 | ((b & 0xFF) >>> 6));
+                ret[n++] = (byte) (0x80 | (b & 0x3F));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Drops "\r\n" like TraceUtil, then locates the message part after " ||| " (or " | ") and its fields.
+     */
+    private boolean split(String spanStr) {
+        int n = spanStr.length();
+        if (line.length < n) {
+            line = new char[Math.max(n, line.length * 2)];
+        }
+        spanStr.getChars(0, n, line, 0);
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            char c = line[i];
+            if (c == '\r' && i + 1 < n && line[i + 1] == '\n') {
+                i++;
+                continue;
+            }
+            line[length++] = c;
+        }
+        char[] delimiter = LOG_SPLIT;
+        int at = indexOf(delimiter, 0, length);
+        if (at < 0) {
+            delimiter = LOG_SPLIT_SHORT;
+            at = indexOf(delimiter, 0, length);
+            if (at < 0) {
+                return false;
+            }
+        }
+        int from = at + delimiter.length;
+        int to = indexOf(delimiter, from, length);
+        if (to < 0) {
+            to = length;
+        }
+        // String.split semantics: trailing empty fields do not count
+        int count = 0;
+        int nonEmpty = 0;
+        while (true) {
+            int next = indexOf(FIELD_SPLIT, from, to);
+            int fieldTo = next < 0 ? to : next;
+            if (count < MessageUtil.COUNT) {
+                fieldStart[count] = from;
+                fieldEnd[count] = fieldTo;
+            }
+            count++;
+            if (fieldTo > from || next < 0 && count == 1) {
+                nonEmpty = count;
+            }
+            if (next < 0) {
+                break;
+            }
+            from = next + FIELD_SPLIT.length;
+        }
+        return nonEmpty == MessageUtil.COUNT;
+    }
+
+    private int indexOf(char[] pattern, int from, int to) {
+        char first = pattern[0];
+        int last = to - pattern.length;
+        outer:
+        for (int i = from; i <= last; i++) {
+            if (line[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < pattern.length; j++) {
+                if (line[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private void parse() {
+        textLength = 0;
+        attrCount = 0;
+        kindAttr = -1;
+        serviceAttr = -1;
+        ipAttr = -1;
+        hostAttr = -1;
+
+        startNanos = parseLong(line, fieldStart[MessageUtil.START_TIME], fieldEnd[MessageUtil.START_TIME]);
+        endNanos = startNanos + parseLong(line, fieldStart[MessageUtil.DURATION], fieldEnd[MessageUtil.DURATION]);
+        status = toStatus(fieldStart[MessageUtil.STATUS_CODE], fieldEnd[MessageUtil.STATUS_CODE]);
+
+        begin(MessageUtil.TAGS, true);
+        if (!beginArray()) {
+            throw new IllegalArgumentException("tags is not a json array");
+        }
+        tagsFrom = attrCount;
+        collectSpecial = true;
+        parseAttributes();
+        tagsTo = attrCount;
+        expectEnd();
+        // tags["span.kind"] is the span kind, the resource tags do not count for it
+        int spanKindAttr = kindAttr;
+
+        begin(MessageUtil.EVENTS, true);
+        collectSpecial = false;
+        eventCount = -1;
+        if (beginArray()) {
+            eventCount = 0;
+            if (!consume(']')) {
+                do {
+                    parseEvent();
+                } while (nextElement(']'));
+            }
+        }
+        expectEnd();
+
+        begin(MessageUtil.REOUSCES, false);
+        hasResource = false;
+        if (beginObject()) {
+            collectSpecial = true;
+            if (!consume('}')) {
+                do {
+                    if (parseKey(RESOURCE_KEYS) == 0) {
+                        hasResource = true;
+                        resourceFrom = -1;
+                        skipWhitespace();
+                        if (!consumeLiteral("null")) {
+                            expect('[');
+                            int from = attrCount;
+                            parseAttributes();
+                            resourceFrom = from;
+                            resourceTo = attrCount;
+                        }
+                    } else {
+                        skipValue();
+                    }
+                } while (nextElement('}'));
+            }
+            collectSpecial = false;
+        }
+        expectEnd();
+
+        begin(MessageUtil.REFERERNCES, false);
+        hasParent = false;
+        linkCount = -1;
+        if (beginArray()) {
+            linkCount = 0;
+            if (!consume(']')) {
+                do {
+                    parseReference();
+                } while (nextElement(']'));
+            }
+        }
+        expectEnd();
+
+        kindAttr = spanKindAttr;
+        long service = specialValue(serviceAttr);
+        serviceName = service == NULL ? null : new String(text, start(service), length(service));
+    }
+
+    private void parseAttributes() {
+        if (consume(']')) {
+            return;
+        }
+        do {
+            parseAttribute();
+        } while (nextElement(']'));
+    }
+
+    private void parseAttribute() {
+        expect('{');
+        long key = NULL;
+        long type = NULL;
+        int kind = V_NULL;
+        long raw = NULL;
+        if (!consume('}')) {
+            do {
+                switch (parseKey(ATTRIBUTE_KEYS)) {
+                    case 0:
+                        parseValue();
+                        key = value;
+                        break;
+                    case 1:
+                        parseValue();
+                        type = value;
+                        break;
+                    case 2:
+                        parseValue();
+                        kind = valueKind;
+                        raw = value;
+                        break;
+                    default:
+                        skipValue();
+                        break;
+                }
+            } while (nextElement('}'));
+        }
+
+        Attr attr = nextAttr();
+        attr.key = key;
+        attr.type = toAttributeType(type);
+        attr.str = NULL;
+        attr.bits = 0;
+        if (attr.type == LONG) {
+            if (kind != V_STRING && kind != V_NUMBER) {
+                throw new IllegalArgumentException("not a long value");
+            }
+            attr.bits = parseLong(text, start(raw), start(raw) + length(raw));
+            // TraceUtil casts the json number to Long: fastjson reads one that fits an int as Integer
+            if (kind == V_NUMBER && attr.bits == (int) attr.bits) {
+                throw new IllegalArgumentException("not a Long value");
+            }
+        } else if (attr.type == DOUBLE) {
+            if (kind != V_STRING && kind != V_NUMBER) {
+                throw new IllegalArgumentException("not a double value");
+            }
+            // TraceUtil casts the json number to Double: fastjson only reads one with an exponent as Double
+            if (kind == V_NUMBER && !sliceContainsExponent(text, raw)) {
+                throw new IllegalArgumentException("not a Double value");
+            }
+            attr.bits = Double.doubleToLongBits(Double.parseDouble(new String(text, start(raw), length(raw))));
+        } else if (attr.type == BOOLEAN) {
+            if (kind == V_TRUE || kind == V_FALSE) {
+                attr.bits = kind == V_TRUE ? 1 : 0;
+            } else if (kind == V_STRING) {
+                attr.bits = sliceEqualsIgnoreCase(text, raw, "TRUE") ? 1 : 0;
+            } else {
+                throw new IllegalArgumentException("not a bool value");
+            }
+        } else {
+            // String.valueOf(value)
+            attr.str = kind == V_NULL ? append("null") : raw;
+        }
+
+        if (collectSpecial && key != NULL) {
+            int index = attrCount - 1;
+            if (sliceEquals(text, key, TAG_KEY_SPAN_KIND)) {
+                kindAttr = index;
+            } else if (sliceEquals(text, key, TAG_KEY_SERVICE_NAME)) {
+                serviceAttr = index;
+            } else if (sliceEquals(text, key, TAG_KEY_IP)) {
+                ipAttr = index;
+            } else if (sliceEquals(text, key, TAG_KEY_HOST)) {
+                hostAttr = index;
+            }
+        }
+    }
+
+    private void parseEvent() {
+        expect('{');
+        Event event = nextEvent();
+        event.name = NULL;
+        event.attrFrom = -1;
+        boolean hasTimestamp = false;
+        if (!consume('}')) {
+            do {
+                switch (parseKey(EVENT_KEYS)) {
+                    case 0:
+                        parseValue();
+                        event.name = valueKind == V_NULL ? NULL : value;
+                        break;
+                    case 1:
+                        expect('[');
+                        event.attrFrom = attrCount;
+                        parseAttributes();
+                        event.attrTo = attrCount;
+                        break;
+                    case 2:
+                        parseValue();
+                        if (valueKind == V_STRING) {
+                            event.epochNanos = parseLong(text, start(value), start(value) + length(value));
+                        } else if (valueKind == V_NUMBER) {
+                            event.epochNanos = toLong(value);
+                        } else {
+                            throw new IllegalArgumentException("event timestamp is not a number");
+                        }
+                        hasTimestamp = true;
+                        break;
+                    default:
+                        skipValue();
+                        break;
+                }
+            } while (nextElement('}'));
+        }
+        if (!hasTimestamp) {
+            throw new IllegalArgumentException("event without timestamp");
+        }
+    }
+
+    private void parseReference() {
+        expect('{');
+        long refType = NULL;
+        long traceId = NULL;
+        long spanId = NULL;
+        if (!consume('}')) {
+            do {
+                int key = parseKey(REFERENCE_KEYS);
+                if (key < 0) {
+                    skipValue();
+                    continue;
+                }
+                parseValue();
+                long slice = valueKind == V_NULL ? NULL : value;
+                if (key == 0) {
+                    refType = slice;
+                } else if (key == 1) {
+                    traceId = slice;
+                } else {
+                    spanId = slice;
+                }
+            } while (nextElement('}'));
+        }
+        if (refType != NULL && sliceEquals(text, refType, REF_TYPE_CHILD_OF)) {
+            hasParent = true;
+            parentTraceId = traceId;
+            parentSpanId = spanId;
+            return;
+        }
+        Link link = nextLink();
+        link.traceId = traceId;
+        link.spanId = spanId;
+    }
+
+    private void write() {
+        size = 0;
+        depth = 0;
+        lastFieldId = 0;
+
+        structBegin();
+        stringField(1, line, fieldStart[MessageUtil.TRACE_ID], fieldEnd[MessageUtil.TRACE_ID]);
+        stringField(2, line, fieldStart[MessageUtil.SPAN_ID], fieldEnd[MessageUtil.SPAN_ID]);
+        if (hasParent) {
+            fieldBegin(CT_STRUCT, 5);
+            writeSpanContext(parentTraceId, parentSpanId);
+        }
+        if (hasResource) {
+            fieldBegin(CT_STRUCT, 6);
+            structBegin();
+            if (resourceFrom >= 0) {
+                fieldBegin(CT_STRUCT, 1);
+                writeAttributes(resourceFrom, resourceTo);
+            }
+            structEnd();
+        }
+        stringField(8, line, fieldStart[MessageUtil.SPAN_NAME], fieldEnd[MessageUtil.SPAN_NAME]);
+        int kind = toKind();
+        if (kind > 0) {
+            i32Field(9, kind);
+        }
+        i64Field(10, startNanos);
+        fieldBegin(CT_STRUCT, 11);
+        writeAttributes(tagsFrom, tagsTo);
+        if (eventCount >= 0) {
+            fieldBegin(CT_LIST, 12);
+            listBegin(CT_STRUCT, eventCount);
+            for (int i = 0; i < eventCount; i++) {
+                Event event = events[i];
+                structBegin();
+                textField(1, event.name);
+                if (event.attrFrom >= 0) {
+                    fieldBegin(CT_STRUCT, 2);
+                    writeAttributes(event.attrFrom, event.attrTo);
+                }
+                i64Field(3, event.epochNanos);
+                if (event.attrFrom >= 0) {
+                    i32Field(4, event.attrTo - event.attrFrom);
+                }
+                structEnd();
+            }
+        }
+        if (linkCount >= 0) {
+            fieldBegin(CT_LIST, 13);
+            listBegin(CT_STRUCT, linkCount);
+            for (int i = 0; i < linkCount; i++) {
+                structBegin();
+                fieldBegin(CT_STRUCT, 1);
+                writeSpanContext(links[i].traceId, links[i].spanId);
+                structEnd();
+            }
+        }
+        if (status > 0) {
+            i32Field(14, status);
+        }
+        i64Field(15, endNanos);
+        i32Field(17, Math.max(eventCount, 0));
+        i32Field(18, Math.max(linkCount, 0));
+        i32Field(19, tagsTo - tagsFrom);
+        fieldBegin(CT_STRUCT, 20);
+        structBegin();
+        textField(1, specialValue(ipAttr));
+        textField(2, specialValue(hostAttr));
+        textField(3, specialValue(serviceAttr));
+        structEnd();
+        structEnd();
+    }
+
+    private void writeAttributes(int from, int to) {
+        structBegin();
+        fieldBegin(CT_LIST, 1);
+        listBegin(CT_STRUCT, to - from);
+        for (int i = from; i < to; i++) {
+            structBegin();
+            i32Field(1, attrs[i].type);
+            textField(2, attrs[i].key);
+            structEnd();
+        }
+        fieldBegin(CT_LIST, 2);
+        listBegin(CT_STRUCT, to - from);
+        for (int i = from; i < to; i++) {
+            Attr attr = attrs[i];
+            structBegin();
+            if (attr.type == STRING) {
+                textField(1, attr.str);
+            } else if (attr.type == BOOLEAN) {
+                fieldBegin(attr.bits != 0 ? CT_BOOLEAN_TRUE : CT_BOOLEAN_FALSE, 2);
+            } else if (attr.type == LONG) {
+                i64Field(3, attr.bits);
+            } else {
+                fieldBegin(CT_DOUBLE, 4);
+                writeFixedLong(attr.bits);
+            }
+            structEnd();
+        }
+        structEnd();
+    }
+
+    private void writeSpanContext(long traceId, long spanId) {
+        structBegin();
+        textField(1, traceId);
+        textField(2, spanId);
+        structEnd();
+    }
+
+    /**
+     * The string value of a special tag, null when it is absent or not a string tag, as TValue.getStringValue().
+     */
+    private long specialValue(int index) {
+        if (index < 0 || attrs[index].type != STRING) {
+            return NULL;
+        }
+        return attrs[index].str;
+    }
+
+    /**
+     * @return the TKind value, 0 when the kind tag is not a string and the kind is left unset
+     */
+    private int toKind() {
+        if (kindAttr < 0) {
+            return TKind.INTERNAL.getValue();
+        }
+        long kind = specialValue(kindAttr);
+        if (kind == NULL) {
+            return 0;
+        }
+        if (sliceEqualsIgnoreCase(text, kind, "CLIENT")) {
+            return TKind.CLIENT.getValue();
+        }
+        if (sliceEqualsIgnoreCase(text, kind, "SERVER")) {
+            return TKind.SERVER.getValue();
+        }
+        if (sliceEqualsIgnoreCase(text, kind, "CONSUMER")) {
+            return TKind.CONSUMER.getValue();
+        }
+        if (sliceEqualsIgnoreCase(text, kind, "PRODUCER")) {
+            return TKind.PRODUCER.getValue();
+        }
+        return TKind.INTERNAL.getValue();
+    }
+
+    /**
+     * @return the TStatus value, 0 for an unknown status
+     */
+    private int toStatus(int from, int to) {
+        long status = slice(from, to - from);
+        if (sliceEqualsIgnoreCase(line, status, "OK")) {
+            return TStatus.OK.getValue();
+        }
+        if (sliceEqualsIgnoreCase(line, status, "ERROR")) {
+            return TStatus.ERROR.getValue();
+        }
+        if (sliceEqualsIgnoreCase(line, status, "UNSET")) {
+            return TStatus.UNSET.getValue();
+        }
+        return 0;
+    }
+
+    private int toAttributeType(long type) {
+        if (type == NULL) {
+            throw new IllegalArgumentException("attribute without type");
+        }
+        if (sliceEqualsIgnoreCase(text, type, "INT64")) {
+            return LONG;
+        }
+        if (sliceEqualsIgnoreCase(text, type, "FLOAT64")) {
+            return DOUBLE;
+        }
+        if (sliceEqualsIgnoreCase(text, type, "STRING")) {
+            return STRING;
+        }
+        if (sliceEqualsIgnoreCase(text, type, "BOOL")) {
+            return BOOLEAN;
+        }
+        throw new IllegalArgumentException("unknown attribute type: " + new String(text, start(type), length(type)));
+    }
+
+    private long toLong(long number) {
+        int from = start(number);
+        int to = from + length(number);
+        for (int i = from; i < to; i++) {
+            char c = text[i];
+            if (c == '.' || c == 'e' || c == 'E') {
+                return (long) Double.parseDouble(new String(text, from, to - from));
+            }
+        }
+        return parseLong(text, from, to);
+    }
+
+    // ------------------------------------------------------------------ json reader
+
+    private void begin(int field, boolean escapes) {
+        pos = fieldStart[field];
+        end = fieldEnd[field];
+        lineBreakEscapes = escapes;
+    }
+
+    /**
+     * @return false for an empty field, which fastjson parses to null. A json null is an error for fastjson.
+     */
+    private boolean beginArray() {
+        if (pos == end) {
+            return false;
+        }
+        skipWhitespace();
+        expect('[');
+        return true;
+    }
+
+    private boolean beginObject() {
+        if (pos == end) {
+            return false;
+        }
+        skipWhitespace();
+        expect('{');
+        return true;
+    }
+
+    private void expectEnd() {
+        skipWhitespace();
+        if (pos != end) {
+            throw error("unexpected trailing text");
+        }
+    }
+
+    private boolean nextElement(char close) {
+        skipWhitespace();
+        if (pos < end) {
+            char c = line[pos++];
+            if (c == ',') {
+                return true;
+            }
+            if (c == close) {
+                return false;
+            }
+        }
+        throw error("expected ',' or '" + close + "'");
+    }
+
+    /**
+     * Reads an object key and the colon after it.
+     *
+     * @return the index of the key in names, or -1
+     */
+    private int parseKey(String[] names) {
+        skipWhitespace();
+        if (pos >= end || line[pos] != '"') {
+            throw error("expected a key");
+        }
+        int mark = textLength;
+        long key = parseString();
+        int ret = -1;
+        for (int i = 0; i < names.length; i++) {
+            if (sliceEquals(text, key, names[i])) {
+                ret = i;
+                break;
+            }
+        }
+        textLength = mark;
+        expect(':');
+        return ret;
+    }
+
+    /**
+     * Reads any json value into {@link #valueKind} and {@link #value}. Objects and arrays are kept as their text.
+     */
+    private void parseValue() {
+        skipWhitespace();
+        if (pos >= end) {
+            throw error("expected a value");
+        }
+        char c = line[pos];
+        int from = pos;
+        if (c == '"') {
+            valueKind = V_STRING;
+            value = parseString();
+            return;
+        }
+        if (c == '{' || c == '[') {
+            skipComposite();
+            valueKind = V_RAW;
+        } else if (consumeLiteral("true")) {
+            valueKind = V_TRUE;
+        } else if (consumeLiteral("false")) {
+            valueKind = V_FALSE;
+        } else if (consumeLiteral("null")) {
+            valueKind = V_NULL;
+            value = NULL;
+            return;
+        } else {
+            while (pos < end && isNumberChar(line[pos])) {
+                pos++;
+            }
+            if (pos == from) {
+                throw error("unexpected character");
+            }
+            valueKind = V_NUMBER;
+        }
+        value = append(line, from, pos - from);
+    }
+
+    private void skipValue() {
+        int mark = textLength;
+        parseValue();
+        textLength = mark;
+    }
+
+    private void skipComposite() {
+        int nesting = 0;
+        while (pos < end) {
+            char c = line[pos++];
+            if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                nesting++;
+            } else if (c == '}' || c == ']') {
+                if (--nesting == 0) {
+                    return;
+                }
+            }
+        }
+        throw error("unterminated value");
+    }
+
+    private void skipString() {
+        while (pos < end) {
+            char c = line[pos++];
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\' && !lineBreakEscapes) {
+                pos++;
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    /**
+     * Decodes a string into {@link #text}. With lineBreakEscapes a backslash is literal and ##r' ##n ##r ##t ##'
+     * stand for " \n \r \t ", as TraceUtil.decodeLineBreak followed by the json unescape.
+     */
+    private long parseString() {
+        pos++;
+        int from = textLength;
+        while (pos < end) {
+            char c = line[pos++];
+            if (c == '"') {
+                return slice(from, textLength - from);
+            }
+            if (lineBreakEscapes) {
+                if (c == '#' && pos + 1 < end && line[pos] == '#') {
+                    char escape = line[pos + 1];
+                    if (escape == 'r') {
+                        if (pos + 2 < end && line[pos + 2] == '\'') {
+                            c = '"';
+                            pos += 3;
+                        } else {
+                            c = '\r';
+                            pos += 2;
+                        }
+                    } else if (escape == 'n') {
+                        c = '\n';
+                        pos += 2;
+                    } else if (escape == 't') {
+                        c = '\t';
+                        pos += 2;
+                    } else if (escape == '\'') {
+                        c = '"';
+                        pos += 2;
+                    }
+                }
+            } else if (c == '\\') {
+                c = unescape();
+            }
+            appendChar(c);
+        }
+        throw error("unterminated string");
+    }
+
+    private char unescape() {
+        if (pos >= end) {
+            throw error("unterminated escape");
+        }
+        char c = line[pos++];
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+            case '\'':
+                return c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                if (pos + 4 > end) {
+                    throw error("bad unicode escape");
+                }
+                int code = Integer.parseInt(new String(line, pos, 4), 16);
+                pos += 4;
+                return (char) code;
+            default:
+                throw error("bad escape");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && line[pos] <= ' ') {
+            pos++;
+        }
+    }
+
+    private boolean consume(char c) {
+        skipWhitespace();
+        if (pos < end && line[pos] == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!consume(c)) {
+            throw error("expected '" + c + "'");
+        }
+    }
+
+    private boolean consumeLiteral(String literal) {
+        int length = literal.length();
+        if (pos + length > end) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (line[pos + i] != literal.charAt(i)) {
+                return false;
+            }
+        }
+        pos += length;
+        return true;
+    }
+
+    private static boolean isNumberChar(char c) {
+        return c >= '0' && c <= '9' || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at " + pos);
+    }
+
+    // ------------------------------------------------------------------ text slices
+
+    private static long slice(int start, int length) {
+        return ((long) start << 32) | length;
+    }
+
+    private static int start(long slice) {
+        return (int) (slice >>> 32);
+    }
+
+    private static int length(long slice) {
+        return (int) slice;
+    }
+
+    private void appendChar(char c) {
+        if (textLength == text.length) {
+            text = Arrays.copyOf(text, text.length * 2);
+        }
+        text[textLength++] = c;
+    }
+
+    private long append(char[] src, int from, int length) {
+        if (textLength + length > text.length) {
+            text = Arrays.copyOf(text, Math.max(textLength + length, text.length * 2));
+        }
+        System.arraycopy(src, from, text, textLength, length);
+        textLength += length;
+        return slice(textLength - length, length);
+    }
+
+    private long append(String s) {
+        int from = textLength;
+        for (int i = 0; i < s.length(); i++) {
+            appendChar(s.charAt(i));
+        }
+        return slice(from, s.length());
+    }
+
+    private static boolean sliceEquals(char[] chars, long slice, String s) {
+        int length = length(slice);
+        if (length != s.length()) {
+            return false;
+        }
+        int from = start(slice);
+        for (int i = 0; i < length; i++) {
+            if (chars[from + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Against an upper case ascii constant, as toUpperCase().equals(s).
+     */
+    private static boolean sliceEqualsIgnoreCase(char[] chars, long slice, String upper) {
+        int length = length(slice);
+        if (length != upper.length()) {
+            return false;
+        }
+        int from = start(slice);
+        for (int i = 0; i < length; i++) {
+            char c = chars[from + i];
+            if (c >= 'a' && c <= 'z') {
+                c -= 'a' - 'A';
+            }
+            if (c != upper.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sliceContainsExponent(char[] chars, long slice) {
+        int from = start(slice);
+        int to = from + length(slice);
+        for (int i = from; i < to; i++) {
+            if (chars[i] == 'e' || chars[i] == 'E') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Long.parseLong without the substring, falling back to it for what the fast path does not cover.
+     */
+    private static long parseLong(char[] chars, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i++;
+        }
+        if (i == to || to - i > 18) {
+            return Long.parseLong(new String(chars, from, to - from));
+        }
+        long ret = 0;
+        for (; i < to; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + new String(chars, from, to - from) + "\"");
+            }
+            ret = ret * 10 + digit;
+        }
+        return negative ? -ret : ret;
+    }
+
+    private Attr nextAttr() {
+        if (attrCount == attrs.length) {
+            attrs = grow(attrs, Attr::new);
+        }
+        return attrs[attrCount++];
+    }
+
+    private Event nextEvent() {
+        if (eventCount == events.length) {
+            events = grow(events, Event::new);
+        }
+        return events[eventCount++];
+    }
+
+    private Link nextLink() {
+        if (linkCount == links.length) {
+            links = grow(links, Link::new);
+        }
+        return links[linkCount++];
+    }
+
+    private static <T> T[] grow(T[] array, Supplier<T> factory) {
+        T[] ret = Arrays.copyOf(array, Math.max(16, array.length * 2));
+        for (int i = array.length; i < ret.length; i++) {
+            ret[i] = factory.get();
+        }
+        return ret;
+    }
+
+    // ------------------------------------------------------------------ compact protocol
+
+    private void structBegin() {
+        fieldIdStack[depth++] = lastFieldId;
+        lastFieldId = 0;
+    }
+
+    private void structEnd() {
+        writeByte(0);
+        lastFieldId = fieldIdStack[--depth];
+    }
+
+    private void fieldBegin(int type, int id) {
+        int delta = id - lastFieldId;
+        if (delta > 0 && delta <= 15) {
+            writeByte(delta << 4 | type);
+        } else {
+            writeByte(type);
+            writeVarint32((id << 1) ^ (id >> 31));
+        }
+        lastFieldId = id;
+    }
+
+    private void listBegin(int elementType, int count) {
+        if (count <= 14) {
+            writeByte(count << 4 | elementType);
+        } else {
+            writeByte(0xF0 | elementType);
+            writeVarint32(count);
+        }
+    }
+
+    private void i32Field(int id, int n) {
+        fieldBegin(CT_I32, id);
+        writeVarint32((n << 1) ^ (n >> 31));
+    }
+
+    private void i64Field(int id, long n) {
+        fieldBegin(CT_I64, id);
+        writeVarint64((n << 1) ^ (n >> 63));
+    }
+
+    private void textField(int id, long slice) {
+        if (slice != NULL) {
+            stringField(id, text, start(slice), start(slice) + length(slice));
+        }
+    }
+
+    private void stringField(int id, char[] chars, int from, int to) {
+        fieldBegin(CT_BINARY, id);
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(chars[i + 1])) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // String.getBytes(UTF_8) writes '?' for a lone surrogate
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        writeVarint32(length);
+        ensure(length);
+        byte[] b = buffer;
+        int n = size;
+        for (int i = from; i < to; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                b[n++] = (byte) c;
+            } else if (c < 0x800) {
+                b[n++] = (byte) (0xC0 | (c >> 6));
+                b[n++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(chars[i + 1])) {
+                int cp = Character.toCodePoint(c, chars[++i]);
+                b[n++] = (byte) (0xF0 | (cp >> 18));
+                b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                b[n++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                b[n++] = '?';
+            } else {
+                b[n++] = (byte) (0xE0 | (c >> 12));
+                b[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        size = n;
+    }
+
+    private void writeVarint32(int n) {
+        ensure(5);
+        while ((n & ~0x7F) != 0) {
+            buffer[size++] = (byte) ((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        buffer[size++] = (byte) n;
+    }
+
+    private void writeVarint64(long n) {
+        ensure(10);
+        while ((n & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        buffer[size++] = (byte) n;
+    }
+
+    /**
+     * Doubles go little endian in the compact protocol.
+     */
+    private void writeFixedLong(long bits) {
+        ensure(8);
+        for (int i = 0; i < 8; i++) {
+            buffer[size++] = (byte) (bits >> (8 * i));
+        }
+    }
+
+    private void writeByte(int b) {
+        ensure(1);
+        buffer[size++] = (byte) b;
+    }
+
+    private void ensure(int n) {
+        if (size + n > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(size + n, buffer.length * 2));
+        }
+    }
+
+    private static final class Attr {
+        long key;
+        int type;
+        long str;
+        long bits;
+    }
+
+    private static final class Event {
+        long name;
+        int attrFrom;
+        int attrTo;
+        long epochNanos;
+    }
+
+    private static final class Link {
+        long traceId;
+        long spanId;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.log.agent.export;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ozhera.log.api.model.msg.LineMessage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Hands the lines of one channel from its file readers to a single exporter thread.
+ * <p>
+ * Readers publish into a bounded multi-producer single-consumer ring, claiming a slot with one CAS,
+ * and park while the ring is full, so a slow sink slows the readers down instead of growing the heap.
+ * The exporter drains the ring and exports a batch once it holds batchSize lines or its first line
+ * has waited lingerMillis, no reader ever waits for the network.
+ */
+@Slf4j
+public class LineBatchPipeline {
+
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final String name;
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final LineMessage[] lines;
+
+    /**
+     * Collect time of every slot, to measure the latency of a line until its batch is exported.
+     */
+    private final long[] readTimes;
+
+    /**
+     * Slot i is free for the producer at position p when its sequence is p, readable by the consumer at
+     * position p when it is p + 1.
+     */
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Only written by the exporter thread.
+     */
+    private volatile long head;
+
+    private final long lingerNanos;
+
+    private final IntSupplier batchSize;
+
+    private final Consumer<List<LineMessage>> sink;
+
+    private volatile Thread exporterThread;
+
+    private volatile boolean waiting;
+
+    private volatile boolean closed;
+
+    private final LongAdder readerBlockedNanos = new LongAdder();
+
+    private volatile long exportedBatches;
+
+    private volatile long exportedLines;
+
+    private volatile long lineLatencyMillis;
+
+    private volatile int lastBatchSize;
+
+    private volatile long lastBatchMaxLatencyMillis;
+
+    public LineBatchPipeline(String name, int capacity, long lingerMillis, IntSupplier batchSize, Consumer<List<LineMessage>> sink) {
+        this.name = name;
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.lines = new LineMessage[this.capacity];
+        this.readTimes = new long[this.capacity];
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, lingerMillis));
+        this.batchSize = batchSize;
+        this.sink = sink;
+    }
+
+    public void start() {
+        exporterThread = Thread.ofVirtual().name("log-export-" + name).start(this::exportLoop);
+    }
+
+    /**
+     * Publish one line, parking while the ring is full.
+     *
+     * @param line     line to export
+     * @param readTime collect time of the line in millis
+     * @return false if the pipeline has been closed and the line is dropped
+     */
+    public boolean put(LineMessage line, long readTime) {
+        long blockedSince = 0;
+        while (!closed) {
+            long pos = tail.get();
+            int index = (int) (pos & mask);
+            long sequence = sequences.get(index);
+            if (sequence == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    lines[index] = line;
+                    readTimes[index] = readTime;
+                    sequences.set(index, pos + 1);
+                    if (blockedSince != 0) {
+                        readerBlockedNanos.add(System.nanoTime() - blockedSince);
+                    }
+                    if (waiting) {
+                        long queued = pos + 1 - head;
+                        if (queued == 1 || queued >= batchSize.getAsInt()) {
+                            LockSupport.unpark(exporterThread);
+                        }
+                    }
+                    return true;
+                }
+            } else if (sequence < pos) {
+                // the slot still holds the line of the previous lap: ring is full
+                if (blockedSince == 0) {
+                    blockedSince = System.nanoTime();
+                }
+                LockSupport.unpark(exporterThread);
+                LockSupport.parkNanos(this, FULL_PARK_NANOS);
+            }
+            // else another reader claimed pos first, retry with the new tail
+        }
+        if (blockedSince != 0) {
+            readerBlockedNanos.add(System.nanoTime() - blockedSince);
+        }
+        return false;
+    }
+
+    /**
+     * Stop accepting lines and wait for the exporter to flush what is already queued.
+     */
+    public void close(long timeoutMillis) {
+        closed = true;
+        Thread thread = exporterThread;
+        if (null == thread) {
+            return;
+        }
+        LockSupport.unpark(thread);
+        try {
+            if (!thread.join(Duration.ofMillis(timeoutMillis))) {
+                log.warn("export pipeline:{} not flushed in {}ms, queued:{}", name, timeoutMillis, queued());
+                thread.interrupt();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void exportLoop() {
+        List<LineMessage> batch = new ArrayList<>();
+        long[] readTimeStats = new long[2];
+        long firstLineNanos = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            boolean stopping = closed;
+            int max = Math.max(1, batchSize.getAsInt());
+            drain(batch, max - batch.size(), readTimeStats);
+            if (!batch.isEmpty() && 0 == firstLineNanos) {
+                firstLineNanos = System.nanoTime();
+            }
+            if (batch.size() >= max || (!batch.isEmpty() && (stopping || System.nanoTime() - firstLineNanos >= lingerNanos))) {
+                export(batch, readTimeStats);
+                firstLineNanos = 0;
+                continue;
+            }
+            if (stopping && batch.isEmpty() && tail.get() == head) {
+                return;
+            }
+            long parkNanos = batch.isEmpty() ? lingerNanos : lingerNanos - (System.nanoTime() - firstLineNanos);
+            waiting = true;
+            // recheck after announcing the wait, a reader may have published before it saw the flag
+            if (tail.get() - head < max) {
+                LockSupport.parkNanos(this, Math.max(1, parkNanos));
+            }
+            waiting = false;
+        }
+    }
+
+    private void drain(List<LineMessage> batch, int max, long[] readTimeStats) {
+        long position = head;
+        int count = 0;
+        while (count < max) {
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            batch.add(lines[index]);
+            long readTime = readTimes[index];
+            readTimeStats[0] += readTime;
+            if (0 == readTimeStats[1] || readTime < readTimeStats[1]) {
+                readTimeStats[1] = readTime;
+            }
+            lines[index] = null;
+            sequences.lazySet(index, position + capacity);
+            position++;
+            count++;
+        }
+        head = position;
+    }
+
+    private void export(List<LineMessage> batch, long[] readTimeStats) {
+        int size = batch.size();
+        try {
+            sink.accept(batch);
+        } catch (Throwable e) {
+            log.error("export pipeline:{} export {} lines error", name, size, e);
+        }
+        long now = System.currentTimeMillis();
+        exportedBatches++;
+        exportedLines += size;
+        lineLatencyMillis += size * now - readTimeStats[0];
+        lastBatchSize = size;
+        lastBatchMaxLatencyMillis = now - readTimeStats[1];
+        readTimeStats[0] = 0;
+        readTimeStats[1] = 0;
+        batch.clear();
+    }
+
+    /**
+     * Lines published and not yet taken by the exporter.
+     */
+    public long queued() {
+        return Math.max(0, tail.get() - head);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Total time readers spent parked on a full ring.
+     */
+    public long getReaderBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(readerBlockedNanos.sum());
+    }
+
+    public long getExportedBatches() {
+        return exportedBatches;
+    }
+
+    public long getExportedLines() {
+        return exportedLines;
+    }
+
+    /**
+     * Sum over the exported lines of the time from collect to export.
+     */
+    public long getLineLatencyMillis() {
+        return lineLatencyMillis;
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public long getLastBatchMaxLatencyMillis() {
+        return lastBatchMaxLatencyMillis;
+    }
+}
@@ -19,9 +19,8 @@
 package org.apache.ozhera.log.agent.extension;
 
 import com.google.common.collect.Lists;
-import org.apache.ozhera.tspandata.TSpanData;
 import org.apache.ozhera.log.agent.common.HashUtil;
-import org.apache.ozhera.log.agent.common.trace.TraceUtil;
+import org.apache.ozhera.log.agent.common.trace.SpanLineEncoder;
 import org.apache.ozhera.log.agent.export.MsgExporter;
 import org.apache.ozhera.log.api.enums.LogTypeEnum;
 import org.apache.ozhera.log.api.model.msg.LineMessage;
@@ -30,6 +29,7 @@ import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.header.internals.RecordHeader;
 
 import java.nio.charset.StandardCharsets;
 import java.util.List;
@@ -40,6 +40,13 @@ import static org.apache.ozhera.log.common.Constant.COMMON_MQ_PREFIX;
 @Slf4j
 public class KafkaExporter implements MsgExporter {
 
+    /**
+     * Marks a span record whose value is the raw thrift bytes, trace-etl reads the same header.
+     */
+    public static final String SPAN_FORMAT_HEADER = "hera-span-format";
+
+    private static final byte[] SPAN_FORMAT_THRIFT = "thrift".getBytes(StandardCharsets.UTF_8);
+
     private Producer producer;
 
     private String topic;
@@ -52,6 +59,8 @@ public class KafkaExporter implements MsgExporter {
 
     private Integer maxPartitionPer = 4;
 
+    private boolean binarySpan;
+
     public KafkaExporter(Producer mqProducer, String tag) {
         this.producer = mqProducer;
         this.tag = tag;
@@ -76,7 +85,7 @@ public class KafkaExporter implements MsgExporter {
         List<PartitionInfo> partitions = producer.partitionsFor(topic);
 
         for (LineMessage message : messageList) {
-            ProducerRecord<String, String> record = buildProducerRecord(message, partitions);
+            ProducerRecord<String, byte[]> record = buildProducerRecord(message, partitions);
             if (record != null) {
                 producer.send(record, (RecordMetadata metadata, Exception e) -> {
                     if (null != e) {
@@ -87,39 +96,42 @@ public class KafkaExporter implements MsgExporter {
         }
     }
 
-    private ProducerRecord<String, String> buildProducerRecord(LineMessage message, List<PartitionInfo> partitions) {
+    private ProducerRecord<String, byte[]> buildProducerRecord(LineMessage message, List<PartitionInfo> partitions) {
         String messageType = message.getProperties(LineMessage.KEY_MESSAGE_TYPE);
-        ProducerRecord<String, String> record = null;
+        ProducerRecord<String, byte[]> record = null;
 
         if (String.valueOf(LogTypeEnum.ORIGIN_LOG.getType()).equals(messageType)) {
-            record = new ProducerRecord<>(topic, tag, gson.toJson(message.getMsgBody()));
+            record = new ProducerRecord<>(topic, tag, toBytes(gson.toJson(message.getMsgBody())));
         } else if (OPENTELEMETRY_TYPE.equals(messageType)) {
-            String msgBody = message.getMsgBody();
-            TSpanData tSpanData = TraceUtil.toTSpanData(msgBody);
-
-            if (tSpanData != null) {
-                byte[] bytes = TraceUtil.toBytes(tSpanData);
-                if (bytes != null) {
-                    String spanMessage = new String(bytes, StandardCharsets.ISO_8859_1);
-                    record = new ProducerRecord<>(topic, tag, spanMessage);
-
-                    String appName = tSpanData.getExtra().getServiceName();
-                    if (appName != null) {
-                        int key = ThreadLocalRandom.current().nextInt(maxPartitionPer);
-                        appName = String.format("p%s%s", key, appName);
-                        int hash = HashUtil.consistentHash(appName, partitions.size());
-                        int partition = partitions.get(hash).partition();
-                        record = new ProducerRecord<>(topic, partition, tag, spanMessage);
-                    }
+            SpanLineEncoder encoder = SpanLineEncoder.get();
+
+            if (encoder.encode(message.getMsgBody())) {
+                byte[] spanMessage = binarySpan ? encoder.toByteArray() : encoder.toUtf8Latin1();
+                Integer partition = null;
+
+                String appName = encoder.getServiceName();
+                if (appName != null) {
+                    int key = ThreadLocalRandom.current().nextInt(maxPartitionPer);
+                    appName = String.format("p%s%s", key, appName);
+                    int hash = HashUtil.consistentHash(appName, partitions.size());
+                    partition = partitions.get(hash).partition();
+                }
+                record = new ProducerRecord<>(topic, partition, tag, spanMessage);
+                if (binarySpan) {
+                    record.headers().add(new RecordHeader(SPAN_FORMAT_HEADER, SPAN_FORMAT_THRIFT));
                 }
             }
         } else {
-            record = new ProducerRecord<>(topic, tag, gson.toJson(message));
+            record = new ProducerRecord<>(topic, tag, toBytes(gson.toJson(message)));
         }
 
         return record;
     }
 
+    private static byte[] toBytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
     public void setTopic(String topic) {
         this.topic = topic;
         if (topic.startsWith(COMMON_MQ_PREFIX)) {
@@ -127,6 +139,10 @@ public class KafkaExporter implements MsgExporter {
         }
     }
 
+    public void setBinarySpan(boolean binarySpan) {
+        this.binarySpan = binarySpan;
+    }
+
     public Integer getBatchSize() {
         return batchSize;
     }
@@ -52,6 +52,13 @@ public class KafkaService implements OutPutService {
     @Value("$kafka.sll.location")
     private String kafkaSllLocation;
 
+    /**
+     * Send spans as raw thrift bytes, tagged with a header, instead of the UTF-8 form of their latin1 text.
+     * Needs a trace-etl that reads the topic as bytes (mq.consumer.bytes).
+     */
+    @Value("$trace.span.binary")
+    private String traceSpanBinary;
+
     public void init() {
         producerMap = new ConcurrentHashMap<>(128);
     }
@@ -94,6 +101,7 @@ public class KafkaService implements OutPutService {
         KafkaExporter rmqExporter = new KafkaExporter(mqProducer, output.getTag());
         rmqExporter.setTopic(kafkaOutput.getTopic());
         rmqExporter.setBatchSize(kafkaOutput.getBatchExportSize());
+        rmqExporter.setBinarySpan(Objects.equals("true", traceSpanBinary));
 
         return rmqExporter;
     }
@@ -120,7 +128,7 @@ public class KafkaService implements OutPutService {
         // set other properties
         properties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, clusterInfo);
         properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringSerializer");
-        properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringSerializer");
+        properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.ByteArraySerializer");
         properties.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
         return new KafkaProducer<>(properties);
     }
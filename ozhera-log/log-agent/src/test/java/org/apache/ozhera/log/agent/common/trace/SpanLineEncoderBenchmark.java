@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.log.agent.common.trace;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spans per second on one agent core, from the trace log line to the kafka record value, over the lines of
+ * trace-span.log: {@link TraceUtil} (fastjson, TSpanData, TSerializer, latin1 String, StringSerializer)
+ * against {@link SpanLineEncoder} for the same wire bytes and for the raw thrift bytes.
+ * Run with -prof gc, gc.alloc.rate.norm is the bytes allocated per span.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class SpanLineEncoderBenchmark {
+
+    private String[] lines;
+
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        lines = SpanLineEncoderTest.spanLines().toArray(new String[0]);
+    }
+
+    @Benchmark
+    public byte[] traceUtil() {
+        byte[] bytes = TraceUtil.toBytes(TraceUtil.toTSpanData(lines[nextLine()]));
+        return new String(bytes, StandardCharsets.ISO_8859_1).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] encoder() {
+        SpanLineEncoder encoder = SpanLineEncoder.get();
+        encoder.encode(lines[nextLine()]);
+        return encoder.toUtf8Latin1();
+    }
+
+    @Benchmark
+    public byte[] encoderBinary() {
+        SpanLineEncoder encoder = SpanLineEncoder.get();
+        encoder.encode(lines[nextLine()]);
+        return encoder.toByteArray();
+    }
+
+    private int nextLine() {
+        int i = next++;
+        if (next == lines.length) {
+            next = 0;
+        }
+        return i;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SpanLineEncoderBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.log.agent.common.trace;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SpanLineEncoderTest {
+
+    static List<String> spanLines() throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (InputStream in = SpanLineEncoderTest.class.getResourceAsStream("/trace-span.log");
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void sameBytesAsTraceUtil() throws IOException {
+        SpanLineEncoder encoder = SpanLineEncoder.get();
+        for (String line : spanLines()) {
+            byte[] expected = TraceUtil.toBytes(TraceUtil.toTSpanData(line));
+            Assert.assertTrue(line, encoder.encode(line));
+            Assert.assertArrayEquals(line, expected, encoder.toByteArray());
+            Assert.assertArrayEquals(line, new String(expected, StandardCharsets.ISO_8859_1).getBytes(StandardCharsets.UTF_8),
+                    encoder.toUtf8Latin1());
+            Assert.assertEquals(TraceUtil.toTSpanData(line).getExtra().getServiceName(), encoder.getServiceName());
+        }
+    }
+
+    @Test
+    public void crlfIsDropped() throws IOException {
+        SpanLineEncoder encoder = SpanLineEncoder.get();
+        String line = spanLines().get(0);
+        Assert.assertTrue(encoder.encode(line));
+        byte[] expected = encoder.toByteArray();
+        Assert.assertTrue(encoder.encode(line.replace(" ### ", " ###\r\n ") + "\r\n"));
+        Assert.assertArrayEquals(expected, encoder.toByteArray());
+    }
+
+    @Test
+    public void invalidLines() {
+        SpanLineEncoder encoder = SpanLineEncoder.get();
+        Assert.assertFalse(encoder.encode("no separator"));
+        Assert.assertFalse(encoder.encode("x ||| 1 ### 2 ### 3"));
+        Assert.assertFalse(encoder.encode("x ||| 1 ### 2 ### ip ### app ### name ### OK ### t ### s ### [{\"key\":\"k\",\"type\":\"unknown\",\"value\":\"v\"}] ### [] ### {} ### []"));
+        Assert.assertFalse(encoder.encode("x ||| 1 ### 2 ### ip ### app ### name ### OK ### t ### s ### [{\"key\":\"k\" ### [] ### {} ### []"));
+        Assert.assertFalse(encoder.encode("x ||| a ### 2 ### ip ### app ### name ### OK ### t ### s ### [] ### [] ### {} ### []"));
+        Assert.assertNull(encoder.getServiceName());
+    }
+
+    /**
+     * Random span lines, mostly valid ones, against the TraceUtil path: same bytes and service name, or both reject.
+     */
+    @Test
+    public void randomLinesSameAsTraceUtil() {
+        SpanLineEncoder encoder = SpanLineEncoder.get();
+        Random random = new Random(20240610);
+        int encoded = 0;
+        for (int i = 0; i < 20000; i++) {
+            String line = randomLine(random);
+            byte[] expected;
+            String serviceName;
+            try {
+                TSpanDataHolder holder = new TSpanDataHolder(line);
+                expected = holder.bytes;
+                serviceName = holder.serviceName;
+            } catch (RuntimeException e) {
+                expected = null;
+                serviceName = null;
+            }
+            boolean ok = encoder.encode(line);
+            Assert.assertEquals(line, expected != null, ok);
+            if (ok) {
+                encoded++;
+                Assert.assertArrayEquals(line, expected, encoder.toByteArray());
+                Assert.assertEquals(line, serviceName, encoder.getServiceName());
+            }
+        }
+        // most lines are valid spans
+        Assert.assertTrue(String.valueOf(encoded), encoded > 10000);
+    }
+
+    private static final class TSpanDataHolder {
+
+        private final byte[] bytes;
+
+        private final String serviceName;
+
+        private TSpanDataHolder(String line) {
+            org.apache.ozhera.tspandata.TSpanData span = TraceUtil.toTSpanData(line);
+            bytes = null == span ? null : TraceUtil.toBytes(span);
+            serviceName = null == span ? null : span.getExtra().getServiceName();
+        }
+    }
+
+    /**
+     * The non-ascii pieces are outside latin1 on purpose: fastjson 2.0.25 sign-extends a latin1 char read from a string
+     * with escapes in an all latin1 text (U+00E9 becomes U+FFE9), the encoder keeps the char.
+     */
+    private static final String[] TEXT_PIECES = {
+            "a", "Z", "0", "9", " ", "-", "_", ".", "/", ":", ",", ";", "=", "&", "?", "{", "}", "[", "]", "'", "#", "##",
+            "##r'", "##'", "##n", "##r", "##t", "##tat", "\\", "\\n", "\\\\", "\\u0041", "|", " | ",
+            "\u0101", "\u20ac", "\u4e2d\u6587", "\ud83d\ude00", "\u0000"
+    };
+
+    private static final String[] JSON_PIECES = {
+            "a", "Z", "0", " ", "-", "/", ":", ",", "{", "}", "[", "]", "'", "#", "##r'", "##n",
+            "\\\"", "\\\\", "\\n", "\\t", "\\/", "\\u00e9", "\\u4e2d", "\u0101", "\u4e2d", "\ud83d\ude00"
+    };
+
+    private static final String[] KINDS = {"server", "client", "consumer", "producer", "internal", "SERVER", "Client", "other"};
+
+    private static final String[] STATUSES = {"OK", "ERROR", "UNSET", "ok", "Error", "unknown"};
+
+    private static String randomLine(Random random) {
+        List<String> fields = new ArrayList<>();
+        fields.add(String.valueOf(1718000000000000000L + random.nextInt(1 << 30)));
+        fields.add(String.valueOf(random.nextInt(100_000_000)));
+        fields.add("10.38." + random.nextInt(256) + "." + random.nextInt(256));
+        fields.add(random.nextInt(8) == 0 ? "" : "app-" + random.nextInt(100));
+        fields.add(text(random, TEXT_PIECES, 8).replace("\\", "/"));
+        fields.add(pick(random, STATUSES));
+        fields.add(Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong()));
+        fields.add(Long.toHexString(random.nextLong()));
+        fields.add(attributes(random, true));
+        fields.add(events(random));
+        fields.add(resource(random));
+        fields.add(references(random));
+        switch (random.nextInt(60)) {
+            case 0:
+                fields.remove(random.nextInt(fields.size()));
+                break;
+            case 1:
+                fields.add(random.nextInt(fields.size()), "extra");
+                break;
+            case 2:
+                fields.set(MessageUtil.DURATION, "1.5");
+                break;
+            default:
+                break;
+        }
+        String message = String.join(" ### ", fields);
+        if (random.nextInt(20) == 0) {
+            int at = random.nextInt(message.length());
+            message = message.substring(0, at) + "\r\n" + message.substring(at);
+        }
+        String separator = random.nextInt(5) == 0 ? " | " : " ||| ";
+        return "2024-06-10 14:13:20." + random.nextInt(1000) + separator + message;
+    }
+
+    /**
+     * The tags and the event fields as the agent writes them: quotes and line breaks replaced by ## escapes.
+     */
+    private static String attributes(Random random, boolean special) {
+        int count = random.nextInt(6);
+        List<String> attributes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            attributes.add(attribute(random, special, false));
+        }
+        return "[" + String.join(",", attributes) + "]";
+    }
+
+    private static String attribute(Random random, boolean special, boolean json) {
+        String key;
+        String type;
+        String value;
+        int choice = random.nextInt(special ? 9 : 5);
+        switch (choice) {
+            case 0:
+                type = random.nextBoolean() ? "int64" : "INT64";
+                value = random.nextInt(4) == 0 ? String.valueOf(random.nextLong()) : "\"" + (random.nextInt(2000) - 1000) + "\"";
+                break;
+            case 1:
+                type = "float64";
+                value = random.nextBoolean() ? String.valueOf(random.nextDouble() * 1000) : "\"" + random.nextInt(100) / 4.0 + "\"";
+                break;
+            case 2:
+                type = "bool";
+                value = pick(random, new String[]{"true", "false", "\"true\"", "\"TRUE\"", "\"no\""});
+                break;
+            case 3:
+            case 4:
+                type = random.nextInt(10) == 0 ? "STRING" : "string";
+                value = random.nextInt(20) == 0 ? "null" : "\"" + text(random, json ? JSON_PIECES : TEXT_PIECES, 10) + "\"";
+                break;
+            default:
+                type = random.nextInt(10) == 0 ? "int64" : "string";
+                value = "\"" + (type.equals("int64") ? String.valueOf(random.nextInt(100)) : pick(random, KINDS) + (choice == 5 ? "" : "-" + random.nextInt(9))) + "\"";
+                break;
+        }
+        if (choice >= 5) {
+            key = new String[]{"span.kind", "service.name", "ip", "host.name"}[choice - 5];
+        } else {
+            key = "k" + random.nextInt(20) + text(random, json ? JSON_PIECES : TEXT_PIECES, 2);
+        }
+        return "{\"key\":\"" + key + "\",\"type\":\"" + type + "\",\"value\":" + value + "}";
+    }
+
+    private static String events(Random random) {
+        int choice = random.nextInt(10);
+        if (choice == 0) {
+            return "[]";
+        }
+        if (choice == 1) {
+            return "null";
+        }
+        int count = 1 + random.nextInt(3);
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String event = "{\"name\":\"" + text(random, TEXT_PIECES, 4) + "\"";
+            if (random.nextBoolean()) {
+                event += ",\"fields\":" + attributes(random, false);
+            }
+            event += ",\"timestamp\":" + (1718000000000000000L + random.nextInt(1 << 30)) + "}";
+            events.add(event);
+        }
+        return "[" + String.join(",", events) + "]";
+    }
+
+    /**
+     * The resource and the references are plain json.
+     */
+    private static String resource(Random random) {
+        int choice = random.nextInt(10);
+        if (choice == 0) {
+            return "{}";
+        }
+        if (choice == 1) {
+            return "{\"serviceName\":\"app\"}";
+        }
+        List<String> tags = new ArrayList<>();
+        int count = random.nextInt(5);
+        for (int i = 0; i < count; i++) {
+            tags.add(attribute(random, true, true));
+        }
+        return "{\"serviceName\":\"" + text(random, JSON_PIECES, 3) + "\",\"tags\":[" + String.join(",", tags) + "]}";
+    }
+
+    private static String references(Random random) {
+        int count = random.nextInt(3);
+        List<String> references = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            references.add("{\"refType\":\"" + (random.nextBoolean() ? "CHILD_OF" : "FOLLOWS_FROM")
+                    + "\",\"traceID\":\"" + Long.toHexString(random.nextLong())
+                    + "\",\"spanID\":\"" + Long.toHexString(random.nextLong()) + "\"}");
+        }
+        return "[" + String.join(",", references) + "]";
+    }
+
+    private static String text(Random random, String[] pieces, int maxPieces) {
+        StringBuilder text = new StringBuilder();
+        int count = random.nextInt(maxPieces + 1);
+        for (int i = 0; i < count; i++) {
+            text.append(pick(random, pieces));
+        }
+        return text.toString();
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.log.agent.export;
+
+import org.apache.ozhera.log.api.model.msg.LineMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LineBatchPipelineTest {
+
+    private static LineMessage line(String msg) {
+        LineMessage lineMessage = new LineMessage();
+        lineMessage.setMsgBody(msg);
+        return lineMessage;
+    }
+
+    @Test
+    public void exportAllLinesOfEveryReaderInOrder() throws InterruptedException {
+        List<String> exported = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        LineBatchPipeline pipeline = new LineBatchPipeline("test", 64, 50, () -> 10, batch -> {
+            batchSizes.add(batch.size());
+            batch.forEach(l -> exported.add(l.getMsgBody()));
+        });
+        pipeline.start();
+        int readers = 4;
+        int linesPerReader = 5000;
+        CountDownLatch done = new CountDownLatch(readers);
+        for (int r = 0; r < readers; r++) {
+            int reader = r;
+            Thread.ofVirtual().start(() -> {
+                for (int i = 0; i < linesPerReader; i++) {
+                    pipeline.put(line(reader + ":" + i), System.currentTimeMillis());
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        pipeline.close(5000);
+
+        assertEquals(readers * linesPerReader, exported.size());
+        assertEquals(readers * linesPerReader, pipeline.getExportedLines());
+        int[] next = new int[readers];
+        for (String msg : exported) {
+            String[] parts = msg.split(":");
+            int reader = Integer.parseInt(parts[0]);
+            assertEquals(next[reader]++, Integer.parseInt(parts[1]));
+        }
+        assertTrue(batchSizes.stream().allMatch(size -> size <= 10));
+    }
+
+    @Test
+    public void flushPartialBatchAfterLinger() throws InterruptedException {
+        CountDownLatch exported = new CountDownLatch(3);
+        LineBatchPipeline pipeline = new LineBatchPipeline("test", 16, 100, () -> 200, batch -> batch.forEach(l -> exported.countDown()));
+        pipeline.start();
+        for (int i = 0; i < 3; i++) {
+            pipeline.put(line("l" + i), System.currentTimeMillis());
+        }
+        assertTrue(exported.await(5, TimeUnit.SECONDS));
+        pipeline.close(1000);
+        assertEquals(1, pipeline.getExportedBatches());
+        assertEquals(3, pipeline.getLastBatchSize());
+    }
+
+    @Test
+    public void holdReadersBackWhileSinkIsSlow() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        LineBatchPipeline pipeline = new LineBatchPipeline("test", 8, 10, () -> 4, batch -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        pipeline.start();
+        Thread reader = Thread.ofVirtual().start(() -> {
+            for (int i = 0; i < 20; i++) {
+                pipeline.put(line("l" + i), System.currentTimeMillis());
+            }
+        });
+        reader.join(300);
+        assertTrue(reader.isAlive());
+        assertTrue(pipeline.queued() <= pipeline.getCapacity());
+        release.countDown();
+        reader.join(5000);
+        assertFalse(reader.isAlive());
+        pipeline.close(5000);
+        assertEquals(20, pipeline.getExportedLines());
+        assertTrue(pipeline.getReaderBlockedMillis() > 0);
+    }
+
+    @Test
+    public void closeFlushesQueuedLinesAndRejectsNewOnes() {
+        List<String> exported = new CopyOnWriteArrayList<>();
+        LineBatchPipeline pipeline = new LineBatchPipeline("test", 16, 60_000, () -> 100, batch -> batch.forEach(l -> exported.add(l.getMsgBody())));
+        pipeline.start();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(pipeline.put(line("l" + i), System.currentTimeMillis()));
+        }
+        pipeline.close(5000);
+        assertEquals(5, exported.size());
+        assertFalse(pipeline.put(line("late"), System.currentTimeMillis()));
+    }
+}
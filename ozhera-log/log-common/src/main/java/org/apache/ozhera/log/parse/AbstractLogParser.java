@@ -39,12 +39,20 @@ import java.util.stream.IntStream;
 @Slf4j
 public abstract class AbstractLogParser implements LogParser {
 
+    /**
+     * Fields added to the parsed line besides its own: timestamp, topic, tag, logstore, tail, ip,
+     * line number, file name, message and logsource.
+     */
+    protected static final int COMMON_FIELD_SIZE = 10;
+
     protected LogParserData parserData;
 
     private List<FieldInterceptor> fieldInterceptors = Lists.newArrayList();
 
     protected Map<String, Integer> valueMap;
 
+    private final TimestampRecognizer timestampRecognizer = new TimestampRecognizer();
+
     public AbstractLogParser(LogParserData parserData) {
         this.parserData = parserData;
         createFieldInterceptors();
@@ -98,6 +106,14 @@ public abstract class AbstractLogParser implements LogParser {
         return parseData;
     }
 
+    /**
+     * Same results as {@link LogParser#getTimestampFromString}, lines in the layout of the tail skip hutool.
+     */
+    @Override
+    public Long getTimestampFromString(String logTime, Long collectStamp) {
+        return timestampRecognizer.getTimestamp(logTime, collectStamp);
+    }
+
     protected void validTimestamp(Map<String, Object> ret, Long collectStamp) {
         /**
          * If the user configures the parse timestamp field, the time format is checked to be correct, and the incorrect time is set to the current time
@@ -155,11 +171,34 @@ public abstract class AbstractLogParser implements LogParser {
      * indicating that the corresponding key has not been extracted, the complete log is retained
      */
     void validRet(Map<String, Object> ret, String logData) {
-        if (ret.values().stream().filter(Objects::nonNull).map(String::valueOf).anyMatch(StringUtils::isEmpty)) {
+        if (hasEmptyValue(ret)) {
             ret.put(ES_KEY_MAP_LOG_SOURCE, logData);
         }
     }
 
+    /**
+     * Whether a non null value prints as an empty string.
+     */
+    protected static boolean hasEmptyValue(Map<String, Object> ret) {
+        for (Object value : ret.values()) {
+            if (value instanceof CharSequence) {
+                if (((CharSequence) value).length() == 0) {
+                    return true;
+                }
+            } else if (null != value && !(value instanceof Number) && String.valueOf(value).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Result map sized for the fields of the parser and the common fields, so it is not resized while filled.
+     */
+    protected static Map<String, Object> newResultMap(int fieldSize) {
+        return HashMap.newHashMap(fieldSize + COMMON_FIELD_SIZE);
+    }
+
     protected String[] splitList(String keyList) {
         return StringUtils.split(keyList, ",");
     }
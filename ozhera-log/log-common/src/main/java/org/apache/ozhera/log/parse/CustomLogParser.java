@@ -50,6 +50,12 @@ public class CustomLogParser extends AbstractLogParser {
 
     public CustomLogParser(LogParserData parserData) {
         super(parserData);
+        try {
+            parsePatter(parserData.getParseScript());
+        } catch (Exception e) {
+            // retried on the first line, which then carries the error as logsource
+            log.warn("parse custom pattern error, pattern:{}", parserData.getParseScript(), e);
+        }
     }
 
 
@@ -60,7 +66,7 @@ public class CustomLogParser extends AbstractLogParser {
 
     @Override
     public Map<String, Object> doParseSimple(String logData, Long collectStamp) {
-        Map<String, Object> ret = new HashMap<>();
+        Map<String, Object> ret = newResultMap(null == logPerComments ? 0 : logPerComments.size());
         String originData = logData;
         if (logData == null) {
             return null;
@@ -86,7 +92,7 @@ public class CustomLogParser extends AbstractLogParser {
                 String value = logDataArray.get(i);
                 ret.put(logPerComments.get(i), StringUtils.isNotEmpty(value) ? value.trim() : value);
             }
-            if (ret.values().stream().map(String::valueOf).anyMatch(StringUtils::isEmpty)) {
+            if (hasEmptyValue(ret)) {
                 ret.put(ES_KEY_MAP_LOG_SOURCE, originLog);
             }
             /**
@@ -110,8 +116,10 @@ public class CustomLogParser extends AbstractLogParser {
      */
     @Override
     public List<String> parseLogData(String logData) throws Exception {
-        parsePatter(parserData.getParseScript());
-        List<String> parsedLogs = new ArrayList<>();
+        if (!isParsePattern) {
+            parsePatter(parserData.getParseScript());
+        }
+        List<String> parsedLogs = new ArrayList<>(mapPattern.size());
         for (int i = 0; i < mapPattern.size(); i++) {
             String parsedData = "";
             List<String> list = mapPattern.get(i);
@@ -129,7 +137,7 @@ public class CustomLogParser extends AbstractLogParser {
                 break;
             }
             parsedLogs.add(parsedData.trim());
-            logData = StrUtil.removePrefix(logData.trim(), String.format("%s%s%s", list.get(0), parsedData, list.get(1)).trim());
+            logData = StrUtil.removePrefix(logData.trim(), (list.get(0) + parsedData + list.get(1)).trim());
         }
         return parsedLogs;
     }
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.log.parse;
+
+import cn.hutool.json.JSONUtil;
+import com.google.gson.ToNumberPolicy;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single pass flattening of a json line into dotted keys, read from the token stream without building the
+ * document first.
+ * <p>
+ * Gives the same keys and values as {@link JsonLogParser} flattening the parsed map: the top level values, nested
+ * objects included as maps, and every leaf under its dotted key. Lines that would not flatten the plain way
+ * are reported with null, so that the caller flattens them as before:
+ * <ul>
+ *     <li>null values, arrays and string values that look like json</li>
+ *     <li>a key written twice, from a duplicate or a dotted key equal to a nested path</li>
+ *     <li>anything after the top level object</li>
+ * </ul>
+ * When built with the keys of a tail, only those keys and the top level leaves are kept, and nested objects are
+ * not copied into maps unless their top level key is wanted. The whole line is still read: a broken tail or a key
+ * written again further on changes the result of the plain flattening.
+ */
+final class JsonFlattener {
+
+    static final JsonFlattener ALL = new JsonFlattener(null);
+
+    private final Set<String> wanted;
+
+    /**
+     * Proper prefixes of the wanted keys, the objects whose leaves may be wanted.
+     */
+    private final Set<String> wantedPrefixes;
+
+    JsonFlattener(Collection<String> keys) {
+        if (null == keys) {
+            this.wanted = null;
+            this.wantedPrefixes = null;
+            return;
+        }
+        this.wanted = new HashSet<>(keys);
+        this.wantedPrefixes = new HashSet<>();
+        for (String key : wanted) {
+            for (int i = key.indexOf('.'); i >= 0; i = key.indexOf('.', i + 1)) {
+                wantedPrefixes.add(key.substring(0, i));
+            }
+        }
+    }
+
+    /**
+     * The flattened line, or null if it has to be flattened from the parsed map.
+     */
+    Map<String, Object> flatten(JsonReader reader) {
+        Map<String, Object> ret = new HashMap<>();
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return null;
+            }
+            if (!readObject(reader, "", true, null, ret) || reader.peek() != JsonToken.END_DOCUMENT) {
+                return null;
+            }
+            return ret;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads one object into the target, and into node when the object is kept as a map as well.
+     * A null prefix reads the object only to check it, none of its leaves is wanted.
+     *
+     * @return false if the line has to be flattened from the parsed map
+     */
+    private boolean readObject(JsonReader reader, String prefix, boolean topLevel, Map<String, Object> node,
+                               Map<String, Object> target) throws IOException {
+        // names of the objects read at this level: gson refuses a duplicate top level key, and a nested one
+        // replaces the whole value, leaves of the first object included
+        Set<String> objectNames = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (null != objectNames && objectNames.contains(name)) {
+                return false;
+            }
+            String key = null == prefix ? null : prefix.isEmpty() ? name : prefix + "." + name;
+            boolean put = topLevel || (null != key && (null == wanted || wanted.contains(key)));
+            JsonToken token = reader.peek();
+            Object value = null;
+            if (token == JsonToken.BEGIN_OBJECT) {
+                Map<String, Object> child = null != node || (topLevel && (null == wanted || wanted.contains(key)))
+                        ? new LinkedHashMap<>() : null;
+                // an empty key passes its prefix on unchanged, any leaf below may be wanted
+                String childPrefix = null != key && (null == wanted || key.isEmpty() || wantedPrefixes.contains(key)) ? key : null;
+                if (!readObject(reader, childPrefix, false, child, target)) {
+                    return false;
+                }
+                if (null != key) {
+                    if (target.containsKey(key)) {
+                        return false;
+                    }
+                    if (null == objectNames) {
+                        objectNames = new HashSet<>();
+                    }
+                    objectNames.add(name);
+                }
+                // nested objects are only kept inside the map of their top level object
+                put = topLevel && null != child;
+                value = child;
+            } else if (token == JsonToken.STRING) {
+                String text = reader.nextString();
+                if (isTypeJson(text)) {
+                    return false;
+                }
+                value = text;
+            } else if (token == JsonToken.NUMBER) {
+                if (put || null != node) {
+                    value = ToNumberPolicy.LONG_OR_DOUBLE.readNumber(reader);
+                } else {
+                    reader.skipValue();
+                }
+            } else if (token == JsonToken.BOOLEAN) {
+                value = reader.nextBoolean();
+            } else {
+                // null and arrays fail the plain flattening part way
+                return false;
+            }
+            if (null != node && null != value) {
+                node.put(name, value);
+            }
+            if (put) {
+                if (null != target.put(key, value)) {
+                    return false;
+                }
+            }
+        }
+        reader.endObject();
+        return true;
+    }
+
+    private static boolean isTypeJson(String text) {
+        return (text.indexOf('{') >= 0 || text.indexOf('[') >= 0) && JSONUtil.isTypeJSON(text);
+    }
+}
@@ -25,8 +25,8 @@ import com.google.gson.ToNumberPolicy;
 import com.google.gson.reflect.TypeToken;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.ozhera.log.utils.IndexUtils;
 
+import java.io.StringReader;
 import java.util.*;
 
 /**
@@ -43,8 +43,18 @@ public class JsonLogParser extends AbstractLogParser {
     private static final TypeToken<Map<String, Object>> token = new TypeToken<Map<String, Object>>() {
     };
 
+    private final KeyIndexPlan keyIndexPlan;
+
+    private final JsonFlattener flattener;
+
     public JsonLogParser(LogParserData parserData) {
         super(parserData);
+        this.keyIndexPlan = KeyIndexPlan.compile(parserData.getKeyList(), parserData.getValueList());
+        List<String> keys = new ArrayList<>(keyIndexPlan.size());
+        for (int i = 0; i < keyIndexPlan.size(); i++) {
+            keys.add(keyIndexPlan.key(i));
+        }
+        this.flattener = new JsonFlattener(keys);
     }
 
     @Override
@@ -54,23 +64,17 @@ public class JsonLogParser extends AbstractLogParser {
 
     @Override
     public Map<String, Object> doParseSimple(String logData, Long collectStamp) {
-        Map<String, Object> ret = new HashMap<>();
+        Map<String, Object> ret = newResultMap(keyIndexPlan.size());
         if (logData == null || logData.length() == 0) {
             return ret;
         }
         try {
 //            Map<String, Object> rawLogMap = GSON.fromJson(logData, token.getType());
-            Map<String, Object> rawLogMap = flattenJson(logData);
-            // The complete set of index column names
-            List<String> keyNameList = IndexUtils.getKeyListSlice(parserData.getKeyList());
-            // An index subset that marks whether the index column name at the corresponding location is referenced in the current tail
-            int[] valueIndexList = Arrays.stream(parserData.getValueList().split(",")).mapToInt(Integer::parseInt).toArray();
-            for (int i = 0; i < keyNameList.size(); i++) {
-                // Skip unreferenced keys
-                if (i >= valueIndexList.length || valueIndexList[i] == -1) {
-                    continue;
-                }
-                String currentKey = keyNameList.get(i);
+            Map<String, Object> rawLogMap = flattenJson(logData, flattener);
+            // The index column names referenced in the current tail
+            keyIndexPlan.check();
+            for (int i = 0; i < keyIndexPlan.size(); i++) {
+                String currentKey = keyIndexPlan.key(i);
                 String value = rawLogMap.getOrDefault(currentKey, "").toString();
                 ret.put(currentKey, StringUtils.isNotEmpty(value) ? value.trim() : value);
             }
@@ -94,10 +98,22 @@ public class JsonLogParser extends AbstractLogParser {
     }
 
     public static Map<String, Object> flattenJson(String logData) {
-        Map<String, Object> ret = new HashMap<>();
+        return flattenJson(logData, JsonFlattener.ALL);
+    }
+
+    private static Map<String, Object> flattenJson(String logData, JsonFlattener flattener) {
         if (logData == null || logData.isEmpty()) {
-            return ret;
+            return new HashMap<>();
         }
+        Map<String, Object> ret = flattener.flatten(GSON.newJsonReader(new StringReader(logData)));
+        return null != ret ? ret : flattenParsedJson(logData);
+    }
+
+    /**
+     * Flattening of the parsed map, for the lines {@link JsonFlattener} does not take.
+     */
+    private static Map<String, Object> flattenParsedJson(String logData) {
+        Map<String, Object> ret = new HashMap<>();
         try {
             TypeToken<Map<String, Object>> token = new TypeToken<>() {
             };
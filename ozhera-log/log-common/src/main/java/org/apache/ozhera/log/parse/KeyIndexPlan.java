@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.log.parse;
+
+import org.apache.ozhera.log.utils.IndexUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The keys a parser fills and the position of the value of each key in the parsed content, compiled once from
+ * the key list and value list of {@link LogParserData} instead of splitting them again for every line.
+ * <p>
+ * Keys whose value index is -1, or that have no value index, are not referenced by the tail and left out.
+ */
+final class KeyIndexPlan {
+
+    private final String[] keys;
+
+    private final int[] valueIndexes;
+
+    /**
+     * Set when the lists can not be compiled, thrown for every line so the line is kept as logsource like before.
+     */
+    private final RuntimeException error;
+
+    private KeyIndexPlan(String[] keys, int[] valueIndexes, RuntimeException error) {
+        this.keys = keys;
+        this.valueIndexes = valueIndexes;
+        this.error = error;
+    }
+
+    static KeyIndexPlan compile(String keyList, String valueList) {
+        try {
+            List<String> keyNameList = IndexUtils.getKeyListSlice(keyList);
+            String[] valueSplit = valueList.split(",");
+            int[] valueIndexList = new int[valueSplit.length];
+            for (int i = 0; i < valueSplit.length; i++) {
+                valueIndexList[i] = Integer.parseInt(valueSplit[i]);
+            }
+            int size = 0;
+            String[] keys = new String[keyNameList.size()];
+            int[] valueIndexes = new int[keyNameList.size()];
+            for (int i = 0; i < keyNameList.size(); i++) {
+                if (i >= valueIndexList.length || valueIndexList[i] == -1) {
+                    continue;
+                }
+                keys[size] = keyNameList.get(i);
+                valueIndexes[size] = valueIndexList[i];
+                size++;
+            }
+            return new KeyIndexPlan(Arrays.copyOf(keys, size), Arrays.copyOf(valueIndexes, size), null);
+        } catch (RuntimeException e) {
+            return new KeyIndexPlan(new String[0], new int[0], e);
+        }
+    }
+
+    void check() {
+        if (null != error) {
+            throw error;
+        }
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    String key(int i) {
+        return keys[i];
+    }
+
+    int valueIndex(int i) {
+        return valueIndexes[i];
+    }
+}
@@ -21,7 +21,6 @@ package org.apache.ozhera.log.parse;
 import com.google.common.collect.Lists;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -47,7 +46,7 @@ public class RawLogParser extends AbstractLogParser {
 
     @Override
     public Map<String, Object> doParseSimple(String logData, Long collectStamp) {
-        Map<String, Object> ret = new HashMap<>();
+        Map<String, Object> ret = newResultMap(2);
         ret.put(ES_KEY_MAP_MESSAGE, logData);
         if (null != collectStamp) {
             ret.put(esKeyMap_timestamp, collectStamp);
@@ -20,12 +20,10 @@ package org.apache.ozhera.log.parse;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.ozhera.log.utils.IndexUtils;
 
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * @author zhangjuan
@@ -37,12 +35,18 @@ public class RegexLogParser extends AbstractLogParser {
 
     private Pattern pattern;
 
-    private Map<Integer, String> reversedMap;
+    /**
+     * Key of every capture group, by group index, when the key order list is configured.
+     */
+    private String[] groupKeys;
+
+    private KeyIndexPlan keyIndexPlan;
 
     public RegexLogParser(LogParserData parserData) {
         super(parserData);
-        reversedMap = valueMap.entrySet().stream()
-                .collect(Collectors.toMap(Map.Entry::getValue, Map.Entry::getKey));
+        groupKeys = new String[valueMap.values().stream().mapToInt(Integer::intValue).max().orElse(-1) + 1];
+        valueMap.forEach((key, index) -> groupKeys[index] = key);
+        keyIndexPlan = KeyIndexPlan.compile(parserData.getKeyList(), parserData.getValueList());
         pattern = Pattern.compile(parserData.getParseScript(), Pattern.MULTILINE);
     }
 
@@ -53,7 +57,7 @@ public class RegexLogParser extends AbstractLogParser {
 
     @Override
     public Map<String, Object> doParseSimple(String logData, Long collectStamp) {
-        Map<String, Object> ret = new HashMap<>();
+        Map<String, Object> ret = newResultMap(Math.max(groupKeys.length, keyIndexPlan.size()));
         if (logData == null || logData.isEmpty()) {
             return ret;
         }
@@ -64,21 +68,16 @@ public class RegexLogParser extends AbstractLogParser {
             if (null != valueMap && !valueMap.isEmpty()) {
                 parseWithValueMap(logArray, ret);
             } else {
-                // Index the list of column names
-                List<String> keyNameList = IndexUtils.getKeyListSlice(parserData.getKeyList());
-                // Each index column name corresponds to an array of index values for the content in the regular extracted content list
-                int[] valueIndexList = Arrays.stream(parserData.getValueList().split(",")).mapToInt(Integer::parseInt).toArray();
-                for (int i = 0; i < keyNameList.size(); i++) {
-                    // If the index of the key is outside the range of value, or the index corresponding to value is -1, the current key is skipped
-                    if (i >= valueIndexList.length || valueIndexList[i] == -1) {
-                        continue;
-                    }
+                // Each referenced column name with the index of its value in the regular extracted content list
+                keyIndexPlan.check();
+                for (int i = 0; i < keyIndexPlan.size(); i++) {
                     // If the index of value does not exceed the regular parsed content array, the key has a corresponding resolution value, otherwise it is ""
                     String value = "";
-                    if (valueIndexList[i] < logArray.size()) {
-                        value = logArray.get(valueIndexList[i]);
+                    int valueIndex = keyIndexPlan.valueIndex(i);
+                    if (valueIndex < logArray.size()) {
+                        value = logArray.get(valueIndex);
                     }
-                    ret.put(keyNameList.get(i), StringUtils.isNotEmpty(value) ? value.trim() : value);
+                    ret.put(keyIndexPlan.key(i), StringUtils.isNotEmpty(value) ? value.trim() : value);
                 }
             }
             validTimestamp(ret, collectStamp);
@@ -90,8 +89,8 @@ public class RegexLogParser extends AbstractLogParser {
     }
 
     private void parseWithValueMap(List<String> logArray, Map<String, Object> ret) {
-        for (int i = 0; i < logArray.size(); i++) {
-            String key = reversedMap.get(i);
+        for (int i = 0; i < logArray.size() && i < groupKeys.length; i++) {
+            String key = groupKeys[i];
             if (key != null) {
                 ret.put(key, logArray.get(i));
             }
@@ -100,12 +99,12 @@ public class RegexLogParser extends AbstractLogParser {
 
     @Override
     public List<String> parseLogData(String logData) throws Exception {
-        List<String> ret = new ArrayList<>();
         if (pattern == null) {
             throw new Exception("compile failed, empty pattern");
         }
 //        List<Matcher> matchers = filter.filter(logData);
         Matcher matcher = pattern.matcher(logData);
+        List<String> ret = new ArrayList<>(matcher.groupCount());
         if (matcher.find()) {
             // matcher.groupCount() gets how many capture groups the matcher object currently has, excluding group(0), so groupCount does not correspond to the group(i) index
             // group(0) does not support user acquisition, and the valueList order can still start from 0 when the user uses it
@@ -18,14 +18,13 @@
  */
 package org.apache.ozhera.log.parse;
 
+import com.google.common.collect.Lists;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.ozhera.log.utils.IndexUtils;
 
-import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author wtt
@@ -34,14 +33,120 @@ import java.util.stream.IntStream;
  */
 @Slf4j
 public class SeparatorLogParser extends AbstractLogParser {
+
+    /**
+     * Kinds of the compiled steps, one step per configured key that takes part in the result.
+     */
+    private static final int STEP_CONSTANT = 0;
+    private static final int STEP_ORDERED = 1;
+    private static final int STEP_INDEXED = 2;
+    private static final int STEP_TIMESTAMP = 3;
+
     private String[] keysAndTypes;
     private String[] values;
 
+    /**
+     * Number of referenced values, the line is split in at most this many tokens.
+     */
+    private int maxLength;
+
+    private String firstKey;
+
+    private int[] stepKinds;
+    private String[] stepKeys;
+    private int[] stepIndexes;
+    private String[] stepConstants;
+
     public SeparatorLogParser(LogParserData parserData) {
         super(parserData);
 
         keysAndTypes = splitList(parserData.getKeyList());
         values = splitList(parserData.getValueList());
+        if (null != values) {
+            compilePlan();
+        }
+    }
+
+    /**
+     * Resolve once what the loop over the key list did for every line: the special keys, the value index
+     * of each key and whether it is the timestamp.
+     */
+    private void compilePlan() {
+        maxLength = (int) Arrays.stream(values).filter(s -> !"-1".equals(s)).count();
+        if (null == keysAndTypes) {
+            stepKinds = new int[0];
+            return;
+        }
+        firstKey = keysAndTypes.length > 0 ? keysAndTypes[0].split(":")[0] : null;
+
+        int size = 0;
+        stepKinds = new int[keysAndTypes.length];
+        stepKeys = new String[keysAndTypes.length];
+        stepIndexes = new int[keysAndTypes.length];
+        stepConstants = new String[keysAndTypes.length];
+        boolean ordered = null != valueMap && !valueMap.isEmpty();
+        for (int i = 0; i < keysAndTypes.length; i++) {
+            String[] kTsplit = keysAndTypes[i].split(":");
+            if (kTsplit.length != 2 || i >= values.length && !ordered) {
+                continue;
+            }
+            if (kTsplit[0].equals(ES_KEY_MAP_LOG_SOURCE)) {
+                continue;
+            }
+            String constant = constantValue(kTsplit[0]);
+            if (null != constant || isConstantKey(kTsplit[0])) {
+                stepKinds[size] = STEP_CONSTANT;
+                stepKeys[size] = kTsplit[0];
+                stepConstants[size] = constant;
+                size++;
+                continue;
+            }
+            if (ordered) {
+                String key = kTsplit[0].trim();
+                if (valueMap.containsKey(key)) {
+                    stepKinds[size] = STEP_ORDERED;
+                    stepKeys[size] = key;
+                    stepIndexes[size] = valueMap.get(key);
+                    size++;
+                }
+            } else {
+                int num;
+                try {
+                    num = Integer.parseInt(values[i]);
+                } catch (Exception e) {
+                    continue;
+                }
+                if (num == -1) {
+                    continue;
+                }
+                boolean timestamp = kTsplit[0].equals(esKeyMap_timestamp) || kTsplit[1].equalsIgnoreCase(esKeyMap_Date);
+                stepKinds[size] = timestamp ? STEP_TIMESTAMP : STEP_INDEXED;
+                stepKeys[size] = timestamp ? esKeyMap_timestamp : kTsplit[0];
+                stepIndexes[size] = num;
+                size++;
+            }
+        }
+        stepKinds = Arrays.copyOf(stepKinds, size);
+        stepKeys = Arrays.copyOf(stepKeys, size);
+        stepIndexes = Arrays.copyOf(stepIndexes, size);
+        stepConstants = Arrays.copyOf(stepConstants, size);
+    }
+
+    private static boolean isConstantKey(String key) {
+        return key.equals(esKeyMap_topic) || key.equals(esKeyMap_tag) || key.equals(esKeyMap_logstoreName) || key.equals(esKeyMap_tail);
+    }
+
+    private String constantValue(String key) {
+        if (key.equals(esKeyMap_topic)) {
+            return parserData.getTopicName();
+        } else if (key.equals(esKeyMap_tag)) {
+            return parserData.getMqTag();
+        } else if (key.equals(esKeyMap_logstoreName)) {
+            return parserData.getLogStoreName();
+        } else if (key.equals(esKeyMap_tail)) {
+            return parserData.getTailName();
+        }
+        return null;
     }
 
     @Override
@@ -51,7 +156,7 @@ public class SeparatorLogParser extends AbstractLogParser {
 
     @Override
     public Map<String, Object> doParseSimple(String logData, Long collectStamp) {
-        Map<String, Object> ret = new HashMap<>();
+        Map<String, Object> ret = newResultMap(null == stepKeys ? 0 : stepKeys.length);
         if (logData == null) {
             return ret;
         }
@@ -59,80 +164,45 @@ public class SeparatorLogParser extends AbstractLogParser {
             return ret;
         }
         try {
+            if (null == stepKinds) {
+                throw new IllegalStateException("value list not configured");
+            }
 
-            int maxLength = (int) Arrays.stream(values).filter(s -> !"-1".equals(s)).count();
-
-            List<String> logArray = parseLogData(logData, maxLength);
+            String[] logArray = splitLogData(logData, maxLength);
             if (0 == maxLength) {
                 ret.put(ES_KEY_MAP_MESSAGE, logData);
                 return ret;
             }
-            if (values.length == 1 && logArray.size() == 1 && maxLength == 1) {
-                String[] ktSplit = keysAndTypes[0].split(":");
-                String keysAndType = ktSplit[0];
-                ret.put(keysAndType, logArray.get(0));
+            if (null == keysAndTypes) {
+                throw new IllegalStateException("key list not configured");
+            }
+            if (values.length == 1 && logArray.length == 1 && maxLength == 1) {
+                if (null == firstKey) {
+                    throw new IllegalStateException("key list is empty");
+                }
+                ret.put(firstKey, logArray[0]);
                 return ret;
             }
 
-            int count = 0;
-            int valueCount = 0;
             /**
              * Normal parsing
              */
-            for (int i = 0; i < keysAndTypes.length; i++) {
-                String[] kTsplit = keysAndTypes[i].split(":");
-                if (kTsplit.length != 2 || i >= values.length && (null == valueMap || valueMap.isEmpty())) {
-                    continue;
-                }
-                if (kTsplit[0].equals(esKeyMap_topic)) {
-                    count++;
-                    ret.put(esKeyMap_topic, parserData.getTopicName());
-                    continue;
-                } else if (kTsplit[0].equals(esKeyMap_tag)) {
-                    count++;
-                    ret.put(esKeyMap_tag, parserData.getMqTag());
-                    continue;
-                } else if (kTsplit[0].equals(esKeyMap_logstoreName)) {
-                    count++;
-                    ret.put(esKeyMap_logstoreName, parserData.getLogStoreName());
-                    continue;
-                } else if (kTsplit[0].equals(esKeyMap_tail)) {
-                    count++;
-                    ret.put(esKeyMap_tail, parserData.getTailName());
-                    continue;
-                } else if (kTsplit[0].equals(ES_KEY_MAP_LOG_SOURCE)) {
-                    count++;
-                    continue;
-                }
-                if (null != valueMap && !valueMap.isEmpty()) {
-                    String key = kTsplit[0].trim();
-                    if (valueMap.containsKey(key)) {
-                        String value = logArray.get(valueMap.get(key));
-                        ret.put(key, value);
-                    }
-                } else {
-                    String value = null;
-                    int num = -1;
-                    try {
-                        num = Integer.parseInt(values[i]);
-                        if (num == -1) {
-                            valueCount++;
-                            continue;
+            for (int i = 0; i < stepKinds.length; i++) {
+                switch (stepKinds[i]) {
+                    case STEP_CONSTANT:
+                        ret.put(stepKeys[i], stepConstants[i]);
+                        break;
+                    case STEP_ORDERED:
+                        ret.put(stepKeys[i], logArray[stepIndexes[i]]);
+                        break;
+                    default:
+                        int num = stepIndexes[i];
+                        String value = num < logArray.length && num > -1 ? logArray[num] : "";
+                        if (STEP_TIMESTAMP == stepKinds[i]) {
+                            ret.put(esKeyMap_timestamp, getTimestampFromString(value, collectStamp));
+                        } else {
+                            ret.put(stepKeys[i], StringUtils.isNotEmpty(value) ? value.trim() : value);
                         }
-                    } catch (Exception e) {
-                        continue;
-                    }
-                    if (num < logArray.size() && num > -1) {
-                        value = logArray.get(num);
-                    } else {
-                        value = "";
-                    }
-                    if (kTsplit[0].equals(esKeyMap_timestamp) || kTsplit[1].equalsIgnoreCase(esKeyMap_Date)) {
-                        Long time = getTimestampFromString(value, collectStamp);
-                        ret.put(esKeyMap_timestamp, time);
-                    } else {
-                        ret.put(kTsplit[0], StringUtils.isNotEmpty(value) ? value.trim() : value);
-                    }
                 }
             }
 
@@ -140,7 +210,7 @@ public class SeparatorLogParser extends AbstractLogParser {
              * The field is misconfigured
              * esKeyMap_topic,esKeyMap_tag,esKeyMap_logstoreName,esKeyMap_logSource are not visible to the user, i.e. do not exist in values, logArray
              */
-            if (ret.values().stream().filter(Objects::nonNull).map(String::valueOf).anyMatch(StringUtils::isEmpty)) {
+            if (hasEmptyValue(ret)) {
                 ret.put(ES_KEY_MAP_LOG_SOURCE, logData);
             }
         } catch (Exception e) {
@@ -151,12 +221,11 @@ public class SeparatorLogParser extends AbstractLogParser {
 
     @Override
     public List<String> parseLogData(String logData) {
-        return parseLogData(logData, -1);
+        return Lists.newArrayList(splitLogData(logData, -1));
     }
 
-    private List<String> parseLogData(String logData, Integer maxLength) {
-        String[] logArray = StringUtils.splitByWholeSeparatorPreserveAllTokens(logData, parserData.getParseScript(), maxLength);
-        return Arrays.stream(logArray).collect(Collectors.toList());
+    private String[] splitLogData(String logData, int maxLength) {
+        return StringUtils.splitByWholeSeparatorPreserveAllTokens(logData, parserData.getParseScript(), maxLength);
     }
 
 }
@@ -0,0 +1,362 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.log.parse;
+
+import cn.hutool.core.date.DateUtil;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+import java.util.List;
+
+import static org.apache.ozhera.log.parse.LogParser.TIME_STAMP_MILLI_LENGTH;
+
+/**
+ * Timestamp parsing of one parser, same results as hutool {@link DateUtil#parse(CharSequence)} with the century
+ * fallback of {@link LogParser#getTimestampFromString}.
+ * <p>
+ * The layout of the first string hutool parses is learned when the hand-written parser gives the same epoch for it,
+ * afterwards lines of that layout are read digit by digit and the epoch of their minute is taken from a one entry cache.
+ * Anything else, including out of range fields and local times inside a zone transition, goes through hutool as before.
+ */
+public final class TimestampRecognizer {
+
+    private static final long NO_MATCH = Long.MIN_VALUE;
+
+    private static final long MIN_MILLI_TIMESTAMP = pow10(TIME_STAMP_MILLI_LENGTH - 1);
+
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private volatile Layout layout;
+
+    private volatile MinuteEpoch minuteEpoch;
+
+    public Long getTimestamp(String logTime, Long collectStamp) {
+        Layout current = layout;
+        if (null != current) {
+            long time = parse(current, logTime, true);
+            if (time != NO_MATCH) {
+                return checkMilli(time);
+            }
+        }
+        if (!containsDigit(logTime)) {
+            // hutool can not parse a string without digits
+            return checkMilli(collectStamp);
+        }
+        Long timeStamp;
+        try {
+            timeStamp = DateUtil.parse(logTime).getTime();
+            learn(logTime, timeStamp, 0);
+        } catch (Exception e) {
+            try {
+                String century = String.valueOf(DateUtil.thisYear()).substring(0, 2);
+                timeStamp = DateUtil.parse(century + logTime).getTime();
+                learn(logTime, timeStamp, Integer.parseInt(century));
+            } catch (Exception ex) {
+                timeStamp = collectStamp;
+            }
+        }
+        return checkMilli(timeStamp);
+    }
+
+    /**
+     * The learned layout as a date pattern, null until one is learned.
+     */
+    public String getPattern() {
+        Layout current = layout;
+        return null == current ? null : current.pattern;
+    }
+
+    /**
+     * Same as checking that the decimal string of the timestamp has {@link LogParser#TIME_STAMP_MILLI_LENGTH} chars.
+     */
+    static Long checkMilli(Long timeStamp) {
+        if (null != timeStamp) {
+            long value = timeStamp;
+            if ((value >= MIN_MILLI_TIMESTAMP && value < MIN_MILLI_TIMESTAMP * 10)
+                    || (value <= -MIN_MILLI_TIMESTAMP / 10 && value > -MIN_MILLI_TIMESTAMP)) {
+                return timeStamp;
+            }
+        }
+        return Instant.now().toEpochMilli();
+    }
+
+    private void learn(String logTime, long timeStamp, int century) {
+        Layout candidate = Layout.of(logTime, century);
+        if (null == candidate) {
+            return;
+        }
+        if (!candidate.hasOffset() && candidate.dateTimeSeparator == 'T' && !zone.getRules().isFixedOffset()) {
+            // the zone hutool reads 'T' times without offset in can not be told from one sample
+            return;
+        }
+        if (parse(candidate, logTime, false) == timeStamp) {
+            layout = candidate;
+        }
+    }
+
+    /**
+     * Epoch millis of the string read with the layout, or {@link #NO_MATCH}.
+     */
+    private long parse(Layout l, String s, boolean useCache) {
+        if (null == s || s.length() != l.length) {
+            return NO_MATCH;
+        }
+        int p = l.yearDigits;
+        int year = digits(s, 0, p);
+        if (year < 0 || s.charAt(p) != l.dateSeparator1 || s.charAt(p + 3) != l.dateSeparator2
+                || s.charAt(p + 6) != l.dateTimeSeparator || s.charAt(p + 9) != ':' || s.charAt(p + 12) != ':') {
+            return NO_MATCH;
+        }
+        int month = digits(s, p + 1, 2);
+        int day = digits(s, p + 4, 2);
+        int hour = digits(s, p + 7, 2);
+        int minute = digits(s, p + 10, 2);
+        int second = digits(s, p + 13, 2);
+        if (l.century > 0) {
+            year += l.century * 100;
+        }
+        if (year < 1583 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return NO_MATCH;
+        }
+        p += 15;
+        int millis = 0;
+        if (l.fractionSeparator != 0) {
+            if (s.charAt(p) != l.fractionSeparator) {
+                return NO_MATCH;
+            }
+            millis = digits(s, p + 1, 3);
+            if (millis < 0) {
+                return NO_MATCH;
+            }
+            p += 4;
+        }
+        if (!s.startsWith(l.zoneSuffix, p)) {
+            return NO_MATCH;
+        }
+        int prefixLength = l.yearDigits + 12;
+        MinuteEpoch cached = minuteEpoch;
+        long minuteMillis;
+        if (useCache && null != cached && cached.layout == l && s.regionMatches(0, cached.prefix, 0, prefixLength)) {
+            minuteMillis = cached.epochMillis;
+        } else {
+            minuteMillis = minuteMillis(l, LocalDateTime.of(year, month, day, hour, minute));
+            if (minuteMillis == NO_MATCH) {
+                return NO_MATCH;
+            }
+            if (useCache) {
+                minuteEpoch = new MinuteEpoch(l, s.substring(0, prefixLength), minuteMillis);
+            }
+        }
+        return minuteMillis + second * 1000L + millis;
+    }
+
+    private long minuteMillis(Layout l, LocalDateTime minute) {
+        if (l.hasOffset()) {
+            return minute.toEpochSecond(ZoneOffset.UTC) * 1000L - l.offsetMillis;
+        }
+        ZoneRules rules = zone.getRules();
+        List<ZoneOffset> offsets = rules.getValidOffsets(minute);
+        if (offsets.size() != 1) {
+            // gap or overlap, resolved by the calendar of hutool
+            return NO_MATCH;
+        }
+        return minute.toEpochSecond(offsets.get(0)) * 1000L;
+    }
+
+    private static int digits(String s, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static boolean containsDigit(String s) {
+        if (null == s) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static long pow10(int n) {
+        long value = 1;
+        for (int i = 0; i < n; i++) {
+            value *= 10;
+        }
+        return value;
+    }
+
+    /**
+     * Fixed width layout: two or four digit year, date separators out of "-/.", ' ' or 'T', HH:mm:ss,
+     * optional three digit fraction after '.' or ',', and for 'T' times an optional "Z", "+HHmm" or "+HH:mm".
+     * The zone suffix is kept as text, so a layout only matches the offset it was learned with.
+     */
+    private static final class Layout {
+
+        private final int length;
+        private final int yearDigits;
+        private final int century;
+        private final char dateSeparator1;
+        private final char dateSeparator2;
+        private final char dateTimeSeparator;
+        private final char fractionSeparator;
+        private final String zoneSuffix;
+        private final long offsetMillis;
+        private final String pattern;
+
+        private Layout(int length, int yearDigits, int century, char dateSeparator1, char dateSeparator2, char dateTimeSeparator,
+                       char fractionSeparator, String zoneSuffix, long offsetMillis) {
+            this.length = length;
+            this.yearDigits = yearDigits;
+            this.century = century;
+            this.dateSeparator1 = dateSeparator1;
+            this.dateSeparator2 = dateSeparator2;
+            this.dateTimeSeparator = dateTimeSeparator;
+            this.fractionSeparator = fractionSeparator;
+            this.zoneSuffix = zoneSuffix;
+            this.offsetMillis = offsetMillis;
+            this.pattern = (yearDigits == 2 ? "yy" : "yyyy") + dateSeparator1 + "MM" + dateSeparator2 + "dd"
+                    + (dateTimeSeparator == 'T' ? "'T'" : " ") + "HH:mm:ss"
+                    + (fractionSeparator == 0 ? "" : fractionSeparator + "SSS")
+                    + (zoneSuffix.isEmpty() ? "" : "Z".equals(zoneSuffix) ? "'Z'" : zoneSuffix.length() == 6 ? "XXX" : "Z");
+        }
+
+        boolean hasOffset() {
+            return !zoneSuffix.isEmpty();
+        }
+
+        /**
+         * The layout of a string hutool parsed, null if it is not one of the fixed width layouts.
+         */
+        static Layout of(String s, int century) {
+            int y = century > 0 ? 2 : 4;
+            int length = s.length();
+            if (length < y + 15 || digits(s, 0, y) < 0) {
+                return null;
+            }
+            char dateSeparator1 = s.charAt(y);
+            char dateSeparator2 = s.charAt(y + 3);
+            char dateTimeSeparator = s.charAt(y + 6);
+            if (!isDateSeparator(dateSeparator1) || !isDateSeparator(dateSeparator2)
+                    || (dateTimeSeparator != ' ' && dateTimeSeparator != 'T')
+                    || s.charAt(y + 9) != ':' || s.charAt(y + 12) != ':'
+                    || digits(s, y + 1, 2) < 0 || digits(s, y + 4, 2) < 0 || digits(s, y + 7, 2) < 0
+                    || digits(s, y + 10, 2) < 0 || digits(s, y + 13, 2) < 0) {
+                return null;
+            }
+            int p = y + 15;
+            char fractionSeparator = 0;
+            if (p < length && (s.charAt(p) == '.' || s.charAt(p) == ',')) {
+                if (p + 4 > length || digits(s, p + 1, 3) < 0 || (p + 4 < length && isDigit(s.charAt(p + 4)))) {
+                    return null;
+                }
+                fractionSeparator = s.charAt(p);
+                p += 4;
+            }
+            String zoneSuffix = s.substring(p);
+            long offsetMillis = 0;
+            if (!zoneSuffix.isEmpty()) {
+                if (dateTimeSeparator != 'T') {
+                    return null;
+                }
+                if (!"Z".equals(zoneSuffix)) {
+                    offsetMillis = offsetMillis(zoneSuffix);
+                    if (offsetMillis == NO_MATCH) {
+                        return null;
+                    }
+                }
+            }
+            return new Layout(length, y, century, dateSeparator1, dateSeparator2, dateTimeSeparator,
+                    fractionSeparator, zoneSuffix, offsetMillis);
+        }
+
+        private static long offsetMillis(String suffix) {
+            char sign = suffix.charAt(0);
+            if (sign != '+' && sign != '-') {
+                return NO_MATCH;
+            }
+            int hours;
+            int minutes;
+            if (suffix.length() == 5) {
+                hours = digits(suffix, 1, 2);
+                minutes = digits(suffix, 3, 2);
+            } else if (suffix.length() == 6 && suffix.charAt(3) == ':') {
+                hours = digits(suffix, 1, 2);
+                minutes = digits(suffix, 4, 2);
+            } else {
+                return NO_MATCH;
+            }
+            if (hours < 0 || hours > 18 || minutes < 0 || minutes > 59) {
+                return NO_MATCH;
+            }
+            long millis = (hours * 60L + minutes) * 60_000L;
+            return sign == '-' ? -millis : millis;
+        }
+
+        private static boolean isDateSeparator(char c) {
+            return c == '-' || c == '/' || c == '.';
+        }
+
+        private static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+    }
+
+    private static final class MinuteEpoch {
+
+        private final Layout layout;
+        private final String prefix;
+        private final long epochMillis;
+
+        private MinuteEpoch(Layout layout, String prefix, long epochMillis) {
+            this.layout = layout;
+            this.prefix = prefix;
+            this.epochMillis = epochMillis;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.log.common;
+
+import cn.hutool.json.JSONUtil;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.ToNumberPolicy;
+import com.google.gson.reflect.TypeToken;
+import org.apache.ozhera.log.parse.JsonLogParser;
+import org.apache.ozhera.log.parse.LogParser;
+import org.apache.ozhera.log.parse.LogParserFactory;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class JsonLogParserTest {
+
+    private static final String LINE = "{\"level\":\"INFO\",\"order\":{\"id\":1001,\"price\":12.5,\"items\":{\"sku\":\"A-1\"}},\"ok\":true,\"message\":\" created \"}";
+
+    @Test
+    public void flattenJson() {
+        Map<String, Object> ret = JsonLogParser.flattenJson(LINE);
+        Assert.assertEquals(7, ret.size());
+        Assert.assertEquals("INFO", ret.get("level"));
+        Assert.assertEquals(1001L, ret.get("order.id"));
+        Assert.assertEquals(12.5, ret.get("order.price"));
+        Assert.assertEquals("A-1", ret.get("order.items.sku"));
+        Assert.assertEquals(Boolean.TRUE, ret.get("ok"));
+        Assert.assertEquals(" created ", ret.get("message"));
+        // top level objects are kept as maps next to their leaves, nested ones only as leaves
+        Assert.assertEquals("{id=1001, price=12.5, items={sku=A-1}}", ret.get("order").toString());
+        Assert.assertFalse(ret.containsKey("order.items"));
+    }
+
+    @Test
+    public void flattenJsonFallback() {
+        // json in a string value is parsed and flattened as well
+        Map<String, Object> ret = JsonLogParser.flattenJson("{\"a\":\"{\\\"b\\\":1}\"}");
+        Assert.assertEquals(1L, ret.get("a.b"));
+        // a null value stops the flattening and keeps the line
+        ret = JsonLogParser.flattenJson("{\"a\":null,\"b\":{\"c\":1}}");
+        Assert.assertFalse(ret.containsKey("b.c"));
+        Assert.assertEquals("{\"a\":null,\"b\":{\"c\":1}}", ret.get(LogParser.ES_KEY_MAP_LOG_SOURCE));
+        ret = JsonLogParser.flattenJson("{\"a\":1,\"a\":2}");
+        Assert.assertEquals(1, ret.size());
+        Assert.assertEquals("{\"a\":1,\"a\":2}", ret.get(LogParser.ES_KEY_MAP_LOG_SOURCE));
+        ret = JsonLogParser.flattenJson("not json");
+        Assert.assertEquals("not json", ret.get(LogParser.ES_KEY_MAP_LOG_SOURCE));
+    }
+
+    @Test
+    public void parseSimple() {
+        LogParser parser = LogParserFactory.getLogParser(LogParserFactory.LogParserEnum.JSON_PARSE.getCode(),
+                "level:1,message:1,order.id:1,order.items.sku:1,missing:1", "0,1,2,3,4", "", "");
+        Map<String, Object> ret = parser.parseSimple(LINE, 1700000000000L);
+        Assert.assertEquals("INFO", ret.get("level"));
+        Assert.assertEquals("created", ret.get("message"));
+        Assert.assertEquals("1001", ret.get("order.id"));
+        Assert.assertEquals("A-1", ret.get("order.items.sku"));
+        Assert.assertEquals("", ret.get("missing"));
+        Assert.assertFalse(ret.containsKey(LogParser.ES_KEY_MAP_LOG_SOURCE));
+    }
+
+    /**
+     * Random lines, a part of them broken, against the flattening of the parsed map that JsonLogParser used before
+     * it read the token stream: same flattened map, and same fields for tails with different key lists.
+     */
+    @Test
+    public void sameAsParsedMapFlattening() {
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 40000; i++) {
+            String line = randomObject(random, 0);
+            switch (random.nextInt(20)) {
+                case 0:
+                    line = line.substring(0, random.nextInt(line.length() + 1));
+                    break;
+                case 1:
+                    line = line + "x";
+                    break;
+                case 2:
+                    line = " " + line + " ";
+                    break;
+                case 3:
+                    line = line.replace("\"", "");
+                    break;
+                default:
+                    break;
+            }
+            lines.add(line);
+        }
+        lines.addAll(Arrays.asList("", " ", "null", "[]", "x", "{}", "{\"a\":1}{\"b\":2}", "{a:1,b:'x'}", "{\"a\":NaN}"));
+        String[] keyLists = {
+                "msg:1,a:1,a.b:1",
+                "a.b.c:1,n:1",
+                "a:1,logsource:1,b:1",
+                "c:1",
+                "n.a:1,n.b:1,msg:1"
+        };
+        List<LogParser> parsers = new ArrayList<>();
+        for (String keyList : keyLists) {
+            String[] keys = keyList.split(",");
+            StringBuilder valueList = new StringBuilder();
+            for (int i = 0; i < keys.length; i++) {
+                valueList.append(i == 0 ? "" : ",").append(i);
+            }
+            parsers.add(LogParserFactory.getLogParser(LogParserFactory.LogParserEnum.JSON_PARSE.getCode(),
+                    keyList, valueList.toString(), "", ""));
+        }
+        for (String line : lines) {
+            Map<String, Object> expected = parsedMapFlattening(line);
+            Assert.assertEquals(line, expected, JsonLogParser.flattenJson(line));
+            for (int i = 0; i < keyLists.length; i++) {
+                Map<String, Object> fields = new HashMap<>();
+                try {
+                    for (String key : line.isEmpty() ? new String[0] : keyLists[i].split(",")) {
+                        key = key.substring(0, key.indexOf(':'));
+                        String value = expected.getOrDefault(key, "").toString();
+                        fields.put(key, StringUtils.isNotEmpty(value) ? value.trim() : value);
+                    }
+                } catch (NullPointerException e) {
+                    fields.put(LogParser.ES_KEY_MAP_LOG_SOURCE, line);
+                }
+                Assert.assertEquals(keyLists[i] + " " + line, fields, parsers.get(i).parseSimple(line, 1700000000000L));
+            }
+        }
+    }
+
+    private static final Gson GSON = new GsonBuilder()
+            .setObjectToNumberStrategy(ToNumberPolicy.LONG_OR_DOUBLE)
+            .setLenient()
+            .create();
+
+    private static final TypeToken<Map<String, Object>> MAP_TYPE = new TypeToken<>() {
+    };
+
+    /**
+     * JsonLogParser.flattenJson as it was before the token stream flattening.
+     */
+    private static Map<String, Object> parsedMapFlattening(String logData) {
+        Map<String, Object> ret = new HashMap<>();
+        if (logData == null || logData.isEmpty()) {
+            return ret;
+        }
+        try {
+            Map<String, Object> rawLogMap = GSON.fromJson(logData, MAP_TYPE);
+            ret.putAll(rawLogMap);
+            flattenMap("", rawLogMap, ret);
+        } catch (Exception e) {
+            ret.put(LogParser.ES_KEY_MAP_LOG_SOURCE, logData);
+        }
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void flattenMap(String prefix, Map<String, Object> source, Map<String, Object> target) {
+        for (Map.Entry<String, Object> entry : source.entrySet()) {
+            String key = prefix.isEmpty() ? entry.getKey() : prefix + "." + entry.getKey();
+            Object value = entry.getValue();
+            if (JSONUtil.isTypeJSON(entry.getValue().toString())) {
+                if (!(value instanceof Map)) {
+                    value = GSON.fromJson(entry.getValue().toString(), MAP_TYPE.getType());
+                }
+                flattenMap(key, (Map<String, Object>) value, target);
+            } else {
+                target.put(key, value);
+            }
+        }
+    }
+
+    private static final String[] KEYS = {"a", "b", "c", "a.b", "", "msg", "n", "a.b.c"};
+
+    private static String randomObject(Random random, int depth) {
+        StringBuilder object = new StringBuilder("{");
+        int count = random.nextInt(4);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                object.append(',');
+            }
+            object.append('"').append(KEYS[random.nextInt(KEYS.length)]).append("\":").append(randomValue(random, depth));
+        }
+        return object.append('}').toString();
+    }
+
+    private static String randomValue(Random random, int depth) {
+        switch (random.nextInt(depth > 2 ? 7 : 9)) {
+            case 0:
+                return "\"s" + random.nextInt(100) + "\"";
+            case 1:
+                return String.valueOf(random.nextInt(1000) - 500);
+            case 2:
+                return random.nextBoolean() ? "1.5" : "12345678901234567890";
+            case 3:
+                return random.nextBoolean() ? "true" : "false";
+            case 4:
+                return random.nextInt(8) == 0 ? "null" : "\"x y\"";
+            case 5:
+                return random.nextInt(8) == 0 ? "[1,2]" : "\"[not\"";
+            case 6:
+                return random.nextInt(8) == 0 ? "\"{\\\"q\\\":1}\"" : "\" {no\"";
+            default:
+                return randomObject(random, depth + 1);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.log.common;
+
+import org.apache.ozhera.log.parse.LogParser;
+import org.apache.ozhera.log.parse.LogParserFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lines per second on one core for every {@link LogParserFactory.LogParserEnum}, with the store configurations
+ * the parsers get from log-manager: {@link LogParser#parse} as log-agent calls it and {@link LogParser#parseSimple}
+ * as log-stream calls it.
+ * Run with -prof gc, gc.alloc.rate.norm is the bytes allocated per line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class LogParserBenchmark {
+
+    private static final String KEY_LIST = "timestamp:1,mqtopic:3,mqtag:3,logstore:3,logsource:3,message:1,tail:3,logip:3,linenumber:3,filename:3,level:1,thread_name:1,class_name:1,trace_id:1,tailId:3,spaceId:3,storeId:3,deploySpace:3";
+
+    private static final String VALUE_LIST = "0,5,1,2,3,4";
+
+    @Param({"RAW_LOG_PARSE", "SEPARATOR_PARSE", "CUSTOM_PARSE", "REGEX_PARSE", "JSON_PARSE", "NGINX_PARSE"})
+    private String parserType;
+
+    private LogParser parser;
+
+    private String[] lines;
+
+    private int next;
+
+    private long lineNumber;
+
+    @Setup
+    public void setup() {
+        LogParserFactory.LogParserEnum parserEnum = LogParserFactory.LogParserEnum.valueOf(parserType);
+        String keyList = KEY_LIST;
+        String valueList = VALUE_LIST;
+        String parseScript;
+        switch (parserEnum) {
+            case SEPARATOR_PARSE:
+                parseScript = "|";
+                lines = new String[]{
+                        "2024-05-20 10:15:30.123|INFO|main|org.apache.ozhera.log.Demo|3f2a9c1d|order 1001 created",
+                        "2024-05-20 10:15:30.456|WARN|http-nio-8080-exec-3|org.apache.ozhera.log.Demo|7b1e4d20|retry 2 for order 1002",
+                        "2024-05-20 10:15:31.001|ERROR|pool-2-thread-1|org.apache.ozhera.log.Demo|c9d0e8f1|order 1003 failed: timeout"};
+                break;
+            case CUSTOM_PARSE:
+                parseScript = "[%s]-[%s]-[%s]-[%s]-[%s]-%s";
+                lines = new String[]{
+                        "[2024-05-20 10:15:30.123] [INFO] [main] [org.apache.ozhera.log.Demo] [3f2a9c1d] order 1001 created",
+                        "[2024-05-20 10:15:30.456] [WARN] [http-nio-8080-exec-3] [org.apache.ozhera.log.Demo] [7b1e4d20] retry 2 for order 1002",
+                        "[2024-05-20 10:15:31.001] [ERROR] [pool-2-thread-1] [org.apache.ozhera.log.Demo] [c9d0e8f1] order 1003 failed: timeout"};
+                break;
+            case REGEX_PARSE:
+                parseScript = "(\\d{4}-\\d{2}-\\d{2}\\s\\d{2}:\\d{2}:\\d{2}\\.\\d{3})\\s\\[(.*?)\\]\\s\\[(.*?)\\]\\s\\[(.*?)\\]\\s\\[(.*?)\\]\\s([\\s\\S]*)";
+                lines = new String[]{
+                        "2024-05-20 10:15:30.123 [INFO] [main] [org.apache.ozhera.log.Demo] [3f2a9c1d] order 1001 created",
+                        "2024-05-20 10:15:30.456 [WARN] [http-nio-8080-exec-3] [org.apache.ozhera.log.Demo] [7b1e4d20] retry 2 for order 1002",
+                        "2024-05-20 10:15:31.001 [ERROR] [pool-2-thread-1] [org.apache.ozhera.log.Demo] [c9d0e8f1] order 1003 failed: timeout"};
+                break;
+            case JSON_PARSE:
+                keyList = KEY_LIST + ",order.id:1,order.status:1";
+                valueList = VALUE_LIST + ",6,7";
+                parseScript = "";
+                lines = new String[]{
+                        "{\"timestamp\":\"2024-05-20 10:15:30.123\",\"level\":\"INFO\",\"thread_name\":\"main\",\"class_name\":\"org.apache.ozhera.log.Demo\",\"trace_id\":\"3f2a9c1d\",\"message\":\"order created\",\"order\":{\"id\":1001,\"status\":\"NEW\"}}",
+                        "{\"timestamp\":\"2024-05-20 10:15:30.456\",\"level\":\"WARN\",\"thread_name\":\"http-nio-8080-exec-3\",\"class_name\":\"org.apache.ozhera.log.Demo\",\"trace_id\":\"7b1e4d20\",\"message\":\"retry\",\"order\":{\"id\":1002,\"status\":\"PAYING\"}}",
+                        "{\"timestamp\":\"2024-05-20 10:15:31.001\",\"level\":\"ERROR\",\"thread_name\":\"pool-2-thread-1\",\"class_name\":\"org.apache.ozhera.log.Demo\",\"trace_id\":\"c9d0e8f1\",\"message\":\"failed: timeout\",\"order\":{\"id\":1003,\"status\":\"FAILED\"}}"};
+                break;
+            case NGINX_PARSE:
+                keyList = "mqtopic:3,mqtag:3,logstore:3,logsource:3,tail:3,logip:3,linenumber:3,filename:3,remote_addr:1,remote_user:1,time_local:1,request:1,status:1,body_bytes_sent:1,http_user_agent:1";
+                valueList = "0,1,2,3,4,5,6";
+                parseScript = "log_format main '$remote_addr - $remote_user [$time_local] \"$request\" $status $body_bytes_sent \"$http_user_agent\"';";
+                lines = new String[]{
+                        "10.0.0.1 - - [20/May/2024:10:15:30 +0800] \"GET /api/order/1001 HTTP/1.1\" 200 512 \"curl/8.4.0\"",
+                        "10.0.0.2 - admin [20/May/2024:10:15:30 +0800] \"POST /api/order HTTP/1.1\" 201 128 \"Mozilla/5.0 (X11; Linux x86_64)\"",
+                        "10.0.0.3 - - [20/May/2024:10:15:31 +0800] \"GET /health HTTP/1.1\" 200 2 \"kube-probe/1.28\""};
+                break;
+            default:
+                parseScript = "";
+                lines = new String[]{
+                        "[2024-05-20 10:15:30] order 1001 created",
+                        "2024-05-20 10:15:30 retry 2 for order 1002",
+                        "order 1003 failed: timeout"};
+        }
+        parser = LogParserFactory.getLogParser(parserEnum.getCode(), keyList, valueList, parseScript,
+                "ozhera_log_topic", "demo-tail", "demo-tag", "demo-store", keyList);
+    }
+
+    @Benchmark
+    public Map<String, Object> parse() {
+        return parser.parse(lines[nextLine()], "10.0.0.100", ++lineNumber, System.currentTimeMillis(), "/home/work/log/demo/server.log");
+    }
+
+    @Benchmark
+    public Map<String, Object> parseSimple() {
+        return parser.parseSimple(lines[nextLine()], System.currentTimeMillis());
+    }
+
+    private int nextLine() {
+        int i = next++;
+        if (next == lines.length) {
+            next = 0;
+        }
+        return i;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(LogParserBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
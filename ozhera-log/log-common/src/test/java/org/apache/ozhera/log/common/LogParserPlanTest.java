@@ -0,0 +1,534 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.log.common;
+
+import cn.hutool.core.collection.CollectionUtil;
+import cn.hutool.core.util.StrUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.ozhera.log.parse.CustomLogParser;
+import org.apache.ozhera.log.parse.JsonLogParser;
+import org.apache.ozhera.log.parse.LogParser;
+import org.apache.ozhera.log.parse.LogParserData;
+import org.apache.ozhera.log.parse.RawLogParser;
+import org.apache.ozhera.log.parse.RegexLogParser;
+import org.apache.ozhera.log.parse.SeparatorLogParser;
+import org.apache.ozhera.log.utils.IndexUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * The parsers with the plans compiled from their key list, value list and key order list against copies of the
+ * parsing they replace, which split those lists again for every line. Random configurations include broken keys,
+ * unparseable values and missing lists. Both sides take their timestamps from the parser under test, so only the
+ * field extraction is compared.
+ */
+public class LogParserPlanTest {
+
+    private static final long COLLECT_STAMP = 1700000000000L;
+
+    private static final String IP = "10.0.0.100";
+
+    private static final String FILE_NAME = "/home/work/log/demo/server.log";
+
+    private static final String[] KEYS = {"timestamp", "message", "level", "thread", "traceId", "time",
+            "mqtopic", "mqtag", "logstore", "tail", "logsource", "logip"};
+
+    private static final String[] JSON_KEYS = {"timestamp", "message", "level", "order", "order.id",
+            "order.items.sku", "a.b", "ok", "missing"};
+
+    private static final String[] TYPES = {"keyword", "text", "date", "Date", "long", "1", "3"};
+
+    private static final String[] TOKENS = {"", " ", "INFO", " order 1001 created ", "1001", "a12",
+            "2024-05-20 10:15:30.123", "24-05-20 10:15:30", "[2024-05-20 10:15:30]", "a:b,c", "\u4e2d\u6587"};
+
+    private static final String[] REGEX_SCRIPTS = {"(\\S*) \\[(.*?)\\] (\\S*) ([\\s\\S]*)",
+            "(a)?(\\d+)-(\\w*)", "^(\\S+)\\|(.*)$", "(\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}\\.\\d{3}) (.*)"};
+
+    private static final String[] REGEX_DELIMITERS = {" ", " [", "] ", "|", "-"};
+
+    private static final String[] CUSTOM_FIELDS = {"[%s]", "(%s)", "<%s>", "%s"};
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void testSeparatorParser() {
+        int lines = 0;
+        for (int i = 0; i < 3000; i++) {
+            String separator = random.nextBoolean() ? "|" : "]|[";
+            LogParserData data = randomData(KEYS, separator);
+            LogParser parser = newParser(data, () -> new SeparatorLogParser(data));
+            if (null == parser) {
+                continue;
+            }
+            for (int j = 0; j < 5; j++) {
+                String line = randomLine(separator);
+                assertSameResult(parser, data, line, logData -> legacySeparator(parser, data, logData));
+                lines++;
+            }
+        }
+        Assert.assertTrue(lines > 10000);
+    }
+
+    @Test
+    public void testRegexParser() {
+        int lines = 0;
+        for (int i = 0; i < 3000; i++) {
+            LogParserData data = randomData(KEYS, REGEX_SCRIPTS[random.nextInt(REGEX_SCRIPTS.length)]);
+            LogParser parser = newParser(data, () -> new RegexLogParser(data));
+            if (null == parser) {
+                continue;
+            }
+            for (int j = 0; j < 5; j++) {
+                String line = randomLine(REGEX_DELIMITERS[random.nextInt(REGEX_DELIMITERS.length)]);
+                assertSameResult(parser, data, line, logData -> legacyRegex(parser, data, logData));
+                lines++;
+            }
+        }
+        Assert.assertTrue(lines > 10000);
+    }
+
+    @Test
+    public void testJsonParser() {
+        int lines = 0;
+        for (int i = 0; i < 3000; i++) {
+            LogParserData data = randomData(JSON_KEYS, "");
+            LogParser parser = newParser(data, () -> new JsonLogParser(data));
+            if (null == parser) {
+                continue;
+            }
+            for (int j = 0; j < 5; j++) {
+                String line = randomJson();
+                assertSameResult(parser, data, line, logData -> legacyJson(parser, data, logData));
+                lines++;
+            }
+        }
+        Assert.assertTrue(lines > 10000);
+    }
+
+    @Test
+    public void testCustomParser() {
+        int lines = 0;
+        for (int i = 0; i < 3000; i++) {
+            List<String> fields = new ArrayList<>();
+            for (int k = random.nextInt(6) + 1; k > 0; k--) {
+                fields.add(CUSTOM_FIELDS[random.nextInt(CUSTOM_FIELDS.length)]);
+            }
+            LogParserData data = randomData(KEYS, String.join("-", fields));
+            LogParser parser = newParser(data, () -> new CustomLogParser(data));
+            if (null == parser) {
+                continue;
+            }
+            for (int j = 0; j < 5; j++) {
+                String line = randomCustomLine(fields);
+                assertSameResult(parser, data, line, logData -> legacyCustom(parser, data, logData));
+                lines++;
+            }
+        }
+        Assert.assertTrue(lines > 10000);
+    }
+
+    @Test
+    public void testEmptyValueKeepsLine() {
+        LogParser parser = new SeparatorLogParser(LogParserData.builder()
+                .keyList("level:keyword,message:text").valueList("0,1").parseScript("|").build());
+        Map<String, Object> ret = parser.parse("INFO|", IP, 1L, COLLECT_STAMP, FILE_NAME);
+        Assert.assertEquals("", ret.get(LogParser.ES_KEY_MAP_MESSAGE));
+        Assert.assertEquals("INFO|", ret.get(LogParser.ES_KEY_MAP_LOG_SOURCE));
+        // numbers and nulls are not empty
+        ret = parser.parse("INFO|created", IP, null, COLLECT_STAMP, FILE_NAME);
+        Assert.assertFalse(ret.containsKey(LogParser.ES_KEY_MAP_LOG_SOURCE));
+    }
+
+    /**
+     * A configuration the parser can not be built with must fail in the constructor shared with the old parsers.
+     */
+    private static LogParser newParser(LogParserData data, Supplier<LogParser> constructor) {
+        try {
+            return constructor.get();
+        } catch (RuntimeException e) {
+            try {
+                new RawLogParser(data);
+                throw new AssertionError("only the parser with the compiled plan fails: " + describe(data), e);
+            } catch (RuntimeException expected) {
+                return null;
+            }
+        }
+    }
+
+    private static void assertSameResult(LogParser parser, LogParserData data, String line,
+                                         Function<String, Map<String, Object>> legacy) {
+        String message = describe(data) + " line=" + line;
+        Assert.assertEquals(message, legacy.apply(line), parser.parseSimple(line, COLLECT_STAMP));
+        if (null != line) {
+            Assert.assertEquals(message, legacyWrap(parser, data, legacy.apply(line), line),
+                    parser.parse(line, IP, 7L, COLLECT_STAMP, FILE_NAME));
+        }
+    }
+
+    private static String describe(LogParserData data) {
+        return "keyList=" + data.getKeyList() + " valueList=" + data.getValueList() + " keyOrderList="
+                + data.getKeyOrderList() + " parseScript=" + data.getParseScript();
+    }
+
+    private LogParserData randomData(String[] keyNames, String parseScript) {
+        int keyCount = random.nextInt(8);
+        List<String> keys = new ArrayList<>();
+        List<String> order = new ArrayList<>();
+        for (int i = 0; i < keyCount; i++) {
+            String key = keyNames[random.nextInt(keyNames.length)];
+            keys.add(random.nextInt(10) == 0 ? key : key + ":" + TYPES[random.nextInt(TYPES.length)]);
+            order.add(key + ":" + (random.nextInt(4) == 0 ? "3" : "1"));
+        }
+        List<String> values = new ArrayList<>();
+        for (int i = random.nextInt(keyCount + 3); i > 0; i--) {
+            values.add(random.nextInt(12) == 0 ? "x" : String.valueOf(random.nextInt(8) - 1));
+        }
+        return LogParserData.builder()
+                .keyList(random.nextInt(30) == 0 ? null : String.join(",", keys))
+                .valueList(random.nextInt(30) == 0 ? null : String.join(",", values))
+                .keyOrderList(random.nextInt(3) == 0 ? String.join(",", order) : "")
+                .parseScript(parseScript)
+                .topicName("topic")
+                .tailName("tail")
+                .mqTag("tag")
+                .logStoreName("store")
+                .build();
+    }
+
+    private String randomLine(String separator) {
+        int choice = random.nextInt(20);
+        if (choice == 0) {
+            return null;
+        } else if (choice == 1) {
+            return "";
+        }
+        List<String> tokens = new ArrayList<>();
+        for (int i = random.nextInt(9); i >= 0; i--) {
+            tokens.add(TOKENS[random.nextInt(TOKENS.length)]);
+        }
+        return String.join(separator, tokens);
+    }
+
+    private String randomJson() {
+        int choice = random.nextInt(20);
+        if (choice == 0) {
+            return null;
+        } else if (choice == 1) {
+            return "";
+        } else if (choice == 2) {
+            return "not json";
+        } else if (choice == 3) {
+            return "{\"level\":";
+        }
+        List<String> members = new ArrayList<>();
+        members.add("\"level\":\"" + TOKENS[random.nextInt(TOKENS.length)] + "\"");
+        members.add("\"message\":" + (random.nextInt(5) == 0 ? "null" : "\"" + TOKENS[random.nextInt(TOKENS.length)] + "\""));
+        members.add("\"timestamp\":\"" + TOKENS[random.nextInt(TOKENS.length)] + "\"");
+        members.add("\"order\":{\"id\":" + random.nextInt(2000) + ",\"price\":12.50,\"items\":{\"sku\":\"A-1\"}}");
+        members.add("\"ok\":" + random.nextBoolean());
+        members.add("\"a\":\"{\\\"b\\\":" + random.nextInt(10) + "}\"");
+        Collections.shuffle(members, random);
+        return "{" + String.join(",", members.subList(0, random.nextInt(members.size() + 1))) + "}";
+    }
+
+    private String randomCustomLine(List<String> fields) {
+        if (random.nextInt(20) == 0) {
+            return random.nextBoolean() ? null : "";
+        }
+        List<String> parts = new ArrayList<>();
+        for (String field : fields) {
+            if (random.nextInt(8) != 0) {
+                parts.add(String.format(random.nextInt(8) == 0 ? "%s" : field, TOKENS[random.nextInt(TOKENS.length)]));
+            }
+        }
+        return String.join(" ", parts);
+    }
+
+    private static Map<String, Integer> legacyValueMap(LogParserData data) {
+        List<String> valueList = Collections.emptyList();
+        if (StringUtils.isNotBlank(data.getKeyOrderList())) {
+            valueList = Arrays.asList(StringUtils.split(IndexUtils.getKeyValueList(data.getKeyOrderList(), data.getValueList()), ","));
+        }
+        Map<String, Integer> valueMap = new HashMap<>();
+        for (int i = 0; i < valueList.size(); i++) {
+            valueMap.put(valueList.get(i), i);
+        }
+        return valueMap;
+    }
+
+    /**
+     * {@code SeparatorLogParser#doParseSimple} before the step table.
+     */
+    private static Map<String, Object> legacySeparator(LogParser parser, LogParserData data, String logData) {
+        String[] keysAndTypes = StringUtils.split(data.getKeyList(), ",");
+        String[] values = StringUtils.split(data.getValueList(), ",");
+        Map<String, Integer> valueMap = legacyValueMap(data);
+        Map<String, Object> ret = new HashMap<>();
+        if (logData == null || logData.isEmpty()) {
+            return ret;
+        }
+        try {
+            int maxLength = (int) Arrays.stream(values).filter(s -> !"-1".equals(s)).count();
+            List<String> logArray = Arrays.asList(StringUtils.splitByWholeSeparatorPreserveAllTokens(logData, data.getParseScript(), maxLength));
+            if (0 == maxLength) {
+                ret.put(LogParser.ES_KEY_MAP_MESSAGE, logData);
+                return ret;
+            }
+            if (values.length == 1 && logArray.size() == 1 && maxLength == 1) {
+                ret.put(keysAndTypes[0].split(":")[0], logArray.get(0));
+                return ret;
+            }
+            for (int i = 0; i < keysAndTypes.length; i++) {
+                String[] kTsplit = keysAndTypes[i].split(":");
+                if (kTsplit.length != 2 || i >= values.length && valueMap.isEmpty()) {
+                    continue;
+                }
+                if (kTsplit[0].equals(LogParser.esKeyMap_topic)) {
+                    ret.put(LogParser.esKeyMap_topic, data.getTopicName());
+                    continue;
+                } else if (kTsplit[0].equals(LogParser.esKeyMap_tag)) {
+                    ret.put(LogParser.esKeyMap_tag, data.getMqTag());
+                    continue;
+                } else if (kTsplit[0].equals(LogParser.esKeyMap_logstoreName)) {
+                    ret.put(LogParser.esKeyMap_logstoreName, data.getLogStoreName());
+                    continue;
+                } else if (kTsplit[0].equals(LogParser.esKeyMap_tail)) {
+                    ret.put(LogParser.esKeyMap_tail, data.getTailName());
+                    continue;
+                } else if (kTsplit[0].equals(LogParser.ES_KEY_MAP_LOG_SOURCE)) {
+                    continue;
+                }
+                if (!valueMap.isEmpty()) {
+                    String key = kTsplit[0].trim();
+                    if (valueMap.containsKey(key)) {
+                        ret.put(key, logArray.get(valueMap.get(key)));
+                    }
+                } else {
+                    int num;
+                    try {
+                        num = Integer.parseInt(values[i]);
+                        if (num == -1) {
+                            continue;
+                        }
+                    } catch (Exception e) {
+                        continue;
+                    }
+                    String value = num < logArray.size() && num > -1 ? logArray.get(num) : "";
+                    if (kTsplit[0].equals(LogParser.esKeyMap_timestamp) || kTsplit[1].equalsIgnoreCase(LogParser.esKeyMap_Date)) {
+                        ret.put(LogParser.esKeyMap_timestamp, parser.getTimestampFromString(value, COLLECT_STAMP));
+                    } else {
+                        ret.put(kTsplit[0], StringUtils.isNotEmpty(value) ? value.trim() : value);
+                    }
+                }
+            }
+            if (ret.values().stream().filter(Objects::nonNull).map(String::valueOf).anyMatch(StringUtils::isEmpty)) {
+                ret.put(LogParser.ES_KEY_MAP_LOG_SOURCE, logData);
+            }
+        } catch (Exception e) {
+            ret.put(LogParser.ES_KEY_MAP_LOG_SOURCE, logData);
+        }
+        return ret;
+    }
+
+    /**
+     * {@code RegexLogParser#doParseSimple} before the key index plan and the group key array.
+     */
+    private static Map<String, Object> legacyRegex(LogParser parser, LogParserData data, String logData) {
+        Map<String, Integer> valueMap = legacyValueMap(data);
+        Map<Integer, String> reversedMap = valueMap.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getValue, Map.Entry::getKey));
+        Map<String, Object> ret = new HashMap<>();
+        if (logData == null || logData.isEmpty()) {
+            return ret;
+        }
+        try {
+            Matcher matcher = Pattern.compile(data.getParseScript(), Pattern.MULTILINE).matcher(logData);
+            List<String> logArray = new ArrayList<>();
+            if (matcher.find()) {
+                for (int i = 1; i <= matcher.groupCount(); i++) {
+                    logArray.add(matcher.group(i));
+                }
+            }
+            if (!valueMap.isEmpty()) {
+                for (int i = 0; i < logArray.size(); i++) {
+                    String key = reversedMap.get(i);
+                    if (key != null) {
+                        ret.put(key, logArray.get(i));
+                    }
+                }
+            } else {
+                List<String> keyNameList = IndexUtils.getKeyListSlice(data.getKeyList());
+                int[] valueIndexList = Arrays.stream(data.getValueList().split(",")).mapToInt(Integer::parseInt).toArray();
+                for (int i = 0; i < keyNameList.size(); i++) {
+                    if (i >= valueIndexList.length || valueIndexList[i] == -1) {
+                        continue;
+                    }
+                    String value = "";
+                    if (valueIndexList[i] < logArray.size()) {
+                        value = logArray.get(valueIndexList[i]);
+                    }
+                    ret.put(keyNameList.get(i), StringUtils.isNotEmpty(value) ? value.trim() : value);
+                }
+            }
+            legacyValidTimestamp(parser, ret);
+        } catch (Exception e) {
+            ret.put(LogParser.ES_KEY_MAP_LOG_SOURCE, logData);
+        }
+        return ret;
+    }
+
+    /**
+     * {@code JsonLogParser#doParseSimple} before the key index plan.
+     */
+    private static Map<String, Object> legacyJson(LogParser parser, LogParserData data, String logData) {
+        Map<String, Object> ret = new HashMap<>();
+        if (logData == null || logData.isEmpty()) {
+            return ret;
+        }
+        try {
+            Map<String, Object> rawLogMap = JsonLogParser.flattenJson(logData);
+            List<String> keyNameList = IndexUtils.getKeyListSlice(data.getKeyList());
+            int[] valueIndexList = Arrays.stream(data.getValueList().split(",")).mapToInt(Integer::parseInt).toArray();
+            for (int i = 0; i < keyNameList.size(); i++) {
+                if (i >= valueIndexList.length || valueIndexList[i] == -1) {
+                    continue;
+                }
+                String currentKey = keyNameList.get(i);
+                String value = rawLogMap.getOrDefault(currentKey, "").toString();
+                ret.put(currentKey, StringUtils.isNotEmpty(value) ? value.trim() : value);
+            }
+            legacyValidTimestamp(parser, ret);
+        } catch (Exception e) {
+            ret.put(LogParser.ES_KEY_MAP_LOG_SOURCE, logData);
+        }
+        return ret;
+    }
+
+    /**
+     * {@code CustomLogParser#doParseSimple}, which parsed the script again for every line.
+     */
+    private static Map<String, Object> legacyCustom(LogParser parser, LogParserData data, String logData) {
+        Map<String, Object> ret = new HashMap<>();
+        if (logData == null) {
+            return null;
+        }
+        try {
+            Map<Integer, List<String>> mapPattern = new HashMap<>();
+            String[] split = StringUtils.split(data.getParseScript(), "-");
+            for (int i = 0; i < split.length; i++) {
+                String[] split1 = split[i].split("%s");
+                mapPattern.put(i, split1.length == 2 ? Arrays.asList(split1[0], split1[1]) : Arrays.asList("", ""));
+            }
+            String keyValueList = IndexUtils.getKeyValueList(data.getKeyList(), data.getValueList());
+            List<String> logPerComments = Arrays.stream(StringUtils.split(keyValueList, ",")).collect(Collectors.toList());
+            if (logData.length() == 0) {
+                return ret;
+            }
+            if (StringUtils.isBlank(keyValueList) && CollectionUtil.isEmpty(logPerComments)) {
+                ret.put(LogParser.ES_KEY_MAP_MESSAGE, logData);
+                return ret;
+            }
+            String line = logData;
+            List<String> logDataArray = new ArrayList<>();
+            for (int i = 0; i < mapPattern.size(); i++) {
+                String parsedData;
+                List<String> list = mapPattern.get(i);
+                if (StringUtils.isNotEmpty(list.get(0)) && StringUtils.isNotEmpty(list.get(1))) {
+                    parsedData = StringUtils.substringBetween(line, list.get(0), list.get(1));
+                } else if (i + 1 < mapPattern.size() && StringUtils.isNotEmpty(mapPattern.get(i + 1).get(0))) {
+                    parsedData = StringUtils.substringBetween(line, "", mapPattern.get(i + 1).get(0));
+                } else {
+                    parsedData = line;
+                }
+                if (null == parsedData) {
+                    break;
+                }
+                logDataArray.add(parsedData.trim());
+                line = StrUtil.removePrefix(line.trim(), String.format("%s%s%s", list.get(0), parsedData, list.get(1)).trim());
+            }
+            for (int i = 0; i < logPerComments.size(); i++) {
+                if (i >= logDataArray.size()) {
+                    ret.put(logPerComments.get(i), "");
+                    continue;
+                }
+                String value = logDataArray.get(i);
+                ret.put(logPerComments.get(i), StringUtils.isNotEmpty(value) ? value.trim() : value);
+            }
+            if (ret.values().stream().map(String::valueOf).anyMatch(StringUtils::isEmpty)) {
+                ret.put(LogParser.ES_KEY_MAP_LOG_SOURCE, logData);
+            }
+            legacyValidTimestamp(parser, ret);
+        } catch (Exception e) {
+            ret.put(LogParser.ES_KEY_MAP_LOG_SOURCE, logData);
+        }
+        return ret;
+    }
+
+    private static void legacyValidTimestamp(LogParser parser, Map<String, Object> ret) {
+        if (ret.containsKey(LogParser.esKeyMap_timestamp)) {
+            ret.put(LogParser.esKeyMap_timestamp, parser.getTimestampFromString(ret.get(LogParser.esKeyMap_timestamp).toString(), COLLECT_STAMP));
+        }
+    }
+
+    /**
+     * {@code AbstractLogParser#parse} around the parsed line, with the stream check of {@code validRet}.
+     */
+    private static Map<String, Object> legacyWrap(LogParser parser, LogParserData data, Map<String, Object> ret, String logData) {
+        if (!ret.containsKey(LogParser.esKeyMap_timestamp) && logData.startsWith(LogParser.LOG_PREFIX)) {
+            String timeStamp = StringUtils.substringBetween(logData, LogParser.LOG_PREFIX, LogParser.LOG_SUFFFIX);
+            ret.put(LogParser.esKeyMap_timestamp, parser.getTimestampFromString(timeStamp, COLLECT_STAMP));
+        }
+        if (!ret.containsKey(LogParser.esKeyMap_timestamp) && logData.startsWith(LogParser.specialTimePrefix)) {
+            String timeStamp = StringUtils.substring(logData, 0, LogParser.specialTimeLength);
+            ret.put(LogParser.esKeyMap_timestamp, parser.getTimestampFromString(timeStamp, COLLECT_STAMP));
+        }
+        ret.putIfAbsent(LogParser.esKeyMap_timestamp, COLLECT_STAMP);
+        ret.put(LogParser.esKeyMap_topic, data.getTopicName());
+        ret.put(LogParser.esKeyMap_tag, data.getMqTag());
+        ret.put(LogParser.esKeyMap_logstoreName, data.getLogStoreName());
+        ret.put(LogParser.esKeyMap_tail, data.getTailName());
+        ret.put(LogParser.esKeyMap_logip, IP);
+        ret.put(LogParser.esKeyMap_lineNumber, 7L);
+        ret.put(LogParser.esKyeMap_fileName, FILE_NAME);
+        if (!ret.containsKey(LogParser.ES_KEY_MAP_MESSAGE)) {
+            ret.put(LogParser.ES_KEY_MAP_MESSAGE, logData);
+            ret.remove(LogParser.ES_KEY_MAP_LOG_SOURCE);
+        }
+        if (ret.values().stream().filter(Objects::nonNull).map(String::valueOf).anyMatch(StringUtils::isEmpty)) {
+            ret.put(LogParser.ES_KEY_MAP_LOG_SOURCE, logData);
+        }
+        return ret;
+    }
+}
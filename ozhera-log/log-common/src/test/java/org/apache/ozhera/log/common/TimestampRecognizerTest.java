@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.log.common;
+
+import org.apache.commons.lang3.time.DateParser;
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.apache.ozhera.log.parse.LogParser;
+import org.apache.ozhera.log.parse.TimestampRecognizer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.Random;
+
+public class TimestampRecognizerTest {
+
+    private static final long FROM = 1000000000000L;
+
+    private static final long TO = 2208988800000L;
+
+    private static final long COLLECT_STAMP = 1700000000000L;
+
+    @Test
+    public void logParserFormats() throws ParseException {
+        assertFormat(LogParser.dateFormat1, FROM, TO);
+        assertFormat(LogParser.dateFormat3, FROM, TO);
+        assertFormat(LogParser.dateFormat4, FROM, TO);
+        // two digit years are completed with the current century
+        assertFormat(LogParser.dateFormat2, FROM, 2240611200000L);
+    }
+
+    @Test
+    public void otherLayouts() throws ParseException {
+        assertFormat(FastDateFormat.getInstance("yyyy/MM/dd HH:mm:ss.SSS"), FROM, TO);
+        assertFormat(FastDateFormat.getInstance("yyyy-MM-dd'T'HH:mm:ss.SSSZ"), FROM, TO);
+    }
+
+    @Test
+    public void layoutChange() throws ParseException {
+        TimestampRecognizer recognizer = new TimestampRecognizer();
+        String[] lines = {"2024-05-20 10:15:30.123", "2024-05-20 10:15:30", "2024-05-20 10:15:31,001", "2024-05-20 10:15:31.002"};
+        DateParser[] parsers = {LogParser.dateFormat3, LogParser.dateFormat1, LogParser.dateFormat4, LogParser.dateFormat3};
+        for (int i = 0; i < lines.length; i++) {
+            Assert.assertEquals(lines[i], parsers[i].parse(lines[i]).getTime(), recognizer.getTimestamp(lines[i], COLLECT_STAMP).longValue());
+            Assert.assertEquals(parsers[i].getPattern(), recognizer.getPattern());
+        }
+    }
+
+    @Test
+    public void outOfRangeFields() throws ParseException {
+        TimestampRecognizer recognizer = new TimestampRecognizer();
+        recognizer.getTimestamp("2024-05-20 10:15:30", COLLECT_STAMP);
+        Assert.assertEquals(LogParser.dateFormat1.getPattern(), recognizer.getPattern());
+        // same lenient calendar as hutool
+        Assert.assertEquals(LogParser.dateFormat1.parse("2023-03-02 10:00:00").getTime(),
+                recognizer.getTimestamp("2023-02-30 10:00:00", COLLECT_STAMP).longValue());
+        Assert.assertEquals(LogParser.dateFormat1.parse("2024-02-29 10:00:00").getTime(),
+                recognizer.getTimestamp("2024-02-29 10:00:00", COLLECT_STAMP).longValue());
+    }
+
+    @Test
+    public void notATimestamp() {
+        TimestampRecognizer recognizer = new TimestampRecognizer();
+        Assert.assertEquals(COLLECT_STAMP, recognizer.getTimestamp("INFO", COLLECT_STAMP).longValue());
+        Assert.assertEquals(COLLECT_STAMP, recognizer.getTimestamp("", COLLECT_STAMP).longValue());
+        Assert.assertEquals(COLLECT_STAMP, recognizer.getTimestamp(null, COLLECT_STAMP).longValue());
+        Assert.assertEquals(COLLECT_STAMP, recognizer.getTimestamp("main-thread-1", COLLECT_STAMP).longValue());
+        Assert.assertNull(recognizer.getPattern());
+
+        long before = System.currentTimeMillis();
+        long now = recognizer.getTimestamp("INFO", null);
+        Assert.assertTrue(now >= before && now <= System.currentTimeMillis());
+    }
+
+    private static void assertFormat(DateParser parser, long from, long to) throws ParseException {
+        FastDateFormat format = FastDateFormat.getInstance(parser.getPattern());
+        TimestampRecognizer recognizer = new TimestampRecognizer();
+        Random random = new Random(parser.getPattern().hashCode());
+        for (int i = 0; i < 20000; i++) {
+            long time = from + (long) (random.nextDouble() * (to - from));
+            String logTime = format.format(time);
+            long expected = parser.parse(logTime).getTime();
+            Assert.assertEquals(logTime, expected, recognizer.getTimestamp(logTime, COLLECT_STAMP).longValue());
+        }
+        Assert.assertEquals(parser.getPattern(), recognizer.getPattern());
+    }
+}
@@ -37,6 +37,8 @@ import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -114,6 +116,60 @@ public class LogDataTransfer {
         }
     }
 
+    /**
+     * Handle the lines of one poll of this tail: a line that can not be parsed is logged and skipped,
+     * the kept lines are sent as one batch and an error of the sender is thrown, so the caller can retry the batch.
+     */
+    public void handleMessages(String type, List<String> msgs) throws Exception {
+        List<Map<String, Object>> sendList = new ArrayList<>(msgs.size());
+        for (String msg : msgs) {
+            try {
+                LineMessage lineMessage = parseLineMessage(msg);
+
+                messageLifecycleManager.beforeProcess(sinkJobConfig, lineMessage);
+
+                Map<String, Object> dataMap = parseMessage(lineMessage);
+
+                messageLifecycleManager.afterProcess(sinkJobConfig, lineMessage, dataMap);
+
+                if (toSendList(dataMap)) {
+                    sendList.add(dataMap);
+                }
+            } catch (Exception e) {
+                log.error(jobType.name() + " parse error,msg:{}", msg, e);
+            }
+        }
+        if (!sendList.isEmpty()) {
+            rateLimiter.acquire(sendList.size());
+            messageSender.sendBatch(sendList);
+        }
+        for (String msg : msgs) {
+            messagePostProcessing.postProcessing(sinkJobConfig, msg);
+        }
+    }
+
+    /**
+     * Push what the sender still buffers to the storage.
+     */
+    public void flush() throws Exception {
+        messageSender.flush();
+    }
+
+    private boolean toSendList(Map<String, Object> dataMap) {
+        if (sendMsgNumber.get() % COUNT_NUM == 0 || sendMsgNumber.get() == 1) {
+            log.info(jobType.name() + " send msg:{}", dataMap);
+        }
+        if (SinkJobEnum.NORMAL_JOB == jobType && (null == dataMap || sinkChain.execute(dataMap))) {
+            return false;
+        }
+        if (!logSendFilter.sendMessageSwitch(dataMap)) {
+            return false;
+        }
+        sendMsgNumber.incrementAndGet();
+        checkInsertTimeStamp(dataMap);
+        return true;
+    }
+
     private void toSendMessage(Map<String, Object> dataMap) throws Exception {
         if (sendMsgNumber.get() % COUNT_NUM == 0 || sendMsgNumber.get() == 1) {
             log.info(jobType.name() + " send msg:{}", dataMap);
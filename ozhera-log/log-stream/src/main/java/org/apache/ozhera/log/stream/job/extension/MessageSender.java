@@ -20,6 +20,7 @@ package org.apache.ozhera.log.stream.job.extension;
 
 import org.apache.ozhera.log.stream.job.compensate.MqMessageDTO;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -32,6 +33,22 @@ public interface MessageSender {
 
     Boolean send(Map<String, Object> data) throws Exception;
 
+    /**
+     * Send the data of a batch, one by one unless the sender can do better.
+     */
+    default Boolean sendBatch(List<Map<String, Object>> dataList) throws Exception {
+        for (Map<String, Object> data : dataList) {
+            send(data);
+        }
+        return true;
+    }
+
+    /**
+     * Hand what the sender buffers over to the storage, called before the consumed offsets are committed.
+     */
+    default void flush() throws Exception {
+    }
+
 
     boolean compensateSend(MqMessageDTO compensateMsg);
 
@@ -83,14 +83,13 @@ public class DorisMessageSender implements MessageSender {
 
         ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
 
-        scheduledExecutorService.scheduleAtFixedRate(this::flush, 1000, 3000, TimeUnit.MILLISECONDS);
+        scheduledExecutorService.scheduleAtFixedRate(this::scheduledFlush, 1000, 3000, TimeUnit.MILLISECONDS);
     }
 
-    private void flush() {
+    private void scheduledFlush() {
         if (reentrantLock.tryLock()) {
             try {
-                dorisStreamLoad.sendData(dataBaseName, tableName, columnList, dataList);
-                dataList.clear();
+                sendBuffered();
             } catch (Exception e) {
                 log.error("flush data error", e);
             } finally {
@@ -99,6 +98,24 @@ public class DorisMessageSender implements MessageSender {
         }
     }
 
+    @Override
+    public void flush() throws Exception {
+        reentrantLock.lock();
+        try {
+            sendBuffered();
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    private void sendBuffered() throws Exception {
+        if (dataList.isEmpty()) {
+            return;
+        }
+        dorisStreamLoad.sendData(dataBaseName, tableName, columnList, dataList);
+        dataList.clear();
+    }
+
 
     @Override
     public Boolean send(Map<String, Object> data) throws Exception {
@@ -118,6 +135,24 @@ public class DorisMessageSender implements MessageSender {
         return true;
     }
 
+    /**
+     * The rows of a batch are loaded right away and never left in the shared buffer, so a failed batch leaves
+     * nothing behind to be loaded again next to the batch the caller retries.
+     */
+    @Override
+    public Boolean sendBatch(List<Map<String, Object>> batch) throws Exception {
+        log.debug("dataBaseName:{},tableName:{},batch size:{}", dataBaseName, tableName, batch.size());
+        reentrantLock.lock();
+        try {
+            for (int from = 0; from < batch.size(); from += BATCH_SEND_SIZE) {
+                dorisStreamLoad.sendData(dataBaseName, tableName, columnList, batch.subList(from, Math.min(batch.size(), from + BATCH_SEND_SIZE)));
+            }
+        } finally {
+            reentrantLock.unlock();
+        }
+        return true;
+    }
+
     @Override
     public boolean compensateSend(MqMessageDTO compensateMsg) {
         if (null != compensateMsgProduct) {
@@ -19,12 +19,17 @@
 package org.apache.ozhera.log.stream.job.extension.impl;
 
 import com.xiaomi.mone.es.EsProcessor;
+import org.apache.ozhera.log.common.Config;
 import org.apache.ozhera.log.stream.job.compensate.MqMessageDTO;
 import org.apache.ozhera.log.stream.job.extension.MessageSender;
 import org.apache.ozhera.log.stream.job.extension.MqMessageProduct;
+import org.apache.ozhera.log.stream.plugin.es.EsBulkTracker;
+import org.apache.ozhera.log.stream.plugin.es.EsPlugin;
 import org.apache.ozhera.log.utils.DateUtils;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author wtt
@@ -36,8 +41,25 @@ public class EsMessageSender implements MessageSender {
 
     private EsProcessor esProcessor;
 
+    private EsBulkTracker bulkTracker;
+
     private final String index;
 
+    /**
+     * Longest wait for es to acknowledge a batch before it is reported as failed.
+     */
+    private final long ackTimeoutMillis = Long.parseLong(Config.ins().get("es.ack.timeout.ms", "60000"));
+
+    /**
+     * Number of the first document sent since the last flush, -1 if there is none.
+     */
+    private final AtomicLong firstUnflushed = new AtomicLong(-1);
+
+    /**
+     * Number of the last document sent.
+     */
+    private final AtomicLong lastSent = new AtomicLong();
+
     /**
      * Compensating message MQ queue.
      */
@@ -54,16 +76,56 @@ public class EsMessageSender implements MessageSender {
 
     public void setEsProcessor(EsProcessor esProcessor) {
         this.esProcessor = esProcessor;
+        this.bulkTracker = EsPlugin.getBulkTracker(esProcessor);
     }
 
     @Override
     public Boolean send(Map<String, Object> data) throws Exception {
         String time = DateUtils.getTime();
         String esIndex = index + "-" + time;
-        esProcessor.bulkInsert(esIndex, data);
+        long number = bulkTracker.add(esIndex, data);
+        sent(number, number);
         return true;
     }
 
+    /**
+     * Only hands the batch to the bulk processor, {@link #flush()} waits for es to acknowledge it.
+     */
+    @Override
+    public Boolean sendBatch(List<Map<String, Object>> dataList) throws Exception {
+        if (dataList.isEmpty()) {
+            return true;
+        }
+        String esIndex = index + "-" + DateUtils.getTime();
+        long first = -1;
+        long last = -1;
+        for (Map<String, Object> data : dataList) {
+            last = bulkTracker.add(esIndex, data);
+            if (first < 0) {
+                first = last;
+            }
+        }
+        sent(first, last);
+        return true;
+    }
+
+    private void sent(long first, long last) {
+        lastSent.accumulateAndGet(last, Math::max);
+        firstUnflushed.compareAndSet(-1, first);
+    }
+
+    /**
+     * Wait for es to acknowledge what was sent since the last flush. A bulk that failed and could not be handed
+     * to the compensate queue is thrown, so the caller sends its data again instead of committing it.
+     */
+    @Override
+    public void flush() throws Exception {
+        long first = firstUnflushed.getAndSet(-1);
+        if (first >= 0) {
+            bulkTracker.await(first, lastSent.get(), ackTimeoutMillis);
+        }
+    }
+
     @Override
     public boolean compensateSend(MqMessageDTO compensateMsg) {
         if (null != compensateMsgProduct) {
@@ -127,7 +127,7 @@ public class RocketCompensateMsgConsume implements CompensateMsgConsume {
                 log.info("mq index timestamp data:{},current timestamp:{}", hashMap.get(LogParser.esKeyMap_timestamp), Instant.now().toEpochMilli());
                 EsProcessor esProcessor = EsPlugin.getEsProcessor(mqMessageDTO.getEsInfo(),
                         mqMessageDTO1 -> log.error("compensate msg store failed, data size:{}", mqMessageDTO1.getCompensateMqDTOS().size()));
-                esProcessor.bulkInsert(esIndex, hashMap);
+                EsPlugin.getBulkTracker(esProcessor).add(esIndex, hashMap);
             });
         }
     }
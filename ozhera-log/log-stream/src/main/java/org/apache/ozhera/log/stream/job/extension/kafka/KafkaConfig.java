@@ -31,6 +31,12 @@ import lombok.Data;
 public class KafkaConfig extends MQConfig {
     private String consumerGroup;
 
+    /**
+     * The per tag group the tail consumed with before it shared the per topic group, its offsets are where
+     * the per topic group starts. Null when the tail consumes with its own group.
+     */
+    private String tagConsumerGroup;
+
     private String namesAddr;
 
     private String userName;
@@ -16,22 +16,47 @@
  * specific language governing permissions and limitations
  * under the License.
  */
+
 package org.apache.ozhera.log.stream.job.extension.kafka;
 
 import org.apache.ozhera.log.api.enums.MQSourceEnum;
+import org.apache.ozhera.log.common.Config;
 import org.apache.ozhera.log.stream.job.LogDataTransfer;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import static org.apache.ozhera.log.utils.DateUtils.getTime;
-
 /**
+ * Polls the topic once for every tail consuming it and hands each record to the tail of its key (the tag),
+ * the value is only decoded for records that have a tail.
+ * <p>
+ * The records of a poll are processed by one worker per partition, so the order within a partition is kept while
+ * the partitions are sent in parallel, and every tail gets the lines of a partition as one batch.
+ * Once every partition is handed to the senders, each tail of the poll is flushed once, and the offsets of a partition
+ * are committed if its tails sent and flushed.
+ * A partition where a tail failed is sought back to the start of its batch and polled again, the tails that already
+ * sent the batch skip it. After kafka.consume.retry.times attempts the batch of the failing tails is dropped
+ * with an error log, so a storage that stays down does not stall the other tails of the topic.
+ *
  * @author wtt
  * @version 1.0
  * @description
@@ -40,14 +65,31 @@ import static org.apache.ozhera.log.utils.DateUtils.getTime;
 @Slf4j
 public class KafkaConsumerRunner implements Runnable {
 
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(1000);
+
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+
+    private final int retryTimes = Integer.parseInt(Config.ins().get("kafka.consume.retry.times", "3"));
+
     private final AtomicBoolean closed = new AtomicBoolean(false);
-    private final KafkaConsumer consumer;
+    private final KafkaConsumer<String, byte[]> consumer;
+
+    /**
+     * key: tag
+     */
+    private final Map<String, LogDataTransfer> transfers;
 
-    private final LogDataTransfer handleMessage;
+    private final ExecutorService partitionWorkers = Executors.newVirtualThreadPerTaskExecutor();
 
-    public KafkaConsumerRunner(KafkaConsumer consumer, LogDataTransfer handleMessage) {
+    /**
+     * Progress of the partitions being consumed, kept after a failure for the next attempt.
+     * Only touched by the polling thread, the workers only fill the progress of their own partition.
+     */
+    private final Map<TopicPartition, Retry> retries = new HashMap<>();
+
+    public KafkaConsumerRunner(KafkaConsumer<String, byte[]> consumer, Map<String, LogDataTransfer> transfers) {
         this.consumer = consumer;
-        this.handleMessage = handleMessage;
+        this.transfers = transfers;
     }
 
     @Override
@@ -55,18 +97,18 @@ public class KafkaConsumerRunner implements Runnable {
         try {
             while (!closed.get()) {
                 try {
-                    ConsumerRecords<String, String> records = consumer.poll(1000);
-                    //This data must be consumed before the next poll, and the total time taken shall not exceed SESSION_TIMEOUT_MS_CONFIG
-                    for (ConsumerRecord<String, String> record : records) {
-                        if (StringUtils.equals(record.key(), handleMessage.getSinkJobConfig().getTag())) {
-                            log.debug("Thread:{} Consume partition:{} offset:{},message:{}",
-                                    Thread.currentThread().getName(), record.partition(),
-                                    record.offset(), record.value());
-                            String time = getTime();
-                            String msg = record.value();
-                            handleMessage.handleMessage(MQSourceEnum.KAFKA.getName(), msg, time);
-                        }
+                    ConsumerRecords<String, byte[]> records = consumer.poll(POLL_TIMEOUT);
+                    if (records.isEmpty()) {
+                        continue;
+                    }
+                    if (!consume(records)) {
+                        TimeUnit.MILLISECONDS.sleep(RETRY_BACKOFF_MILLIS);
                     }
+                } catch (WakeupException e) {
+                    // shutdown
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
                 } catch (Exception e) {
                     log.error("kafka consumer error", e);
                 }
@@ -74,13 +116,199 @@ public class KafkaConsumerRunner implements Runnable {
         } catch (Exception e) {
             log.error("KafkaConsumerRunner send exception", e);
         } finally {
+            partitionWorkers.shutdown();
             consumer.close();
         }
     }
 
+    /**
+     * @return false if a partition has to be consumed again
+     */
+    private boolean consume(ConsumerRecords<String, byte[]> records) throws InterruptedException {
+        Map<TopicPartition, Future<?>> results = new HashMap<>();
+        Map<TopicPartition, List<LogDataTransfer>> sent = new HashMap<>();
+        for (TopicPartition partition : records.partitions()) {
+            List<ConsumerRecord<String, byte[]>> partitionRecords = records.records(partition);
+            Retry retry = retries.get(partition);
+            if (null == retry || retry.offset != partitionRecords.get(0).offset()) {
+                // first attempt, or the partition moved since the failure, e.g. after a rebalance
+                retry = new Retry(partitionRecords.get(0).offset());
+                retries.put(partition, retry);
+            }
+            Retry partitionRetry = retry;
+            List<LogDataTransfer> partitionSent = new ArrayList<>();
+            sent.put(partition, partitionSent);
+            results.put(partition, partitionWorkers.submit(() -> {
+                consumePartition(partitionRecords, partitionRetry, partitionSent);
+                return null;
+            }));
+        }
+        // the workers are joined before the next poll, so a rebalance never revokes a partition that is in flight
+        Map<TopicPartition, Throwable> errors = new HashMap<>();
+        for (Map.Entry<TopicPartition, Future<?>> result : results.entrySet()) {
+            try {
+                result.getValue().get();
+            } catch (ExecutionException e) {
+                errors.put(result.getKey(), e.getCause());
+            }
+        }
+        Map<LogDataTransfer, Throwable> flushErrors = flush(sent);
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        boolean success = true;
+        for (TopicPartition partition : results.keySet()) {
+            List<ConsumerRecord<String, byte[]>> partitionRecords = records.records(partition);
+            long nextOffset = partitionRecords.get(partitionRecords.size() - 1).offset() + 1;
+            Retry retry = retries.get(partition);
+            Throwable error = errors.get(partition);
+            for (LogDataTransfer transfer : sent.get(partition)) {
+                Throwable flushError = flushErrors.get(transfer);
+                if (null != flushError) {
+                    // not acknowledged, the tail sends the batch again
+                    retry.sent.remove(transfer);
+                    if (null == error) {
+                        error = flushError;
+                    }
+                }
+            }
+            if (null == error) {
+                // a shorter poll than the failed one: the tails that sent further skip the rest next time
+                Retry ahead = retries.remove(partition).ahead(nextOffset);
+                if (null != ahead) {
+                    retries.put(partition, ahead);
+                }
+                offsets.put(partition, new OffsetAndMetadata(nextOffset));
+                continue;
+            }
+            if (++retry.attempts >= retryTimes) {
+                log.error("kafka consume partition:{} offsets:[{},{}) failed {} times, drop the batch of the failing tails",
+                        partition, retry.offset, nextOffset, retry.attempts, error);
+                retries.remove(partition);
+                offsets.put(partition, new OffsetAndMetadata(nextOffset));
+                continue;
+            }
+            success = false;
+            log.error("kafka consume partition:{} from offset:{} error, consume it again", partition, retry.offset, error);
+            consumer.seek(partition, retry.offset);
+        }
+        if (!offsets.isEmpty()) {
+            try {
+                consumer.commitSync(offsets);
+            } catch (WakeupException e) {
+                throw e;
+            } catch (Exception e) {
+                log.warn("kafka commit offsets:{} error", offsets, e);
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Flush every tail that sent in the poll once, in parallel, before the offsets are committed.
+     *
+     * @return the error of each tail that failed to flush
+     */
+    private Map<LogDataTransfer, Throwable> flush(Map<TopicPartition, List<LogDataTransfer>> sent) throws InterruptedException {
+        Map<LogDataTransfer, Future<?>> flushes = new HashMap<>();
+        for (List<LogDataTransfer> transfers : sent.values()) {
+            for (LogDataTransfer transfer : transfers) {
+                flushes.computeIfAbsent(transfer, k -> partitionWorkers.submit(() -> {
+                    k.flush();
+                    return null;
+                }));
+            }
+        }
+        Map<LogDataTransfer, Throwable> errors = new HashMap<>();
+        for (Map.Entry<LogDataTransfer, Future<?>> flush : flushes.entrySet()) {
+            try {
+                flush.getValue().get();
+            } catch (ExecutionException e) {
+                log.error("kafka flush tag:{} error", flush.getKey().getSinkJobConfig().getTag(), e.getCause());
+                errors.put(flush.getKey(), e.getCause());
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Every tail of the partition is sent even if one fails, the first error is thrown once all were tried.
+     * The tails that sent are added to {@code sent}, they are flushed with the other partitions of the poll.
+     */
+    private void consumePartition(List<ConsumerRecord<String, byte[]>> partitionRecords, Retry retry,
+                                  List<LogDataTransfer> sent) throws Exception {
+        Map<LogDataTransfer, List<String>> batches = new LinkedHashMap<>();
+        for (ConsumerRecord<String, byte[]> record : partitionRecords) {
+            if (null == record.key() || null == record.value()) {
+                continue;
+            }
+            LogDataTransfer handleMessage = transfers.get(record.key());
+            if (null == handleMessage || record.offset() < retry.sentOffset(handleMessage)) {
+                continue;
+            }
+            batches.computeIfAbsent(handleMessage, k -> new ArrayList<>()).add(new String(record.value(), StandardCharsets.UTF_8));
+        }
+        long nextOffset = partitionRecords.get(partitionRecords.size() - 1).offset() + 1;
+        Exception error = null;
+        for (Map.Entry<LogDataTransfer, List<String>> batch : batches.entrySet()) {
+            log.debug("Thread:{} Consume tag:{} messages:{}", Thread.currentThread().getName(),
+                    batch.getKey().getSinkJobConfig().getTag(), batch.getValue().size());
+            try {
+                batch.getKey().handleMessages(MQSourceEnum.KAFKA.getName(), batch.getValue());
+                retry.sent.put(batch.getKey(), nextOffset);
+                sent.add(batch.getKey());
+            } catch (Exception e) {
+                log.error("kafka consume tag:{} error", batch.getKey().getSinkJobConfig().getTag(), e);
+                if (null == error) {
+                    error = e;
+                }
+            }
+        }
+        if (null != error) {
+            throw error;
+        }
+    }
+
     // shutdown hook which can be called from a separate thread
     public void shutdown() {
         closed.set(true);
-        consumer.close(20, TimeUnit.SECONDS);
+        consumer.wakeup();
+    }
+
+    /**
+     * Progress of the tails on a partition batch, so a batch polled again after a failure skips the tails that sent it.
+     */
+    private static final class Retry {
+
+        private final long offset;
+
+        private int attempts;
+
+        /**
+         * The offset up to which each tail has already sent the partition.
+         */
+        private final Map<LogDataTransfer, Long> sent = new ConcurrentHashMap<>();
+
+        private Retry(long offset) {
+            this.offset = offset;
+        }
+
+        private long sentOffset(LogDataTransfer transfer) {
+            return sent.getOrDefault(transfer, Long.MIN_VALUE);
+        }
+
+        /**
+         * @return the progress of the tails that sent beyond the offset, null if there is none
+         */
+        private Retry ahead(long offset) {
+            Retry retry = null;
+            for (Map.Entry<LogDataTransfer, Long> entry : sent.entrySet()) {
+                if (entry.getValue() > offset) {
+                    if (null == retry) {
+                        retry = new Retry(offset);
+                    }
+                    retry.sent.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return retry;
+        }
     }
 }
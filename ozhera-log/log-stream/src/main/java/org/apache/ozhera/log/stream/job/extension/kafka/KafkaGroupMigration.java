@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.log.stream.job.extension.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves a per topic consumer group to the offsets of the per tag groups its tails consumed with before.
+ * <p>
+ * When the group is assigned a partition it has no committed offset for, the partition starts from the lowest
+ * offset the per tag groups of the tails committed for it, so no tail skips records it had not consumed yet.
+ * The tails that were further ahead read the records in between again. The start is committed right away,
+ * so the per tag groups are only read once, and they can be deleted once every instance consumes the topic
+ * with the per topic group. A partition none of the per tag groups consumed starts from auto.offset.reset.
+ */
+@Slf4j
+public class KafkaGroupMigration implements ConsumerRebalanceListener {
+
+    private static final long ADMIN_TIMEOUT_SECONDS = 30;
+
+    private final KafkaConfig config;
+
+    private final KafkaConsumer<String, byte[]> consumer;
+
+    /**
+     * key: tag, value: the per tag group of the tail
+     */
+    private final Map<String, String> tagGroups;
+
+    public KafkaGroupMigration(KafkaConfig config, KafkaConsumer<String, byte[]> consumer, Map<String, String> tagGroups) {
+        this.config = config;
+        this.consumer = consumer;
+        this.tagGroups = tagGroups;
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        // the offsets are committed by KafkaConsumerRunner once the records are sent
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        if (partitions.isEmpty() || tagGroups.isEmpty()) {
+            return;
+        }
+        Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(new HashSet<>(partitions));
+        Set<TopicPartition> uncommitted = new HashSet<>();
+        for (TopicPartition partition : partitions) {
+            if (null == committed.get(partition)) {
+                uncommitted.add(partition);
+            }
+        }
+        if (uncommitted.isEmpty()) {
+            return;
+        }
+        Map<TopicPartition, OffsetAndMetadata> start = new HashMap<>();
+        try (AdminClient admin = KafkaPlugin.initAdminClient(config)) {
+            for (String tagGroup : new HashSet<>(tagGroups.values())) {
+                Map<TopicPartition, OffsetAndMetadata> offsets = admin.listConsumerGroupOffsets(tagGroup)
+                        .partitionsToOffsetAndMetadata().get(ADMIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                for (TopicPartition partition : uncommitted) {
+                    OffsetAndMetadata offset = offsets.get(partition);
+                    if (null != offset) {
+                        start.merge(partition, offset, (a, b) -> a.offset() <= b.offset() ? a : b);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            log.error("kafka group:{} read the offsets of the tag groups:{} error, start from auto.offset.reset",
+                    config.getConsumerGroup(), tagGroups.values(), e);
+            return;
+        }
+        if (start.isEmpty()) {
+            return;
+        }
+        start.forEach((partition, offset) -> consumer.seek(partition, offset.offset()));
+        consumer.commitSync(start);
+        log.info("kafka group:{} starts from the offsets of the tag groups:{}, offsets:{}",
+                config.getConsumerGroup(), tagGroups.values(), start);
+    }
+}
@@ -25,6 +25,8 @@ import org.apache.ozhera.log.stream.job.extension.MQPlugin;
 import org.apache.ozhera.log.utils.KafkaUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.common.config.SslConfigs;
@@ -41,6 +43,17 @@ import java.util.Properties;
 @Slf4j
 public class KafkaPlugin implements MQPlugin {
 
+    private static final String TOPIC_GROUP_PREFIX = "topic_";
+
+    /**
+     * Whether the tails with the default group consume a topic with one group per (cluster, topic) instead of one
+     * group per tag. Only valid when every stream instance consuming the topic runs all of its tails,
+     * since the partitions of the group are spread over the instances regardless of the tags they run.
+     */
+    public static boolean groupPerTopic() {
+        return Boolean.parseBoolean(Config.ins().get("kafka.consumer.group.per.topic", "false"));
+    }
+
     public static KafkaConfig buildKafkaConfig(String userName, String password, String clusterInfo,
                                                String topic, String tag, String consumerGroup, SinkJobEnum jobType) {
         KafkaConfig config = new KafkaConfig();
@@ -51,17 +64,41 @@ public class KafkaPlugin implements MQPlugin {
         if (SinkJobEnum.BACKUP_JOB == jobType) {
             config.setConsumerGroup(Constant.DEFAULT_CONSUMER_GROUP + tag + "_" + BACKUP_PREFIX);
         }
+        if (groupPerTopic() && (StringUtils.isEmpty(consumerGroup) || SinkJobEnum.BACKUP_JOB == jobType)) {
+            // the tails of the topic share one group, which starts from the offsets of their per tag groups
+            config.setTagConsumerGroup(config.getConsumerGroup());
+            String topicGroup = Constant.DEFAULT_CONSUMER_GROUP + TOPIC_GROUP_PREFIX + topic;
+            config.setConsumerGroup(SinkJobEnum.BACKUP_JOB == jobType ? topicGroup + "_" + BACKUP_PREFIX : topicGroup);
+        }
         config.setTopicName(topic);
         config.setTag(tag);
         log.info("[KafkaPlugin.initJob] print consumer config:{}", config);
         return config;
     }
 
-    public static KafkaConsumer<String, String> getKafkaConsumer(KafkaConfig config) {
+    public static KafkaConsumer<String, byte[]> getKafkaConsumer(KafkaConfig config) {
         return initKafkaConsumer(config);
     }
 
-    public static KafkaConsumer<String, String> initKafkaConsumer(KafkaConfig config) {
+    public static KafkaConsumer<String, byte[]> initKafkaConsumer(KafkaConfig config) {
+        return new KafkaConsumer<>(consumerProperties(config));
+    }
+
+    /**
+     * Admin client with the connection of the consumer, to read the offsets of other groups.
+     */
+    public static AdminClient initAdminClient(KafkaConfig config) {
+        Properties props = consumerProperties(config);
+        Properties adminProps = new Properties();
+        for (String name : AdminClientConfig.configNames()) {
+            if (props.containsKey(name)) {
+                adminProps.put(name, props.get(name));
+            }
+        }
+        return AdminClient.create(adminProps);
+    }
+
+    private static Properties consumerProperties(KafkaConfig config) {
         Properties props = new Properties();
 
         String clusterInfo = config.getNamesAddr();
@@ -83,14 +120,17 @@ public class KafkaPlugin implements MQPlugin {
         //This value can be set more realistically to pull data and customer versions. The default is 30 s.
         props.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, 30000);
         //Be careful not to change this value too much. If too much data is polled and cannot be consumed before the next poll, a load balancing will be triggered, causing lag.
-        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 30);
-        //How messages are deserialized
+        //The records of a poll are sent in batches, one worker per partition, so a poll takes about the time of one batch send.
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, Integer.parseInt(ins.get("kafka.max.poll.records", "500")));
+        //Offsets are committed by KafkaConsumerRunner once the records are handed to the sender
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        //How messages are deserialized, the value is only decoded for the records of a consumed tag
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringDeserializer");
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringDeserializer");
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.ByteArrayDeserializer");
         //Consumer instances belonging to the same group will load consumer messages
         props.put(ConsumerConfig.GROUP_ID_CONFIG, config.getConsumerGroup());
         //Change hostname verification to empty
         props.put(SslConfigs.SSL_ENDPOINT_IDENTIFICATION_ALGORITHM_CONFIG, "");
-        return new KafkaConsumer<>(props);
+        return props;
     }
 }
@@ -16,13 +16,12 @@
  * specific language governing permissions and limitations
  * under the License.
  */
+
 package org.apache.ozhera.log.stream.job.extension.kafka;
 
-import com.google.common.collect.Lists;
 import org.apache.ozhera.log.stream.job.LogDataTransfer;
 import org.apache.ozhera.log.stream.job.extension.SinkJob;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.clients.consumer.KafkaConsumer;
 
 /**
  * @author wtt
@@ -35,25 +34,20 @@ public class KafkaSinkJob implements SinkJob {
 
     private final KafkaConfig kafkaConfig;
 
-    private final KafkaConsumer<String, String> consumer;
+    private final KafkaTopicConsumerManager consumerManager;
 
     private final LogDataTransfer dataTransfer;
 
-    private KafkaConsumerRunner kafkaConsumerRunner;
-
-    public KafkaSinkJob(KafkaConfig kafkaConfig, KafkaConsumer<String, String> consumer, LogDataTransfer dataTransfer) {
+    public KafkaSinkJob(KafkaConfig kafkaConfig, KafkaTopicConsumerManager consumerManager, LogDataTransfer dataTransfer) {
         this.kafkaConfig = kafkaConfig;
-        this.consumer = consumer;
+        this.consumerManager = consumerManager;
         this.dataTransfer = dataTransfer;
     }
 
     @Override
     public boolean start() throws Exception {
         try {
-            consumer.subscribe(Lists.newArrayList(kafkaConfig.getTopicName()));
-            kafkaConsumerRunner = new KafkaConsumerRunner(consumer, dataTransfer);
-            // start by coroutine
-            Thread.ofVirtual().start(kafkaConsumerRunner);
+            consumerManager.register(kafkaConfig, dataTransfer);
         } catch (Exception e) {
             log.error("start kafka consumer error", e);
             return false;
@@ -63,6 +57,6 @@ public class KafkaSinkJob implements SinkJob {
 
     @Override
     public void shutdown() throws Exception {
-        kafkaConsumerRunner.shutdown();
+        consumerManager.unregister(kafkaConfig, dataTransfer);
     }
 }
@@ -19,7 +19,6 @@
 package org.apache.ozhera.log.stream.job.extension.kafka;
 
 import com.xiaomi.youpin.docean.anno.Service;
-import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.ozhera.log.parse.LogParser;
 import org.apache.ozhera.log.parse.LogParserFactory;
 import org.apache.ozhera.log.stream.common.LogStreamConstants;
@@ -32,6 +31,8 @@ import org.apache.ozhera.log.stream.job.extension.SinkJob;
 import org.apache.ozhera.log.stream.job.extension.SinkJobProvider;
 import org.apache.ozhera.log.stream.sink.SinkChain;
 
+import javax.annotation.Resource;
+
 /**
  * @author wtt
  * @version 1.0
@@ -40,6 +41,10 @@ import org.apache.ozhera.log.stream.sink.SinkChain;
  */
 @Service(name = "kafka" + LogStreamConstants.sinkJobProviderBeanSuffix)
 public class KafkaSinkJobProvider implements SinkJobProvider {
+
+    @Resource
+    private KafkaTopicConsumerManager consumerManager;
+
     @Override
     public SinkJob getSinkJob(SinkJobConfig sinkJobConfig) {
 
@@ -58,8 +63,7 @@ public class KafkaSinkJobProvider implements SinkJobProvider {
 
         KafkaConfig mqConfig = KafkaPlugin.buildKafkaConfig(sinkJobConfig.getAk(), sinkJobConfig.getSk(), sinkJobConfig.getClusterInfo(),
                 sinkJobConfig.getTopic(), sinkJobConfig.getTag(), sinkJobConfig.getConsumerGroup(), jobType);
-        KafkaConsumer<String, String> mqConsumer = KafkaPlugin.getKafkaConsumer(mqConfig);
-        SinkJob sinkJob = new KafkaSinkJob(mqConfig, mqConsumer, dataTransfer);
+        SinkJob sinkJob = new KafkaSinkJob(mqConfig, consumerManager, dataTransfer);
 
         return sinkJob;
     }
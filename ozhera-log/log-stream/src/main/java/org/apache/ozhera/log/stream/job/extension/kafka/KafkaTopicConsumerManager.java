@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.log.stream.job.extension.kafka;
+
+import com.google.common.collect.Lists;
+import com.xiaomi.youpin.docean.anno.Service;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.ozhera.log.stream.job.LogDataTransfer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One kafka consumer per (cluster, topic, consumer group) in this process, shared by the tails consuming the topic
+ * with the same group.
+ * <p>
+ * The tails of a topic are told apart by the record key, so instead of one consumer per tail fetching and decoding
+ * the whole topic to keep its own records, the shared consumer routes every record to its tail by tag.
+ * The group is the one of the tail, by default one per tag, so the committed offsets stay where they were
+ * and the partitions of a group are still shared between the instances. Every tag group still fetches the whole
+ * topic then, so with kafka.consumer.group.per.topic the tails with the default group share one group per
+ * (cluster, topic) instead, which is only fetched once. That needs every instance consuming the topic to run all
+ * of its tails. The per topic group starts from the offsets of the per tag groups, see {@link KafkaGroupMigration}.
+ * Tails join and leave while the consumer keeps polling, it is closed when its last tail leaves.
+ */
+@Slf4j
+@Service
+public class KafkaTopicConsumerManager {
+
+    private final Map<String, TopicConsumer> consumers = new HashMap<>();
+
+    public synchronized void register(KafkaConfig config, LogDataTransfer transfer) {
+        String key = consumerKey(config);
+        TopicConsumer topicConsumer = consumers.get(key);
+        boolean created = null == topicConsumer;
+        if (created) {
+            topicConsumer = new TopicConsumer(config);
+            consumers.put(key, topicConsumer);
+        }
+        if (null != config.getTagConsumerGroup()) {
+            topicConsumer.tagGroups.put(config.getTag(), config.getTagConsumerGroup());
+        }
+        LogDataTransfer previous = topicConsumer.transfers.put(config.getTag(), transfer);
+        if (null != previous && previous != transfer) {
+            log.warn("kafka tag:{} of topic:{} already consumed, replaced by the new job", config.getTag(), config.getTopicName());
+        }
+        if (created) {
+            // started once the first tail is in, so its group is known when the partitions are assigned
+            topicConsumer.start();
+        }
+        log.info("kafka consumer:{} add tag:{}, tags:{}", key, config.getTag(), topicConsumer.transfers.size());
+    }
+
+    public void unregister(KafkaConfig config, LogDataTransfer transfer) {
+        String key = consumerKey(config);
+        TopicConsumer idle = null;
+        synchronized (this) {
+            TopicConsumer topicConsumer = consumers.get(key);
+            if (null == topicConsumer) {
+                return;
+            }
+            if (topicConsumer.transfers.remove(config.getTag(), transfer)) {
+                topicConsumer.tagGroups.remove(config.getTag());
+            }
+            log.info("kafka consumer:{} remove tag:{}, tags:{}", key, config.getTag(), topicConsumer.transfers.size());
+            if (topicConsumer.transfers.isEmpty()) {
+                consumers.remove(key);
+                idle = topicConsumer;
+            }
+        }
+        if (null != idle) {
+            log.info("kafka consumer:{} has no tag left, shutdown", key);
+            idle.shutdown();
+        }
+    }
+
+    private static String consumerKey(KafkaConfig config) {
+        return String.join("|", config.getNamesAddr(), StringUtils.defaultString(config.getUserName()),
+                config.getTopicName(), config.getConsumerGroup());
+    }
+
+    private static final class TopicConsumer {
+
+        private final KafkaConfig config;
+
+        /**
+         * key: tag
+         */
+        private final Map<String, LogDataTransfer> transfers = new ConcurrentHashMap<>();
+
+        /**
+         * key: tag, value: the per tag group the per topic group starts from
+         */
+        private final Map<String, String> tagGroups = new ConcurrentHashMap<>();
+
+        private KafkaConsumerRunner runner;
+
+        private TopicConsumer(KafkaConfig config) {
+            this.config = config;
+        }
+
+        private void start() {
+            KafkaConsumer<String, byte[]> consumer = KafkaPlugin.getKafkaConsumer(config);
+            if (null == config.getTagConsumerGroup()) {
+                consumer.subscribe(Lists.newArrayList(config.getTopicName()));
+            } else {
+                consumer.subscribe(Lists.newArrayList(config.getTopicName()), new KafkaGroupMigration(config, consumer, tagGroups));
+            }
+            runner = new KafkaConsumerRunner(consumer, transfers);
+            // start by coroutine
+            Thread.ofVirtual().name("kafka-consumer-" + config.getTopicName()).start(runner);
+        }
+
+        private void shutdown() {
+            runner.shutdown();
+        }
+    }
+}
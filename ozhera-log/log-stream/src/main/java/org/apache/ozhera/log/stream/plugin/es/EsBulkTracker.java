@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.log.stream.plugin.es;
+
+import com.xiaomi.mone.es.EsProcessor;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Follows the bulks of one {@link EsProcessor}, so a sender can wait until what it added has been acknowledged by es.
+ * <p>
+ * Every insert into the processor goes through {@link #add(String, Map)}, which numbers the documents in the order
+ * they enter the buffer of the bulk processor. The bulk processor sends its whole buffer as one bulk, numbers the bulks
+ * in order and reports the size of each one to the listener of {@link EsPlugin}, so once the bulks begun in a row hold
+ * as many documents as were added, a document is in one of them and the bulk holding it is known.
+ * Nothing is flushed on demand: the bulks are cut by the bulk size or the flush interval of the processor as usual.
+ */
+public class EsBulkTracker {
+
+    private static final int MAX_FAILURES = 1024;
+
+    /**
+     * Bulks kept to find the bulk of a document, older documents are looked up from the oldest bulk kept.
+     */
+    private static final int MAX_BULKS = 4096;
+
+    private volatile BiConsumer<String, Map<String, Object>> inserter;
+
+    private final Object addLock = new Object();
+
+    private long added;
+
+    private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+
+    /**
+     * key: executionId of a bulk that was neither written nor handed to the compensate queue
+     */
+    private final ConcurrentSkipListMap<Long, String> failures = new ConcurrentSkipListMap<>();
+
+    private final Object monitor = new Object();
+
+    /**
+     * The listener may see the bulks begin out of order, key: executionId of a bulk begun after a missing one,
+     * value: its number of documents. Guarded by the monitor.
+     */
+    private final Map<Long, Integer> begunAhead = new HashMap<>();
+
+    /**
+     * Every bulk up to this one has begun. Guarded by the monitor.
+     */
+    private long begunUpTo;
+
+    /**
+     * Documents in the bulks up to {@link #begunUpTo}. Guarded by the monitor.
+     */
+    private long dispatched;
+
+    /**
+     * key: number of the last document of a bulk, value: its executionId. Guarded by the monitor.
+     */
+    private final TreeMap<Long, Long> bulkEnds = new TreeMap<>();
+
+    /**
+     * The processor is built with the listener calling this tracker, so it is bound once built.
+     */
+    void bind(EsProcessor esProcessor) {
+        bind(esProcessor::bulkInsert);
+    }
+
+    void bind(BiConsumer<String, Map<String, Object>> inserter) {
+        this.inserter = inserter;
+    }
+
+    /**
+     * Insert a document into the processor.
+     *
+     * @return number of the document, to pass to {@link #await(long, long, long)}
+     */
+    public long add(String index, Map<String, Object> data) {
+        synchronized (addLock) {
+            inserter.accept(index, data);
+            return ++added;
+        }
+    }
+
+    void beforeBulk(long executionId, int numberOfActions) {
+        inFlight.add(executionId);
+        synchronized (monitor) {
+            begunAhead.put(executionId, numberOfActions);
+            Integer actions;
+            while (null != (actions = begunAhead.remove(begunUpTo + 1))) {
+                begunUpTo++;
+                dispatched += actions;
+                bulkEnds.put(dispatched, begunUpTo);
+            }
+            while (bulkEnds.size() > MAX_BULKS) {
+                bulkEnds.pollFirstEntry();
+            }
+            monitor.notifyAll();
+        }
+    }
+
+    void afterBulk(long executionId, String failure) {
+        if (null != failure) {
+            failures.put(executionId, failure);
+            while (failures.size() > MAX_FAILURES) {
+                failures.pollFirstEntry();
+            }
+        }
+        inFlight.remove(executionId);
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * Wait until the bulks holding the documents {@code from} to {@code to} are acknowledged.
+     *
+     * @throws IOException if one of those bulks failed
+     */
+    public void await(long from, long to, long timeoutMillis) throws IOException, InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long firstBulk;
+        long lastBulk;
+        synchronized (monitor) {
+            waitFor(() -> dispatched >= to, deadline, timeoutMillis);
+            Map.Entry<Long, Long> before = bulkEnds.lowerEntry(from);
+            firstBulk = null == before ? 0 : before.getValue() + 1;
+            lastBulk = bulkEnds.ceilingEntry(to).getValue();
+            waitFor(() -> inFlight.headSet(lastBulk, true).isEmpty(), deadline, timeoutMillis);
+        }
+        Map.Entry<Long, String> failure = failures.subMap(firstBulk, true, lastBulk, true).firstEntry();
+        if (null != failure) {
+            throw new IOException("es bulk " + failure.getKey() + " failed: " + failure.getValue());
+        }
+    }
+
+    private void waitFor(BooleanSupplier condition, long deadline, long timeoutMillis) throws InterruptedException, TimeoutException {
+        while (!condition.getAsBoolean()) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                throw new TimeoutException("es bulk not acknowledged in " + timeoutMillis + "ms");
+            }
+            TimeUnit.NANOSECONDS.timedWait(monitor, left);
+        }
+    }
+}
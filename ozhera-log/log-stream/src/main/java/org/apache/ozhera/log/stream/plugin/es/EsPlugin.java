@@ -59,6 +59,8 @@ public class EsPlugin {
 
     private static ConcurrentHashMap<String, List<Pair<EsProcessor, Integer>>> esProcessorMap = new ConcurrentHashMap<>();
 
+    private static ConcurrentHashMap<EsProcessor, EsBulkTracker> bulkTrackerMap = new ConcurrentHashMap<>();
+
     public static final int SINGLE_MESSAGE_BYTES_MAXIMAL = 10 * 1024 * 1024;
 
     private static int DEFAULT_PROCESSOR_COUNT = 1;
@@ -142,11 +144,18 @@ public class EsPlugin {
         return esProcessorIntegerPair.getKey();
     }
 
-    private static void sendMessageToTopic(BulkRequest request, StorageInfo esInfo, Consumer<MqMessageDTO> onFailedConsumer) {
+    public static EsBulkTracker getBulkTracker(EsProcessor esProcessor) {
+        return bulkTrackerMap.get(esProcessor);
+    }
+
+    /**
+     * @return false if the request was not handed to the compensate queue
+     */
+    private static boolean sendMessageToTopic(BulkRequest request, StorageInfo esInfo, Consumer<MqMessageDTO> onFailedConsumer) {
         String enable = Config.ins().get("hera.stream.compensate.message.enable", "");
         if (StringUtils.isNotBlank(enable) && StringUtils.equalsIgnoreCase(enable, "false")) {
             log.warn("[EsPlugin.sendMessageToTopic] hera.stream.compensate.message,enable is false,do not send message to topic,enable:{}", enable);
-            return;
+            return false;
         }
         MqMessageDTO MqMessageDTO = new MqMessageDTO();
         MqMessageDTO.setEsInfo(esInfo);
@@ -172,15 +181,18 @@ public class EsPlugin {
             MqMessageDTO.setCompensateMqDTOS(compensateMqDTOS);
             onFailedConsumer.accept(MqMessageDTO);
         }
+        return true;
     }
 
     private static EsProcessor buildEsProcessor(StorageInfo esInfo, EsConfig config, Consumer<MqMessageDTO> onFailedConsumer, EsService esService) {
         AtomicLong errorCount = new AtomicLong(0);
+        EsBulkTracker bulkTracker = new EsBulkTracker();
         EsProcessor esProcessor = esService.getEsProcessor(new EsProcessorConf(config.getBulkActions(), config.getByteSize(), config.getConcurrentRequest(), config.getFlushInterval(),
                 config.getRetryNumber(), config.getRetryInterval(), new BulkProcessor.Listener() {
             @Override
             public void beforeBulk(long executionId, BulkRequest request) {
 //                            log.info("before send to es,desc:{}", request.getDescription());
+                bulkTracker.beforeBulk(executionId, request.numberOfActions());
             }
 
             @Override
@@ -210,6 +222,7 @@ public class EsPlugin {
                 } else {
                     log.debug("success send to es,desc:{}", request.getDescription());
                 }
+                bulkTracker.afterBulk(executionId, null);
             }
 
             @Override
@@ -220,6 +233,7 @@ public class EsPlugin {
                     if (errorDecrement == 0 || errorDecrement % 500 == 0) {
                         log.error("afterBulk response error", failure);
                     }
+                    bulkTracker.afterBulk(executionId, null);
                     return;
                 }
                 log.error(String.format("fail send %s message to es,desc:%s,es addr:%s", request.numberOfActions(), request.getDescription(), esInfo.getAddr()), new RuntimeException(failure));
@@ -231,9 +245,16 @@ public class EsPlugin {
                         , clazz.getTypeName()
                         , clazz.getCanonicalName()
                         , failure);
-                sendMessageToTopic(request, esInfo, onFailedConsumer);
+                boolean compensated = false;
+                try {
+                    compensated = sendMessageToTopic(request, esInfo, onFailedConsumer);
+                } finally {
+                    bulkTracker.afterBulk(executionId, compensated ? null : failure.toString());
+                }
             }
         }));
+        bulkTracker.bind(esProcessor);
+        bulkTrackerMap.put(esProcessor, bulkTracker);
         return esProcessor;
     }
 
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.log.stream.plugin.es;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class EsBulkTrackerTest {
+
+    @Test
+    public void awaitAcknowledged() throws Exception {
+        EsBulkTracker tracker = tracker();
+        long first = tracker.add("index", Collections.emptyMap());
+        long last = tracker.add("index", Collections.emptyMap());
+        CompletableFuture<Void> bulk = CompletableFuture.runAsync(() -> {
+            sleep(50);
+            tracker.beforeBulk(1, 2);
+            sleep(50);
+            tracker.afterBulk(1, null);
+        });
+        tracker.await(first, last, 5000);
+        Assert.assertTrue(bulk.isDone());
+    }
+
+    @Test
+    public void bulksBegunOutOfOrder() throws Exception {
+        EsBulkTracker tracker = tracker();
+        long first = tracker.add("index", Collections.emptyMap());
+        tracker.add("index", Collections.emptyMap());
+        long last = tracker.add("index", Collections.emptyMap());
+        // the second bulk holds as many documents as the first one, the first document is not sent yet
+        tracker.beforeBulk(2, 1);
+        tracker.afterBulk(2, null);
+        CompletableFuture<Void> await = CompletableFuture.runAsync(() -> {
+            try {
+                tracker.await(first, first, 5000);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        sleep(100);
+        Assert.assertFalse(await.isDone());
+        tracker.beforeBulk(1, 2);
+        sleep(100);
+        Assert.assertFalse(await.isDone());
+        tracker.afterBulk(1, null);
+        await.get(5, TimeUnit.SECONDS);
+        tracker.await(first, last, 1000);
+    }
+
+    @Test
+    public void failureOfTheBulkHoldingTheDocuments() throws Exception {
+        EsBulkTracker tracker = tracker();
+        long failed = tracker.add("index", Collections.emptyMap());
+        long written = tracker.add("index", Collections.emptyMap());
+        tracker.beforeBulk(1, 1);
+        tracker.afterBulk(1, "rejected");
+        tracker.beforeBulk(2, 1);
+        tracker.afterBulk(2, null);
+        // a failure of another bulk does not hold the documents
+        tracker.await(written, written, 1000);
+        try {
+            tracker.await(failed, written, 1000);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("es bulk 1 failed: rejected", e.getMessage());
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void notSent() throws Exception {
+        EsBulkTracker tracker = tracker();
+        long number = tracker.add("index", Collections.emptyMap());
+        tracker.await(number, number, 100);
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void notAcknowledged() throws Exception {
+        EsBulkTracker tracker = tracker();
+        long number = tracker.add("index", Collections.emptyMap());
+        tracker.beforeBulk(1, 1);
+        tracker.await(number, number, 100);
+    }
+
+    private static EsBulkTracker tracker() {
+        EsBulkTracker tracker = new EsBulkTracker();
+        tracker.bind((index, data) -> {
+        });
+        return tracker;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -65,8 +65,10 @@ CREATE TABLE `hera_meta_data` (
   `update_time` datetime DEFAULT NULL,
   `create_by` varchar(125) DEFAULT NULL,
   `update_by` varchar(125) DEFAULT NULL,
+  `dubbo_port` int(11) GENERATED ALWAYS AS (`port` ->> '$.dubboPort') STORED,
   PRIMARY KEY (`id`),
-  KEY `index_meta_id` (`meta_id`)
+  KEY `index_meta_id` (`meta_id`),
+  UNIQUE KEY `uk_host_dubbo_port_meta` (`host`, `dubbo_port`, `meta_id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_bin;
 
 -- mimonitor
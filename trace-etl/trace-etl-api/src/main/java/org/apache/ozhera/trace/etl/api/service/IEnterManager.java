@@ -33,4 +33,26 @@ public interface IEnterManager  {
 
     AtomicInteger getProcessNum();
 
+    /**
+     * Register the calling thread as processing a consumer batch.
+     *
+     * @return token that must be passed to {@link #end(long, int)}
+     */
+    long begin();
+
+    /**
+     * Leave the batch started by {@link #begin()}.
+     *
+     * @param token     returned by begin
+     * @param spanCount number of spans processed in the batch
+     */
+    void end(long token, int spanCount);
+
+    /**
+     * Run the registry change and wait until no batch still writes to the old registry.
+     *
+     * @param change flips the registry consumers write to
+     */
+    void swap(Runnable change);
+
 }
\ No newline at end of file
@@ -21,8 +21,72 @@ package org.apache.ozhera.trace.etl.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ozhera.trace.etl.domain.metadata.HeraMetaData;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.ResultMap;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
+import java.util.List;
+
+/**
+ * The batch statements rely on the dubbo_port column generated from port and on the unique key
+ * (host, dubbo_port, meta_id) of hera_meta_data.
+ */
 @Mapper
 public interface HeraMetaDataMapper extends BaseMapper<HeraMetaData> {
+
+    String PORT = "#{m.port,typeHandler=com.baomidou.mybatisplus.extension.handlers.JacksonTypeHandler}";
+
+    String WHEN_ID = "<foreach collection=\"list\" item=\"m\"> when #{m.id} then ";
+
+    /**
+     * Rows of every (host, port.dubboPort) in keys, whatever their meta_id.
+     */
+    @Select("<script>" +
+            "select * from hera_meta_data where (host, dubbo_port) in " +
+            "<foreach collection=\"keys\" item=\"m\" open=\"(\" separator=\",\" close=\")\">" +
+            "(#{m.host}, #{m.port.dubboPort})" +
+            "</foreach>" +
+            "</script>")
+    @ResultMap("mybatis-plus_HeraMetaData")
+    List<HeraMetaData> selectByHostAndDubboPort(@Param("keys") List<HeraMetaData> keys);
+
+    /**
+     * Multi-row insert that leaves an existing (host, dubbo_port, meta_id) untouched, so a replayed message is a no-op.
+     */
+    @Insert("<script>" +
+            "insert into hera_meta_data (meta_id, meta_name, env_id, env_name, dubbo_service_meta, type, host, port, " +
+            "create_time, update_time, create_by, update_by) values " +
+            "<foreach collection=\"list\" item=\"m\" separator=\",\">" +
+            "(#{m.metaId}, #{m.metaName}, #{m.envId}, #{m.envName}, #{m.dubboServiceMeta}, #{m.type}, #{m.host}, " + PORT + ", " +
+            "#{m.createTime}, #{m.updateTime}, #{m.createBy}, #{m.updateBy})" +
+            "</foreach>" +
+            " on duplicate key update id = id" +
+            "</script>")
+    int insertIgnoreExisting(@Param("list") List<HeraMetaData> list);
+
+    /**
+     * Multi-row update by id, only the non null fields are written, like {@link #updateById}. Rows deleted meanwhile
+     * are not written again.
+     */
+    @Update("<script>" +
+            "update hera_meta_data set" +
+            " meta_id = case id" + WHEN_ID + "coalesce(#{m.metaId}, meta_id)</foreach> else meta_id end," +
+            " meta_name = case id" + WHEN_ID + "coalesce(#{m.metaName}, meta_name)</foreach> else meta_name end," +
+            " env_id = case id" + WHEN_ID + "coalesce(#{m.envId}, env_id)</foreach> else env_id end," +
+            " env_name = case id" + WHEN_ID + "coalesce(#{m.envName}, env_name)</foreach> else env_name end," +
+            " dubbo_service_meta = case id" + WHEN_ID + "coalesce(#{m.dubboServiceMeta}, dubbo_service_meta)</foreach> else dubbo_service_meta end," +
+            " type = case id" + WHEN_ID + "coalesce(#{m.type}, type)</foreach> else type end," +
+            " host = case id" + WHEN_ID + "coalesce(#{m.host}, host)</foreach> else host end," +
+            " port = case id" + WHEN_ID + "coalesce(" + PORT + ", port)</foreach> else port end," +
+            " create_time = case id" + WHEN_ID + "coalesce(#{m.createTime}, create_time)</foreach> else create_time end," +
+            " update_time = case id" + WHEN_ID + "coalesce(#{m.updateTime}, update_time)</foreach> else update_time end," +
+            " create_by = case id" + WHEN_ID + "coalesce(#{m.createBy}, create_by)</foreach> else create_by end," +
+            " update_by = case id" + WHEN_ID + "coalesce(#{m.updateBy}, update_by)</foreach> else update_by end" +
+            " where id in " +
+            "<foreach collection=\"list\" item=\"m\" open=\"(\" separator=\",\" close=\")\">#{m.id}</foreach>" +
+            "</script>")
+    int updateBatchById(@Param("list") List<HeraMetaData> list);
 }
\ No newline at end of file
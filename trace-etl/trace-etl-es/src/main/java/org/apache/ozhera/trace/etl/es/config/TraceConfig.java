@@ -20,18 +20,17 @@
 package org.apache.ozhera.trace.etl.es.config;
 
 import com.alibaba.nacos.api.config.annotation.NacosValue;
-import org.apache.ozhera.trace.etl.domain.HeraTraceConfigVo;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.ozhera.trace.etl.domain.HeraTraceEtlConfig;
 import org.apache.ozhera.trace.etl.service.ManagerService;
-import lombok.extern.slf4j.Slf4j;
+import org.apache.ozhera.trace.etl.service.config.TraceConfigEntry;
+import org.apache.ozhera.trace.etl.service.config.TraceConfigStore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 
 import javax.annotation.PostConstruct;
-import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
 
 /**
  * @Description trace config
@@ -42,59 +41,66 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class TraceConfig {
 
-    private ConcurrentHashMap<String, HeraTraceEtlConfig> heraTraceConfig = new ConcurrentHashMap<>();
+    private final TraceConfigStore store = new TraceConfigStore(this::defaultConfig);
 
     @NacosValue(value = "${trace.threshold}", autoRefreshed = true)
     private int threshold;
     @NacosValue(value = "${trace.duration.threshold}", autoRefreshed = true)
     private int durationThreshold;
 
+    /**
+     * The push applies a change at once, the delta read only repairs a missed push.
+     */
+    @Value("${trace.config.sync.ms:5000}")
+    private long syncMillis;
+
+    /**
+     * A delete missed by the push is only seen by a full read.
+     */
+    @Value("${trace.config.full.sync.ms:3600000}")
+    private long fullSyncMillis;
+
     @Autowired
     private ManagerService managerService;
 
     @PostConstruct
     public void init() {
-        new ScheduledThreadPoolExecutor(1).scheduleAtFixedRate(() -> {
-            try {
-                List<HeraTraceEtlConfig> all = managerService.getAll(new HeraTraceConfigVo());
-                for (HeraTraceEtlConfig config : all) {
-                    heraTraceConfig.put(getServiceName(config), defaultConfig(config));
-                }
-            }catch(Throwable t){
-                log.error("schedule trace config error : ",t);
-            }
-        },  0,1, TimeUnit.HOURS);
+        store.start(managerService, syncMillis, fullSyncMillis);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        store.stop();
     }
 
     public HeraTraceEtlConfig getConfig(String serviceName) {
-        return heraTraceConfig.get(serviceName);
+        TraceConfigEntry entry = store.get(serviceName);
+        return entry == null ? null : entry.getConfig();
+    }
+
+    /**
+     * The config of a service with its exclude lists compiled, null if the service has none.
+     */
+    public TraceConfigEntry getEntry(String serviceName) {
+        return store.get(serviceName);
     }
 
     public void insert(HeraTraceEtlConfig config) {
         log.info("trace insert config : "+config);
-        heraTraceConfig.putIfAbsent(getServiceName(config), defaultConfig(config));
+        store.insert(config);
     }
 
     public void update(HeraTraceEtlConfig config) {
         log.info("trace update config : "+config);
-        heraTraceConfig.put(getServiceName(config), defaultConfig(config));
+        store.update(config);
     }
 
     public void delete(HeraTraceEtlConfig config) {
         log.info("trace delete config : "+config);
-        heraTraceConfig.remove(getServiceName(config));
-    }
-
-    private String getServiceName(HeraTraceEtlConfig config) {
-        StringBuffer sb = new StringBuffer();
-        sb.append(config.getBindId()).append("-").append(config.getAppName());
-        return sb.toString();
+        store.delete(config);
     }
 
     private HeraTraceEtlConfig defaultConfig(HeraTraceEtlConfig config){
-        if(config == null){
-            return null;
-        }
         if(config.getTraceFilter() == null){
             config.setTraceFilter(threshold);
         }
@@ -103,4 +109,4 @@ public class TraceConfig {
         }
         return config;
     }
-}
\ No newline at end of file
+}
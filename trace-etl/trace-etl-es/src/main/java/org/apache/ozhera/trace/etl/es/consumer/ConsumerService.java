@@ -20,15 +20,16 @@
 package org.apache.ozhera.trace.etl.es.consumer;
 
 import com.alibaba.nacos.api.config.annotation.NacosValue;
-import com.google.common.base.Joiner;
 import org.apache.ozhera.trace.etl.api.service.DataSourceService;
 import org.apache.ozhera.trace.etl.es.domain.FilterResult;
 import org.apache.ozhera.trace.etl.es.domain.LocalStorages;
 import org.apache.ozhera.trace.etl.es.queue.impl.RocksdbStoreServiceImpl;
+import org.apache.ozhera.trace.etl.es.queue.impl.SpanFrameReader;
+import org.apache.ozhera.trace.etl.es.queue.impl.SpanFrameWriter;
 import org.apache.ozhera.trace.etl.es.queue.impl.TeSnowFlake;
 import org.apache.ozhera.trace.etl.es.util.bloomfilter.TraceIdRedisBloomUtil;
 import org.apache.ozhera.trace.etl.util.ExecutorUtil;
-import org.apache.ozhera.trace.etl.util.MessageUtil;
+import org.apache.ozhera.trace.etl.util.SpanDecoder;
 import org.apache.ozhera.trace.etl.util.ThriftUtil;
 import org.apache.ozhera.tspandata.TAttributeKey;
 import org.apache.ozhera.tspandata.TAttributes;
@@ -36,20 +37,15 @@ import org.apache.ozhera.tspandata.TSpanData;
 import org.apache.ozhera.tspandata.TValue;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.mutable.MutableObject;
-import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TSerializer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.function.Consumer;
 
 /**
  * @author dingtao
@@ -69,6 +65,9 @@ public class ConsumerService {
     @Value("${rocks.second.path}")
     private String secondRocksPath;
 
+    @Value("${rocks.compression.zstd:false}")
+    private boolean zstdCompression;
+
     @NacosValue(value = "${trace.es.filter.isopen}", autoRefreshed = true)
     private boolean filterIsOpen;
 
@@ -80,36 +79,28 @@ public class ConsumerService {
     private DataSourceService writeEsService;
     @Autowired
     private TeSnowFlake snowFlake;
+    @Autowired
+    private TraceAssembler traceAssembler;
 
     private RocksdbStoreServiceImpl firstRocksdbStoreService;
     private RocksdbStoreServiceImpl secondRocksdbStoreService;
 
+    private SpanFrameWriter firstFrameWriter;
+    private SpanFrameWriter secondFrameWriter;
+
     /**
      * Control the number of rocksDB messages stored in each batch
      * to prevent memory overflow caused by too many single key messages
      */
-    private AtomicInteger firstCount = new AtomicInteger();
-    private AtomicInteger secondCount = new AtomicInteger();
-
-    private CopyOnWriteArrayList<String> firstList = new CopyOnWriteArrayList<>();
-    private CopyOnWriteArrayList<String> secondList = new CopyOnWriteArrayList<>();
-
-    private ReentrantLock firstLock = new ReentrantLock();
-    private ReentrantLock secondLock = new ReentrantLock();
-
     private static final int BATCH_ROCKSDB_COUNT = 20;
 
-    /**
-     * The first lock is isolated from the second lock
-     */
-    private static final Object FIRST_LOCK = new Object();
-    private static final Object SECOND_LOCK = new Object();
-
     @PostConstruct
     public void init() {
         if (filterIsOpen) {
-            firstRocksdbStoreService = new RocksdbStoreServiceImpl(firstRocksPath, TeSnowFlake.FIRST_TIMESTAMP_REDIS_PREFIX);
-            secondRocksdbStoreService = new RocksdbStoreServiceImpl(secondRocksPath, TeSnowFlake.SECOND_TIMESTAMP_REDIS_PREFIX);
+            firstRocksdbStoreService = new RocksdbStoreServiceImpl(firstRocksPath, TeSnowFlake.FIRST_TIMESTAMP_REDIS_PREFIX, zstdCompression);
+            secondRocksdbStoreService = new RocksdbStoreServiceImpl(secondRocksPath, TeSnowFlake.SECOND_TIMESTAMP_REDIS_PREFIX, zstdCompression);
+            firstFrameWriter = new SpanFrameWriter(firstRocksdbStoreService, LocalStorages.firstRocksKeySuffix, BATCH_ROCKSDB_COUNT);
+            secondFrameWriter = new SpanFrameWriter(secondRocksdbStoreService, LocalStorages.secondRocksKeySuffix, BATCH_ROCKSDB_COUNT);
             // Initialize the rocksdb task for the first time
             initFirstRocksTask();
             // Initializes the second read rocksdb task
@@ -117,23 +108,41 @@ public class ConsumerService {
         }
     }
 
-    private void dealMessage(String order, String message) {
-        if (StringUtils.isEmpty(message)) {
-            return;
+    /**
+     * Runs on the rocksDB read thread. The bloom filter is checked on the undecoded frame: spans of the first pass
+     * that are still unknown are copied as is into the second pass, only the spans to write are decoded,
+     * on the delay message pool.
+     */
+    private void dealFrame(String order, SpanFrameReader reader, ByteBuffer value) {
+        List<DelayedSpan> hits = new ArrayList<>();
+        reader.read(value, (traceId, serviceName, spanName, buffer, offset, length) -> {
+            if (traceIdRedisBloomUtil.isExistLocal(traceId)) {
+                byte[] span = new byte[length];
+                buffer.get(offset, span);
+                hits.add(new DelayedSpan(serviceName, spanName, span));
+            } else if (RocksdbStoreServiceImpl.FIRST_ORDER.equals(order)) {
+                secondFrameWriter.append(traceId, serviceName, spanName, buffer, offset, length);
+            }
+        });
+        if (RocksdbStoreServiceImpl.FIRST_ORDER.equals(order)) {
+            secondFrameWriter.flush();
         }
-        // The body of the message stored in Rocksdb is: traceId ### serviceName ### spanName ### TSpanData(String) #### ......
-        String[] messages = message.split(MessageUtil.ROCKS_SPLIT);
-        for (String oneMessage : messages) {
-            String[] split = oneMessage.split(MessageUtil.SPLIT);
-            TSpanData tSpanData = deserializeFromString(split[3]);
-            if (tSpanData != null) {
-                if (traceIdRedisBloomUtil.isExistLocal(split[0])) {
-                    // write into es
-                    writeEsService.insertHeraSpan(tSpanData, split[1], split[2]);
-                } else if (RocksdbStoreServiceImpl.FIRST_ORDER.equals(order)) {
-                    insertRocks(split[0], split[1], split[2], tSpanData, RocksdbStoreServiceImpl.SECOND_ORDER);
-                }
+        if (!hits.isEmpty()) {
+            ExecutorUtil.submitDelayMessage(() -> writeDelayedSpans(hits));
+        }
+    }
+
+    private void writeDelayedSpans(List<DelayedSpan> spans) {
+        for (DelayedSpan span : spans) {
+            TSpanData tSpanData;
+            try {
+                tSpanData = SpanDecoder.get().decode(span.span, 0, span.span.length, false);
+            } catch (Throwable e) {
+                log.error("rocksDB deserializer deserialize error");
+                continue;
             }
+            // write into es
+            writeEsService.insertHeraSpan(tSpanData, span.serviceName, span.spanName);
         }
     }
 
@@ -148,7 +157,7 @@ public class ConsumerService {
             TAttributes attributes = tSpanData.getAttributes();
             List<TAttributeKey> tagsKeys = attributes.getKeys();
             List<TValue> tagsValues = attributes.getValues();
-            if (tagsKeys != null && tagsValues != null && tagsKeys.size() > 0 && tagsKeys.size() != tagsValues.size()) {
+            if (tagsKeys != null && tagsValues != null && tagsKeys.size() > 0 && tagsKeys.size() == tagsValues.size()) {
                 for (int i = 0; i < tagsKeys.size(); i++) {
                     String key = tagsKeys.get(i).getValue();
                     String value = ThriftUtil.getStringValue(tagsValues.get(i), tagsKeys.get(i).getType());
@@ -178,6 +187,11 @@ public class ConsumerService {
                 }
                 // write into es
                 writeEsService.insertHeraSpan(tSpanData, serviceName, spanName);
+                if (traceAssembler.isEnabled()) {
+                    traceAssembler.keep(traceId);
+                }
+            } else if (traceAssembler.isEnabled()) {
+                traceAssembler.add(traceId, serviceName, spanName, tSpanData);
             } else {
                 insertRocks(traceId, serviceName, spanName, tSpanData, RocksdbStoreServiceImpl.FIRST_ORDER);
             }
@@ -189,175 +203,70 @@ public class ConsumerService {
 
     private void insertRocks(String traceId, String serviceName, String spanName, TSpanData tSpanData, String order) {
         if (filterIsOpen) {
-            if (RocksdbStoreServiceImpl.FIRST_ORDER.equals(order)) {
-                internatInset(traceId, serviceName, spanName, tSpanData, order);
-            } else if (RocksdbStoreServiceImpl.SECOND_ORDER.equals(order)) {
-                internatInset(traceId, serviceName, spanName, tSpanData, order);
-            }
-        }
-    }
-
-    //Use optimistic locking to try to improve performance a bit.
-    private void internatInset(String traceId, String serviceName, String spanName, TSpanData tSpanData, String order) {
-        String m = buildRocksDBMessage(traceId, serviceName, spanName, tSpanData, order);
-        if (StringUtils.isEmpty(m)) {
-            return;
-        }
-        // Check the second level match
-        long currSeconds = System.currentTimeMillis() / 1000;
-        if (RocksdbStoreServiceImpl.FIRST_ORDER.equals(order)) {
-            int j = firstCount.getAndUpdate(i -> {
-                if (i >= BATCH_ROCKSDB_COUNT) {
-                    return 0;
-                }
-                return i;
-            });
-
-            MutableObject<String> mo = new MutableObject<>();
-            firstLock.lock();
-            try{
-                firstList.add(m);
-                if (j >= BATCH_ROCKSDB_COUNT) {
-                    String msg = Joiner.on("").join(firstList);
-                    mo.setValue(msg);
-                    firstList.clear();
-                }
-            }finally {
-                firstLock.unlock();
-            }
-
-            if (j >= BATCH_ROCKSDB_COUNT) {
-                String key = firstRocksdbStoreService.getKey(currSeconds, LocalStorages.firstRocksKeySuffix.addAndGet(1));
-                firstRocksdbStoreService.put(key, mo.getValue().getBytes(StandardCharsets.UTF_8));
-            }
-
-        } else if (RocksdbStoreServiceImpl.SECOND_ORDER.equals(order)) {
-            int j = secondCount.getAndUpdate(i -> {
-                if (i >= BATCH_ROCKSDB_COUNT) {
-                    return 0;
-                }
-                return i;
-            });
-
-            MutableObject<String> mo = new MutableObject<>();
-            secondLock.lock();
-            try{
-                secondList.add(m);
-                if (j >= BATCH_ROCKSDB_COUNT) {
-                    String msg = Joiner.on("").join(secondList);
-                    mo.setValue(msg);
-                    secondList.clear();
-                }
-            }finally {
-                secondLock.unlock();
+            byte[] span = serialize(tSpanData);
+            if (span == null) {
+                return;
             }
-
-            if (j >= BATCH_ROCKSDB_COUNT) {
-                String key = secondRocksdbStoreService.getKey(currSeconds, LocalStorages.secondRocksKeySuffix.addAndGet(1));
-                secondRocksdbStoreService.put(key, mo.getValue().getBytes(StandardCharsets.UTF_8));
+            SpanFrameWriter writer = RocksdbStoreServiceImpl.FIRST_ORDER.equals(order) ? firstFrameWriter : secondFrameWriter;
+            if (writer.append(traceId, serviceName, spanName, span)) {
+                writer.flush();
             }
         }
-
-    }
-
-    private String buildRocksDBMessage(String traceId, String serviceName, String spanName, TSpanData tSpanData, String order) {
-        String serialize = serializeToString(tSpanData);
-        if (serialize != null) {
-            if (RocksdbStoreServiceImpl.FIRST_ORDER.equals(order)) {
-                StringBuilder sb = new StringBuilder();
-                sb.append(traceId).append(MessageUtil.SPLIT)
-                        .append(serviceName).append(MessageUtil.SPLIT)
-                        .append(spanName).append(MessageUtil.SPLIT)
-                        .append(serialize).append(MessageUtil.ROCKS_SPLIT);
-                firstCount.incrementAndGet();
-                return sb.toString();
-            } else if (RocksdbStoreServiceImpl.SECOND_ORDER.equals(order)) {
-                StringBuilder sb = new StringBuilder();
-                sb.append(traceId).append(MessageUtil.SPLIT)
-                        .append(serviceName).append(MessageUtil.SPLIT)
-                        .append(spanName).append(MessageUtil.SPLIT)
-                        .append(serialize).append(MessageUtil.ROCKS_SPLIT);
-                secondCount.incrementAndGet();
-                return sb.toString();
-            }
-        }
-        return "";
     }
 
     private void initFirstRocksTask() {
-        // Gets the timestamp of the last message read
-        String firstKey = snowFlake.recoverLastTimestamp(TeSnowFlake.FIRST_TIMESTAMP_REDIS_PREFIX);
-        final String firstLastRocksKey = firstKey == null ?
-                System.currentTimeMillis() + "_" + LocalStorages.firstRocksKeySuffix.get() : firstKey;
+        // Gets the key of the last message read
+        String firstLastRocksKey = snowFlake.recoverLastTimestamp(TeSnowFlake.FIRST_TIMESTAMP_REDIS_PREFIX);
         // The local message thread is read for the first time
-        ExecutorUtil.submitRocksDBRead(() -> {
-            try {
-                firstRocksdbStoreService.delayTake(firstLastRocksKey, firstGap, new Consumer<byte[]>() {
-                    @Override
-                    public void accept(byte[] bytes) {
-                        ExecutorUtil.submitDelayMessage(() -> {
-                            try {
-                                String firstRocksMes = new String(bytes);
-                                dealMessage(RocksdbStoreServiceImpl.FIRST_ORDER, firstRocksMes);
-                            } catch (Throwable t) {
-                                log.error("deal first rocksdb message error : ", t);
-                            }
-                        });
-                    }
-                }, snowFlake);
-            } catch (Throwable e) {
-                log.error("first get Rocks message error : ", e);
-            }
-        });
+        ExecutorUtil.submitRocksDBRead(() -> takeFrames(firstRocksdbStoreService, RocksdbStoreServiceImpl.FIRST_ORDER, firstLastRocksKey, firstGap));
     }
 
     private void initSecondRocksTask() {
-        // Gets the timestamp of the last message read
-        String secondKey = snowFlake.recoverLastTimestamp(TeSnowFlake.SECOND_TIMESTAMP_REDIS_PREFIX);
-        final String secondLastRocksKey = secondKey == null ?
-                System.currentTimeMillis() + "_" + LocalStorages.secondRocksKeySuffix.get() : secondKey;
+        // Gets the key of the last message read
+        String secondLastRocksKey = snowFlake.recoverLastTimestamp(TeSnowFlake.SECOND_TIMESTAMP_REDIS_PREFIX);
         // The local message thread is read for the second time
-        ExecutorUtil.submitRocksDBRead(() -> {
+        ExecutorUtil.submitRocksDBRead(() -> takeFrames(secondRocksdbStoreService, RocksdbStoreServiceImpl.SECOND_ORDER, secondLastRocksKey, secondGap));
+    }
+
+    private void takeFrames(RocksdbStoreServiceImpl store, String order, String lastRocksKey, long gap) {
+        SpanFrameReader reader = new SpanFrameReader();
+        RocksdbStoreServiceImpl.FrameListener listener = value -> {
             try {
-                secondRocksdbStoreService.delayTake(secondLastRocksKey, secondGap, new Consumer<byte[]>() {
-                    @Override
-                    public void accept(byte[] bytes) {
-                        ExecutorUtil.submitDelayMessage(() -> {
-                            try {
-                                String firstRocksMes = new String(bytes);
-                                dealMessage(RocksdbStoreServiceImpl.SECOND_ORDER, firstRocksMes);
-                            } catch (Throwable t) {
-                                log.error("deal second rocksdb message error : ", t);
-                            }
-                        });
-                    }
-                }, snowFlake);
-            } catch (Throwable e) {
-                log.error("second get Rocks message error : ", e);
+                dealFrame(order, reader, value);
+            } catch (Throwable t) {
+                log.error("deal " + order + " rocksdb message error : ", t);
             }
-        });
+        };
+        try {
+            // Values written in the text format before the upgrade
+            store.drainTextKeys(gap, listener);
+            store.delayTakeFrames(lastRocksKey, gap, listener, snowFlake);
+        } catch (Throwable e) {
+            log.error(order + " get Rocks message error : ", e);
+        }
     }
 
-
-    private String serializeToString(TSpanData tSpanData) {
+    private byte[] serialize(TSpanData tSpanData) {
         try {
-            byte[] serialize = new TSerializer(ThriftUtil.PROTOCOL_FACTORY).serialize(tSpanData);
-            return new String(serialize, StandardCharsets.ISO_8859_1);
+            return new TSerializer(ThriftUtil.PROTOCOL_FACTORY).serialize(tSpanData);
         } catch (Throwable e) {
             log.error("rocksDB serializer serialize error");
         }
         return null;
     }
 
-    private TSpanData deserializeFromString(String decode) {
-        try {
-            TSpanData tSpanData = new TSpanData();
-            // The ISO-8859-1 encoding prevents byte[] inconsistency caused by extra character set processing when byte[] is converted to String, resulting in missing thrift deserialization fields
-            new TDeserializer(ThriftUtil.PROTOCOL_FACTORY).deserialize(tSpanData, decode.getBytes(StandardCharsets.ISO_8859_1));
-            return tSpanData;
-        } catch (Throwable e) {
-            log.error("rocksDB deserializer deserialize error");
+    private static final class DelayedSpan {
+
+        private final String serviceName;
+
+        private final String spanName;
+
+        private final byte[] span;
+
+        private DelayedSpan(String serviceName, String spanName, byte[] span) {
+            this.serviceName = serviceName;
+            this.spanName = spanName;
+            this.span = span;
         }
-        return null;
     }
-}
\ No newline at end of file
+}
@@ -22,10 +22,10 @@ package org.apache.ozhera.trace.etl.es.consumer;
 import com.alibaba.nacos.api.config.annotation.NacosValue;
 import org.apache.ozhera.trace.etl.common.HashUtil;
 import org.apache.ozhera.trace.etl.service.HeraContextService;
-import org.apache.ozhera.trace.etl.domain.HeraTraceEtlConfig;
 import org.apache.ozhera.trace.etl.es.config.TraceConfig;
 import org.apache.ozhera.trace.etl.es.domain.FilterResult;
 import org.apache.ozhera.trace.etl.es.util.bloomfilter.TraceIdRedisBloomUtil;
+import org.apache.ozhera.trace.etl.service.config.TraceConfigEntry;
 import org.apache.ozhera.trace.etl.util.MessageUtil;
 import org.apache.ozhera.tspandata.TSpanData;
 import lombok.extern.slf4j.Slf4j;
@@ -81,7 +81,7 @@ public class FilterService {
                 filterResult.setAddBloom(true);
                 return filterResult;
             }
-            HeraTraceEtlConfig config = traceConfig.getConfig(serviceName);
+            TraceConfigEntry config = traceConfig.getEntry(serviceName);
             // Check if there are any keys that need to be preserved in heraContext.
             if (checkHeraContext(heraContext, config)) {
                 filterResult.setResult(true);
@@ -89,14 +89,14 @@ public class FilterService {
                 return filterResult;
             }
             // Check if the execution time exceeds the threshold.
-            int durationThreshold = config == null ? defDurationThreshold : config.getTraceDurationThreshold();
+            int durationThreshold = config == null ? defDurationThreshold : config.traceDurationThreshold(defDurationThreshold);
             if (duration / (1000 * 1000) > durationThreshold) {
                 filterResult.setResult(true);
                 filterResult.setAddBloom(true);
                 return filterResult;
             }
             // Perform random sampling for TraceID.
-            boolean filterRandom = filterRandom(serviceName, traceId);
+            boolean filterRandom = filterRandom(config, traceId);
             if (filterRandom) {
                 filterResult.setResult(true);
                 filterResult.setAddBloom(false);
@@ -120,10 +120,13 @@ public class FilterService {
     }
 
     public boolean filterRandom(String serviceName, String traceId) {
-        HeraTraceEtlConfig config = traceConfig.getConfig(serviceName);
+        return filterRandom(traceConfig.getEntry(serviceName), traceId);
+    }
+
+    private boolean filterRandom(TraceConfigEntry config, String traceId) {
         int i = HashUtil.consistentHash(traceId, randomBase);
         // Perform random sampling based on the threshold.
-        int threshold = config == null ? defThreshold : config.getTraceFilter();
+        int threshold = config == null ? defThreshold : config.traceFilter(defThreshold);
         if (i < threshold) {
             return true;
         } else {
@@ -131,15 +134,12 @@ public class FilterService {
         }
     }
 
-    private boolean checkHeraContext(String heraContext, HeraTraceEtlConfig config) {
-        if (config != null && StringUtils.isNotEmpty(heraContext) && StringUtils.isNotEmpty(config.getTraceDebugFlag())) {
-            String[] flags = config.getTraceDebugFlag().split("\\|");
-            Set<String> heraContextKeys = heraContextService.getHeraContextKeys(heraContext);
-            for (String flag : flags) {
-                for (String heraContextKey : heraContextKeys) {
-                    if (flag.equals(heraContextKey)) {
-                        return true;
-                    }
+    private boolean checkHeraContext(String heraContext, TraceConfigEntry config) {
+        if (config != null && StringUtils.isNotEmpty(heraContext) && !config.getDebugFlags().isEmpty()) {
+            Set<String> flags = config.getDebugFlags();
+            for (String heraContextKey : heraContextService.getHeraContextKeys(heraContext)) {
+                if (flags.contains(heraContextKey)) {
+                    return true;
                 }
             }
         }
@@ -0,0 +1,457 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.es.consumer;
+
+import org.apache.ozhera.trace.etl.api.service.DataSourceService;
+import org.apache.ozhera.trace.etl.es.queue.impl.TraceSpillStore;
+import org.apache.ozhera.trace.etl.es.util.bloomfilter.TraceIdRedisBloomUtil;
+import org.apache.ozhera.trace.etl.util.SelfMetricsRegistry;
+import org.apache.ozhera.trace.etl.util.SpanDecoder;
+import org.apache.ozhera.trace.etl.util.ThriftUtil;
+import org.apache.ozhera.tspandata.TSpanContext;
+import org.apache.ozhera.tspandata.TSpanData;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+import io.prometheus.client.Histogram;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.thrift.TSerializer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tail sampling by trace instead of by span: the spans of a trace that no rule of {@link FilterService} has kept yet
+ * are grouped in memory by traceId, and the group is written or dropped with one decision.
+ * <p>
+ * A trace is kept as soon as one of its spans matches a rule (error, duration, heraContext debug flag, random, or
+ * the bloom filter of traces kept elsewhere), see {@link #keep(String)}. Otherwise it is decided once it is complete,
+ * its root span seen and no span for trace.assembly.root.grace.ms, or after trace.assembly.idle.ms without a span:
+ * kept if the bloom filter knows it by then, dropped otherwise. Each span is decoded once, by the consumer.
+ * <p>
+ * Beyond trace.assembly.max.spans buffered spans, new spans go to the {@link TraceSpillStore} with the spans
+ * already buffered for their trace. On stop every trace still in flight is spilled and persisted, on start the
+ * traces found in the store are back in the window, decided like any other once they go idle.
+ * <p>
+ * Each group of spans spills under a generation of its own: a span arriving after its trace was decided or persisted
+ * opens a new group, whose spills can not collide with the spans the previous group is still reading or deleting.
+ */
+@Component
+@Slf4j
+public class TraceAssembler {
+
+    private static final long SWEEP_MILLIS = 500L;
+
+    @Value("${trace.assembly.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rocks.assembly.path:/home/rocksdb/assembly}")
+    private String spillPath;
+
+    @Value("${trace.assembly.idle.ms:30000}")
+    private long idleMillis;
+
+    @Value("${trace.assembly.root.grace.ms:3000}")
+    private long rootGraceMillis;
+
+    @Value("${trace.assembly.max.spans:200000}")
+    private long maxBufferedSpans;
+
+    @Value("${rocks.compression.zstd:false}")
+    private boolean zstdCompression;
+
+    @Autowired
+    private TraceIdRedisBloomUtil traceIdRedisBloomUtil;
+    @Autowired
+    private DataSourceService writeEsService;
+
+    private final ConcurrentHashMap<String, TraceBuffer> traces = new ConcurrentHashMap<>();
+
+    private final AtomicLong generations = new AtomicLong();
+
+    private final AtomicLong bufferedSpans = new AtomicLong();
+
+    private final AtomicLong spilledSpans = new AtomicLong();
+
+    private final AtomicLong spillBytes = new AtomicLong();
+
+    private final AtomicLong spillBytesTotal = new AtomicLong();
+
+    private final AtomicLong keptTraces = new AtomicLong();
+
+    private final AtomicLong droppedTraces = new AtomicLong();
+
+    private Histogram decisionLatency;
+
+    private TraceSpillStore spillStore;
+
+    private ScheduledExecutorService scheduler;
+
+    private volatile boolean closing;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        spillStore = new TraceSpillStore(spillPath, zstdCompression);
+        reload();
+        decisionLatency = Histogram.build()
+                .name("trace_etl_assembly_decision_seconds")
+                .help("time from the first buffered span of a trace to its decision")
+                .labelNames("decision")
+                .buckets(0.5, 1, 2, 5, 10, 20, 30, 60, 120)
+                .register(SelfMetricsRegistry.get());
+        new AssemblyCollector().register(SelfMetricsRegistry.get());
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(this::sweep, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+        log.info("trace assembly idle:{}ms root grace:{}ms max spans:{}", idleMillis, rootGraceMillis, maxBufferedSpans);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // spans still arriving go to the store, see add
+        closing = true;
+        int persisted = 0;
+        for (TraceBuffer buffer : traces.values()) {
+            if (persist(buffer)) {
+                persisted++;
+            }
+        }
+        spillStore.flush();
+        spillStore.close();
+        log.info("trace assembly persisted {} traces in flight", persisted);
+    }
+
+    /**
+     * The traces persisted by the last stop, their spans stay in the store until they are decided.
+     */
+    private void reload() {
+        long now = System.currentTimeMillis();
+        spillStore.load((traceId, generation, spans, bytes) -> {
+            generations.accumulateAndGet(generation, Math::max);
+            TraceBuffer buffer = traces.get(traceId);
+            if (buffer == null) {
+                // the groups of a trace come in generation order, it goes on spilling under the first one
+                buffer = new TraceBuffer(traceId, generation, now);
+                buffer.spillSeq = spans;
+                traces.put(traceId, buffer);
+            } else {
+                buffer.otherGenerations.add(generation);
+            }
+            buffer.spilled += spans;
+            buffer.spilledBytes += bytes;
+            spilledSpans.addAndGet(spans);
+            spillBytes.addAndGet(bytes);
+        });
+        if (!traces.isEmpty()) {
+            log.info("trace assembly reloaded {} traces, {} spans", traces.size(), spilledSpans.get());
+        }
+    }
+
+    /**
+     * Spill what the trace still holds in memory and take it out of the window, without a decision.
+     *
+     * @return false if it was decided meanwhile or could not be spilled
+     */
+    private boolean persist(TraceBuffer buffer) {
+        synchronized (buffer) {
+            if (buffer.decided) {
+                return false;
+            }
+            if (!buffer.spans.isEmpty() && !spill(buffer, null)) {
+                log.error("trace assembly could not persist traceId: {}, {} spans lost", buffer.traceId, buffer.spans.size());
+                return false;
+            }
+            buffer.decided = true;
+            traces.remove(buffer.traceId, buffer);
+            return true;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Buffer a span no rule has kept.
+     */
+    public void add(String traceId, String serviceName, String spanName, TSpanData tSpanData) {
+        long now = System.currentTimeMillis();
+        boolean root = isRoot(tSpanData);
+        while (true) {
+            TraceBuffer buffer = traces.computeIfAbsent(traceId, id -> new TraceBuffer(id, generations.incrementAndGet(), now));
+            synchronized (buffer) {
+                if (buffer.decided) {
+                    // decided and removed meanwhile, the span opens a new group
+                    continue;
+                }
+                buffer.lastSeen = now;
+                if (root) {
+                    buffer.rootSeen = true;
+                }
+                BufferedSpan span = new BufferedSpan(serviceName, spanName, tSpanData);
+                if ((closing || bufferedSpans.get() >= maxBufferedSpans) && spill(buffer, span)) {
+                    return;
+                }
+                buffer.spans.add(span);
+                bufferedSpans.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * A span of the trace has been kept by a rule, so are the spans buffered before it.
+     */
+    public void keep(String traceId) {
+        TraceBuffer buffer = traces.get(traceId);
+        if (buffer != null) {
+            decide(buffer, true);
+        }
+    }
+
+    private void sweep() {
+        try {
+            long now = System.currentTimeMillis();
+            for (TraceBuffer buffer : traces.values()) {
+                if (buffer.isDue(now, idleMillis, rootGraceMillis)) {
+                    decide(buffer, false);
+                }
+            }
+        } catch (Throwable t) {
+            log.error("sweep trace assembly error", t);
+        }
+    }
+
+    private void decide(TraceBuffer buffer, boolean keep) {
+        List<BufferedSpan> spans;
+        int spilled;
+        synchronized (buffer) {
+            if (buffer.decided) {
+                return;
+            }
+            buffer.decided = true;
+            traces.remove(buffer.traceId, buffer);
+            spans = buffer.spans;
+            spilled = buffer.spilled;
+        }
+        bufferedSpans.addAndGet(-spans.size());
+        boolean kept = keep || traceIdRedisBloomUtil.isExistLocal(buffer.traceId);
+        if (kept) {
+            for (BufferedSpan span : spans) {
+                writeEsService.insertHeraSpan(span.tSpanData, span.serviceName, span.spanName);
+            }
+        }
+        if (spilled > 0) {
+            readAndDelete(buffer, buffer.generation, kept);
+            for (long generation : buffer.otherGenerations) {
+                readAndDelete(buffer, generation, kept);
+            }
+            spilledSpans.addAndGet(-spilled);
+            spillBytes.addAndGet(-buffer.spilledBytes);
+        }
+        (kept ? keptTraces : droppedTraces).incrementAndGet();
+        decisionLatency.labels(kept ? "keep" : "drop").observe((System.currentTimeMillis() - buffer.firstSeen) / 1000D);
+    }
+
+    private void readAndDelete(TraceBuffer buffer, long generation, boolean kept) {
+        if (kept) {
+            spillStore.read(buffer.traceId, generation, this::writeSpilled);
+        }
+        spillStore.delete(buffer.traceId, generation);
+    }
+
+    /**
+     * Called under the lock of the buffer, moves its buffered spans and the new one, if any, to the spill store.
+     *
+     * @return false if nothing was spilled, the span is then buffered in memory
+     */
+    private boolean spill(TraceBuffer buffer, BufferedSpan span) {
+        List<byte[]> values = new ArrayList<>(buffer.spans.size() + 1);
+        try {
+            TSerializer serializer = new TSerializer(ThriftUtil.PROTOCOL_FACTORY);
+            for (BufferedSpan buffered : buffer.spans) {
+                values.add(encode(serializer, buffered));
+            }
+            if (span != null) {
+                values.add(encode(serializer, span));
+            }
+        } catch (Throwable e) {
+            log.error("trace assembly serialize error, traceId: " + buffer.traceId, e);
+            return false;
+        }
+        long bytes = spillStore.spill(buffer.traceId, buffer.generation, buffer.spillSeq, values);
+        if (bytes == 0) {
+            return false;
+        }
+        bufferedSpans.addAndGet(-buffer.spans.size());
+        buffer.spans = new ArrayList<>();
+        buffer.spillSeq += values.size();
+        buffer.spilled += values.size();
+        buffer.spilledBytes += bytes;
+        spilledSpans.addAndGet(values.size());
+        spillBytes.addAndGet(bytes);
+        spillBytesTotal.addAndGet(bytes);
+        return true;
+    }
+
+    private void writeSpilled(byte[] value) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(value);
+            String serviceName = readString(buffer);
+            String spanName = readString(buffer);
+            TSpanData tSpanData = SpanDecoder.get().decode(value, buffer.position(), buffer.remaining(), false);
+            writeEsService.insertHeraSpan(tSpanData, serviceName, spanName);
+        } catch (Throwable e) {
+            log.error("trace assembly deserialize error", e);
+        }
+    }
+
+    private static byte[] encode(TSerializer serializer, BufferedSpan span) throws Exception {
+        byte[] serviceName = span.serviceName.getBytes(StandardCharsets.UTF_8);
+        byte[] spanName = span.spanName.getBytes(StandardCharsets.UTF_8);
+        byte[] thrift = serializer.serialize(span.tSpanData);
+        return ByteBuffer.allocate(8 + serviceName.length + spanName.length + thrift.length)
+                .putInt(serviceName.length).put(serviceName)
+                .putInt(spanName.length).put(spanName)
+                .put(thrift)
+                .array();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static boolean isRoot(TSpanData tSpanData) {
+        TSpanContext parent = tSpanData.getParentSpanContext();
+        return parent == null || StringUtils.isEmpty(parent.getSpanId()) || StringUtils.containsOnly(parent.getSpanId(), '0');
+    }
+
+    private static final class TraceBuffer {
+
+        private final String traceId;
+
+        /**
+         * The spill keys of this group, {@link #otherGenerations} those of the other groups found on start.
+         */
+        private final long generation;
+
+        private final List<Long> otherGenerations = new ArrayList<>(0);
+
+        private final long firstSeen;
+
+        private volatile long lastSeen;
+
+        private volatile boolean rootSeen;
+
+        private boolean decided;
+
+        private List<BufferedSpan> spans = new ArrayList<>();
+
+        private int spilled;
+
+        private int spillSeq;
+
+        private long spilledBytes;
+
+        private TraceBuffer(String traceId, long generation, long firstSeen) {
+            this.traceId = traceId;
+            this.generation = generation;
+            this.firstSeen = firstSeen;
+            this.lastSeen = firstSeen;
+        }
+
+        /**
+         * Complete once the root span has been seen and the trace stayed quiet for the grace period,
+         * the idle timeout covers the traces whose root span is not exported here.
+         */
+        private boolean isDue(long now, long idleMillis, long rootGraceMillis) {
+            long quiet = now - lastSeen;
+            return quiet >= idleMillis || (rootSeen && quiet >= rootGraceMillis);
+        }
+    }
+
+    private static final class BufferedSpan {
+
+        private final String serviceName;
+
+        private final String spanName;
+
+        private final TSpanData tSpanData;
+
+        private BufferedSpan(String serviceName, String spanName, TSpanData tSpanData) {
+            this.serviceName = serviceName;
+            this.spanName = spanName;
+            this.tSpanData = tSpanData;
+        }
+    }
+
+    private class AssemblyCollector extends Collector {
+
+        @Override
+        public List<MetricFamilySamples> collect() {
+            CounterMetricFamily decisions = new CounterMetricFamily("trace_etl_assembly_traces",
+                    "traces decided by the assembly window", Collections.singletonList("decision"));
+            decisions.addMetric(Collections.singletonList("keep"), keptTraces.get());
+            decisions.addMetric(Collections.singletonList("drop"), droppedTraces.get());
+            return Arrays.asList(
+                    new GaugeMetricFamily("trace_etl_assembly_traces_in_flight",
+                            "traces waiting for a decision", traces.size()),
+                    new GaugeMetricFamily("trace_etl_assembly_spans_buffered",
+                            "spans of undecided traces held in memory", bufferedSpans.get()),
+                    new GaugeMetricFamily("trace_etl_assembly_spans_spilled",
+                            "spans of undecided traces held in the spill store", spilledSpans.get()),
+                    new GaugeMetricFamily("trace_etl_assembly_spill_bytes",
+                            "bytes of undecided traces held in the spill store", spillBytes.get()),
+                    new CounterMetricFamily("trace_etl_assembly_spill_written_bytes",
+                            "bytes written to the spill store", spillBytesTotal.get()),
+                    decisions);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.es.controller;
+
+import io.prometheus.client.exporter.common.TextFormat;
+import org.apache.ozhera.trace.etl.util.SelfMetricsRegistry;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the metrics of trace-etl-es itself, those of {@link SelfMetricsRegistry}, on the server port.
+ */
+@RestController
+public class MetricsController {
+
+    @GetMapping("/metrics")
+    public void metrics(@RequestHeader(value = "Accept", required = false) String accept,
+                        HttpServletResponse response) throws IOException {
+        String contentType = TextFormat.chooseContentType(accept);
+        response.setContentType(contentType);
+        try (Writer writer = new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8)) {
+            TextFormat.writeFormat(contentType, writer, SelfMetricsRegistry.get().metricFamilySamples());
+        }
+    }
+}
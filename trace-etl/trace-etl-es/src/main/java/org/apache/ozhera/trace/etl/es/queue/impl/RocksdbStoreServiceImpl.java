@@ -22,6 +22,7 @@ package org.apache.ozhera.trace.etl.es.queue.impl;
 import org.apache.ozhera.trace.etl.es.queue.DiskStoreService;
 import org.rocksdb.CompactionStyle;
 import org.rocksdb.CompressionType;
+import org.rocksdb.DirectSlice;
 import org.rocksdb.InfoLogLevel;
 import org.rocksdb.Options;
 import org.rocksdb.ReadOptions;
@@ -29,13 +30,18 @@ import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
 import org.rocksdb.TtlDB;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
 import org.rocksdb.util.SizeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 /**
@@ -53,11 +59,35 @@ public class RocksdbStoreServiceImpl implements DiskStoreService {
     public static final String FIRST_ORDER = "first";
     public static final String SECOND_ORDER = "second";
 
+    /**
+     * Frame keys are the big-endian (second, seq) pair, so the byte order is the time order.
+     * Their first byte is 0 until 2106, the text keys "second_seq" start with an ascii digit and sort after them.
+     */
+    public static final int FRAME_KEY_LENGTH = 16;
+
+    private static final byte[] TEXT_KEY_START = {'0'};
+
+    private static final int INITIAL_VALUE_CAPACITY = 256 * 1024;
+
+    /**
+     * Receives the value of one key, the buffer is reused once the call returns.
+     */
+    public interface FrameListener {
+        void accept(ByteBuffer value);
+    }
+
     public RocksDB getRocksDB() {
         return rocksDB;
     }
 
     public RocksdbStoreServiceImpl(String path, String keyPrefix) {
+        this(path, keyPrefix, false);
+    }
+
+    /**
+     * @param zstdCompression compress the sst blocks with zstd instead of snappy, smaller files for more cpu
+     */
+    public RocksdbStoreServiceImpl(String path, String keyPrefix, boolean zstdCompression) {
         this.keyPrefix = keyPrefix;
         // Create a directory to solve the problem that only a single-level directory can be created on rocksDB
         try {
@@ -82,7 +112,7 @@ public class RocksdbStoreServiceImpl implements DiskStoreService {
                 .setMaxWriteBufferNumber(3)
                 .setDbWriteBufferSize(30 * SizeUnit.MB)
                 .setMaxBackgroundJobs(10)
-                .setCompressionType(CompressionType.SNAPPY_COMPRESSION)
+                .setCompressionType(zstdCompression ? CompressionType.ZSTD_COMPRESSION : CompressionType.SNAPPY_COMPRESSION)
                 .setNumLevels(5)
                 // First layer 200Mb
                 .setMaxBytesForLevelBase(200 * SizeUnit.MB)
@@ -180,6 +210,167 @@ public class RocksdbStoreServiceImpl implements DiskStoreService {
         }
     }
 
+    /**
+     * Write the frames under consecutive keys of the current second, in one atomic batch.
+     */
+    public void putFrames(List<byte[]> frames, AtomicLong keySuffix) {
+        long currSecond = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        try (WriteBatch batch = new WriteBatch(); WriteOptions writeOptions = new WriteOptions()) {
+            for (byte[] frame : frames) {
+                batch.put(frameKey(currSecond, keySuffix.incrementAndGet()), frame);
+            }
+            rocksDB.write(writeOptions, batch);
+        } catch (RocksDBException e) {
+            log.error("RocksdbStoreService putFrames error : ", e);
+        }
+    }
+
+    /**
+     * Delay queue over the frame keys: every second, hand over the frames from the checkpoint up to now - gapBetweenLatest.
+     *
+     * @param begin the last key handled, "second_seq" as stored by {@link TeSnowFlake}, null to start from the oldest key
+     */
+    public void delayTakeFrames(final String begin, long gapBetweenLatest, FrameListener listener, TeSnowFlake snowFlake) {
+        try (FrameScan scan = newFrameScan(begin)) {
+            while (true) {
+                try {
+                    scan.scan(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - gapBetweenLatest, listener, snowFlake);
+                } catch (Throwable e) {
+                    log.error("delayTakeFrames error:{}", e);
+                }
+
+                try {
+                    TimeUnit.SECONDS.sleep(1);
+                } catch (InterruptedException e) {
+                    log.error("delayTakeFrames sleep error:{}", e);
+                }
+            }
+        }
+    }
+
+    public FrameScan newFrameScan(String begin) {
+        FrameScan scan = new FrameScan();
+        if (begin != null && begin.indexOf('_') > 0) {
+            String[] beginArr = begin.split("_");
+            scan.nextSecond = Long.parseLong(beginArr[0]);
+            scan.nextSeq = Long.parseLong(beginArr[1]) + 1;
+        }
+        return scan;
+    }
+
+    /**
+     * Cursor over the frame keys. Keys and values are read into direct buffers and the upper bound is a
+     * {@link DirectSlice} over a buffer rewritten in place, so a scan parses no key and copies no value onto the heap.
+     * Not thread safe.
+     */
+    public class FrameScan implements AutoCloseable {
+
+        private final ByteBuffer upper = ByteBuffer.allocateDirect(FRAME_KEY_LENGTH);
+
+        private final ByteBuffer key = ByteBuffer.allocateDirect(FRAME_KEY_LENGTH);
+
+        private ByteBuffer value = ByteBuffer.allocateDirect(INITIAL_VALUE_CAPACITY);
+
+        private final DirectSlice upperBound = new DirectSlice(upper, FRAME_KEY_LENGTH);
+
+        private final ReadOptions readOptions = new ReadOptions().setVerifyChecksums(false).setIterateUpperBound(upperBound);
+
+        private long nextSecond;
+
+        private long nextSeq;
+
+        /**
+         * Hand over the frames written up to latestSecond included.
+         *
+         * @param snowFlake checkpoint of the last key handled, may be null
+         * @return the number of frames
+         */
+        public int scan(long latestSecond, FrameListener listener, TeSnowFlake snowFlake) {
+            upper.putLong(0, latestSecond + 1).putLong(Long.BYTES, 0L);
+            int frames = 0;
+            try (RocksIterator iterator = rocksDB.newIterator(readOptions)) {
+                for (iterator.seek(frameKey(nextSecond, nextSeq)); iterator.isValid(); iterator.next()) {
+                    key.clear();
+                    if (iterator.key(key) != FRAME_KEY_LENGTH) {
+                        continue;
+                    }
+                    value.clear();
+                    int size = iterator.value(value);
+                    if (size > value.capacity()) {
+                        value = ByteBuffer.allocateDirect(Math.max(size, value.capacity() * 2));
+                        iterator.value(value);
+                    }
+                    long second = key.getLong(0);
+                    long seq = key.getLong(Long.BYTES);
+                    listener.accept(value);
+                    frames++;
+                    nextSecond = second;
+                    nextSeq = seq + 1;
+                    if (snowFlake != null) {
+                        snowFlake.storeLastTimestamp(keyPrefix, second + "_" + seq);
+                    }
+                }
+            }
+            return frames;
+        }
+
+        @Override
+        public void close() {
+            readOptions.close();
+            upperBound.close();
+        }
+    }
+
+    /**
+     * Migration of the text keys written before the frame format: hand their values to the listener once they
+     * are gapBetweenLatest old, delete them, and return when none is left. Run before {@link #delayTakeFrames}.
+     */
+    public void drainTextKeys(long gapBetweenLatest, FrameListener listener) {
+        while (true) {
+            boolean pending = false;
+            int drained = 0;
+            try (RocksIterator iterator = rocksDB.newIterator();
+                 WriteBatch deletes = new WriteBatch();
+                 WriteOptions writeOptions = new WriteOptions()) {
+                long latestTime = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - gapBetweenLatest;
+                for (iterator.seek(TEXT_KEY_START); iterator.isValid(); iterator.next()) {
+                    byte[] rawKey = iterator.key();
+                    String key = new String(rawKey, StandardCharsets.UTF_8);
+                    if (key.indexOf("_") < 0) {
+                        continue;
+                    }
+                    if (Long.valueOf(key.split("_")[0]) > latestTime) {
+                        pending = true;
+                        break;
+                    }
+                    listener.accept(ByteBuffer.wrap(iterator.value()));
+                    deletes.delete(rawKey);
+                    drained++;
+                }
+                rocksDB.write(writeOptions, deletes);
+            } catch (Throwable e) {
+                log.error("drainTextKeys error:{}", e);
+                return;
+            }
+            if (drained > 0) {
+                log.info("{} drained {} text format values", keyPrefix, drained);
+            }
+            if (!pending) {
+                return;
+            }
+            try {
+                TimeUnit.SECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                log.error("drainTextKeys sleep error:{}", e);
+                return;
+            }
+        }
+    }
+
+    public static byte[] frameKey(long second, long seq) {
+        return ByteBuffer.allocate(FRAME_KEY_LENGTH).putLong(second).putLong(seq).array();
+    }
+
     public String getKey(long currSecond, long suffix) {
         String key = currSecond + "_" + suffix;
         return key;
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.es.queue.impl;
+
+import org.apache.ozhera.trace.etl.util.MessageUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the values of the delay queue in place: the frames of {@link SpanFrameWriter}, and the text values
+ * (traceId ### serviceName ### spanName ### TSpanData(ISO-8859-1) #### ...) written before it, so the spans
+ * buffered by an older version are still delivered after an upgrade.
+ * <p>
+ * Spans are handed out as a range of the value buffer, which may be a direct buffer filled by RocksDB,
+ * so a span that is dropped or forwarded to the next pass is never copied onto the heap. Not thread safe.
+ */
+public class SpanFrameReader {
+
+    public interface RecordVisitor {
+
+        /**
+         * The span bytes are only valid during the call.
+         */
+        void visit(String traceId, String serviceName, String spanName, ByteBuffer value, int spanOffset, int spanLength);
+    }
+
+    private byte[] scratch = new byte[256];
+
+    /**
+     * @return the number of spans in the value
+     */
+    public int read(ByteBuffer value, RecordVisitor visitor) {
+        if (!value.hasRemaining()) {
+            return 0;
+        }
+        if (value.get(value.position()) == SpanFrameWriter.MAGIC) {
+            return readFrame(value, visitor);
+        }
+        return readText(value, visitor);
+    }
+
+    private int readFrame(ByteBuffer value, RecordVisitor visitor) {
+        int position = value.position();
+        int limit = value.limit();
+        if (limit - position < SpanFrameWriter.HEADER_LENGTH || value.get(position + 1) != SpanFrameWriter.VERSION) {
+            throw new IllegalStateException("unsupported span frame, version: " + (limit - position > 1 ? value.get(position + 1) : -1));
+        }
+        int count = value.getInt(position + 2);
+        position += SpanFrameWriter.HEADER_LENGTH;
+        for (int i = 0; i < count; i++) {
+            int length = length(value, position, limit);
+            String traceId = string(value, position + 4, length);
+            position += 4 + length;
+            length = length(value, position, limit);
+            String serviceName = string(value, position + 4, length);
+            position += 4 + length;
+            length = length(value, position, limit);
+            String spanName = string(value, position + 4, length);
+            position += 4 + length;
+            length = length(value, position, limit);
+            visitor.visit(traceId, serviceName, spanName, value, position + 4, length);
+            position += 4 + length;
+        }
+        return count;
+    }
+
+    private int readText(ByteBuffer value, RecordVisitor visitor) {
+        byte[] bytes = new byte[value.remaining()];
+        value.get(value.position(), bytes);
+        String message = new String(bytes, StandardCharsets.UTF_8);
+        int count = 0;
+        for (String oneMessage : message.split(MessageUtil.ROCKS_SPLIT)) {
+            String[] split = oneMessage.split(MessageUtil.SPLIT);
+            if (split.length < 4) {
+                continue;
+            }
+            byte[] span = split[3].getBytes(StandardCharsets.ISO_8859_1);
+            visitor.visit(split[0], split[1], split[2], ByteBuffer.wrap(span), 0, span.length);
+            count++;
+        }
+        return count;
+    }
+
+    private static int length(ByteBuffer value, int position, int limit) {
+        if (limit - position < 4) {
+            throw new IllegalStateException("truncated span frame at " + position);
+        }
+        int length = value.getInt(position);
+        if (length < 0 || length > limit - position - 4) {
+            throw new IllegalStateException("corrupt span frame, length: " + length + " at " + position);
+        }
+        return length;
+    }
+
+    private String string(ByteBuffer value, int offset, int length) {
+        if (value.hasArray()) {
+            return new String(value.array(), value.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        value.get(offset, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.es.queue.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Batches spans into length-prefixed binary frames for the delay queue.
+ * <p>
+ * Frame layout: magic, version, record count (int), then per record the int length and bytes of
+ * traceId, serviceName, spanName (UTF-8) and of the thrift encoded span. Nothing is escaped, so a span
+ * containing the old text separators survives, and the reader never has to split or re-encode strings.
+ * <p>
+ * A frame is sealed once it holds batchCount spans, {@link #flush()} writes every sealed frame
+ * with one {@link org.rocksdb.WriteBatch}.
+ */
+public class SpanFrameWriter {
+
+    /**
+     * Never the first byte of a text format value, which starts with an ascii traceId.
+     */
+    public static final byte MAGIC = (byte) 0xB5;
+
+    public static final byte VERSION = 1;
+
+    public static final int HEADER_LENGTH = 6;
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private static final int MAX_RETAINED_CAPACITY = 4 * 1024 * 1024;
+
+    private final RocksdbStoreServiceImpl store;
+
+    private final AtomicLong keySuffix;
+
+    private final int batchCount;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+
+    private int size;
+
+    private int count;
+
+    private final List<byte[]> sealed = new ArrayList<>();
+
+    public SpanFrameWriter(RocksdbStoreServiceImpl store, AtomicLong keySuffix, int batchCount) {
+        this.store = store;
+        this.keySuffix = keySuffix;
+        this.batchCount = batchCount;
+    }
+
+    public boolean append(String traceId, String serviceName, String spanName, byte[] span) {
+        return append(traceId, serviceName, spanName, ByteBuffer.wrap(span), 0, span.length);
+    }
+
+    /**
+     * Copy one span into the current frame, the source buffer is only read during the call.
+     *
+     * @return whether a frame has been sealed and is waiting for {@link #flush()}
+     */
+    public boolean append(String traceId, String serviceName, String spanName, ByteBuffer source, int offset, int length) {
+        byte[] traceIdBytes = traceId.getBytes(StandardCharsets.UTF_8);
+        byte[] serviceNameBytes = serviceName.getBytes(StandardCharsets.UTF_8);
+        byte[] spanNameBytes = spanName.getBytes(StandardCharsets.UTF_8);
+        int recordLength = 16 + traceIdBytes.length + serviceNameBytes.length + spanNameBytes.length + length;
+        lock.lock();
+        try {
+            if (size == 0) {
+                ensureCapacity(HEADER_LENGTH + recordLength);
+                buffer[0] = MAGIC;
+                buffer[1] = VERSION;
+                size = HEADER_LENGTH;
+            } else {
+                ensureCapacity(size + recordLength);
+            }
+            putBytes(traceIdBytes);
+            putBytes(serviceNameBytes);
+            putBytes(spanNameBytes);
+            putInt(length);
+            source.get(offset, buffer, size, length);
+            size += length;
+            if (++count >= batchCount) {
+                seal();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write the sealed frames, the spans of a frame that is still filling up stay buffered.
+     */
+    public void flush() {
+        List<byte[]> frames;
+        lock.lock();
+        try {
+            if (sealed.isEmpty()) {
+                return;
+            }
+            frames = new ArrayList<>(sealed);
+            sealed.clear();
+        } finally {
+            lock.unlock();
+        }
+        store.putFrames(frames, keySuffix);
+    }
+
+    private void seal() {
+        int recordCount = count;
+        buffer[2] = (byte) (recordCount >>> 24);
+        buffer[3] = (byte) (recordCount >>> 16);
+        buffer[4] = (byte) (recordCount >>> 8);
+        buffer[5] = (byte) recordCount;
+        sealed.add(Arrays.copyOf(buffer, size));
+        size = 0;
+        count = 0;
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (buffer.length < capacity) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+
+    private void putBytes(byte[] bytes) {
+        putInt(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void putInt(int value) {
+        buffer[size] = (byte) (value >>> 24);
+        buffer[size + 1] = (byte) (value >>> 16);
+        buffer[size + 2] = (byte) (value >>> 8);
+        buffer[size + 3] = (byte) value;
+        size += 4;
+    }
+}
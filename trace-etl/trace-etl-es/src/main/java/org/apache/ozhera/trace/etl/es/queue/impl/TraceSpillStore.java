@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.es.queue.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompressionType;
+import org.rocksdb.DBOptions;
+import org.rocksdb.FlushOptions;
+import org.rocksdb.InfoLogLevel;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Slice;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+import org.rocksdb.util.SizeUnit;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Overflow of the trace assembly window: the spans of a trace still in flight, in the "spans" column family
+ * under traceId, 0, generation (big-endian long), seq (big-endian int), so the spans of one trace are one contiguous
+ * key range. The generation tells apart the groups of one traceId: a late span opening a new group after a decision
+ * spills under its own generation, and can neither overwrite nor lose the spans of the group being decided.
+ * <p>
+ * The writes skip the WAL: on stop the assembler spills every trace still in flight and {@link #flush()} persists
+ * them, on start {@link #load(TraceVisitor)} hands the traces found back to the window. A crash loses what was
+ * still in the memtable, and may bring back traces decided just before it.
+ */
+@Slf4j
+public class TraceSpillStore implements AutoCloseable {
+
+    private static final byte[] SPANS_FAMILY = "spans".getBytes(StandardCharsets.UTF_8);
+
+    private static final int SUFFIX_BYTES = 1 + Long.BYTES + Integer.BYTES;
+
+    private final RocksDB rocksDB;
+
+    private final DBOptions dbOptions;
+
+    private final ColumnFamilyOptions familyOptions;
+
+    private final List<ColumnFamilyHandle> handles = new ArrayList<>();
+
+    private final ColumnFamilyHandle spans;
+
+    private final WriteOptions writeOptions = new WriteOptions().setDisableWAL(true);
+
+    /**
+     * Writes and reads share the read lock, close takes the write lock so no call reaches a closed database.
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    private boolean closed;
+
+    public TraceSpillStore(String path, boolean zstdCompression) {
+        File file = new File(path);
+        if (!file.exists() && !file.mkdirs()) {
+            log.error("rocksdb mkdir failed, ptah : " + path);
+            throw new RuntimeException("rocksdb mkdir failed, ptah : " + path);
+        }
+        dbOptions = new DBOptions()
+                .setCreateIfMissing(true)
+                .setCreateMissingColumnFamilies(true)
+                .setMaxBackgroundJobs(4)
+                .setKeepLogFileNum(1)
+                .setMaxLogFileSize(1024 * 1024)
+                .setInfoLogLevel(InfoLogLevel.ERROR_LEVEL);
+        familyOptions = new ColumnFamilyOptions()
+                .setWriteBufferSize(16 * SizeUnit.MB)
+                .setMaxWriteBufferNumber(3)
+                .setCompressionType(zstdCompression ? CompressionType.ZSTD_COMPRESSION : CompressionType.SNAPPY_COMPRESSION);
+        List<ColumnFamilyDescriptor> descriptors = Arrays.asList(
+                new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, familyOptions),
+                new ColumnFamilyDescriptor(SPANS_FAMILY, familyOptions));
+        try {
+            rocksDB = RocksDB.open(dbOptions, path, descriptors, handles);
+            spans = handles.get(1);
+        } catch (RocksDBException e) {
+            log.error("TraceSpillStore init error:{}", e);
+            throw new RuntimeException("rocksdb init failed");
+        }
+    }
+
+    /**
+     * @return the bytes written
+     */
+    public long spill(String traceId, long generation, int firstSeq, List<byte[]> values) {
+        long bytes = 0;
+        closeLock.readLock().lock();
+        if (closed) {
+            closeLock.readLock().unlock();
+            return 0;
+        }
+        try (WriteBatch batch = new WriteBatch()) {
+            for (int i = 0; i < values.size(); i++) {
+                byte[] value = values.get(i);
+                byte[] key = key(traceId, generation, firstSeq + i);
+                batch.put(spans, key, value);
+                bytes += key.length + value.length;
+            }
+            rocksDB.write(writeOptions, batch);
+        } catch (RocksDBException e) {
+            log.error("TraceSpillStore spill error : ", e);
+            return 0;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return bytes;
+    }
+
+    public void read(String traceId, long generation, Consumer<byte[]> listener) {
+        closeLock.readLock().lock();
+        if (closed) {
+            closeLock.readLock().unlock();
+            return;
+        }
+        try (Slice upperBound = new Slice(rangeEnd(traceId, generation));
+             ReadOptions readOptions = new ReadOptions().setVerifyChecksums(false).setIterateUpperBound(upperBound);
+             RocksIterator iterator = rocksDB.newIterator(spans, readOptions)) {
+            for (iterator.seek(rangeStart(traceId, generation)); iterator.isValid(); iterator.next()) {
+                listener.accept(iterator.value());
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    public void delete(String traceId, long generation) {
+        closeLock.readLock().lock();
+        try {
+            if (!closed) {
+                rocksDB.deleteRange(spans, writeOptions, rangeStart(traceId, generation), rangeEnd(traceId, generation));
+            }
+        } catch (RocksDBException e) {
+            log.error("TraceSpillStore delete error : ", e);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Every group left in the store, in key order, so the generations of one trace in a row: its spans are keyed
+     * 0 to spans - 1.
+     */
+    public void load(TraceVisitor visitor) {
+        closeLock.readLock().lock();
+        if (closed) {
+            closeLock.readLock().unlock();
+            return;
+        }
+        try (ReadOptions readOptions = new ReadOptions().setVerifyChecksums(false);
+             RocksIterator iterator = rocksDB.newIterator(spans, readOptions)) {
+            String traceId = null;
+            long generation = 0;
+            int count = 0;
+            long bytes = 0;
+            for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                byte[] key = iterator.key();
+                if (key.length <= SUFFIX_BYTES) {
+                    continue;
+                }
+                String id = new String(key, 0, key.length - SUFFIX_BYTES, StandardCharsets.UTF_8);
+                long gen = ByteBuffer.wrap(key, key.length - Long.BYTES - Integer.BYTES, Long.BYTES).getLong();
+                if (!id.equals(traceId) || gen != generation) {
+                    if (traceId != null) {
+                        visitor.visit(traceId, generation, count, bytes);
+                    }
+                    traceId = id;
+                    generation = gen;
+                    count = 0;
+                    bytes = 0;
+                }
+                count = Math.max(count, ByteBuffer.wrap(key, key.length - Integer.BYTES, Integer.BYTES).getInt() + 1);
+                bytes += key.length + iterator.value().length;
+            }
+            if (traceId != null) {
+                visitor.visit(traceId, generation, count, bytes);
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Persist the memtable, the writes skip the WAL.
+     */
+    public void flush() {
+        closeLock.readLock().lock();
+        try (FlushOptions flushOptions = new FlushOptions().setWaitForFlush(true)) {
+            if (!closed) {
+                rocksDB.flush(flushOptions, spans);
+            }
+        } catch (RocksDBException e) {
+            log.error("TraceSpillStore flush error : ", e);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (ColumnFamilyHandle handle : handles) {
+                handle.close();
+            }
+            rocksDB.close();
+            writeOptions.close();
+            familyOptions.close();
+            dbOptions.close();
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+    }
+
+    public interface TraceVisitor {
+
+        void visit(String traceId, long generation, int spans, long bytes);
+    }
+
+    private static byte[] key(String traceId, long generation, int seq) {
+        byte[] id = traceId.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(id.length + SUFFIX_BYTES).put(id).put((byte) 0).putLong(generation).putInt(seq).array();
+    }
+
+    private static byte[] rangeStart(String traceId, long generation) {
+        byte[] id = traceId.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(id.length + 1 + Long.BYTES).put(id).put((byte) 0).putLong(generation).array();
+    }
+
+    private static byte[] rangeEnd(String traceId, long generation) {
+        return rangeStart(traceId, generation + 1);
+    }
+}
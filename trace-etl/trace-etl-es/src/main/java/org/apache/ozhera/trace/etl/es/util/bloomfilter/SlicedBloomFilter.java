@@ -0,0 +1,380 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.es.util.bloomfilter;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A ring of time sliced, blocked bloom filters in a memory mapped file.
+ * <p>
+ * Every key sets k bits inside one 512 bit block, so an insert or a lookup touches one cache line per slice.
+ * Inserts go to the current slice with atomic bit ors, lookups check every slice. When a slice has been current
+ * for its duration, the oldest slice is cleared and becomes the current one, so only the oldest time window is
+ * forgotten instead of the whole filter at once.
+ * <p>
+ * The file keeps the slices and a small header with the ring state, so a restart resumes the ring
+ * as long as the slice count, size and duration are unchanged.
+ */
+@Slf4j
+public class SlicedBloomFilter implements Closeable {
+
+    private static final long MAGIC = 0x68657261426C6F6DL;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 4096;
+
+    private static final int HEADER_SLICE_OFFSET = 64;
+
+    private static final int HEADER_SLICE_BYTES = 16;
+
+    private static final int MAX_SLICES = (HEADER_BYTES - HEADER_SLICE_OFFSET) / HEADER_SLICE_BYTES;
+
+    private static final int BLOCK_BITS = 512;
+
+    private static final int BLOCK_BYTES = BLOCK_BITS / 8;
+
+    private static final int MAX_HASHES = 16;
+
+    /**
+     * Every bit position inside a block takes 9 bits of the hash, 7 per long before it is remixed.
+     */
+    private static final int BITS_PER_HASH = 7;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final byte[] ZEROS = new byte[64 * 1024];
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer header;
+
+    private final MappedByteBuffer[] slices;
+
+    private final long[] sliceStarts;
+
+    private final LongAdder[] insertions;
+
+    private final long blocks;
+
+    private final int hashes;
+
+    private final long sliceDurationMillis;
+
+    private volatile int current;
+
+    /**
+     * @param expectedInsertions per slice
+     * @param fpp                per slice
+     */
+    public SlicedBloomFilter(Path file, int sliceCount, long sliceDurationMillis, long expectedInsertions, double fpp, long nowMillis) throws IOException {
+        if (sliceCount < 1 || sliceCount > MAX_SLICES) {
+            throw new IllegalArgumentException("slice count must be between 1 and " + MAX_SLICES);
+        }
+        // blocking costs extra false positives against a plain filter of the same size, so size for half the fpp
+        long bits = optimalNumOfBits(expectedInsertions, fpp / 2);
+        long blockCount = Math.max(1, (bits + BLOCK_BITS - 1) / BLOCK_BITS);
+        // keep every slice page aligned, which the atomic long access on the mapping relies on
+        long sliceBytes = roundUp(blockCount * BLOCK_BYTES, HEADER_BYTES);
+        if (sliceBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("slice too large: " + sliceBytes + " bytes, lower the insertions or raise the fpp");
+        }
+        this.blocks = sliceBytes / BLOCK_BYTES;
+        this.hashes = optimalNumOfHashFunctions(expectedInsertions, blocks * BLOCK_BITS);
+        this.sliceDurationMillis = sliceDurationMillis;
+        this.slices = new MappedByteBuffer[sliceCount];
+        this.sliceStarts = new long[sliceCount];
+        this.insertions = new LongAdder[sliceCount];
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long fileBytes = HEADER_BYTES + sliceBytes * sliceCount;
+        boolean reuse = channel.size() == fileBytes;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        for (int i = 0; i < sliceCount; i++) {
+            slices[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + sliceBytes * i, sliceBytes);
+            insertions[i] = new LongAdder();
+        }
+        if (reuse && headerMatches()) {
+            load();
+            log.info("reuse bloom filter file:{} current slice:{}", file, current);
+            rotateIfDue(nowMillis);
+        } else {
+            log.info("create bloom filter file:{} slices:{} slice bytes:{} hashes:{}", file, sliceCount, sliceBytes, hashes);
+            for (int i = 0; i < sliceCount; i++) {
+                clear(i);
+            }
+            current = 0;
+            sliceStarts[0] = nowMillis;
+            writeHeader();
+        }
+    }
+
+    public void put(CharSequence key) {
+        long h1 = hash(key, 0x9E3779B97F4A7C15L);
+        long h2 = hash(key, 0xC2B2AE3D27D4EB4FL);
+        int slice = current;
+        MappedByteBuffer buffer = slices[slice];
+        int base = blockOffset(h1);
+        long bits = h2;
+        for (int i = 0; i < hashes; i++) {
+            if (i > 0 && i % BITS_PER_HASH == 0) {
+                bits = fmix(h2 + i * 0x9E3779B97F4A7C15L);
+            }
+            int bit = (int) (bits & (BLOCK_BITS - 1));
+            bits >>>= 9;
+            int index = base + ((bit >>> 6) << 3);
+            long mask = 1L << bit;
+            // read first so that keys already present do not dirty the page
+            if (((long) LONGS.getOpaque(buffer, index) & mask) == 0) {
+                LONGS.getAndBitwiseOr(buffer, index, mask);
+            }
+        }
+        insertions[slice].increment();
+    }
+
+    public boolean mightContain(CharSequence key) {
+        long h1 = hash(key, 0x9E3779B97F4A7C15L);
+        long h2 = hash(key, 0xC2B2AE3D27D4EB4FL);
+        int base = blockOffset(h1);
+        int first = current;
+        for (int n = 0; n < slices.length; n++) {
+            // newest slice first, that is where recent trace ids are
+            int slice = Math.floorMod(first - n, slices.length);
+            if (contains(slices[slice], base, h2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Advance the ring for every slice duration elapsed since the current slice started.
+     *
+     * @return slices rotated
+     */
+    public synchronized int rotateIfDue(long nowMillis) {
+        int rotated = 0;
+        if (nowMillis - sliceStarts[current] >= sliceDurationMillis * slices.length) {
+            // everything expired, e.g. after a long stop
+            for (int i = 0; i < slices.length; i++) {
+                clear(i);
+            }
+            current = 0;
+            sliceStarts[0] = nowMillis;
+            rotated = slices.length;
+        } else {
+            while (nowMillis - sliceStarts[current] >= sliceDurationMillis) {
+                int next = (current + 1) % slices.length;
+                long start = sliceStarts[current] + sliceDurationMillis;
+                clear(next);
+                sliceStarts[next] = start;
+                current = next;
+                rotated++;
+            }
+        }
+        if (rotated > 0) {
+            writeHeader();
+        }
+        return rotated;
+    }
+
+    /**
+     * Fill ratio and false positive rate of a slice, sampled over at most the given number of blocks.
+     * The fpp is the mean over the blocks of (set bits / block bits)^k, since a lookup only ever sees one block.
+     *
+     * @return {fill ratio, estimated fpp}
+     */
+    public double[] sample(int slice, int sampleBlocks) {
+        MappedByteBuffer buffer = slices[slice];
+        long sampled = Math.min(sampleBlocks, blocks);
+        if (sampled == 0) {
+            return new double[]{0, 0};
+        }
+        long setBits = 0;
+        double fpp = 0;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long n = 0; n < sampled; n++) {
+            long block = sampled == blocks ? n : random.nextLong(blocks);
+            int base = (int) (block * BLOCK_BYTES);
+            int blockBits = 0;
+            for (int w = 0; w < BLOCK_BYTES; w += Long.BYTES) {
+                blockBits += Long.bitCount((long) LONGS.getOpaque(buffer, base + w));
+            }
+            setBits += blockBits;
+            fpp += Math.pow((double) blockBits / BLOCK_BITS, hashes);
+        }
+        return new double[]{(double) setBits / (sampled * BLOCK_BITS), fpp / sampled};
+    }
+
+    public int getSliceCount() {
+        return slices.length;
+    }
+
+    public int getCurrent() {
+        return current;
+    }
+
+    public long insertions(int slice) {
+        return insertions[slice].sum();
+    }
+
+    /**
+     * Persist the header and write the dirty pages back to the file.
+     */
+    public synchronized void flush() {
+        writeHeader();
+        header.force();
+        for (MappedByteBuffer slice : slices) {
+            slice.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    private boolean contains(MappedByteBuffer buffer, int base, long h2) {
+        long bits = h2;
+        for (int i = 0; i < hashes; i++) {
+            if (i > 0 && i % BITS_PER_HASH == 0) {
+                bits = fmix(h2 + i * 0x9E3779B97F4A7C15L);
+            }
+            int bit = (int) (bits & (BLOCK_BITS - 1));
+            bits >>>= 9;
+            if (((long) LONGS.getOpaque(buffer, base + ((bit >>> 6) << 3)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int blockOffset(long h1) {
+        return (int) (Math.floorMod(h1, blocks) * BLOCK_BYTES);
+    }
+
+    private void clear(int slice) {
+        MappedByteBuffer buffer = slices[slice];
+        int capacity = buffer.capacity();
+        for (int position = 0; position < capacity; position += ZEROS.length) {
+            buffer.put(position, ZEROS, 0, Math.min(ZEROS.length, capacity - position));
+        }
+        insertions[slice].reset();
+        sliceStarts[slice] = 0;
+    }
+
+    private boolean headerMatches() {
+        return header.getLong(0) == MAGIC
+                && header.getInt(8) == VERSION
+                && header.getInt(12) == slices.length
+                && header.getLong(16) == blocks
+                && header.getInt(24) == hashes
+                && header.getLong(32) == sliceDurationMillis;
+    }
+
+    private void load() {
+        current = header.getInt(40);
+        for (int i = 0; i < slices.length; i++) {
+            sliceStarts[i] = header.getLong(HEADER_SLICE_OFFSET + i * HEADER_SLICE_BYTES);
+            insertions[i].add(header.getLong(HEADER_SLICE_OFFSET + i * HEADER_SLICE_BYTES + 8));
+        }
+    }
+
+    private void writeHeader() {
+        header.putLong(0, MAGIC);
+        header.putInt(8, VERSION);
+        header.putInt(12, slices.length);
+        header.putLong(16, blocks);
+        header.putInt(24, hashes);
+        header.putLong(32, sliceDurationMillis);
+        header.putInt(40, current);
+        for (int i = 0; i < slices.length; i++) {
+            header.putLong(HEADER_SLICE_OFFSET + i * HEADER_SLICE_BYTES, sliceStarts[i]);
+            header.putLong(HEADER_SLICE_OFFSET + i * HEADER_SLICE_BYTES + 8, insertions[i].sum());
+        }
+    }
+
+    /**
+     * Seeded multiply-xorshift over the chars, finished with the murmur3 fmix64, without allocating.
+     */
+    static long hash(CharSequence key, long seed) {
+        long h = seed ^ key.length();
+        int i = 0;
+        int length = key.length();
+        for (; i + 4 <= length; i += 4) {
+            long k = key.charAt(i) | ((long) key.charAt(i + 1) << 16) | ((long) key.charAt(i + 2) << 32) | ((long) key.charAt(i + 3) << 48);
+            k *= 0x87C37B91114253D5L;
+            k = Long.rotateLeft(k, 31);
+            k *= 0x4CF5AD432745937FL;
+            h ^= k;
+            h = Long.rotateLeft(h, 27) * 5 + 0x52DCE729;
+        }
+        long k = 0;
+        for (int shift = 0; i < length; i++, shift += 16) {
+            k |= (long) key.charAt(i) << shift;
+        }
+        if (k != 0) {
+            k *= 0x87C37B91114253D5L;
+            k = Long.rotateLeft(k, 31);
+            k *= 0x4CF5AD432745937FL;
+            h ^= k;
+        }
+        return fmix(h);
+    }
+
+    private static long fmix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long optimalNumOfBits(long n, double p) {
+        if (p == 0) {
+            p = Double.MIN_VALUE;
+        }
+        return (long) (-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+    }
+
+    private static int optimalNumOfHashFunctions(long n, long m) {
+        return Math.min(MAX_HASHES, Math.max(1, (int) Math.round((double) m / n * Math.log(2))));
+    }
+
+    private static long roundUp(long value, long multiple) {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+}
@@ -19,51 +19,85 @@
 
 package org.apache.ozhera.trace.etl.es.util.bloomfilter;
 
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnel;
-import com.google.common.hash.Funnels;
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.ozhera.trace.etl.util.SelfMetricsRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import java.nio.charset.Charset;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Local trace id filter: a ring of time sliced bloom filters in a memory mapped file, see {@link SlicedBloomFilter}.
+ * The default ring of 6 slices of 4 hours remembers a trace id for 20 to 24 hours, and a rotation only forgets
+ * the oldest 4 hours instead of starting from an empty filter twice a day.
+ */
 @Component
 @Slf4j
 public class TraceIdRedisBloomUtil {
 
-    private String localUpdateTime = "04:00:00";
-    private String localUpdateTimeMiddle = "12:00:00";
+    private static final int SAMPLE_BLOCKS = 4096;
+
+    @Value("${bloom.file:}")
+    private String bloomFile;
+
+    @Value("${bloom.slice.count:6}")
+    private int sliceCount;
 
-    private static final long LOCAL_EXPECTEDINSERTIONS = 100000000L;
-    private static final double LOCAL_REDIS_ACCIRACY = 0.0001;
+    @Value("${bloom.slice.minutes:240}")
+    private long sliceMinutes;
 
-    private static final long PERIOD_DAY = 24 * 60 * 60 * 1000;
+    @Value("${bloom.slice.insertions:20000000}")
+    private long sliceInsertions;
 
-    public static volatile BloomFilter<CharSequence> localBloomFilter;
+    @Value("${bloom.slice.fpp:0.0001}")
+    private double sliceFpp;
 
-    private Funnel<CharSequence> charSequenceFunnel = Funnels.stringFunnel(Charset.defaultCharset());
+    private SlicedBloomFilter bloomFilter;
 
-    private ReentrantLock lock = new ReentrantLock();
+    private ScheduledExecutorService scheduler;
+
+    private volatile double[][] sliceStats = new double[0][];
 
     @PostConstruct
-    public void init() {
-        localBloomFilter = BloomFilter.create(charSequenceFunnel, LOCAL_EXPECTEDINSERTIONS, LOCAL_REDIS_ACCIRACY);
-        // Set a scheduled task to update the local bloom filter at 4:00 a.m. every day
-        updateLocalBloomTimer();
-        // Set a scheduled task to update the local bloom filter at noon every day
-        updateLocalBloomTimerMiddle();
+    public void init() throws IOException {
+        Path path = StringUtils.isEmpty(bloomFile)
+                ? Paths.get(System.getProperty("java.io.tmpdir"), "trace-etl-bloom", "traceid.bloom")
+                : Paths.get(bloomFile);
+        bloomFilter = new SlicedBloomFilter(path, sliceCount, TimeUnit.MINUTES.toMillis(sliceMinutes), sliceInsertions, sliceFpp, System.currentTimeMillis());
+        refreshStats();
+        new BloomFilterCollector().register(SelfMetricsRegistry.get());
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleAtFixedRate(this::maintain, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        try {
+            bloomFilter.close();
+        } catch (IOException e) {
+            log.error("close bloom filter error", e);
+        }
     }
 
     public boolean isExistLocal(String traceId) {
         try {
-            return localBloomFilter.mightContain(traceId);
+            return bloomFilter.mightContain(traceId);
         } catch (Exception e) {
             log.error("judgment traceID: " + traceId + " whether there are failures in the local bloomfilter:", e);
         }
@@ -71,65 +105,59 @@ public class TraceIdRedisBloomUtil {
     }
 
     public void addBatch(String traceId) {
-        lock.lock();
-        try {
-            TraceIdRedisBloomUtil.localBloomFilter.put(traceId);
-        }finally {
-            lock.unlock();
-        }
+        bloomFilter.put(traceId);
     }
 
-    private void updateLocalBloomTimer() {
-        // Calculates the difference between the update time and the current time
-        long initDelay = getTimeMillis(localUpdateTime) - System.currentTimeMillis();
-        /**
-         * If the difference is less than 0, it indicates that the update time has passed,
-         * and the difference of the next update time is calculated, that is, 24h is added
-         */
-        initDelay = initDelay > 0 ? initDelay : PERIOD_DAY + initDelay;
-        new ScheduledThreadPoolExecutor(1).scheduleAtFixedRate(
-                () -> {
-                    updateLocalBloom();
-                },
-                initDelay,
-                PERIOD_DAY,
-                TimeUnit.MILLISECONDS);
+    private void maintain() {
+        try {
+            int rotated = bloomFilter.rotateIfDue(System.currentTimeMillis());
+            if (rotated > 0) {
+                log.info("rotate local bloom filter slices:{} current:{}", rotated, bloomFilter.getCurrent());
+            }
+            bloomFilter.flush();
+            refreshStats();
+        } catch (Throwable t) {
+            log.error("maintain local bloom filter error", t);
+        }
     }
 
-    private void updateLocalBloomTimerMiddle() {
-        // Calculates the difference between the update time and the current time
-        long initDelay = getTimeMillis(localUpdateTimeMiddle) - System.currentTimeMillis();
-        // If the difference is less than 0, it indicates that the update time has passed, and the difference of the next update time is calculated, that is, 24h is added
-        initDelay = initDelay > 0 ? initDelay : PERIOD_DAY + initDelay;
-        new ScheduledThreadPoolExecutor(1).scheduleAtFixedRate(
-                () -> {
-                    updateLocalBloom();
-                },
-                initDelay,
-                PERIOD_DAY,
-                TimeUnit.MILLISECONDS);
+    private void refreshStats() {
+        double[][] stats = new double[bloomFilter.getSliceCount()][];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = bloomFilter.sample(i, SAMPLE_BLOCKS);
+        }
+        sliceStats = stats;
     }
 
     /**
-     * Gets the number of milliseconds for a specified time
-     *
-     * @param time "HH:mm:ss"
-     * @return
+     * Fill ratio and fpp per slice, and the fpp of a lookup, which checks every slice.
      */
-    private static long getTimeMillis(String time) {
-        try {
-            DateFormat dateFormat = new SimpleDateFormat("yy-MM-dd HH:mm:ss");
-            DateFormat dayFormat = new SimpleDateFormat("yy-MM-dd");
-            Date curDate = dateFormat.parse(dayFormat.format(new Date()) + " " + time);
-            return curDate.getTime();
-        } catch (Exception e) {
-            log.error("time transfer error : ", e);
+    private class BloomFilterCollector extends Collector {
+
+        @Override
+        public List<MetricFamilySamples> collect() {
+            double[][] stats = sliceStats;
+            GaugeMetricFamily fill = new GaugeMetricFamily("trace_etl_bloom_fill_ratio",
+                    "sampled share of set bits per bloom filter slice", Collections.singletonList("slice"));
+            GaugeMetricFamily sliceFppFamily = new GaugeMetricFamily("trace_etl_bloom_slice_fpp",
+                    "estimated false positive rate per bloom filter slice", Collections.singletonList("slice"));
+            GaugeMetricFamily inserts = new GaugeMetricFamily("trace_etl_bloom_slice_insertions",
+                    "trace ids added per bloom filter slice", Collections.singletonList("slice"));
+            double miss = 1;
+            for (int i = 0; i < stats.length; i++) {
+                List<String> slice = Collections.singletonList(String.valueOf(i));
+                fill.addMetric(slice, stats[i][0]);
+                sliceFppFamily.addMetric(slice, stats[i][1]);
+                inserts.addMetric(slice, bloomFilter.insertions(i));
+                miss *= 1 - stats[i][1];
+            }
+            List<MetricFamilySamples> families = new ArrayList<>(4);
+            families.add(fill);
+            families.add(sliceFppFamily);
+            families.add(inserts);
+            families.add(new GaugeMetricFamily("trace_etl_bloom_estimated_fpp",
+                    "estimated false positive rate of a lookup across all slices", 1 - miss));
+            return families;
         }
-        return 0L;
-    }
-
-    private void updateLocalBloom(){
-        localBloomFilter = BloomFilter.create(charSequenceFunnel, LOCAL_EXPECTEDINSERTIONS, LOCAL_REDIS_ACCIRACY);
-        log.info("update local bloom filter success");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.es.consumer;
+
+import org.apache.ozhera.trace.etl.domain.DriverDomain;
+import org.apache.ozhera.trace.etl.domain.ErrorTraceMessage;
+import org.apache.ozhera.trace.etl.domain.tracequery.Trace;
+import org.apache.ozhera.trace.etl.domain.tracequery.TraceIdQueryVo;
+import org.apache.ozhera.trace.etl.domain.tracequery.TraceListQueryVo;
+import org.apache.ozhera.trace.etl.domain.tracequery.TraceOperationsVo;
+import org.apache.ozhera.trace.etl.domain.tracequery.TraceQueryResult;
+import org.apache.ozhera.trace.etl.api.service.DataSourceService;
+import org.apache.ozhera.trace.etl.es.util.bloomfilter.TraceIdRedisBloomUtil;
+import org.apache.ozhera.trace.etl.util.SelfMetricsRegistry;
+import org.apache.ozhera.tspandata.TSpanContext;
+import org.apache.ozhera.tspandata.TSpanData;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The spans of a trace written once and only once when its groups spill, with a late span opening a new group
+ * while the previous one is decided, and across a stop and start.
+ */
+public class TraceAssemblerTest {
+
+    private Path dir;
+
+    private final List<String> written = new ArrayList<>();
+
+    private Runnable onWrite;
+
+    private TraceAssembler assembler;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("trace-assembly-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (assembler != null) {
+            assembler.destroy();
+        }
+        SelfMetricsRegistry.get().clear();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testLateSpanAfterDecide() throws Exception {
+        assembler = start();
+        assembler.add("t1", "service", "span", span("t1", "a"));
+        assembler.add("t1", "service", "span", span("t1", "b"));
+        // the late span comes in while the spilled spans of the trace are read back
+        onWrite = () -> {
+            onWrite = null;
+            assembler.add("t1", "service", "span", span("t1", "late"));
+        };
+        assembler.keep("t1");
+        Assert.assertEquals(Arrays.asList("a", "b"), written);
+
+        assembler.keep("t1");
+        Assert.assertEquals(Arrays.asList("a", "b", "late"), written);
+    }
+
+    @Test
+    public void testSpilledAcrossRestart() throws Exception {
+        assembler = start();
+        assembler.add("t1", "service", "span", span("t1", "a"));
+        assembler.add("t1", "service", "span", span("t1", "b"));
+        assembler.add("t2", "service", "span", span("t2", "c"));
+        onWrite = () -> {
+            onWrite = null;
+            assembler.add("t2", "service", "span", span("t2", "late"));
+        };
+        assembler.keep("t2");
+        Assert.assertEquals(Collections.singletonList("c"), written);
+        assembler.destroy();
+
+        SelfMetricsRegistry.get().clear();
+        written.clear();
+        assembler = start();
+        assembler.add("t1", "service", "span", span("t1", "d"));
+        assembler.add("t3", "service", "span", span("t3", "e"));
+        assembler.keep("t1");
+        Assert.assertEquals(Arrays.asList("a", "b", "d"), written);
+        assembler.keep("t2");
+        Assert.assertEquals(Arrays.asList("a", "b", "d", "late"), written);
+        assembler.keep("t3");
+        Assert.assertEquals(Arrays.asList("a", "b", "d", "late", "e"), written);
+    }
+
+    /**
+     * Every span spills, the traces are only decided by keep.
+     */
+    private TraceAssembler start() throws ReflectiveOperationException {
+        TraceAssembler assembler = new TraceAssembler();
+        set(assembler, "enabled", true);
+        set(assembler, "spillPath", dir.resolve("assembly").toString());
+        set(assembler, "idleMillis", 3600_000L);
+        set(assembler, "rootGraceMillis", 3600_000L);
+        set(assembler, "maxBufferedSpans", 0L);
+        set(assembler, "traceIdRedisBloomUtil", new TraceIdRedisBloomUtil() {
+            @Override
+            public boolean isExistLocal(String traceId) {
+                return false;
+            }
+        });
+        set(assembler, "writeEsService", new RecordingService());
+        assembler.init();
+        return assembler;
+    }
+
+    private static void set(TraceAssembler assembler, String name, Object value) throws ReflectiveOperationException {
+        Field field = TraceAssembler.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(assembler, value);
+    }
+
+    private static TSpanData span(String traceId, String spanId) {
+        return new TSpanData()
+                .setTraceId(traceId)
+                .setSpanId(spanId)
+                .setName("span")
+                .setParentSpanContext(new TSpanContext().setTraceId(traceId).setSpanId("1"));
+    }
+
+    private class RecordingService implements DataSourceService {
+
+        @Override
+        public void insertHeraSpan(TSpanData tSpanData, String serviceName, String spanName) {
+            written.add(tSpanData.getSpanId());
+            if (onWrite != null) {
+                onWrite.run();
+            }
+        }
+
+        @Override
+        public TraceQueryResult<List<String>> getOperations(TraceOperationsVo vo) {
+            return null;
+        }
+
+        @Override
+        public TraceQueryResult<List<Trace>> getList(TraceListQueryVo vo) {
+            return null;
+        }
+
+        @Override
+        public TraceQueryResult<List<Trace>> getByTraceId(TraceIdQueryVo vo) {
+            return null;
+        }
+
+        @Override
+        public void insertErrorTrace(ErrorTraceMessage errorTraceMessage) {
+        }
+
+        @Override
+        public void insertHeraTraceService(String date, String serviceName, String operationName) {
+        }
+
+        @Override
+        public void insertDriver(DriverDomain driverDomain) {
+        }
+    }
+}
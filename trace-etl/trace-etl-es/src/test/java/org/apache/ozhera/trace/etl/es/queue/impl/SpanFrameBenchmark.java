@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.es.queue.impl;
+
+import com.google.common.base.Joiner;
+import org.apache.ozhera.trace.etl.util.MessageUtil;
+import org.apache.ozhera.trace.etl.util.SpanDecoder;
+import org.apache.ozhera.trace.etl.util.ThriftUtil;
+import org.apache.ozhera.tspandata.TAttributeKey;
+import org.apache.ozhera.tspandata.TAttributeType;
+import org.apache.ozhera.tspandata.TAttributes;
+import org.apache.ozhera.tspandata.TExtra;
+import org.apache.ozhera.tspandata.TKind;
+import org.apache.ozhera.tspandata.TSpanData;
+import org.apache.ozhera.tspandata.TStatus;
+import org.apache.ozhera.tspandata.TValue;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rocksdb.RocksIterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Spans per second through both passes of the delay queue, on real RocksDB stores: write to the first store,
+ * read it back, forward the spans of unknown traces (every other trace) to the second store and read that one.
+ * text is the former Joiner/split format with a string key, frame the binary frames of {@link SpanFrameWriter}.
+ * Run with -prof gc for the allocation rate per span.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class SpanFrameBenchmark {
+
+    private static final int SPANS = 2000;
+
+    private static final int BATCH_COUNT = 20;
+
+    private Path dir;
+
+    private RocksdbStoreServiceImpl first;
+
+    private RocksdbStoreServiceImpl second;
+
+    private final AtomicLong firstSuffix = new AtomicLong();
+
+    private final AtomicLong secondSuffix = new AtomicLong();
+
+    private SpanFrameWriter firstWriter;
+
+    private SpanFrameWriter secondWriter;
+
+    private RocksdbStoreServiceImpl.FrameScan firstScan;
+
+    private RocksdbStoreServiceImpl.FrameScan secondScan;
+
+    private final SpanFrameReader reader = new SpanFrameReader();
+
+    private final TSpanData[] spans = new TSpanData[SPANS];
+
+    private final Set<String> knownTraces = new HashSet<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("span-frame-bench");
+        first = new RocksdbStoreServiceImpl(new File(dir.toFile(), "first").getPath(), "first");
+        second = new RocksdbStoreServiceImpl(new File(dir.toFile(), "second").getPath(), "second");
+        firstWriter = new SpanFrameWriter(first, firstSuffix, BATCH_COUNT);
+        secondWriter = new SpanFrameWriter(second, secondSuffix, BATCH_COUNT);
+        firstScan = first.newFrameScan(null);
+        secondScan = second.newFrameScan(null);
+        for (int i = 0; i < SPANS; i++) {
+            String traceId = String.format("%032x", i / 4);
+            spans[i] = sampleSpan(traceId, i);
+            if ((i / 4) % 2 == 0) {
+                knownTraces.add(traceId);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        firstScan.close();
+        secondScan.close();
+        first.getRocksDB().close();
+        second.getRocksDB().close();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SPANS)
+    public void text(Blackhole blackhole) throws Exception {
+        long firstBegin = firstSuffix.get();
+        long secondBegin = secondSuffix.get();
+        List<String> batch = new ArrayList<>();
+        for (TSpanData span : spans) {
+            batch.add(textMessage(span));
+            if (batch.size() == BATCH_COUNT) {
+                first.put(first.getKey(currSecond(), firstSuffix.incrementAndGet()), Joiner.on("").join(batch).getBytes(StandardCharsets.UTF_8));
+                batch.clear();
+            }
+        }
+        readText(first, firstBegin, value -> {
+            for (String oneMessage : value.split(MessageUtil.ROCKS_SPLIT)) {
+                String[] split = oneMessage.split(MessageUtil.SPLIT);
+                TSpanData tSpanData = new TSpanData();
+                new TDeserializer(ThriftUtil.PROTOCOL_FACTORY).deserialize(tSpanData, split[3].getBytes(StandardCharsets.ISO_8859_1));
+                if (knownTraces.contains(split[0])) {
+                    blackhole.consume(tSpanData);
+                } else {
+                    batch.add(textMessage(tSpanData));
+                    if (batch.size() == BATCH_COUNT) {
+                        second.put(second.getKey(currSecond(), secondSuffix.incrementAndGet()), Joiner.on("").join(batch).getBytes(StandardCharsets.UTF_8));
+                        batch.clear();
+                    }
+                }
+            }
+        });
+        readText(second, secondBegin, value -> {
+            for (String oneMessage : value.split(MessageUtil.ROCKS_SPLIT)) {
+                String[] split = oneMessage.split(MessageUtil.SPLIT);
+                TSpanData tSpanData = new TSpanData();
+                new TDeserializer(ThriftUtil.PROTOCOL_FACTORY).deserialize(tSpanData, split[3].getBytes(StandardCharsets.ISO_8859_1));
+                blackhole.consume(tSpanData);
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SPANS)
+    public void frame(Blackhole blackhole) throws Exception {
+        for (TSpanData span : spans) {
+            byte[] bytes = new TSerializer(ThriftUtil.PROTOCOL_FACTORY).serialize(span);
+            if (firstWriter.append(span.getTraceId(), span.getExtra().getServiceName(), span.getName(), bytes)) {
+                firstWriter.flush();
+            }
+        }
+        firstScan.scan(currSecond(), value -> {
+            reader.read(value, (traceId, serviceName, spanName, buffer, offset, length) -> {
+                if (knownTraces.contains(traceId)) {
+                    blackhole.consume(decode(buffer, offset, length));
+                } else {
+                    secondWriter.append(traceId, serviceName, spanName, buffer, offset, length);
+                }
+            });
+            secondWriter.flush();
+        }, null);
+        secondScan.scan(currSecond(), value -> reader.read(value,
+                (traceId, serviceName, spanName, buffer, offset, length) -> blackhole.consume(decode(buffer, offset, length))), null);
+    }
+
+    private static TSpanData decode(ByteBuffer buffer, int offset, int length) {
+        byte[] span = new byte[length];
+        buffer.get(offset, span);
+        try {
+            return SpanDecoder.get().decode(span, 0, length, false);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private interface TextListener {
+        void accept(String value) throws Exception;
+    }
+
+    /**
+     * The string key scan of delayTake, limited to the keys written by this invocation.
+     */
+    private static void readText(RocksdbStoreServiceImpl store, long beginSuffix, TextListener listener) throws Exception {
+        try (RocksIterator iterator = store.getRocksDB().newIterator()) {
+            for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                String key = new String(iterator.key(), StandardCharsets.UTF_8);
+                if (key.indexOf("_") < 0 || Long.valueOf(key.split("_")[1]) <= beginSuffix) {
+                    continue;
+                }
+                listener.accept(new String(iterator.value(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static String textMessage(TSpanData span) throws Exception {
+        String serialize = new String(new TSerializer(ThriftUtil.PROTOCOL_FACTORY).serialize(span), StandardCharsets.ISO_8859_1);
+        return span.getTraceId() + MessageUtil.SPLIT + span.getExtra().getServiceName() + MessageUtil.SPLIT
+                + span.getName() + MessageUtil.SPLIT + serialize + MessageUtil.ROCKS_SPLIT;
+    }
+
+    private static long currSecond() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+
+    private static TSpanData sampleSpan(String traceId, int i) {
+        TSpanData span = new TSpanData();
+        span.setTraceId(traceId);
+        span.setSpanId(String.format("%016x", i));
+        span.setName("/api/order/get");
+        span.setKind(TKind.SERVER);
+        long start = System.currentTimeMillis() * 1000_000L;
+        span.setStartEpochNanos(start);
+        span.setEndEpochNanos(start + 12_000_000L);
+        span.setStatus(TStatus.OK);
+        span.setExtra(new TExtra().setServiceName("1-demo").setIp("10.0.0.1").setHostname("demo-7d9f"));
+        List<TAttributeKey> keys = new ArrayList<>();
+        List<TValue> values = new ArrayList<>();
+        String[] keyValues = {"http.method", "GET", "http.url", "http://demo/api/order/get?id=" + i,
+                "http.status_code", "200", "thread.name", "http-nio-8080-exec-1"};
+        for (int k = 0; k < keyValues.length; k += 2) {
+            keys.add(new TAttributeKey().setValue(keyValues[k]).setType(TAttributeType.STRING));
+            values.add(new TValue().setStringValue(keyValues[k + 1]));
+        }
+        span.setAttributes(new TAttributes().setKeys(keys).setValues(values));
+        return span;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SpanFrameBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.es.queue.impl;
+
+import org.apache.ozhera.trace.etl.util.MessageUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * The frames of {@link SpanFrameWriter}, read back through {@link RocksdbStoreServiceImpl.FrameScan} and
+ * {@link SpanFrameReader}, against the text values and the split parsing of ConsumerService they replace.
+ */
+public class SpanFrameReaderTest {
+
+    private static final int BATCH_COUNT = 7;
+
+    private Path dir;
+
+    private RocksdbStoreServiceImpl store;
+
+    private final SpanFrameReader reader = new SpanFrameReader();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("span-frame-test");
+        store = new RocksdbStoreServiceImpl(new File(dir.toFile(), "first").getPath(), "first");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.getRocksDB().close();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testFramesMatchTextFormat() {
+        Random random = new Random(3);
+        List<String[]> spans = new ArrayList<>();
+        for (int i = 0; i < BATCH_COUNT * 30; i++) {
+            spans.add(span(random, i, false));
+        }
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < spans.size(); i += BATCH_COUNT) {
+            expected.addAll(legacyParse(textValue(spans.subList(i, i + BATCH_COUNT))));
+        }
+
+        SpanFrameWriter writer = new SpanFrameWriter(store, new AtomicLong(), BATCH_COUNT);
+        for (String[] span : spans) {
+            writer.append(span[0], span[1], span[2], span[3].getBytes(StandardCharsets.ISO_8859_1));
+        }
+        writer.flush();
+        Assert.assertEquals(expected, scanFrames());
+    }
+
+    @Test
+    public void testTextValuesDrainedLikeLegacyParse() {
+        Random random = new Random(5);
+        List<String> expected = new ArrayList<>();
+        long second = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - 10;
+        for (int i = 0; i < 20; i++) {
+            List<String[]> batch = new ArrayList<>();
+            for (int j = 0; j < BATCH_COUNT; j++) {
+                batch.add(span(random, i * BATCH_COUNT + j, false));
+            }
+            byte[] value = textValue(batch);
+            expected.addAll(legacyParse(value));
+            store.put(store.getKey(second, i + 1), value);
+        }
+        List<String> actual = new ArrayList<>();
+        store.drainTextKeys(0, value -> reader.read(value, (traceId, serviceName, spanName, buffer, offset, length) ->
+                actual.add(record(traceId, serviceName, spanName, buffer, offset, length))));
+        // the text keys are drained in string order, not in the order they were put
+        Collections.sort(expected);
+        Collections.sort(actual);
+        Assert.assertEquals(expected, actual);
+        // drained keys are deleted
+        List<String> again = new ArrayList<>();
+        store.drainTextKeys(0, value -> again.add("value"));
+        Assert.assertTrue(again.isEmpty());
+    }
+
+    @Test
+    public void testSeparatorsSurviveInFrames() {
+        Random random = new Random(7);
+        List<String> expected = new ArrayList<>();
+        SpanFrameWriter writer = new SpanFrameWriter(store, new AtomicLong(), BATCH_COUNT);
+        for (int i = 0; i < BATCH_COUNT; i++) {
+            String[] span = span(random, i, true);
+            byte[] bytes = span[3].getBytes(StandardCharsets.ISO_8859_1);
+            expected.add(record(span[0], span[1], span[2], ByteBuffer.wrap(bytes), 0, bytes.length));
+            writer.append(span[0], span[1], span[2], bytes);
+        }
+        writer.flush();
+        Assert.assertEquals(expected, scanFrames());
+    }
+
+    @Test
+    public void testOpenFrameNotWritten() {
+        SpanFrameWriter writer = new SpanFrameWriter(store, new AtomicLong(), BATCH_COUNT);
+        Assert.assertFalse(writer.append("t", "s", "n", new byte[]{1, 2, 3}));
+        writer.flush();
+        Assert.assertTrue(scanFrames().isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTruncatedFrameRejected() {
+        byte[] frame = {SpanFrameWriter.MAGIC, SpanFrameWriter.VERSION, 0, 0, 0, 1, 0, 0, 0, 9, 'a'};
+        reader.read(ByteBuffer.wrap(frame), (traceId, serviceName, spanName, value, offset, length) -> Assert.fail());
+    }
+
+    private List<String> scanFrames() {
+        List<String> records = new ArrayList<>();
+        try (RocksdbStoreServiceImpl.FrameScan scan = store.newFrameScan(null)) {
+            scan.scan(Long.MAX_VALUE - 1, value -> reader.read(value, (traceId, serviceName, spanName, buffer, offset, length) ->
+                    records.add(record(traceId, serviceName, spanName, buffer, offset, length))), null);
+        }
+        return records;
+    }
+
+    /**
+     * ConsumerService.buildRocksDBMessage of a batch, as it was put into RocksDB.
+     */
+    private static byte[] textValue(List<String[]> spans) {
+        StringBuilder sb = new StringBuilder();
+        for (String[] span : spans) {
+            sb.append(span[0]).append(MessageUtil.SPLIT)
+                    .append(span[1]).append(MessageUtil.SPLIT)
+                    .append(span[2]).append(MessageUtil.SPLIT)
+                    .append(span[3]).append(MessageUtil.ROCKS_SPLIT);
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * ConsumerService.dealMessage before the frames: split the value and turn the span back into thrift bytes.
+     */
+    private static List<String> legacyParse(byte[] value) {
+        List<String> records = new ArrayList<>();
+        String message = new String(value, StandardCharsets.UTF_8);
+        for (String oneMessage : message.split(MessageUtil.ROCKS_SPLIT)) {
+            String[] split = oneMessage.split(MessageUtil.SPLIT);
+            byte[] span = split[3].getBytes(StandardCharsets.ISO_8859_1);
+            records.add(record(split[0], split[1], split[2], ByteBuffer.wrap(span), 0, span.length));
+        }
+        return records;
+    }
+
+    private static String record(String traceId, String serviceName, String spanName, ByteBuffer value, int offset, int length) {
+        byte[] span = new byte[length];
+        value.get(offset, span, 0, length);
+        return traceId + "|" + serviceName + "|" + spanName + "|" + Base64.getEncoder().encodeToString(span);
+    }
+
+    /**
+     * traceId, serviceName, spanName and the thrift bytes as latin1 text, with or without the text separators.
+     */
+    private static String[] span(Random random, int i, boolean separators) {
+        byte[] thrift = new byte[1 + random.nextInt(200)];
+        random.nextBytes(thrift);
+        for (int j = 0; j < thrift.length; j++) {
+            if (thrift[j] == '#' && !separators) {
+                thrift[j] = '-';
+            }
+        }
+        String span = new String(thrift, StandardCharsets.ISO_8859_1);
+        String spanName = "/api/\u00e9t\u00e9/" + i;
+        if (separators) {
+            span = span + MessageUtil.ROCKS_SPLIT + span + MessageUtil.SPLIT;
+            spanName = spanName + MessageUtil.SPLIT + "x";
+        }
+        return new String[]{String.format("%032x", i / 3), "1-demo-" + (i % 5), spanName, span};
+    }
+}
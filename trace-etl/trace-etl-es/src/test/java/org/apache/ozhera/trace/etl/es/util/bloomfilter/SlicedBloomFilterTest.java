@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.es.util.bloomfilter;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+
+public class SlicedBloomFilterTest {
+
+    private static final long SLICE_MILLIS = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testNoFalseNegativeAndFpp() throws Exception {
+        long now = 1_000_000L;
+        try (SlicedBloomFilter filter = new SlicedBloomFilter(file(), 3, SLICE_MILLIS, 100_000, 0.001, now)) {
+            for (int i = 0; i < 100_000; i++) {
+                filter.put("trace-" + i);
+            }
+            for (int i = 0; i < 100_000; i++) {
+                Assert.assertTrue(filter.mightContain("trace-" + i));
+            }
+            int falsePositives = 0;
+            for (int i = 0; i < 200_000; i++) {
+                if (filter.mightContain("other-" + i)) {
+                    falsePositives++;
+                }
+            }
+            double[] stats = filter.sample(0, Integer.MAX_VALUE);
+            Assert.assertTrue(falsePositives / 200_000D < 0.002);
+            Assert.assertTrue(stats[1] < 0.002);
+            Assert.assertEquals(100_000, filter.insertions(0));
+        }
+    }
+
+    @Test
+    public void testRotationForgetsOldestSliceOnly() throws Exception {
+        long now = 1_000_000L;
+        try (SlicedBloomFilter filter = new SlicedBloomFilter(file(), 3, SLICE_MILLIS, 1000, 0.001, now)) {
+            filter.put("first");
+            Assert.assertEquals(1, filter.rotateIfDue(now + SLICE_MILLIS));
+            filter.put("second");
+            Assert.assertEquals(1, filter.rotateIfDue(now + 2 * SLICE_MILLIS));
+            Assert.assertTrue(filter.mightContain("first"));
+            Assert.assertTrue(filter.mightContain("second"));
+            // the slice of "first" is reused
+            Assert.assertEquals(1, filter.rotateIfDue(now + 3 * SLICE_MILLIS));
+            Assert.assertFalse(filter.mightContain("first"));
+            Assert.assertTrue(filter.mightContain("second"));
+        }
+    }
+
+    @Test
+    public void testReopenResumesRing() throws Exception {
+        Path file = file();
+        long now = 1_000_000L;
+        try (SlicedBloomFilter filter = new SlicedBloomFilter(file, 3, SLICE_MILLIS, 1000, 0.001, now)) {
+            filter.put("kept");
+            filter.rotateIfDue(now + SLICE_MILLIS);
+        }
+        try (SlicedBloomFilter filter = new SlicedBloomFilter(file, 3, SLICE_MILLIS, 1000, 0.001, now + SLICE_MILLIS + 10)) {
+            Assert.assertEquals(1, filter.getCurrent());
+            Assert.assertTrue(filter.mightContain("kept"));
+            Assert.assertEquals(1, filter.insertions(0));
+        }
+        // stopped for longer than the whole ring
+        try (SlicedBloomFilter filter = new SlicedBloomFilter(file, 3, SLICE_MILLIS, 1000, 0.001, now + 10 * SLICE_MILLIS)) {
+            Assert.assertFalse(filter.mightContain("kept"));
+        }
+    }
+
+    private Path file() throws Exception {
+        return folder.newFolder().toPath().resolve("traceid.bloom");
+    }
+}
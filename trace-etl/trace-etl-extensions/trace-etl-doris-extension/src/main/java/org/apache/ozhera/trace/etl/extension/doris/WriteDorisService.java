@@ -48,6 +48,8 @@ import org.apache.ozhera.trace.etl.extension.doris.domain.HeraTraceDriverColumn;
 import org.apache.ozhera.trace.etl.extension.doris.domain.HeraTraceServiceColumn;
 import org.apache.ozhera.trace.etl.extension.doris.domain.HeraTraceSpanColumn;
 import org.apache.ozhera.trace.etl.extension.doris.domain.HeraTraceTable;
+import org.apache.ozhera.trace.etl.extension.doris.stream.DorisRowEncoder;
+import org.apache.ozhera.trace.etl.extension.doris.stream.StreamLoadWriter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -62,6 +64,12 @@ public class WriteDorisService {
     @Autowired
     private DorisService dorisService;
 
+    /**
+     * Batched stream load when doris.stream.load.enabled is true, otherwise every row is sent on its own.
+     */
+    @Autowired(required = false)
+    private StreamLoadWriter streamLoadWriter;
+
     private Cache<String, String> localCache =
             CacheBuilder.newBuilder().
                     maximumSize(50000).
@@ -118,6 +126,12 @@ public class WriteDorisService {
         String key = serviceName + ":" + operationName;
         if (!localCache.asMap().containsKey(key)) {
             try {
+                if (streamLoadWriter != null) {
+                    streamLoadWriter.append(HeraTraceTable.HERA_TRACE_SERVICE_TABLE, TRACE_SERVICE_COLUMN,
+                            DorisRowEncoder.get().values(serviceName, operationName, System.currentTimeMillis()));
+                    localCache.put(key, "1");
+                    return;
+                }
                 // writer into ES
                 Map<String, Object> data = new HashMap<>();
                 data.put(HeraTraceServiceColumn.SERVICE_NAME, serviceName);
@@ -133,6 +147,28 @@ public class WriteDorisService {
     }
 
     public void insertErrorTrace(ErrorTraceMessage errorTraceMessage) {
+        if (streamLoadWriter != null) {
+            try {
+                streamLoadWriter.append(HeraTraceTable.HERA_ERROR_SLOW_TRACE_TABLE, TRACE_ERROR_SLOW_TRACE_COLUMN, DorisRowEncoder.get().values(
+                        errorTraceMessage.getDomain(),
+                        errorTraceMessage.getType(),
+                        errorTraceMessage.getHost(),
+                        errorTraceMessage.getUrl(),
+                        errorTraceMessage.getDataSource(),
+                        errorTraceMessage.getServiceName(),
+                        errorTraceMessage.getTraceId(),
+                        errorTraceMessage.getTimestamp(),
+                        errorTraceMessage.getDuration(),
+                        errorTraceMessage.getErrorType(),
+                        errorTraceMessage.getErrorCode(),
+                        errorTraceMessage.getServerEnv(),
+                        null,
+                        null));
+            } catch (Exception e) {
+                log.error("inset erro trace error : ", e);
+            }
+            return;
+        }
         Map<String, Object> data = new HashMap<>();
         data.put(HeraErrorSlowTraceColumn.DOMAIN, errorTraceMessage.getDomain());
         data.put(HeraErrorSlowTraceColumn.TYPE, errorTraceMessage.getType());
@@ -252,6 +288,18 @@ public class WriteDorisService {
 
     public void insertDriver(DriverDomain driverDomain) {
         try {
+            if (streamLoadWriter != null) {
+                streamLoadWriter.append(HeraTraceTable.HERA_TRACE_DRIVER_TABLE, TRACE_DRIVER_COLUMN, DorisRowEncoder.get().values(
+                        driverDomain.getType(),
+                        driverDomain.getTimeStamp(),
+                        null,
+                        driverDomain.getAppName(),
+                        driverDomain.getDataBaseName(),
+                        driverDomain.getPassword(),
+                        driverDomain.getDomainPort(),
+                        driverDomain.getUserName()));
+                return;
+            }
             Map<String, Object> data = new HashMap<>();
             data.put(HeraTraceDriverColumn.TYPE, driverDomain.getType());
             data.put(HeraTraceDriverColumn.TIME_STAMP, driverDomain.getTimeStamp());
@@ -269,6 +317,10 @@ public class WriteDorisService {
     public void insertHeraSpan(TSpanData tSpanData, String serviceName, String spanName) {
         try {
             insertHeraTraceService(serviceName, spanName);
+            if (streamLoadWriter != null) {
+                streamLoadWriter.append(HeraTraceTable.HERA_TRACE_SPAN_TABLE, TRACE_SPAN_COLUMN, DorisRowEncoder.get().span(tSpanData));
+                return;
+            }
             Map<String, Object> data = buildSpanData(tSpanData);
             dorisService.send(HeraTraceTable.HERA_TRACE_SPAN_TABLE, TRACE_SPAN_COLUMN, data);
         } catch (Exception e) {
@@ -25,7 +25,13 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import run.mone.doris.DorisService;
+import org.apache.ozhera.trace.etl.extension.doris.stream.StreamLoadClient;
+import org.apache.ozhera.trace.etl.extension.doris.stream.StreamLoadWriter;
 import org.apache.ozhera.trace.etl.extension.doris.DorisDataSourceService;
 import org.apache.ozhera.trace.etl.extension.doris.QueryDorisService;
 import org.apache.ozhera.trace.etl.extension.doris.WriteDorisService;
@@ -43,12 +49,46 @@ public class DorisConfig {
     @NacosValue("${doris.password}")
     private String password;
 
+    /**
+     * Frontend http port of stream load, the host and database are the ones of doris.url.
+     */
+    @Value("${doris.stream.load.port:8030}")
+    private int streamLoadPort;
+
+    @Value("${doris.stream.load.buffer.bytes:4194304}")
+    private int streamLoadBufferBytes;
+
+    @Value("${doris.stream.load.buffers:16}")
+    private int streamLoadBuffers;
+
+    @Value("${doris.stream.load.flush.ms:3000}")
+    private long streamLoadFlushMillis;
+
+    @Value("${doris.stream.load.threads:4}")
+    private int streamLoadThreads;
+
+    @Value("${doris.stream.load.retries:5}")
+    private int streamLoadRetries;
+
+    private static final Pattern JDBC_URL = Pattern.compile("//([^:/]+)(:\\d+)?/([^?/]+)(\\?.*)?");
+
 
     @Bean
     public DorisService getDorisService(){
         return new DorisService(driver, url, username, password);
     }
 
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(value = "doris.stream.load.enabled", havingValue = "true")
+    public StreamLoadWriter getStreamLoadWriter() {
+        Matcher matcher = JDBC_URL.matcher(url);
+        if (!matcher.find()) {
+            throw new IllegalArgumentException("Invalid JDBC URL: " + url);
+        }
+        StreamLoadClient client = new StreamLoadClient(matcher.group(1), streamLoadPort, matcher.group(3), username, password, Duration.ofMinutes(1));
+        return new StreamLoadWriter(client, streamLoadBufferBytes, streamLoadBuffers, streamLoadFlushMillis, streamLoadThreads, streamLoadRetries);
+    }
+
     @Bean
     public DataSourceService getDataSourceService(){
         return new DorisDataSourceService();
@@ -0,0 +1,455 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.extension.doris.stream;
+
+import org.apache.ozhera.trace.etl.domain.jaegeres.JaegerAttrType;
+import org.apache.ozhera.trace.etl.domain.jaegeres.JaegerRefType;
+import org.apache.ozhera.tspandata.TAttributeKey;
+import org.apache.ozhera.tspandata.TAttributes;
+import org.apache.ozhera.tspandata.TEvent;
+import org.apache.ozhera.tspandata.TResource;
+import org.apache.ozhera.tspandata.TSpanContext;
+import org.apache.ozhera.tspandata.TSpanData;
+import org.apache.ozhera.tspandata.TValue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes one stream load CSV row: fields separated by {@link #COLUMN_SEPARATOR}, the row ended by
+ * {@link #LINE_DELIMITER}, null as \N. The references, tags, logs and process of a span are written straight from
+ * the thrift span as the JSON Gson produced from the JaegerReferences, JaegerAttribute, JaegerLogs and
+ * JaegerProcess lists, null fields left out and html characters escaped the same way. An attribute key without a
+ * type fails the span with a NullPointerException, as the Gson path did.
+ * Not thread safe, see {@link #get()}.
+ */
+public final class DorisRowEncoder {
+
+    public static final byte COLUMN_SEPARATOR = 0x01;
+
+    public static final byte LINE_DELIMITER = 0x02;
+
+    private static final ThreadLocal<DorisRowEncoder> LOCAL = ThreadLocal.withInitial(DorisRowEncoder::new);
+
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] NULL = {'\\', 'N'};
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+
+    private int size;
+
+    private boolean firstField;
+
+    public static DorisRowEncoder get() {
+        return LOCAL.get();
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A row of the span table, in the order of the span columns of WriteDorisService: traceID, spanID,
+     * operationName, startTime, startTimeMillis, duration, references, tags, logs, process.
+     */
+    public DorisRowEncoder span(TSpanData tSpanData) {
+        begin();
+        long startTime = tSpanData.getStartEpochNanos();
+        long duration = tSpanData.getEndEpochNanos() - startTime;
+        field(tSpanData.getTraceId());
+        field(tSpanData.getSpanId());
+        field(tSpanData.getName());
+        field(startTime / 1000);
+        field(startTime / (1000 * 1000));
+        field(duration / 1000);
+        nextField();
+        writeReferences(tSpanData.getParentSpanContext());
+        nextField();
+        writeAttributes(tSpanData.getAttributes());
+        nextField();
+        writeLogs(tSpanData.getEvents());
+        nextField();
+        writeProcess(tSpanData.getExtra().getServiceName(), tSpanData.getResouce());
+        return end();
+    }
+
+    /**
+     * A row of plain values in column order, written with String.valueOf.
+     */
+    public DorisRowEncoder values(Object... values) {
+        begin();
+        for (Object value : values) {
+            if (value == null) {
+                nextField();
+                writeBytes(NULL);
+            } else if (value instanceof Long || value instanceof Integer) {
+                field(((Number) value).longValue());
+            } else {
+                field(String.valueOf(value));
+            }
+        }
+        return end();
+    }
+
+    private void begin() {
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+        size = 0;
+        firstField = true;
+    }
+
+    private DorisRowEncoder end() {
+        writeByte(LINE_DELIMITER);
+        return this;
+    }
+
+    private void nextField() {
+        if (!firstField) {
+            writeByte(COLUMN_SEPARATOR);
+        }
+        firstField = false;
+    }
+
+    private void field(String value) {
+        nextField();
+        if (value == null) {
+            writeBytes(NULL);
+            return;
+        }
+        int start = size;
+        writeUtf8(value);
+        for (int i = start; i < size; i++) {
+            if (buffer[i] == COLUMN_SEPARATOR || buffer[i] == LINE_DELIMITER) {
+                buffer[i] = ' ';
+            }
+        }
+    }
+
+    private void field(long value) {
+        nextField();
+        writeLong(value);
+    }
+
+    private void writeReferences(TSpanContext parentSpanContext) {
+        writeByte('[');
+        // link is not used
+        if (parentSpanContext != null) {
+            writeByte('{');
+            boolean first = writeMember(true, "traceID", parentSpanContext.getTraceId(), false);
+            first = writeMember(first, "spanID", parentSpanContext.getSpanId(), false);
+            writeMember(first, "refType", JaegerRefType.CHILD_OF, false);
+            writeByte('}');
+        }
+        writeByte(']');
+    }
+
+    private void writeLogs(List<TEvent> events) {
+        writeByte('[');
+        if (events != null) {
+            for (int i = 0; i < events.size(); i++) {
+                TEvent tEvent = events.get(i);
+                if (i > 0) {
+                    writeByte(',');
+                }
+                writeAscii("{\"timestamp\":");
+                writeLong(tEvent.getEpochNanos());
+                writeAscii(",\"fields\":");
+                writeAttributes(tEvent.getAttributes());
+                writeByte('}');
+            }
+        }
+        writeByte(']');
+    }
+
+    private void writeProcess(String serviceName, TResource resource) {
+        writeByte('{');
+        boolean first = writeMember(true, "serviceName", serviceName, false);
+        if (resource != null) {
+            if (!first) {
+                writeByte(',');
+            }
+            writeAscii("\"tags\":");
+            writeAttributes(resource.getAttributes());
+        }
+        writeByte('}');
+    }
+
+    private void writeAttributes(TAttributes attributes) {
+        writeByte('[');
+        if (attributes != null && attributes.getKeys() != null) {
+            List<TAttributeKey> keys = attributes.getKeys();
+            List<TValue> values = attributes.getValues();
+            for (int i = 0; i < keys.size(); i++) {
+                if (i > 0) {
+                    writeByte(',');
+                }
+                TAttributeKey tAttributeKey = keys.get(i);
+                writeByte('{');
+                boolean first = writeMember(true, "key", tAttributeKey.getValue(), false);
+                switch (tAttributeKey.getType()) {
+                    case STRING:
+                        first = writeMember(first, "type", JaegerAttrType.STRING, false);
+                        // JaegerAttribute.setValue turns a null value into ""
+                        String stringValue = values.get(i).getStringValue();
+                        writeMember(first, "value", stringValue == null ? "" : stringValue, true);
+                        break;
+                    case LONG:
+                        first = writeMember(first, "type", JaegerAttrType.LONG, false);
+                        writeMember(first, "value", String.valueOf(values.get(i).getLongValue()), false);
+                        break;
+                    case BOOLEAN:
+                        first = writeMember(first, "type", JaegerAttrType.BOOLEAN, false);
+                        writeMember(first, "value", String.valueOf(values.get(i).isBoolValue()), false);
+                        break;
+                    case DOUBLE:
+                        first = writeMember(first, "type", JaegerAttrType.DOUBLE, false);
+                        writeMember(first, "value", String.valueOf(values.get(i).getDoubleValue()), false);
+                        break;
+                    default:
+                }
+                writeByte('}');
+            }
+        }
+        writeByte(']');
+    }
+
+    /**
+     * A "name":"value" member, left out as Gson does when the value is null.
+     *
+     * @return whether the object still has no member
+     */
+    private boolean writeMember(boolean first, String name, String value, boolean decodeLineBreak) {
+        if (value == null) {
+            return first;
+        }
+        if (!first) {
+            writeByte(',');
+        }
+        writeByte('"');
+        writeAscii(name);
+        writeAscii("\":");
+        writeJsonString(value, decodeLineBreak);
+        return false;
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void writeAscii(String value) {
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer[size++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(String.valueOf(value));
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        int start = size;
+        do {
+            buffer[size++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = size - 1; i < j; i++, j--) {
+            byte tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+    }
+
+    private void writeUtf8(String value) {
+        int length = value.length();
+        ensureCapacity(length * 3);
+        byte[] out = buffer;
+        int pos = size;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out[pos++] = (byte) c;
+            } else {
+                pos = writeUtf8Char(out, pos, value, i, c);
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    i++;
+                }
+            }
+        }
+        size = pos;
+    }
+
+    /**
+     * JSON string as Gson writes it (html safe), with the ## sequences of the agent decoded first when
+     * decodeLineBreak is set: ##r' ##n ##r ##t ##' become \" \n \r \t \" and are escaped again.
+     */
+    private void writeJsonString(String value, boolean decodeLineBreak) {
+        int length = value.length();
+        // worst case: every char a \\u escape
+        ensureCapacity(length * 6 + 2);
+        byte[] out = buffer;
+        int pos = size;
+        out[pos++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                if (c == 0x2028 || c == 0x2029) {
+                    pos = writeUnicodeEscape(out, pos, c);
+                } else {
+                    pos = writeUtf8Char(out, pos, value, i, c);
+                    if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        i++;
+                    }
+                }
+                continue;
+            }
+            switch (c) {
+                case '"':
+                case '\\':
+                    out[pos++] = '\\';
+                    out[pos++] = (byte) c;
+                    break;
+                case '\n':
+                    out[pos++] = '\\';
+                    out[pos++] = 'n';
+                    break;
+                case '\r':
+                    out[pos++] = '\\';
+                    out[pos++] = 'r';
+                    break;
+                case '\t':
+                    out[pos++] = '\\';
+                    out[pos++] = 't';
+                    break;
+                case '\b':
+                    out[pos++] = '\\';
+                    out[pos++] = 'b';
+                    break;
+                case '\f':
+                    out[pos++] = '\\';
+                    out[pos++] = 'f';
+                    break;
+                case '<':
+                case '>':
+                case '&':
+                case '=':
+                case '\'':
+                    pos = writeUnicodeEscape(out, pos, c);
+                    break;
+                case '#':
+                    if (decodeLineBreak && i + 2 < length && value.charAt(i + 1) == '#') {
+                        char next = value.charAt(i + 2);
+                        char decoded;
+                        int consumed = 2;
+                        if (next == 'r' && i + 3 < length && value.charAt(i + 3) == '\'') {
+                            decoded = '"';
+                            consumed = 3;
+                        } else if (next == 'n' || next == 'r' || next == 't') {
+                            decoded = next;
+                        } else if (next == '\'') {
+                            decoded = '"';
+                        } else {
+                            out[pos++] = '#';
+                            break;
+                        }
+                        // the decoded text is a backslash and a char, both escaped again for JSON
+                        out[pos++] = '\\';
+                        out[pos++] = '\\';
+                        if (decoded == '"') {
+                            out[pos++] = '\\';
+                        }
+                        out[pos++] = (byte) decoded;
+                        i += consumed;
+                    } else {
+                        out[pos++] = '#';
+                    }
+                    break;
+                default:
+                    if (c < 0x20) {
+                        pos = writeUnicodeEscape(out, pos, c);
+                    } else {
+                        out[pos++] = (byte) c;
+                    }
+            }
+        }
+        out[pos++] = '"';
+        size = pos;
+    }
+
+    private static int writeUnicodeEscape(byte[] out, int pos, char c) {
+        out[pos++] = '\\';
+        out[pos++] = 'u';
+        out[pos++] = HEX[(c >> 12) & 0xF];
+        out[pos++] = HEX[(c >> 8) & 0xF];
+        out[pos++] = HEX[(c >> 4) & 0xF];
+        out[pos++] = HEX[c & 0xF];
+        return pos;
+    }
+
+    private static int writeUtf8Char(byte[] out, int pos, String value, int i, char c) {
+        if (c < 0x800) {
+            out[pos++] = (byte) (0xC0 | (c >> 6));
+            out[pos++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(i + 1));
+            out[pos++] = (byte) (0xF0 | (codePoint >> 18));
+            out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            out[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            // unpaired surrogate, replaced as String.getBytes does
+            out[pos++] = '?';
+        } else {
+            out[pos++] = (byte) (0xE0 | (c >> 12));
+            out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            out[pos++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return pos;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(size + extra, buffer.length * 2));
+        }
+    }
+}
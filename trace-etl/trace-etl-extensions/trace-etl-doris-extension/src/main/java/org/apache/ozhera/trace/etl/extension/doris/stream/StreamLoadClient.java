@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.extension.doris.stream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.Flow;
+
+/**
+ * Doris stream load over http with two phase commit: a batch is loaded under a label and pre-committed, then
+ * committed by a second call. A retry reuses the label, so a batch already loaded is never loaded twice:
+ * an existing label is only committed when it is still pre-committed, and a label whose transaction was
+ * cancelled or aborted is reported with {@link LabelAbortedException} so the batch is loaded again under a new one.
+ * <p>
+ * The frontend redirects the load to a backend with 307, the redirect is followed here with the same headers,
+ * the client would drop the authorization on a redirect to another host.
+ */
+@Slf4j
+public class StreamLoadClient {
+
+    private static final Gson GSON = new Gson();
+
+    private static final String STATUS_SUCCESS = "Success";
+
+    private static final String STATUS_PUBLISH_TIMEOUT = "Publish Timeout";
+
+    private static final String STATUS_LABEL_EXISTS = "Label Already Exists";
+
+    private static final int MAX_REDIRECTS = 3;
+
+    private final HttpClient httpClient;
+
+    private final String loadUrlPrefix;
+
+    private final String commitUrl;
+
+    private final String authorization;
+
+    private final Duration timeout;
+
+    public StreamLoadClient(String host, int port, String database, String username, String password, Duration timeout) {
+        this.httpClient = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.loadUrlPrefix = "http://" + host + ":" + port + "/api/" + database + "/";
+        this.commitUrl = "http://" + host + ":" + port + "/api/" + database + "/_stream_load_2pc";
+        this.authorization = "Basic " + Base64.getEncoder().encodeToString(
+                (username + ":" + (password == null ? "" : password)).getBytes(StandardCharsets.UTF_8));
+        this.timeout = timeout;
+    }
+
+    /**
+     * Load and commit the rows in data, between position and limit, which are left untouched.
+     *
+     * @throws LabelAbortedException when the label belongs to a cancelled or aborted transaction, the caller retries
+     *                               with a new label
+     * @throws IOException           when the batch is neither loaded nor known as loaded, the caller retries with the same label
+     */
+    public void load(String table, String label, String columns, ByteBuffer data) throws IOException, InterruptedException {
+        URI uri = URI.create(loadUrlPrefix + table + "/_stream_load");
+        JsonObject result = null;
+        for (int redirects = 0; result == null; redirects++) {
+            HttpResponse<String> response = httpClient.send(loadRequest(uri, label, columns, data), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 307 && redirects < MAX_REDIRECTS) {
+                String location = response.headers().firstValue("Location")
+                        .orElseThrow(() -> new IOException("stream load redirect without location"));
+                uri = uri.resolve(location);
+                continue;
+            }
+            result = parse(response);
+        }
+        String status = string(result, "Status");
+        if (STATUS_SUCCESS.equals(status) || STATUS_PUBLISH_TIMEOUT.equals(status)) {
+            commit(label, string(result, "TxnId"));
+            return;
+        }
+        if (STATUS_LABEL_EXISTS.equals(status)) {
+            String existing = string(result, "ExistingJobStatus");
+            if ("FINISHED".equals(existing) || "VISIBLE".equals(existing)) {
+                log.info("stream load label {} already loaded", label);
+                return;
+            }
+            if ("PRECOMMITTED".equals(existing)) {
+                // pre-committed by a previous attempt whose commit was lost
+                commit(label, null);
+                return;
+            }
+            if ("CANCELLED".equals(existing) || "ABORTED".equals(existing)) {
+                throw new LabelAbortedException("stream load label " + label + " " + existing);
+            }
+            throw new IOException("stream load label " + label + " is " + existing);
+        }
+        throw new IOException("stream load " + table + " label " + label + " failed: " + result);
+    }
+
+    private HttpRequest loadRequest(URI uri, String label, String columns, ByteBuffer data) {
+        return HttpRequest.newBuilder(uri)
+                .timeout(timeout)
+                .expectContinue(true)
+                .header("Authorization", authorization)
+                .header("label", label)
+                .header("format", "csv")
+                .header("columns", columns)
+                .header("column_separator", "\\x01")
+                .header("line_delimiter", "\\x02")
+                .header("two_phase_commit", "true")
+                .PUT(bodyOf(data))
+                .build();
+    }
+
+    private void commit(String label, String txnId) throws IOException, InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(commitUrl))
+                .timeout(timeout)
+                .header("Authorization", authorization)
+                .header("txn_operation", "commit")
+                .PUT(HttpRequest.BodyPublishers.noBody());
+        if (txnId != null) {
+            builder.header("txn_id", txnId);
+        } else {
+            builder.header("label", label);
+        }
+        JsonObject result = parse(httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofString()));
+        String status = string(result, "status");
+        if (STATUS_SUCCESS.equals(status)) {
+            return;
+        }
+        String msg = string(result, "msg");
+        if (msg != null && (msg.contains("VISIBLE") || msg.contains("visible") || msg.contains("already committed"))) {
+            return;
+        }
+        throw new IOException("stream load commit label " + label + " failed: " + result);
+    }
+
+    private static JsonObject parse(HttpResponse<String> response) throws IOException {
+        if (response.statusCode() != 200) {
+            throw new IOException("stream load http status " + response.statusCode() + ": " + response.body());
+        }
+        JsonObject result = GSON.fromJson(response.body(), JsonObject.class);
+        if (result == null) {
+            throw new IOException("stream load empty response");
+        }
+        return result;
+    }
+
+    private static String string(JsonObject object, String name) {
+        return object != null && object.has(name) && !object.get(name).isJsonNull() ? object.get(name).getAsString() : null;
+    }
+
+    /**
+     * The buffer as one chunk of known length, without copying it to the heap. A redirect subscribes again
+     * and gets a fresh view of the same bytes.
+     */
+    private static HttpRequest.BodyPublisher bodyOf(ByteBuffer data) {
+        return HttpRequest.BodyPublishers.fromPublisher(subscriber -> subscriber.onSubscribe(new Flow.Subscription() {
+            private boolean done;
+
+            @Override
+            public void request(long n) {
+                if (done || n <= 0) {
+                    return;
+                }
+                done = true;
+                subscriber.onNext(data.duplicate());
+                subscriber.onComplete();
+            }
+
+            @Override
+            public void cancel() {
+                done = true;
+            }
+        }), data.remaining());
+    }
+
+    /**
+     * The label can not be loaded again, the transaction under it was cancelled or aborted.
+     */
+    public static class LabelAbortedException extends IOException {
+
+        public LabelAbortedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.extension.doris.stream;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ozhera.trace.etl.util.SelfMetricsRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Batches rows per table into pooled direct buffers and writes each full buffer with one stream load.
+ * <p>
+ * The column list is sent once per load in the header instead of with every row. A buffer is flushed when the next
+ * row does not fit or when it is older than the flush interval, the flushes of all tables run in parallel on the
+ * flush pool and are retried under the same two phase commit label, see {@link StreamLoadClient}.
+ * When every pooled buffer is waiting for a flush, append blocks until one is released, without holding the table
+ * so the timer can still flush it. After {@link #close()} append fails with an IllegalStateException.
+ */
+@Slf4j
+public class StreamLoadWriter {
+
+    private static final Counter ROWS = Counter.build()
+            .name("trace_etl_doris_load_rows")
+            .help("rows written by stream load")
+            .labelNames("table", "result")
+            .register(SelfMetricsRegistry.get());
+
+    private static final Counter BYTES = Counter.build()
+            .name("trace_etl_doris_load_bytes")
+            .help("bytes written by stream load, bytes per row is this rate over the rows rate")
+            .labelNames("table")
+            .register(SelfMetricsRegistry.get());
+
+    private static final Histogram FLUSH_LATENCY = Histogram.build()
+            .name("trace_etl_doris_load_flush_seconds")
+            .help("time of a stream load flush, retries included")
+            .labelNames("table")
+            .buckets(0.05, 0.1, 0.25, 0.5, 1, 2, 5, 10, 30)
+            .register(SelfMetricsRegistry.get());
+
+    private static final Gauge FREE_BUFFERS = Gauge.build()
+            .name("trace_etl_doris_load_free_buffers")
+            .help("pooled stream load buffers not holding rows")
+            .register(SelfMetricsRegistry.get());
+
+    private final StreamLoadClient client;
+
+    private final int bufferBytes;
+
+    private final long flushIntervalMillis;
+
+    private final int maxRetries;
+
+    private final BlockingQueue<ByteBuffer> pool;
+
+    private final Map<String, TableBuffer> tables = new ConcurrentHashMap<>();
+
+    private final ExecutorService flushExecutor;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Labels must stay unique across restarts, a retry reuses the label of its batch.
+     */
+    private final String labelPrefix = "hera_" + UUID.randomUUID().toString().replace("-", "").substring(0, 12) + "_";
+
+    private final AtomicLong labelSeq = new AtomicLong();
+
+    private volatile boolean closed;
+
+    public StreamLoadWriter(StreamLoadClient client, int bufferBytes, int buffers, long flushIntervalMillis, int flushThreads, int maxRetries) {
+        this.client = client;
+        this.bufferBytes = bufferBytes;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxRetries = maxRetries;
+        this.pool = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            pool.add(ByteBuffer.allocateDirect(bufferBytes));
+        }
+        FREE_BUFFERS.set(buffers);
+        this.flushExecutor = Executors.newFixedThreadPool(flushThreads, Thread.ofPlatform().name("doris-stream-load-", 0).factory());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("doris-stream-load-timer").factory());
+        this.scheduler.scheduleWithFixedDelay(this::flushExpired, flushIntervalMillis, Math.max(100, flushIntervalMillis / 4), TimeUnit.MILLISECONDS);
+        log.info("doris stream load buffers:{}x{}B flush interval:{}ms threads:{}", buffers, bufferBytes, flushIntervalMillis, flushThreads);
+    }
+
+    /**
+     * Append the row last written by the encoder.
+     */
+    public void append(String table, List<String> columns, DorisRowEncoder row) throws InterruptedException {
+        checkOpen();
+        tables.computeIfAbsent(table, key -> new TableBuffer(key, String.join(",", columns)))
+                .append(row.buffer(), row.size());
+    }
+
+    private void flushExpired() {
+        long now = System.currentTimeMillis();
+        for (TableBuffer table : tables.values()) {
+            try {
+                table.flushIfOlder(now - flushIntervalMillis);
+            } catch (Throwable t) {
+                log.error("doris stream load flush error, table: {}", table.table, t);
+            }
+        }
+    }
+
+    /**
+     * Flush every buffer and wait for the loads to finish.
+     */
+    public void close() {
+        closed = true;
+        scheduler.shutdown();
+        for (TableBuffer table : tables.values()) {
+            table.close();
+        }
+        flushExecutor.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            if (!flushExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("doris stream load flushes still running after 1 minute");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("doris stream load writer is closed");
+        }
+    }
+
+    private ByteBuffer acquire(String table) throws InterruptedException {
+        ByteBuffer buffer = pool.poll();
+        while (buffer == null) {
+            buffer = pool.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+            if (buffer == null) {
+                checkOpen();
+                log.warn("every doris stream load buffer is waiting for a flush, table {} blocked", table);
+            }
+        }
+        FREE_BUFFERS.dec();
+        buffer.clear();
+        return buffer;
+    }
+
+    private void release(ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == bufferBytes) {
+            buffer.clear();
+            pool.offer(buffer);
+            FREE_BUFFERS.inc();
+        }
+    }
+
+    private String nextLabel(String table) {
+        return labelPrefix + table + "_" + labelSeq.incrementAndGet();
+    }
+
+    private void submit(String table, String columns, ByteBuffer data, int rows) {
+        try {
+            flushExecutor.execute(() -> load(table, columns, data, rows));
+        } catch (RejectedExecutionException e) {
+            ROWS.labels(table, "failure").inc(rows);
+            log.error("doris stream load rejected, table: {}, rows: {}", table, rows);
+            release(data);
+        }
+    }
+
+    private void load(String table, String columns, ByteBuffer data, int rows) {
+        Histogram.Timer timer = FLUSH_LATENCY.labels(table).startTimer();
+        int bytes = data.remaining();
+        String label = nextLabel(table);
+        try {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    client.load(table, label, columns, data);
+                    ROWS.labels(table, "success").inc(rows);
+                    BYTES.labels(table).inc(bytes);
+                    return;
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    if (attempt >= maxRetries) {
+                        ROWS.labels(table, "failure").inc(rows);
+                        log.error("doris stream load failed, table: {}, label: {}, rows: {}", table, label, rows, e);
+                        return;
+                    }
+                    log.warn("doris stream load retry {}, table: {}, label: {}, error: {}", attempt + 1, table, label, e.getMessage());
+                    if (e instanceof StreamLoadClient.LabelAbortedException) {
+                        // nothing was loaded under the label, the batch goes again under a new one
+                        label = nextLabel(table);
+                    }
+                    TimeUnit.MILLISECONDS.sleep(Math.min(30_000L, 500L << attempt));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ROWS.labels(table, "failure").inc(rows);
+        } finally {
+            timer.observeDuration();
+            release(data);
+        }
+    }
+
+    private class TableBuffer {
+
+        private final String table;
+
+        private final String columns;
+
+        private ByteBuffer current;
+
+        private int rows;
+
+        private long openTime;
+
+        private boolean closed;
+
+        TableBuffer(String table, String columns) {
+            this.table = table;
+            this.columns = columns;
+        }
+
+        void append(byte[] row, int length) throws InterruptedException {
+            ByteBuffer spare = null;
+            try {
+                while (true) {
+                    synchronized (this) {
+                        if (closed || StreamLoadWriter.this.closed) {
+                            // a table added while the writer closes is either closed with the others or refused here
+                            throw new IllegalStateException("doris stream load writer is closed");
+                        }
+                        if (current != null && current.remaining() < length) {
+                            seal();
+                        }
+                        if (length > bufferBytes) {
+                            // larger than a pooled buffer, loaded on its own
+                            ByteBuffer single = ByteBuffer.allocate(length);
+                            single.put(row, 0, length).flip();
+                            submit(table, columns, single, 1);
+                            return;
+                        }
+                        if (current == null && spare != null) {
+                            current = spare;
+                            spare = null;
+                            openTime = System.currentTimeMillis();
+                        }
+                        if (current != null) {
+                            current.put(row, 0, length);
+                            rows++;
+                            return;
+                        }
+                    }
+                    // waits for a free buffer outside of the table, another append may open one meanwhile
+                    spare = acquire(table);
+                }
+            } finally {
+                if (spare != null) {
+                    release(spare);
+                }
+            }
+        }
+
+        synchronized void flushIfOlder(long time) {
+            if (!closed && current != null && rows > 0 && openTime <= time) {
+                seal();
+            }
+        }
+
+        synchronized void close() {
+            if (current != null && rows > 0) {
+                seal();
+            } else if (current != null) {
+                release(current);
+                current = null;
+            }
+            closed = true;
+        }
+
+        private void seal() {
+            ByteBuffer data = current;
+            int count = rows;
+            current = null;
+            rows = 0;
+            data.flip();
+            submit(table, columns, data, count);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.extension.doris.stream;
+
+import org.apache.ozhera.trace.etl.extension.doris.WriteDorisService;
+import org.apache.ozhera.trace.etl.extension.doris.domain.HeraTraceSpanColumn;
+import org.apache.ozhera.tspandata.TAttributeKey;
+import org.apache.ozhera.tspandata.TAttributeType;
+import org.apache.ozhera.tspandata.TAttributes;
+import org.apache.ozhera.tspandata.TEvent;
+import org.apache.ozhera.tspandata.TExtra;
+import org.apache.ozhera.tspandata.TResource;
+import org.apache.ozhera.tspandata.TSpanContext;
+import org.apache.ozhera.tspandata.TSpanData;
+import org.apache.ozhera.tspandata.TValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The encoded span row against the map and Gson json of {@link WriteDorisService#buildSpanData}, the path it replaces.
+ */
+public class DorisRowEncoderTest {
+
+    private static final List<String> SPAN_COLUMNS = Arrays.asList(
+            HeraTraceSpanColumn.traceID,
+            HeraTraceSpanColumn.spanID,
+            HeraTraceSpanColumn.operationName,
+            HeraTraceSpanColumn.startTime,
+            HeraTraceSpanColumn.startTimeMillis,
+            HeraTraceSpanColumn.duration,
+            HeraTraceSpanColumn.references,
+            HeraTraceSpanColumn.tags,
+            HeraTraceSpanColumn.logs,
+            HeraTraceSpanColumn.process);
+
+    private static final String ALPHABET = "#rnt'\"\\<>&=ab \n\r\t\u0001\u0002\u001f\u00e9\u4e2d\u2028\u2029\ud83d\ude00\ud800";
+
+    private final WriteDorisService writeDorisService = new WriteDorisService();
+
+    @Test
+    public void testSpan() {
+        TSpanData span = span();
+        span.setAttributes(new TAttributes()
+                .setKeys(Arrays.asList(
+                        key("db.statement", TAttributeType.STRING),
+                        key("http.status_code", TAttributeType.LONG),
+                        key("error", TAttributeType.BOOLEAN),
+                        key("sample.rate", TAttributeType.DOUBLE),
+                        key("empty", TAttributeType.STRING),
+                        key("array", TAttributeType.STRING_ARRAY),
+                        key(null, TAttributeType.LONG)))
+                .setValues(Arrays.asList(
+                        new TValue().setStringValue("select * from t##n where a = ##r'<b>##r' and c = ##'d##'##tat x"),
+                        new TValue().setLongValue(-200),
+                        new TValue().setBoolValue(true),
+                        new TValue().setDoubleValue(0.25),
+                        new TValue().setStringValue(""),
+                        new TValue().setStringArrayValue(Arrays.asList("a", "b")),
+                        new TValue().setLongValue(Long.MIN_VALUE))));
+        assertSameRow(span);
+    }
+
+    @Test
+    public void testNullStringValueWrittenEmpty() {
+        TSpanData span = span();
+        span.setAttributes(new TAttributes()
+                .setKeys(Arrays.asList(key("missing", TAttributeType.STRING)))
+                .setValues(Arrays.asList(new TValue())));
+        assertSameRow(span);
+        Assert.assertTrue(encode(span).contains("[{\"key\":\"missing\",\"type\":\"string\",\"value\":\"\"}]"));
+    }
+
+    @Test
+    public void testWithoutParentResourceAndEvents() {
+        TSpanData span = span();
+        span.setParentSpanContext(null);
+        span.setResouce(null);
+        span.setEvents(null);
+        span.setAttributes(null);
+        span.getExtra().setServiceName(null);
+        assertSameRow(span);
+    }
+
+    @Test
+    public void testRandomStrings() {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            TSpanData span = span();
+            span.setName(randomString(random));
+            span.setAttributes(strings("k" + randomString(random), randomString(random), "##" + randomString(random), randomString(random) + "##"));
+            assertSameRow(span);
+        }
+    }
+
+    @Test
+    public void testNullTypeFailsLikeGson() {
+        TSpanData span = span();
+        span.setAttributes(new TAttributes()
+                .setKeys(Arrays.asList(new TAttributeKey().setValue("untyped")))
+                .setValues(Arrays.asList(new TValue().setStringValue("v"))));
+        try {
+            writeDorisService.buildSpanData(span);
+            Assert.fail("the Gson path fails on a key without type");
+        } catch (NullPointerException expected) {
+            // the span was dropped
+        }
+        try {
+            DorisRowEncoder.get().span(span);
+            Assert.fail("the encoder should fail as the Gson path does");
+        } catch (NullPointerException expected) {
+            // the span is dropped
+        }
+        // the encoder is usable again after a failed row
+        assertSameRow(span());
+    }
+
+    @Test
+    public void testValues() {
+        String row = new String(Arrays.copyOf(DorisRowEncoder.get().values("a\u0001b\u0002c", null, 12L, 7, "\u00e9").buffer(),
+                DorisRowEncoder.get().size()), StandardCharsets.UTF_8);
+        Assert.assertEquals("a b c\u0001\\N\u000112\u00017\u0001\u00e9\u0002", row);
+    }
+
+    private void assertSameRow(TSpanData span) {
+        Map<String, Object> expected = writeDorisService.buildSpanData(span);
+        String row = encode(span);
+        Assert.assertEquals(DorisRowEncoder.LINE_DELIMITER, row.charAt(row.length() - 1));
+        String[] fields = row.substring(0, row.length() - 1).split("\u0001", -1);
+        Assert.assertEquals(SPAN_COLUMNS.size(), fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            Object value = expected.get(SPAN_COLUMNS.get(i));
+            String expectedField = value == null ? "\\N" : String.valueOf(value).replace('\u0001', ' ').replace('\u0002', ' ');
+            Assert.assertEquals(SPAN_COLUMNS.get(i), new String(expectedField.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8), fields[i]);
+        }
+    }
+
+    private static String encode(TSpanData span) {
+        DorisRowEncoder encoder = DorisRowEncoder.get().span(span);
+        return new String(encoder.buffer(), 0, encoder.size(), StandardCharsets.UTF_8);
+    }
+
+    private static String randomString(Random random) {
+        int length = random.nextInt(12);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    private static TSpanData span() {
+        TSpanData span = new TSpanData();
+        span.setTraceId("4bf92f3577b34da6a3ce929d0e0e4736");
+        span.setSpanId("00f067aa0ba902b7");
+        span.setName("/api/order/get");
+        long start = 1_700_000_000_123_456_789L;
+        span.setStartEpochNanos(start);
+        span.setEndEpochNanos(start + 12_345_678L);
+        span.setParentSpanContext(new TSpanContext().setTraceId("4bf92f3577b34da6a3ce929d0e0e4736").setSpanId("00f067aa0ba90200"));
+        span.setExtra(new TExtra().setServiceName("1-demo"));
+        span.setResouce(new TResource().setAttributes(strings("service.env", "staging", "host", "<demo>&")));
+        List<TEvent> events = new ArrayList<>();
+        events.add(new TEvent().setName("log").setEpochNanos(start + 1).setAttributes(strings("message", "order loaded")));
+        events.add(new TEvent().setName("log").setEpochNanos(start + 2));
+        span.setEvents(events);
+        span.setAttributes(strings("http.method", "GET"));
+        return span;
+    }
+
+    private static TAttributeKey key(String name, TAttributeType type) {
+        return new TAttributeKey().setValue(name).setType(type);
+    }
+
+    private static TAttributes strings(String... keyValues) {
+        List<TAttributeKey> keys = new ArrayList<>();
+        List<TValue> values = new ArrayList<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            keys.add(key(keyValues[i], TAttributeType.STRING));
+            values.add(new TValue().setStringValue(keyValues[i + 1]));
+        }
+        return new TAttributes().setKeys(keys).setValues(values);
+    }
+}
@@ -22,6 +22,9 @@ package org.apache.ozhera.trace.etl.extension.es;
 import com.alibaba.fastjson.JSONObject;
 import com.xiaomi.mone.es.EsProcessor;
 import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.annotation.Resource;
@@ -36,6 +39,9 @@ public class EsTraceUtil {
     @Resource(name = "errorEsProcessor")
     private EsProcessor errorEsProcessor;
 
+    @Resource(name = "jaegerSpanBulkProcessor")
+    private BulkProcessor jaegerSpanBulkProcessor;
+
     public void insertBulk(String index,String json){
         try {
             JSONObject jsonObject = JSONObject.parseObject(json);
@@ -53,6 +59,17 @@ public class EsTraceUtil {
         }
     }
 
+    /**
+     * Index a document already encoded as JSON, its bytes become the source of the bulk request as they are.
+     */
+    public void insertBulk(String index, byte[] json) {
+        try {
+            jaegerSpanBulkProcessor.add(new IndexRequest(index).source(json, XContentType.JSON));
+        } catch (Exception e) {
+            log.error("Insert jaeger es data exception:", e);
+        }
+    }
+
     public void insertErrorBulk(String index,Map jsonMap){
         try {
             errorEsProcessor.bulkInsert(index, jsonMap);
@@ -0,0 +1,367 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.extension.es;
+
+import org.apache.ozhera.trace.etl.domain.jaegeres.JaegerAttrType;
+import org.apache.ozhera.trace.etl.domain.jaegeres.JaegerRefType;
+import org.apache.ozhera.tspandata.TAttributeKey;
+import org.apache.ozhera.tspandata.TAttributes;
+import org.apache.ozhera.tspandata.TEvent;
+import org.apache.ozhera.tspandata.TResource;
+import org.apache.ozhera.tspandata.TSpanContext;
+import org.apache.ozhera.tspandata.TSpanData;
+import org.apache.ozhera.tspandata.TValue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the jaeger span document of a {@link TSpanData} as UTF-8 JSON in one pass, with the same fields and values
+ * as {@link WriteEsService#buildJaegerES}, without the JaegerESDomain objects, the fastjson string and its parse.
+ * <p>
+ * The agent escapes quotes and line breaks of string tags as ##r' ##n ##r ##t ##', they are turned back into
+ * \" \n \r \t \" by the same scan that escapes the JSON string. Not thread safe, see {@link #get()}.
+ */
+public final class JaegerDocumentEncoder {
+
+    private static final ThreadLocal<JaegerDocumentEncoder> LOCAL = ThreadLocal.withInitial(JaegerDocumentEncoder::new);
+
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+
+    private int size;
+
+    public static JaegerDocumentEncoder get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * @return the document, the internal buffer is reused by the next call
+     */
+    public byte[] encode(TSpanData tSpanData) {
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+        size = 0;
+        long startTime = tSpanData.getStartEpochNanos();
+        long duration = tSpanData.getEndEpochNanos() - startTime;
+        writeByte('{');
+        writeName("traceID");
+        writeString(tSpanData.getTraceId(), false);
+        writeByte(',');
+        writeName("spanID");
+        writeString(tSpanData.getSpanId(), false);
+        writeByte(',');
+        writeName("operationName");
+        writeString(tSpanData.getName(), false);
+        writeByte(',');
+        writeName("references");
+        writeReferences(tSpanData.getParentSpanContext());
+        writeByte(',');
+        writeName("startTime");
+        writeLong(startTime / 1000);
+        writeByte(',');
+        writeName("startTimeMillis");
+        writeLong(startTime / (1000 * 1000));
+        writeByte(',');
+        writeName("duration");
+        writeLong(duration / 1000);
+        writeByte(',');
+        writeName("tags");
+        writeAttributes(tSpanData.getAttributes());
+        writeByte(',');
+        writeName("logs");
+        writeLogs(tSpanData.getEvents());
+        writeByte(',');
+        writeName("process");
+        writeByte('{');
+        writeName("serviceName");
+        writeString(tSpanData.getExtra().getServiceName(), false);
+        writeByte(',');
+        writeName("tags");
+        TResource resource = tSpanData.getResouce();
+        if (resource == null) {
+            writeNull();
+        } else {
+            writeAttributes(resource.getAttributes());
+        }
+        writeByte('}');
+        writeByte('}');
+        return Arrays.copyOf(buffer, size);
+    }
+
+    private void writeReferences(TSpanContext parentSpanContext) {
+        writeByte('[');
+        // link is not used
+        if (parentSpanContext != null) {
+            writeByte('{');
+            writeName("traceID");
+            writeString(parentSpanContext.getTraceId(), false);
+            writeByte(',');
+            writeName("spanID");
+            writeString(parentSpanContext.getSpanId(), false);
+            writeByte(',');
+            writeName("refType");
+            writeString(JaegerRefType.CHILD_OF, false);
+            writeByte('}');
+        }
+        writeByte(']');
+    }
+
+    private void writeLogs(List<TEvent> events) {
+        writeByte('[');
+        if (events != null) {
+            for (int i = 0; i < events.size(); i++) {
+                TEvent tEvent = events.get(i);
+                if (i > 0) {
+                    writeByte(',');
+                }
+                writeByte('{');
+                writeName("timestamp");
+                writeLong(tEvent.getEpochNanos());
+                writeByte(',');
+                writeName("fields");
+                writeAttributes(tEvent.getAttributes());
+                writeByte('}');
+            }
+        }
+        writeByte(']');
+    }
+
+    private void writeAttributes(TAttributes attributes) {
+        writeByte('[');
+        if (attributes != null && attributes.getKeys() != null) {
+            List<TAttributeKey> keys = attributes.getKeys();
+            List<TValue> values = attributes.getValues();
+            for (int i = 0; i < keys.size(); i++) {
+                if (i > 0) {
+                    writeByte(',');
+                }
+                TAttributeKey tAttributeKey = keys.get(i);
+                writeByte('{');
+                writeName("key");
+                writeString(tAttributeKey.getValue(), false);
+                writeByte(',');
+                writeName("type");
+                TValue value = values.get(i);
+                // a key without type fails the span, as the switch of buildAttributes does
+                switch (tAttributeKey.getType()) {
+                    case STRING:
+                        writeString(JaegerAttrType.STRING, false);
+                        writeByte(',');
+                        writeName("value");
+                        // JaegerAttribute stores a null value as ""
+                        String stringValue = value.getStringValue();
+                        writeString(stringValue == null ? "" : stringValue, true);
+                        break;
+                    case LONG:
+                        writeString(JaegerAttrType.LONG, false);
+                        writeByte(',');
+                        writeName("value");
+                        writeByte('"');
+                        writeLong(value.getLongValue());
+                        writeByte('"');
+                        break;
+                    case BOOLEAN:
+                        writeString(JaegerAttrType.BOOLEAN, false);
+                        writeByte(',');
+                        writeName("value");
+                        writeString(String.valueOf(value.isBoolValue()), false);
+                        break;
+                    case DOUBLE:
+                        writeString(JaegerAttrType.DOUBLE, false);
+                        writeByte(',');
+                        writeName("value");
+                        writeString(String.valueOf(value.getDoubleValue()), false);
+                        break;
+                    default:
+                        writeNull();
+                        writeByte(',');
+                        writeName("value");
+                        writeNull();
+                }
+                writeByte('}');
+            }
+        }
+        writeByte(']');
+    }
+
+    private void writeName(String name) {
+        ensureCapacity(name.length() + 3);
+        buffer[size++] = '"';
+        for (int i = 0; i < name.length(); i++) {
+            buffer[size++] = (byte) name.charAt(i);
+        }
+        buffer[size++] = '"';
+        buffer[size++] = ':';
+    }
+
+    private void writeNull() {
+        ensureCapacity(4);
+        buffer[size++] = 'n';
+        buffer[size++] = 'u';
+        buffer[size++] = 'l';
+        buffer[size++] = 'l';
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) c;
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(String.valueOf(value));
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        int start = size;
+        do {
+            buffer[size++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = size - 1; i < j; i++, j--) {
+            byte tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+    }
+
+    private void writeAscii(String value) {
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer[size++] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * JSON string in UTF-8, with the ## sequences of the agent decoded when decodeLineBreak is set.
+     */
+    private void writeString(String value, boolean decodeLineBreak) {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        int length = value.length();
+        // worst case: every char a \\u escape, or 3 bytes of UTF-8
+        ensureCapacity(length * 6 + 2);
+        byte[] out = buffer;
+        int pos = size;
+        out[pos++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    out[pos++] = '\\';
+                    out[pos++] = (byte) c;
+                } else if (c == '#' && decodeLineBreak && i + 2 < length && value.charAt(i + 1) == '#') {
+                    char next = value.charAt(i + 2);
+                    char decoded;
+                    int consumed = 2;
+                    if (next == 'r' && i + 3 < length && value.charAt(i + 3) == '\'') {
+                        decoded = '"';
+                        consumed = 3;
+                    } else if (next == 'n') {
+                        decoded = 'n';
+                    } else if (next == 'r') {
+                        decoded = 'r';
+                    } else if (next == 't') {
+                        decoded = 't';
+                    } else if (next == '\'') {
+                        decoded = '"';
+                    } else {
+                        out[pos++] = '#';
+                        continue;
+                    }
+                    // the decoded text is a backslash and a char, both escaped again for JSON
+                    out[pos++] = '\\';
+                    out[pos++] = '\\';
+                    if (decoded == '"') {
+                        out[pos++] = '\\';
+                    }
+                    out[pos++] = (byte) decoded;
+                    i += consumed;
+                } else {
+                    out[pos++] = (byte) c;
+                }
+            } else if (c < 0x20) {
+                out[pos++] = '\\';
+                switch (c) {
+                    case '\n':
+                        out[pos++] = 'n';
+                        break;
+                    case '\r':
+                        out[pos++] = 'r';
+                        break;
+                    case '\t':
+                        out[pos++] = 't';
+                        break;
+                    case '\b':
+                        out[pos++] = 'b';
+                        break;
+                    case '\f':
+                        out[pos++] = 'f';
+                        break;
+                    default:
+                        out[pos++] = 'u';
+                        out[pos++] = '0';
+                        out[pos++] = '0';
+                        out[pos++] = HEX[c >> 4];
+                        out[pos++] = HEX[c & 0xF];
+                }
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, replaced as String.getBytes does
+                out[pos++] = '?';
+            } else {
+                out[pos++] = (byte) (0xE0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        out[pos++] = '"';
+        size = pos;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(size + extra, buffer.length * 2));
+        }
+    }
+}
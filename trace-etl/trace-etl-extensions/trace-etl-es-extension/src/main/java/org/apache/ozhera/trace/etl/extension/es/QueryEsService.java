@@ -20,12 +20,15 @@
 package org.apache.ozhera.trace.etl.extension.es;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import org.apache.ozhera.trace.etl.common.TimeConverter;
 import org.apache.ozhera.trace.etl.domain.jaegeres.JaegerAttribute;
 import org.apache.ozhera.trace.etl.domain.jaegeres.JaegerProcess;
+import org.apache.ozhera.trace.etl.domain.jaegeres.JaegerReferences;
 import org.apache.ozhera.trace.etl.domain.tracequery.Span;
 import org.apache.ozhera.trace.etl.domain.tracequery.Trace;
 import org.apache.ozhera.trace.etl.domain.tracequery.TraceIdQueryVo;
@@ -49,22 +52,37 @@ import org.elasticsearch.index.query.RegexpQueryBuilder;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.elasticsearch.search.aggregations.BucketOrder;
+import org.elasticsearch.search.aggregations.metrics.Max;
+import org.elasticsearch.search.aggregations.metrics.Min;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.beans.factory.annotation.Value;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @Description
@@ -99,6 +117,95 @@ public class QueryEsService {
     private static final Type MAP_TYPE = new TypeToken<Map<String, String>>() {
     }.getType();
 
+    /**
+     * Span fields the trace list needs, logs and process tags are only read by the trace detail.
+     */
+    private static final String MIN_START_TIME = "minStartTime";
+
+    private static final String[] LIST_SOURCE_INCLUDES = new String[]{TRACE_ID, "spanID", "parentSpanID", "flags",
+            OPERATION_NAME, "references", START_TIME, DURATION, TAGS, "processID", PROCESS_SERVICE_NAME, "warnings"};
+
+    /**
+     * Fetch only {@link #LIST_SOURCE_INCLUDES} for the spans of the trace list.
+     */
+    @Value("${es.query.list.lite:true}")
+    private boolean listLite;
+
+    /**
+     * Traces per msearch request, the requests of one query run in parallel.
+     */
+    @Value("${es.query.list.chunk.size:10}")
+    private int listChunkSize;
+
+    @Value("${es.query.list.threads:8}")
+    private int listThreads;
+
+    /**
+     * Spans of a trace are searched from this long before its latest span, instead of the whole query range.
+     * A trace the window would clip is searched in the whole range.
+     */
+    @Value("${es.query.list.trace.window.ms:3600000}")
+    private long listTraceWindowMillis;
+
+    /**
+     * 0 disables the trace list cache.
+     */
+    @Value("${es.query.list.cache.size:256}")
+    private int listCacheSize;
+
+    /**
+     * Query times are floored to this bucket in the cache key, and entries live as long as one bucket.
+     */
+    @Value("${es.query.list.cache.bucket.ms:10000}")
+    private long listCacheBucketMillis;
+
+    /**
+     * Search only the span indices that {@link TraceLookupWriter} recorded for the trace, when it can be trusted.
+     */
+    @Value("${es.trace.lookup.enabled:false}")
+    private boolean traceLookup;
+
+    /**
+     * A trace with a span started within this time may still have spans waiting in the writers, its lookup
+     * is not trusted.
+     */
+    @Value("${es.trace.lookup.settle.ms:60000}")
+    private long traceLookupSettleMillis;
+
+    @Value("${es.trace.lookup.index:hera-trace-lookup}")
+    private String traceLookupIndex;
+
+    private ThreadPoolExecutor listPool;
+
+    private Cache<String, List<Trace>> listCache;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        int threads = Math.max(1, listThreads);
+        listPool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(1024), r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            thread.setName("es-trace-list-" + threadNumber.getAndIncrement());
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        listPool.allowCoreThreadTimeOut(true);
+        if (listCacheSize > 0 && listCacheBucketMillis > 0) {
+            listCache = CacheBuilder.newBuilder()
+                    .maximumSize(listCacheSize)
+                    .expireAfterWrite(listCacheBucketMillis, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+        log.info("es trace list lite:{} chunk:{} threads:{} cache:{}", listLite, listChunkSize, threads, listCache != null);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (listPool != null) {
+            listPool.shutdownNow();
+        }
+    }
+
     public TraceQueryResult<List<String>> getOperations(String service, String index) {
         try {
             log.info("search operations by serviceName param : service=" + service + " index=" + index);
@@ -125,6 +232,14 @@ public class QueryEsService {
     public TraceQueryResult<List<Trace>> getList(TraceListQueryVo vo) {
         try {
             log.info("search trace list param : " + vo);
+            String cacheKey = listCache == null ? null : listCacheKey(vo);
+            if (cacheKey != null) {
+                // an unmodifiable copy, shared by every hit
+                List<Trace> cached = listCache.getIfPresent(cacheKey);
+                if (cached != null) {
+                    return new TraceQueryResult<>(cached, cached.size());
+                }
+            }
             SearchSourceBuilder sourceBuilder = SearchSourceBuilder.searchSource();
             BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();
             sourceBuilder.query(boolQueryBuilder);
@@ -163,16 +278,25 @@ public class QueryEsService {
                     .size(vo.getLimit())
                     .order(BucketOrder.aggregation(START_TIME, false))
                     .field(TRACE_ID)
-                    .subAggregation(AggregationBuilders.max(START_TIME).field(START_TIME));
+                    .subAggregation(AggregationBuilders.max(START_TIME).field(START_TIME))
+                    .subAggregation(AggregationBuilders.min(MIN_START_TIME).field(START_TIME));
             sourceBuilder.aggregation(builder);
             // get traceIds
-            SearchResponse response = esClient.search(buildSearchRequest(sourceBuilder, TimeConverter.getIndexNamesByTimes(vo.getIndex(), startTime, endTime)));
+            String[] rangeIndices = TimeConverter.getIndexNamesByTimes(vo.getIndex(), startTime, endTime);
+            SearchResponse response = esClient.search(buildSearchRequest(sourceBuilder, rangeIndices));
             Terms terms = response.getAggregations().get(TRACE_ID);
             List<String> traceIds = new ArrayList<>(20);
+            List<String[]> traceIndices = new ArrayList<>(20);
             for (Terms.Bucket termsBucket : terms.getBuckets()) {
                 traceIds.add(termsBucket.getKeyAsString());
+                Max maxStartTime = termsBucket.getAggregations().get(START_TIME);
+                Min minStartTime = termsBucket.getAggregations().get(MIN_START_TIME);
+                traceIndices.add(traceIndexNames(vo.getIndex(), startTime, endTime, maxStartTime, minStartTime, rangeIndices));
+            }
+            List<Trace> traces = queryMultiTraceSpans(traceIds, traceIndices, rangeIndices);
+            if (cacheKey != null) {
+                listCache.put(cacheKey, Collections.unmodifiableList(new ArrayList<>(traces)));
             }
-            List<Trace> traces = queryMultiTraceSpans(traceIds, startTime, endTime, vo.getIndex());
             return new TraceQueryResult<>(traces, traces.size());
         } catch (Throwable t) {
             log.error("search traces from es error : ", t);
@@ -191,7 +315,20 @@ public class QueryEsService {
         sourceBuilder.sort(START_TIME, SortOrder.ASC);
         sourceBuilder.size(1000);
         try {
-            SearchResponse response = esClient.search(buildSearchRequest(sourceBuilder, TimeConverter.getIndexNamesByTimes(vo.getIndex(), startTime, endTime)));
+            SearchResponse response = null;
+            TraceLookup lookup = traceLookup ? lookupTrace(traceId, vo.getIndex(), startTime, endTime) : null;
+            if (lookup != null && lookup.isSettled(System.currentTimeMillis() - traceLookupSettleMillis)) {
+                SearchRequest searchRequest = buildSearchRequest(sourceBuilder, lookup.indices);
+                searchRequest.indicesOptions(IndicesOptions.fromOptions(true, true, true, false));
+                response = esClient.search(searchRequest);
+                if (!lookup.isCoveredBy(response.getHits().getHits(), sourceBuilder.size())) {
+                    // a false lead, a deleted index or spans not searchable yet, search as without the lookup
+                    response = null;
+                }
+            }
+            if (response == null) {
+                response = esClient.search(buildSearchRequest(sourceBuilder, TimeConverter.getIndexNamesByTimes(vo.getIndex(), startTime, endTime)));
+            }
             List<Span> jaegerSpans = new ArrayList<>(response.getHits().getHits().length);
             for (SearchHit searchHit : response.getHits().getHits()) {
                 Span jaegerSpanInDB = GSON.fromJson(new InputStreamReader(searchHit.getSourceRef().streamInput()), Span.class);
@@ -206,37 +343,178 @@ public class QueryEsService {
         return null;
     }
 
-    private List<Trace> queryMultiTraceSpans(List<String> traceIds, long startTime, long endTime, String index) throws IOException {
+    /**
+     * What the lookup side-index has for the trace, null when it has nothing, so that a trace written before the
+     * lookup or not flushed yet is still searched in the whole range.
+     */
+    private TraceLookup lookupTrace(String traceId, String index, long startTime, long endTime) {
+        try {
+            String[] lookupIndices = startTime == 0 || endTime == 0
+                    ? new String[]{traceLookupIndex + "-*"}
+                    : TimeConverter.getIndexNamesByTimes(traceLookupIndex, startTime, endTime);
+            SearchSourceBuilder sourceBuilder = SearchSourceBuilder.searchSource()
+                    .query(QueryBuilders.idsQuery().addIds(traceId))
+                    .fetchSource(new String[]{TraceLookupWriter.DAY, TraceLookupWriter.MIN_START_TIME, TraceLookupWriter.MAX_START_TIME}, null)
+                    .size(64);
+            SearchRequest searchRequest = buildSearchRequest(sourceBuilder, lookupIndices);
+            searchRequest.indicesOptions(IndicesOptions.fromOptions(true, true, true, false));
+            SearchHit[] hits = esClient.search(searchRequest).getHits().getHits();
+            if (hits.length == 0) {
+                return null;
+            }
+            TraceLookup lookup = new TraceLookup(hits.length);
+            for (int i = 0; i < hits.length; i++) {
+                Map<String, Object> source = hits[i].getSourceAsMap();
+                lookup.indices[i] = index + "-" + source.get(TraceLookupWriter.DAY);
+                lookup.minStartTime = Math.min(lookup.minStartTime, ((Number) source.get(TraceLookupWriter.MIN_START_TIME)).longValue());
+                lookup.maxStartTime = Math.max(lookup.maxStartTime, ((Number) source.get(TraceLookupWriter.MAX_START_TIME)).longValue());
+            }
+            return lookup;
+        } catch (Throwable t) {
+            log.warn("search trace lookup error, traceId: {}", traceId, t);
+            return null;
+        }
+    }
+
+    /**
+     * Indices holding the spans of one trace: the query range narrowed to the trace window before its latest span,
+     * or rangeIndices itself when the window would cut off a span the aggregation saw.
+     */
+    private String[] traceIndexNames(String index, long startTime, long endTime, Max maxStartTime, Min minStartTime, String[] rangeIndices) {
+        if (startTime == 0 || endTime == 0 || maxStartTime == null || Double.isInfinite(maxStartTime.getValue())) {
+            return rangeIndices;
+        }
+        long latest = TimeUnit.MICROSECONDS.toMillis((long) maxStartTime.getValue());
+        long from = Math.min(endTime, Math.max(startTime, latest - listTraceWindowMillis));
+        if (from <= startTime || (minStartTime != null && !Double.isInfinite(minStartTime.getValue())
+                && TimeUnit.MICROSECONDS.toMillis((long) minStartTime.getValue()) < from)) {
+            return rangeIndices;
+        }
+        String[] indices = TimeConverter.getIndexNamesByTimes(index, from, endTime);
+        return Arrays.equals(indices, rangeIndices) ? rangeIndices : indices;
+    }
+
+    /**
+     * Traces sharing the same indices are grouped into msearch chunks of {@link #listChunkSize}, the chunks are
+     * sent in parallel and the traces keep the order of the aggregation.
+     */
+    private List<Trace> queryMultiTraceSpans(List<String> traceIds, List<String[]> traceIndices, String[] rangeIndices) {
         if (traceIds == null || traceIds.size() == 0) {
             return new ArrayList<>();
         }
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < traceIds.size(); i++) {
+            groups.computeIfAbsent(String.join(",", traceIndices.get(i)), key -> new ArrayList<>()).add(i);
+        }
+        int chunkSize = Math.max(1, listChunkSize);
+        Trace[] traces = new Trace[traceIds.size()];
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (List<Integer> group : groups.values()) {
+            for (int from = 0; from < group.size(); from += chunkSize) {
+                List<Integer> chunk = group.subList(from, Math.min(group.size(), from + chunkSize));
+                futures.add(CompletableFuture.runAsync(() -> searchChunk(chunk, traceIds, traceIndices, rangeIndices, traces), listPool));
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        return new ArrayList<>(Arrays.asList(traces));
+    }
+
+    private void searchChunk(List<Integer> chunk, List<String> traceIds, List<String[]> traceIndices, String[] rangeIndices, Trace[] traces) {
         MultiSearchRequest multiSearchRequest = new MultiSearchRequest();
-        for (String traceId : traceIds) {
-            SearchSourceBuilder sourceBuilder = SearchSourceBuilder.searchSource();
-            BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();
-            sourceBuilder.query(boolQueryBuilder);
-            boolQueryBuilder.must(QueryBuilders.termQuery(TRACE_ID, traceId).boost(2));
-            sourceBuilder.size(1000);
-            sourceBuilder.terminateAfter(1000);
-            sourceBuilder.sort(START_TIME_MILLIS);
-            SearchRequest searchRequest = buildSearchRequest(sourceBuilder, TimeConverter.getIndexNamesByTimes(index, startTime, endTime));
-            searchRequest.indicesOptions(IndicesOptions.fromOptions(true, true, true, false));
-            multiSearchRequest.add(searchRequest);
+        for (int position : chunk) {
+            multiSearchRequest.add(traceSpansRequest(traceIds.get(position), traceIndices.get(position)));
         }
-        MultiSearchResponse tracesResp = esClient.getEsOriginalClient().msearch(multiSearchRequest, RequestOptions.DEFAULT);
-        MultiSearchResponse.Item[] responseItems = tracesResp.getResponses();
-        List<Trace> jaegerTraces = new ArrayList<>(responseItems.length);
-        for (MultiSearchResponse.Item responseItem : responseItems) {
-            SearchResponse response = responseItem.getResponse();
-            List<Span> jaegerSpans = new ArrayList<>(response.getHits().getHits().length);
-            for (int i = 0; i < response.getHits().getHits().length; i++) {
-                Span jaegerSpanInDB = GSON.fromJson(new InputStreamReader(response.getHits().getAt(i).getSourceRef().streamInput()), Span.class);
-                complateSpan(jaegerSpanInDB);
-                jaegerSpans.add(jaegerSpanInDB);
+        try {
+            MultiSearchResponse tracesResp = esClient.getEsOriginalClient().msearch(multiSearchRequest, RequestOptions.DEFAULT);
+            MultiSearchResponse.Item[] responseItems = tracesResp.getResponses();
+            SpanSourceReader reader = new SpanSourceReader();
+            for (int i = 0; i < responseItems.length; i++) {
+                int position = chunk.get(i);
+                SearchResponse response = responseItems[i].getResponse();
+                if (response == null) {
+                    throw new IOException("search trace spans error, traceId: " + traceIds.get(position), responseItems[i].getFailure());
+                }
+                List<Span> jaegerSpans = readSpans(reader, response);
+                if (traceIndices.get(position) != rangeIndices && hasMissingParent(jaegerSpans)) {
+                    // the window cut off the start of the trace, search it in the whole range
+                    jaegerSpans = readSpans(reader, esClient.search(traceSpansRequest(traceIds.get(position), rangeIndices)));
+                }
+                traces[position] = getTrace(jaegerSpans);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private SearchRequest traceSpansRequest(String traceId, String[] indices) {
+        SearchSourceBuilder sourceBuilder = SearchSourceBuilder.searchSource();
+        BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();
+        sourceBuilder.query(boolQueryBuilder);
+        boolQueryBuilder.must(QueryBuilders.termQuery(TRACE_ID, traceId).boost(2));
+        sourceBuilder.size(1000);
+        sourceBuilder.terminateAfter(1000);
+        sourceBuilder.sort(START_TIME_MILLIS);
+        if (listLite) {
+            sourceBuilder.fetchSource(LIST_SOURCE_INCLUDES, null);
+        }
+        SearchRequest searchRequest = buildSearchRequest(sourceBuilder, indices);
+        searchRequest.indicesOptions(IndicesOptions.fromOptions(true, true, true, false));
+        return searchRequest;
+    }
+
+    private List<Span> readSpans(SpanSourceReader reader, SearchResponse response) throws IOException {
+        SearchHit[] hits = response.getHits().getHits();
+        List<Span> jaegerSpans = new ArrayList<>(hits.length);
+        for (SearchHit hit : hits) {
+            Span jaegerSpanInDB = reader.read(hit.getSourceRef().streamInput());
+            complateSpan(jaegerSpanInDB);
+            jaegerSpans.add(jaegerSpanInDB);
+        }
+        return jaegerSpans;
+    }
+
+    /**
+     * Whether a span refers to a parent that was not found, the sign of a trace cut by the window. A trace whose
+     * root is not exported looks the same and is searched again for nothing, at the cost of one search.
+     */
+    private static boolean hasMissingParent(List<Span> spans) {
+        Set<String> spanIds = new HashSet<>(spans.size() * 2);
+        for (Span span : spans) {
+            spanIds.add(span.getSpanID());
+        }
+        for (Span span : spans) {
+            List<JaegerReferences> references = span.getReferences();
+            if (references == null) {
+                continue;
+            }
+            for (JaegerReferences reference : references) {
+                if (reference.getSpanID() != null && !spanIds.contains(reference.getSpanID())) {
+                    return true;
+                }
             }
-            jaegerTraces.add(getTrace(jaegerSpans));
         }
-        return jaegerTraces;
+        return false;
+    }
+
+    private String listCacheKey(TraceListQueryVo vo) {
+        List<JaegerAttribute> tags = dealServerEnv(getTags(vo.getTags()), vo.getServerEnv());
+        StringBuilder key = new StringBuilder(128)
+                .append(vo.getIndex()).append('|')
+                .append(vo.getService()).append('|')
+                .append(vo.getOperation()).append('|')
+                .append(vo.getMinDuration()).append('|')
+                .append(vo.getMaxDuration()).append('|')
+                .append(vo.getLimit()).append('|')
+                .append(vo.getStart() == null ? 0 : TimeUnit.MICROSECONDS.toMillis(vo.getStart()) / listCacheBucketMillis).append('|')
+                .append(vo.getEnd() == null ? 0 : TimeUnit.MICROSECONDS.toMillis(vo.getEnd()) / listCacheBucketMillis);
+        if (tags != null) {
+            tags.sort(Comparator.comparing(JaegerAttribute::getKey, Comparator.nullsFirst(Comparator.naturalOrder()))
+                    .thenComparing(JaegerAttribute::getValue, Comparator.nullsFirst(Comparator.naturalOrder())));
+            for (JaegerAttribute tag : tags) {
+                key.append('|').append(tag.getKey()).append('=').append(tag.getValue());
+            }
+        }
+        return key.toString();
     }
 
     private Trace getTrace(List<Span> spans) {
@@ -316,4 +594,42 @@ public class QueryEsService {
         return searchRequest;
     }
 
-}
\ No newline at end of file
+    /**
+     * The span indices and the startTime range, in microseconds, the lookup side-index has for one trace.
+     */
+    private static final class TraceLookup {
+
+        private final String[] indices;
+
+        private long minStartTime = Long.MAX_VALUE;
+
+        private long maxStartTime = Long.MIN_VALUE;
+
+        private TraceLookup(int days) {
+            this.indices = new String[days];
+        }
+
+        /**
+         * No span of the trace started after the time, so the writers have flushed its lookup.
+         */
+        private boolean isSettled(long beforeMillis) {
+            return maxStartTime / 1000 < beforeMillis;
+        }
+
+        /**
+         * Whether the spans found, sorted by startTime, reach the first and the last startTime the lookup recorded,
+         * the last one only when the search was not cut at its size.
+         */
+        private boolean isCoveredBy(SearchHit[] hits, int size) {
+            if (hits.length == 0 || startTime(hits[0]) != minStartTime) {
+                return false;
+            }
+            return hits.length >= size || startTime(hits[hits.length - 1]) == maxStartTime;
+        }
+
+        private static long startTime(SearchHit hit) {
+            Object[] sortValues = hit.getSortValues();
+            return sortValues.length > 0 && sortValues[0] instanceof Number ? ((Number) sortValues[0]).longValue() : Long.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.extension.es;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.ozhera.trace.etl.domain.jaegeres.JaegerAttribute;
+import org.apache.ozhera.trace.etl.domain.jaegeres.JaegerLogs;
+import org.apache.ozhera.trace.etl.domain.jaegeres.JaegerProcess;
+import org.apache.ozhera.trace.etl.domain.jaegeres.JaegerReferences;
+import org.apache.ozhera.trace.etl.domain.tracequery.Span;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams the _source of a jaeger span hit into a {@link Span} with a Jackson parser, instead of Gson reading it
+ * through an InputStreamReader. Fields are set as Gson sets them: a null or missing field leaves the default,
+ * unknown fields are skipped. Values repeated across the spans of a query, service names, operation names and
+ * tag keys, share one String per reader.
+ * Not thread safe, one reader per query thread.
+ */
+public final class SpanSourceReader {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final int MAX_SHARED_LENGTH = 128;
+
+    private static final int MAX_SHARED_VALUES = 4096;
+
+    private final Map<String, String> shared = new HashMap<>();
+
+    public Span read(InputStream source) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(source)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            return readSpan(parser);
+        }
+    }
+
+    private Span readSpan(JsonParser parser) throws IOException {
+        Span span = new Span();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (name) {
+                case "traceID":
+                    span.setTraceID(parser.getValueAsString());
+                    break;
+                case "spanID":
+                    span.setSpanID(parser.getValueAsString());
+                    break;
+                case "parentSpanID":
+                    span.setParentSpanID(parser.getValueAsString());
+                    break;
+                case "flags":
+                    span.setFlags(parser.getValueAsInt());
+                    break;
+                case "operationName":
+                    span.setOperationName(shared(parser.getValueAsString()));
+                    break;
+                case "references":
+                    span.setReferences(readReferences(parser));
+                    break;
+                case "startTime":
+                    span.setStartTime(parser.getValueAsLong());
+                    break;
+                case "duration":
+                    span.setDuration(parser.getValueAsLong());
+                    break;
+                case "tags":
+                    span.setTags(readAttributes(parser));
+                    break;
+                case "logs":
+                    span.setLogs(readLogs(parser));
+                    break;
+                case "processID":
+                    span.setProcessID(shared(parser.getValueAsString()));
+                    break;
+                case "process":
+                    span.setProcess(readProcess(parser));
+                    break;
+                case "warnings":
+                    span.setWarnings(readStrings(parser));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return span;
+    }
+
+    private List<JaegerReferences> readReferences(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        List<JaegerReferences> references = new ArrayList<>(1);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            JaegerReferences reference = new JaegerReferences();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                switch (name) {
+                    case "traceID":
+                        reference.setTraceID(parser.getValueAsString());
+                        break;
+                    case "spanID":
+                        reference.setSpanID(parser.getValueAsString());
+                        break;
+                    case "refType":
+                        reference.setRefType(shared(parser.getValueAsString()));
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            references.add(reference);
+        }
+        return references;
+    }
+
+    private List<JaegerAttribute> readAttributes(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        List<JaegerAttribute> attributes = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            JaegerAttribute attribute = new JaegerAttribute();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                switch (name) {
+                    case "key":
+                        attribute.setKey(shared(parser.getValueAsString()));
+                        break;
+                    case "type":
+                        attribute.setType(shared(parser.getValueAsString()));
+                        break;
+                    case "value":
+                        attribute.setValue(parser.currentToken().isScalarValue() ? parser.getValueAsString() : skipToNull(parser));
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            attributes.add(attribute);
+        }
+        return attributes;
+    }
+
+    private List<JaegerLogs> readLogs(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        List<JaegerLogs> logs = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            JaegerLogs log = new JaegerLogs();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                if ("timestamp".equals(name)) {
+                    log.setTimestamp(parser.getValueAsLong());
+                } else if ("fields".equals(name)) {
+                    log.setFields(readAttributes(parser));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            logs.add(log);
+        }
+        return logs;
+    }
+
+    private JaegerProcess readProcess(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        JaegerProcess process = new JaegerProcess();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            if ("serviceName".equals(name)) {
+                process.setServiceName(shared(parser.getValueAsString()));
+            } else if ("tags".equals(name)) {
+                process.setTags(readAttributes(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return process;
+    }
+
+    private List<String> readStrings(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            values.add(parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getValueAsString());
+            parser.skipChildren();
+        }
+        return values;
+    }
+
+    private static String skipToNull(JsonParser parser) throws IOException {
+        parser.skipChildren();
+        return null;
+    }
+
+    private String shared(String value) {
+        if (value == null || value.length() > MAX_SHARED_LENGTH) {
+            return value;
+        }
+        String existing = shared.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        if (shared.size() < MAX_SHARED_VALUES) {
+            shared.put(value, value);
+        }
+        return value;
+    }
+}
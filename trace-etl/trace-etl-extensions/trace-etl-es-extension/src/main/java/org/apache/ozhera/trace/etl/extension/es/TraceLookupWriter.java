@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.extension.es;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.springframework.beans.factory.annotation.Value;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Maintains the traceId lookup side-index: one small document per trace and day, in the daily index
+ * es.trace.lookup.index-yyyy.MM.dd with the traceId as _id, holding the day of the span index and the min/max
+ * startTime of the trace in it. {@link QueryEsService#getByTraceId} reads it to search only the span indices
+ * that contain the trace.
+ * <p>
+ * Spans of a trace mostly arrive within seconds, so the ranges are merged locally for es.trace.lookup.flush.ms and
+ * a trace already written is only sent again when a span extends its range. The document is upserted with a script
+ * keeping the min/max, as the spans of one trace are spread over several writers.
+ * <p>
+ * Off unless es.trace.lookup.enabled is true, which has to be set on every writer for the lookup to be trusted.
+ */
+@Slf4j
+public class TraceLookupWriter {
+
+    public static final String DAY = "day";
+    public static final String MIN_START_TIME = "minStartTime";
+    public static final String MAX_START_TIME = "maxStartTime";
+
+    private static final String MERGE_SCRIPT = "boolean changed = false;"
+            + "if (params.min < ctx._source.minStartTime) { ctx._source.minStartTime = params.min; changed = true; }"
+            + "if (params.max > ctx._source.maxStartTime) { ctx._source.maxStartTime = params.max; changed = true; }"
+            + "if (!changed) { ctx.op = 'noop'; }";
+
+    @Value("${es.trace.lookup.enabled:false}")
+    private boolean enabled;
+
+    @Value("${es.trace.lookup.index:hera-trace-lookup}")
+    private String lookupIndex;
+
+    @Value("${es.trace.lookup.flush.ms:5000}")
+    private long flushMillis;
+
+    /**
+     * Traces remembered as written, per writer.
+     */
+    @Value("${es.trace.lookup.seen.size:1000000}")
+    private int seenSize;
+
+    @Resource(name = "jaegerSpanBulkProcessor")
+    private BulkProcessor bulkProcessor;
+
+    private final ConcurrentHashMap<TraceDay, long[]> pending = new ConcurrentHashMap<>();
+
+    private Cache<TraceDay, long[]> seen;
+
+    private Consumer<DocWriteRequest<?>> sink;
+
+    private ScheduledExecutorService flusher;
+
+    public TraceLookupWriter() {
+    }
+
+    TraceLookupWriter(String lookupIndex, int seenSize, Consumer<DocWriteRequest<?>> sink) {
+        this.enabled = true;
+        this.lookupIndex = lookupIndex;
+        this.seenSize = seenSize;
+        this.seen = CacheBuilder.newBuilder().maximumSize(seenSize).build();
+        this.sink = sink;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        seen = CacheBuilder.newBuilder().maximumSize(seenSize).build();
+        sink = bulkProcessor::add;
+        flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("es-trace-lookup-flush").factory());
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Throwable t) {
+                log.error("flush trace lookup error : ", t);
+            }
+        }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        log.info("trace lookup index:{} flush:{}ms seen:{}", lookupIndex, flushMillis, seenSize);
+    }
+
+    /**
+     * @param day the day suffix of the span index the span is written to, the same instance for the whole day
+     */
+    public void record(String traceId, String day, long startTimeMicros) {
+        if (!enabled || traceId == null || day == null) {
+            return;
+        }
+        TraceDay key = new TraceDay(traceId, day);
+        long[] written = seen.getIfPresent(key);
+        if (written != null && startTimeMicros >= written[0] && startTimeMicros <= written[1]) {
+            return;
+        }
+        pending.compute(key, (k, range) -> {
+            if (range == null) {
+                return new long[]{startTimeMicros, startTimeMicros};
+            }
+            range[0] = Math.min(range[0], startTimeMicros);
+            range[1] = Math.max(range[1], startTimeMicros);
+            return range;
+        });
+    }
+
+    /**
+     * Send the pending ranges, a range is removed atomically so a span recorded meanwhile starts a new one.
+     *
+     * @return the documents sent
+     */
+    int flush() {
+        int sent = 0;
+        for (TraceDay key : pending.keySet()) {
+            long[] range = pending.remove(key);
+            if (range == null) {
+                continue;
+            }
+            long[] written = seen.getIfPresent(key);
+            if (written != null) {
+                if (range[0] >= written[0] && range[1] <= written[1]) {
+                    continue;
+                }
+                range[0] = Math.min(range[0], written[0]);
+                range[1] = Math.max(range[1], written[1]);
+            }
+            seen.put(key, range);
+            sink.accept(updateRequest(key, range));
+            sent++;
+        }
+        return sent;
+    }
+
+    public void close() {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(flushMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // the span bulk processor is closed after this bean, as it depends on it
+        flush();
+    }
+
+    private UpdateRequest updateRequest(TraceDay key, long[] range) {
+        Map<String, Object> params = new HashMap<>(4);
+        params.put("min", range[0]);
+        params.put("max", range[1]);
+        Map<String, Object> source = new HashMap<>(8);
+        source.put(QueryEsService.TRACE_ID, key.traceId);
+        source.put(DAY, key.day);
+        source.put(MIN_START_TIME, range[0]);
+        source.put(MAX_START_TIME, range[1]);
+        return new UpdateRequest(lookupIndex + "-" + key.day, key.traceId)
+                .script(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, MERGE_SCRIPT, params))
+                .upsert(source)
+                .retryOnConflict(3);
+    }
+
+    private static final class TraceDay {
+
+        private final String traceId;
+
+        private final String day;
+
+        private final int hash;
+
+        private TraceDay(String traceId, String day) {
+            this.traceId = traceId;
+            this.day = day;
+            this.hash = 31 * traceId.hashCode() + day.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TraceDay)) {
+                return false;
+            }
+            TraceDay that = (TraceDay) o;
+            return hash == that.hash && traceId.equals(that.traceId) && day.equals(that.day);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
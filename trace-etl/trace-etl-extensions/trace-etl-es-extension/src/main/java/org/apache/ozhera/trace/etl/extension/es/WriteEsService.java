@@ -32,6 +32,7 @@ import org.apache.ozhera.trace.etl.domain.jaegeres.JaegerLogs;
 import org.apache.ozhera.trace.etl.domain.jaegeres.JaegerProcess;
 import org.apache.ozhera.trace.etl.domain.jaegeres.JaegerRefType;
 import org.apache.ozhera.trace.etl.domain.jaegeres.JaegerReferences;
+import org.apache.ozhera.trace.etl.util.DayStamp;
 import org.apache.ozhera.trace.etl.util.ExecutorUtil;
 import org.apache.ozhera.trace.etl.util.MessageUtil;
 import org.apache.ozhera.tspandata.TAttributeKey;
@@ -47,11 +48,9 @@ import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
-import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -68,16 +67,31 @@ public class WriteEsService {
     private String driverIndexPrefix;
     @Value("${es.error.index}")
     private String errorIndexPrefix;
+    /**
+     * Write the span documents with {@link JaegerDocumentEncoder} instead of the JaegerESDomain + fastjson path.
+     */
+    @Value("${es.jaeger.direct.encode:true}")
+    private boolean directEncode;
 
     @Autowired
     private EsTraceUtil esTraceUtil;
 
+    @Autowired(required = false)
+    private TraceLookupWriter traceLookupWriter;
+
     private Cache<String, String> localCache =
             CacheBuilder.newBuilder().
                     maximumSize(50000).
                     expireAfterWrite(MessageUtil.TRACE_SERVICE_REDIS_KEY_EXPIRE, TimeUnit.SECONDS).
                     build();
 
+    private final DayStamp dayStamp = new DayStamp("yyyy.MM.dd");
+
+    /**
+     * The jaeger span index of the day and the day it was built for.
+     */
+    private volatile String[] jaegerIndex;
+
     public void insertJaegerService(String date, String serviceName, String oprationName) {
         // Determine whether there is
         String key = serviceName + ":" + oprationName;
@@ -211,9 +225,7 @@ public class WriteEsService {
     }
 
     public void insertDriver(DriverDomain driverDomain) {
-        String format = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
-        String replace = format.replace("-", ".");
-        String index = driverIndexPrefix + replace;
+        String index = driverIndexPrefix + dayStamp.now();
         try {
             JSONObject jsonObject = (JSONObject) JSONObject.toJSON(driverDomain);
             esTraceUtil.insertBulk(index, jsonObject);
@@ -223,12 +235,27 @@ public class WriteEsService {
     }
 
     public void insertJaegerSpan(TSpanData tSpanData, String serviceName, String spanName) {
-        SimpleDateFormat date = new SimpleDateFormat("yyyy.MM.dd");
-        String format = date.format(new Date());
+        String format = dayStamp.now();
         insertJaegerService(format, serviceName, spanName);
+        if (traceLookupWriter != null) {
+            traceLookupWriter.record(tSpanData.getTraceId(), format, tSpanData.getStartEpochNanos() / 1000);
+        }
+        if (directEncode) {
+            esTraceUtil.insertBulk(jaegerIndex(format), JaegerDocumentEncoder.get().encode(tSpanData));
+            return;
+        }
         String jaegerESJson = buildJaegerES(tSpanData);
         JSONObject jsonObject = JSONObject.parseObject(jaegerESJson);
         esTraceUtil.insertBulk(indexPrefix + format, jsonObject);
     }
 
-}
\ No newline at end of file
+    private String jaegerIndex(String date) {
+        String[] cached = jaegerIndex;
+        if (cached != null && cached[0].equals(date)) {
+            return cached[1];
+        }
+        String index = indexPrefix + date;
+        jaegerIndex = new String[]{date, index};
+        return index;
+    }
+}
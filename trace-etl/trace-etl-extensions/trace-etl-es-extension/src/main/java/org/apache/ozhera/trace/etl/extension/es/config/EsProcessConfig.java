@@ -25,15 +25,22 @@ import com.xiaomi.mone.es.EsClient;
 import com.xiaomi.mone.es.EsProcessor;
 import com.xiaomi.mone.es.ProcessorConf;
 import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BackoffPolicy;
 import org.elasticsearch.action.bulk.BulkProcessor;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.apache.ozhera.trace.etl.extension.es.EsDataSourceService;
 import org.apache.ozhera.trace.etl.extension.es.EsTraceUtil;
 import org.apache.ozhera.trace.etl.extension.es.QueryEsService;
+import org.apache.ozhera.trace.etl.extension.es.TraceLookupWriter;
 import org.apache.ozhera.trace.etl.extension.es.WriteEsService;
 
 import javax.annotation.Resource;
@@ -81,6 +88,39 @@ public class EsProcessConfig {
         }));
     }
 
+    /**
+     * Bulk processor for the span documents encoded by JaegerDocumentEncoder, which are added as raw JSON sources
+     * and so bypass {@link EsProcessor}, with the same settings: byte_size in MB, flush_interval in ms,
+     * retry_interval in seconds.
+     */
+    @Bean(name = "jaegerSpanBulkProcessor", destroyMethod = "close")
+    public BulkProcessor jaegerSpanBulkProcessor() {
+        RestHighLevelClient client = esClient.getEsOriginalClient();
+        return BulkProcessor.builder((request, listener) -> client.bulkAsync(request, RequestOptions.DEFAULT, listener), new BulkProcessor.Listener() {
+                    @Override
+                    public void beforeBulk(long executionId, BulkRequest request) {
+                    }
+
+                    @Override
+                    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                        if (response.hasFailures()) {
+                            log.error("send {} jaeger span message to es with failures:{}", request.numberOfActions(), response.buildFailureMessage());
+                        }
+                    }
+
+                    @Override
+                    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                        log.error("fail send {} jaeger span message to es,desc:{},failure:{}", request.numberOfActions(), request.getDescription(), failure);
+                    }
+                })
+                .setBulkActions(bulkActions)
+                .setBulkSize(new ByteSizeValue(byteSize, ByteSizeUnit.MB))
+                .setConcurrentRequests(concurRequest)
+                .setFlushInterval(TimeValue.timeValueMillis(flushInterval))
+                .setBackoffPolicy(BackoffPolicy.constantBackoff(TimeValue.timeValueSeconds(retryInterval), retryNum))
+                .build();
+    }
+
     @Bean("errorEsProcessor")
     public EsProcessor errorEsProcessor() {
         return new EsProcessor(new ProcessorConf(bulkActions, byteSize, concurRequest, flushInterval, retryNum, retryInterval, errorEsClient, new BulkProcessor.Listener() {
@@ -113,6 +153,11 @@ public class EsProcessConfig {
     public QueryEsService getQueryEsService(){
         return new QueryEsService();
     }
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(value = "es.trace.lookup.enabled", havingValue = "true")
+    public TraceLookupWriter getTraceLookupWriter(){
+        return new TraceLookupWriter();
+    }
     @Bean
     public WriteEsService getWriteEsService(){
         return new WriteEsService();
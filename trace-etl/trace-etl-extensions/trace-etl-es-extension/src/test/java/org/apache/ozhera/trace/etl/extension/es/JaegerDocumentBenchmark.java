@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.extension.es;
+
+import com.alibaba.fastjson.JSONObject;
+import org.apache.ozhera.trace.etl.util.DayStamp;
+import org.apache.ozhera.tspandata.TAttributeKey;
+import org.apache.ozhera.tspandata.TAttributeType;
+import org.apache.ozhera.tspandata.TAttributes;
+import org.apache.ozhera.tspandata.TEvent;
+import org.apache.ozhera.tspandata.TExtra;
+import org.apache.ozhera.tspandata.TKind;
+import org.apache.ozhera.tspandata.TResource;
+import org.apache.ozhera.tspandata.TSpanContext;
+import org.apache.ozhera.tspandata.TSpanData;
+import org.apache.ozhera.tspandata.TStatus;
+import org.apache.ozhera.tspandata.TValue;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * From a decoded span to the index request of the bulk: the JaegerESDomain + fastjson string + parse + map source
+ * path, and the direct encoder. Run with -prof gc, gc.alloc.rate.norm is the bytes allocated per span.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class JaegerDocumentBenchmark {
+
+    private static final String INDEX_PREFIX = "zipkin_jaeger_span_";
+
+    private final WriteEsService writeEsService = new WriteEsService();
+
+    private final DayStamp dayStamp = new DayStamp("yyyy.MM.dd");
+
+    private TSpanData span;
+
+    @Setup
+    public void setup() {
+        span = sampleSpan();
+    }
+
+    @Benchmark
+    public IndexRequest legacy() {
+        String index = INDEX_PREFIX + new SimpleDateFormat("yyyy.MM.dd").format(new Date());
+        JSONObject jsonObject = JSONObject.parseObject(writeEsService.buildJaegerES(span));
+        return new IndexRequest(index).source(jsonObject);
+    }
+
+    @Benchmark
+    public IndexRequest direct() {
+        String index = INDEX_PREFIX + dayStamp.now();
+        return new IndexRequest(index).source(JaegerDocumentEncoder.get().encode(span), XContentType.JSON);
+    }
+
+    private static TSpanData sampleSpan() {
+        TSpanData span = new TSpanData();
+        span.setTraceId("4bf92f3577b34da6a3ce929d0e0e4736");
+        span.setSpanId("00f067aa0ba902b7");
+        span.setName("/api/order/get");
+        span.setKind(TKind.SERVER);
+        long start = System.currentTimeMillis() * 1000_000L;
+        span.setStartEpochNanos(start);
+        span.setEndEpochNanos(start + 12_000_000L);
+        span.setStatus(TStatus.OK);
+        span.setParentSpanContext(new TSpanContext().setTraceId("4bf92f3577b34da6a3ce929d0e0e4736").setSpanId("00f067aa0ba90200"));
+        span.setExtra(new TExtra().setServiceName("1-demo").setIp("10.0.0.1").setHostname("demo-7d9f"));
+        span.setAttributes(attributes("http.method", "GET", "http.url", "http://demo/api/order/get?id=1",
+                "http.status_code", "200", "span.kind", "server", "thread.name", "http-nio-8080-exec-1",
+                "db.statement", "select * from orders##n where id = ##r'1##r'##n limit 1",
+                "exception.stacktrace", "java.lang.IllegalStateException: boom##n##tat demo.Order.get(Order.java:12)##n##tat demo.Api.get(Api.java:40)"));
+        span.setResouce(new TResource().setAttributes(attributes("service.env", "staging", "service.env.id", "1",
+                "telemetry.sdk.language", "java", "telemetry.sdk.version", "1.0.0")));
+        List<TEvent> events = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            events.add(new TEvent().setName("log").setEpochNanos(start + i)
+                    .setAttributes(attributes("message", "order " + i + " loaded from cache")));
+        }
+        span.setEvents(events);
+        return span;
+    }
+
+    private static TAttributes attributes(String... keyValues) {
+        List<TAttributeKey> keys = new ArrayList<>();
+        List<TValue> values = new ArrayList<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            keys.add(new TAttributeKey().setValue(keyValues[i]).setType(TAttributeType.STRING));
+            values.add(new TValue().setStringValue(keyValues[i + 1]));
+        }
+        return new TAttributes().setKeys(keys).setValues(values);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JaegerDocumentBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
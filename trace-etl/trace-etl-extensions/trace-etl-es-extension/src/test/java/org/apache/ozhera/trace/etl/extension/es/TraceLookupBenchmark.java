@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.extension.es;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trace by id over a synthetic 30 day index set kept in memory: every daily span index is a set of segments with a
+ * sorted term dictionary of traceIds, probed the way a term query probes each segment, against the lookup
+ * side-index probe followed by the single span index it names. {@link #record} is the writer side cost per span.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class TraceLookupBenchmark {
+
+    private static final int DAYS = 30;
+
+    @Param({"200000"})
+    private int tracesPerDay;
+
+    @Param({"20"})
+    private int segmentsPerIndex;
+
+    private String[] days;
+
+    /**
+     * day, segment, sorted traceIds
+     */
+    private String[][][] spanIndices;
+
+    private Map<String, Map<String, String>> lookupIndices;
+
+    private String[] queries;
+
+    private int next;
+
+    private TraceLookupWriter writer;
+
+    private String[] spanTraceIds;
+
+    private long spanStartTime;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(7);
+        days = new String[DAYS];
+        spanIndices = new String[DAYS][segmentsPerIndex][];
+        lookupIndices = new HashMap<>();
+        List<String> sample = new ArrayList<>();
+        for (int d = 0; d < DAYS; d++) {
+            days[d] = String.format("2024.05.%02d", d + 1);
+            Map<String, String> lookup = new HashMap<>(tracesPerDay * 2);
+            List<List<String>> segments = new ArrayList<>();
+            for (int s = 0; s < segmentsPerIndex; s++) {
+                segments.add(new ArrayList<>());
+            }
+            for (int t = 0; t < tracesPerDay; t++) {
+                String traceId = traceId(random);
+                segments.get(random.nextInt(segmentsPerIndex)).add(traceId);
+                lookup.put(traceId, days[d]);
+                if (t % 1000 == 0) {
+                    sample.add(traceId);
+                }
+            }
+            for (int s = 0; s < segmentsPerIndex; s++) {
+                String[] terms = segments.get(s).toArray(new String[0]);
+                Arrays.sort(terms);
+                spanIndices[d][s] = terms;
+            }
+            lookupIndices.put(days[d], lookup);
+        }
+        queries = sample.toArray(new String[0]);
+        Collections.shuffle(Arrays.asList(queries), random);
+        spanTraceIds = new String[4096];
+        for (int i = 0; i < spanTraceIds.length; i++) {
+            spanTraceIds[i] = traceId(random);
+        }
+        spanStartTime = System.currentTimeMillis() * 1000;
+        writer = new TraceLookupWriter("hera-trace-lookup", 1_000_000, request -> {
+        });
+    }
+
+    @Benchmark
+    public int scanAllIndices() {
+        String traceId = nextQuery();
+        int found = 0;
+        for (int d = 0; d < DAYS; d++) {
+            found += searchIndex(d, traceId);
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int lookupThenSearch() {
+        String traceId = nextQuery();
+        int found = 0;
+        for (int d = 0; d < DAYS; d++) {
+            String day = lookupIndices.get(days[d]).get(traceId);
+            if (day != null) {
+                found += searchIndex(d, traceId);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Eight spans per trace, flushed every 4096 spans as the timer would.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int record() {
+        int i = next++;
+        writer.record(spanTraceIds[(i >>> 3) & (spanTraceIds.length - 1)], days[0], spanStartTime + (i & 7));
+        if ((i & 4095) == 4095) {
+            return writer.flush();
+        }
+        return 0;
+    }
+
+    private int searchIndex(int day, String traceId) {
+        int found = 0;
+        for (String[] segment : spanIndices[day]) {
+            if (Arrays.binarySearch(segment, traceId) >= 0) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private String nextQuery() {
+        return queries[next++ % queries.length];
+    }
+
+    private static String traceId(Random random) {
+        return Long.toHexString(random.nextLong() | Long.MIN_VALUE) + Long.toHexString(random.nextLong() | Long.MIN_VALUE);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TraceLookupBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
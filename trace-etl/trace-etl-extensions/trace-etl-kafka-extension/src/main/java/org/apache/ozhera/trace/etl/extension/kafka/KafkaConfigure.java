@@ -20,14 +20,13 @@
 package org.apache.ozhera.trace.etl.extension.kafka;
 
 import org.apache.ozhera.trace.etl.bo.MqConfig;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
 
 import java.util.Properties;
 
 public interface KafkaConfigure {
 
-    Properties createProducerProperties(MqConfig<ConsumerRecords<String, String>> config);
+    Properties createProducerProperties(MqConfig<?> config);
 
-    Properties createConsumerProperties(MqConfig<ConsumerRecords<String, String>> config);
+    Properties createConsumerProperties(MqConfig<?> config);
 
 }
\ No newline at end of file
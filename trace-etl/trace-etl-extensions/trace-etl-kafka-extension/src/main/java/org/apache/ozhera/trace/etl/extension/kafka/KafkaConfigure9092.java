@@ -22,7 +22,6 @@ package org.apache.ozhera.trace.etl.extension.kafka;
 import com.alibaba.nacos.api.config.annotation.NacosValue;
 import org.apache.ozhera.trace.etl.bo.MqConfig;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.producer.ProducerConfig;
 
 import java.util.Properties;
@@ -33,7 +32,7 @@ public class KafkaConfigure9092 implements KafkaConfigure {
     private int kafkaPollRecords;
 
     @Override
-    public Properties createProducerProperties(MqConfig<ConsumerRecords<String, String>> config) {
+    public Properties createProducerProperties(MqConfig<?> config) {
         Properties props = new Properties();
         //设置接入点，请通过控制台获取对应Topic的接入点
         props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, config.getNameSerAddr());
@@ -53,7 +52,7 @@ public class KafkaConfigure9092 implements KafkaConfigure {
     }
 
     @Override
-    public Properties createConsumerProperties(MqConfig<ConsumerRecords<String, String>> config) {
+    public Properties createConsumerProperties(MqConfig<?> config) {
         Properties props = new Properties();
         //设置接入点，请通过控制台获取对应Topic的接入点
         props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, config.getNameSerAddr());
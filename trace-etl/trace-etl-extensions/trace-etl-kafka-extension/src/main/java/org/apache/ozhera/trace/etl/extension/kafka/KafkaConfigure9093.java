@@ -24,7 +24,6 @@ import org.apache.ozhera.trace.etl.bo.MqConfig;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.kafka.clients.CommonClientConfigs;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.config.SaslConfigs;
 import org.apache.kafka.common.config.SslConfigs;
@@ -68,7 +67,7 @@ public class KafkaConfigure9093 implements KafkaConfigure {
 
 
     @Override
-    public Properties createProducerProperties(MqConfig<ConsumerRecords<String, String>> config) {
+    public Properties createProducerProperties(MqConfig<?> config) {
         //设置sasl文件的路径
         configureSasl();
 
@@ -113,7 +112,7 @@ public class KafkaConfigure9093 implements KafkaConfigure {
     }
 
     @Override
-    public Properties createConsumerProperties(MqConfig<ConsumerRecords<String, String>> config) {
+    public Properties createConsumerProperties(MqConfig<?> config) {
         //设置sasl文件的路径
         configureSasl();
 
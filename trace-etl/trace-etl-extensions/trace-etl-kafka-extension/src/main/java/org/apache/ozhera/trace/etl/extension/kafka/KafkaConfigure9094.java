@@ -24,7 +24,6 @@ import org.apache.ozhera.trace.etl.bo.MqConfig;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.kafka.clients.CommonClientConfigs;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.config.SaslConfigs;
 
@@ -88,7 +87,7 @@ public class KafkaConfigure9094 implements KafkaConfigure {
     }
 
     @Override
-    public Properties createProducerProperties(MqConfig<ConsumerRecords<String, String>> config) {
+    public Properties createProducerProperties(MqConfig<?> config) {
         //设置sasl文件的路径,区分plain和scram
         configureSaslPlain();
 
@@ -115,7 +114,7 @@ public class KafkaConfigure9094 implements KafkaConfigure {
     }
 
     @Override
-    public Properties createConsumerProperties(MqConfig<ConsumerRecords<String, String>> config) {
+    public Properties createConsumerProperties(MqConfig<?> config) {
         //设置sasl文件的路径,区分plain和scram
         configureSaslPlain();
 
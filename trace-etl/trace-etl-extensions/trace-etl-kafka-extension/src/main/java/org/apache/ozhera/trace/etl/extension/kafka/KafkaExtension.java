@@ -24,19 +24,25 @@ import org.apache.ozhera.trace.etl.api.service.MQExtension;
 import org.apache.ozhera.trace.etl.bo.MqConfig;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 
 @Service
@@ -57,22 +63,78 @@ public class KafkaExtension implements MQExtension<ProducerRecord<String, String
     @Autowired
     private KafkaConfigure kafkaConfigure;
 
+    /**
+     * Consume the partitions in parallel with {@link PartitionedConsumer} and commit the offsets manually,
+     * otherwise one thread polls and consumes with the client auto commit.
+     */
+    @Value("${mq.consumer.parallel:false}")
+    private boolean parallel;
+
+    @Value("${mq.consumer.workers:0}")
+    private int workers;
+
+    /**
+     * Records queued per partition before it is paused.
+     */
+    @Value("${mq.consumer.partition.queue:2000}")
+    private int partitionQueueCapacity;
+
+    @Value("${mq.consumer.virtual.threads:false}")
+    private boolean virtualThreads;
+
+    @Value("${mq.consumer.commit.interval.ms:1000}")
+    private long commitIntervalMillis;
+
+    /**
+     * How long a revoked partition waits for its batch in flight before the offsets are committed.
+     */
+    @Value("${mq.consumer.revoke.timeout.ms:10000}")
+    private long revokeTimeoutMillis;
+
+    /**
+     * Attempts of a failed batch before it is skipped.
+     */
+    @Value("${mq.consumer.retry.times:3}")
+    private int retryTimes;
+
+    private final List<PartitionedConsumer<?>> partitionedConsumers = new CopyOnWriteArrayList<>();
+
     private KafkaProducer<String, String> producer;
 
     private String topic;
 
     private KafkaConsumer<String, String> consumer;
 
+    private KafkaProducer<String, byte[]> bytesProducer;
+
+    private KafkaConsumer<String, byte[]> bytesConsumer;
+
     @Override
     public void initMq(MqConfig<ConsumerRecords<String, String>> config) {
         log.info("init rocketmq");
         if (StringUtils.isNotEmpty(config.getProducerTopicName())) {
-            initProducer(config);
+            producer = createProducer(config, null);
+            topic = config.getProducerTopicName();
+        }
+        consumer = createConsumer(config, null);
+        startConsumer(consumer, config);
+    }
+
+    /**
+     * Same as {@link #initMq(MqConfig)}, with the record values kept as the bytes on the wire:
+     * no String is decoded on poll and the forwarded values are sent back unchanged.
+     */
+    public void initBytesMq(MqConfig<ConsumerRecords<String, byte[]>> config) {
+        log.info("init kafka with byte array values");
+        if (StringUtils.isNotEmpty(config.getProducerTopicName())) {
+            bytesProducer = createProducer(config, ByteArraySerializer.class.getName());
+            topic = config.getProducerTopicName();
         }
-        initConsumer(config);
+        bytesConsumer = createConsumer(config, ByteArrayDeserializer.class.getName());
+        startConsumer(bytesConsumer, config);
     }
 
-    private void initProducer(MqConfig<ConsumerRecords<String, String>> config) {
+    private <V> KafkaProducer<String, V> createProducer(MqConfig<?> config, String valueSerializer) {
         try {
             log.info("init producer start ...");
 
@@ -83,57 +145,81 @@ public class KafkaExtension implements MQExtension<ProducerRecord<String, String
             props.put(ProducerConfig.LINGER_MS_CONFIG, 1000);
             props.put(ProducerConfig.BUFFER_MEMORY_CONFIG, 33554432);
             props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+            if (valueSerializer != null) {
+                props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, valueSerializer);
+            }
 
-            producer = new KafkaProducer<>(props);
-
-            topic = config.getProducerTopicName();
+            KafkaProducer<String, V> kafkaProducer = new KafkaProducer<>(props);
 
             log.info("init producer end ...");
+            return kafkaProducer;
         } catch (Throwable ex) {
             log.error("init producer error", ex);
             throw new RuntimeException(ex);
         }
     }
 
-    private void initConsumer(MqConfig<ConsumerRecords<String, String>> config) {
+    private <V> KafkaConsumer<String, V> createConsumer(MqConfig<?> config, String valueDeserializer) {
         try {
             // initializing rocketmq consumer
             log.info("init consumer start ...");
 
             Properties props = kafkaConfigure.createConsumerProperties(config);
             props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+            if (valueDeserializer != null) {
+                props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, valueDeserializer);
+            }
+            if (parallel) {
+                // committed by PartitionedConsumer once the records are consumed
+                props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+            }
 
             //构造消息对象，也即生成一个消费实例
-            consumer = new KafkaConsumer<>(props);
+            KafkaConsumer<String, V> kafkaConsumer = new KafkaConsumer<>(props);
+            if (parallel) {
+                return kafkaConsumer;
+            }
             //设置消费组订阅的Topic，可以订阅多个
             //如果GROUP_ID_CONFIG是一样，则订阅的Topic也建议设置成一样
             List<String> subscribedTopics = new ArrayList<String>();
             //如果需要订阅多个Topic，则在这里add进去即可
             //每个Topic需要先在控制台进行创建
             subscribedTopics.add(config.getConsumerTopicName());
-            consumer.subscribe(subscribedTopics);
-
-            Executors.newSingleThreadExecutor().submit(() -> {
-                while (true) {
-                    consumer(config);
-                }
-            });
-            log.info("init consumer end ...");
+            kafkaConsumer.subscribe(subscribedTopics);
+            return kafkaConsumer;
         } catch (Throwable ex) {
             log.error("init error", ex);
             throw new RuntimeException(ex);
         }
     }
 
+    private <V> void startConsumer(KafkaConsumer<String, V> kafkaConsumer, MqConfig<ConsumerRecords<String, V>> config) {
+        if (parallel) {
+            int workerCount = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+            PartitionedConsumer<V> partitionedConsumer = new PartitionedConsumer<>(kafkaConsumer, config.getConsumerTopicName(),
+                    config.getConsumerMethod(), workerCount, partitionQueueCapacity, virtualThreads, commitIntervalMillis, revokeTimeoutMillis, retryTimes);
+            partitionedConsumer.start();
+            partitionedConsumers.add(partitionedConsumer);
+            log.info("init partitioned consumer end ...");
+            return;
+        }
+        Executors.newSingleThreadExecutor().submit(() -> {
+            while (true) {
+                consumer(kafkaConsumer, config);
+            }
+        });
+        log.info("init consumer end ...");
+    }
+
+    private <V> void consumer(KafkaConsumer<String, V> kafkaConsumer, MqConfig<ConsumerRecords<String, V>> config) {
+        try {
+            ConsumerRecords<String, V> records = kafkaConsumer.poll(1000);
+            config.getConsumerMethod().apply(records);
+        } catch (Throwable t) {
+            log.error("consumer message error , ", t);
+        }
+    }
 
-     private void consumer(MqConfig<ConsumerRecords<String, String>> config){
-         try {
-             ConsumerRecords<String, String> records = consumer.poll(1000);
-             config.getConsumerMethod().apply(records);
-         } catch (Throwable t) {
-             log.error("consumer message error , ", t);
-         }
-     }
     @Override
     public void send(ProducerRecord<String, String> message) {
         send(Collections.singletonList(message));
@@ -151,9 +237,26 @@ public class KafkaExtension implements MQExtension<ProducerRecord<String, String
         }
     }
 
+    public void sendBytes(List<ProducerRecord<String, byte[]>> messages) {
+        try {
+            for (ProducerRecord<String, byte[]> message : messages) {
+                bytesProducer.send(message);
+            }
+        } catch (Throwable t) {
+            log.error("send message error, ", t);
+        }
+    }
+
     @Override
     public void sendByTraceId(String traceId, ProducerRecord<String, String> message) {
 
     }
 
+    @PreDestroy
+    public void destroy() {
+        for (PartitionedConsumer<?> partitionedConsumer : partitionedConsumers) {
+            partitionedConsumer.stop();
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,531 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.extension.kafka;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.ozhera.trace.etl.util.SelfMetricsRegistry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Polls one {@link KafkaConsumer} and hands the records of every partition to a bounded per partition queue.
+ * <p>
+ * A partition is served by at most one worker at a time, so the records of a partition are consumed in order
+ * while the partitions run in parallel. With virtual threads every partition gets its own thread, but no more than
+ * workers batches are consumed at once, as with the fixed pool. A worker consumes one batch per turn and queues the partition again behind
+ * the others, so a busy partition does not starve the rest. Each batch reaches the consumer method as a single
+ * partition {@link ConsumerRecords}, the existing methods are used unchanged.
+ * <p>
+ * A partition whose queue is full is paused and resumed once it is back under half the capacity.
+ * Offsets are committed manually from the poll thread and only up to the last record whose batch was consumed,
+ * so on a rebalance the new owner starts from the first record that was not consumed here.
+ * A batch that failed, by an exception or a false result, is fetched again by seeking the partition back to it,
+ * up to retryTimes attempts before it is skipped with an error log.
+ * <p>
+ * {@link KafkaConsumer} is not thread safe: every call on it stays on the poll thread.
+ */
+@Slf4j
+public class PartitionedConsumer<V> {
+
+    private static final long POLL_MILLIS = 100;
+
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+
+    private static final String LAG_METRIC = "records-lag";
+
+    private final KafkaConsumer<String, V> consumer;
+
+    private final String topic;
+
+    private final Function<ConsumerRecords<String, V>, Boolean> consumerMethod;
+
+    private final int queueCapacity;
+
+    private final int workers;
+
+    private final long commitIntervalMillis;
+
+    private final long revokeTimeoutMillis;
+
+    private final int retryTimes;
+
+    private final ExecutorService workerPool;
+
+    /**
+     * Bounds the batches consumed at once to workers, null when the fixed pool already does.
+     */
+    private final Semaphore virtualPermits;
+
+    private final Map<TopicPartition, PartitionWork> works = new ConcurrentHashMap<>();
+
+    private final Set<TopicPartition> paused = new HashSet<>();
+
+    private final LongAdder busyNanos = new LongAdder();
+
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    private long lastCommitMillis;
+
+    private Thread pollThread;
+
+    public PartitionedConsumer(KafkaConsumer<String, V> consumer, String topic, Function<ConsumerRecords<String, V>, Boolean> consumerMethod,
+                               int workers, int queueCapacity, boolean virtualThreads, long commitIntervalMillis, long revokeTimeoutMillis,
+                               int retryTimes) {
+        this.consumer = consumer;
+        this.topic = topic;
+        this.consumerMethod = consumerMethod;
+        this.workers = Math.max(1, workers);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.commitIntervalMillis = commitIntervalMillis;
+        this.revokeTimeoutMillis = revokeTimeoutMillis;
+        this.retryTimes = Math.max(1, retryTimes);
+        this.workerPool = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("kafka-partition-" + topic + "-", 0).factory())
+                : Executors.newFixedThreadPool(this.workers, Thread.ofPlatform().daemon().name("kafka-partition-" + topic + "-", 0).factory());
+        this.virtualPermits = virtualThreads ? new Semaphore(this.workers) : null;
+    }
+
+    public void start() {
+        consumer.subscribe(Collections.singletonList(topic), new RebalanceListener());
+        pollThread = Thread.ofPlatform().name("kafka-poll-" + topic).start(this::pollLoop);
+        ConsumerMetrics.INSTANCE.add(this);
+        log.info("partitioned consumer topic:{} workers:{} queue capacity:{}", topic, workers, queueCapacity);
+    }
+
+    public void stop() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        consumer.wakeup();
+        try {
+            pollThread.join(revokeTimeoutMillis + TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workerPool.shutdown();
+        ConsumerMetrics.INSTANCE.remove(this);
+    }
+
+    private void pollLoop() {
+        try {
+            while (running.get()) {
+                try {
+                    pollOnce();
+                } catch (WakeupException e) {
+                    // stop() wakes the poll up, the loop condition decides
+                } catch (Throwable t) {
+                    log.error("partitioned consumer poll error, topic: {}", topic, t);
+                }
+            }
+            for (PartitionWork work : works.values()) {
+                work.close(revokeTimeoutMillis);
+            }
+            commitSync(committable(works.values()));
+        } finally {
+            consumer.close();
+        }
+    }
+
+    private void pollOnce() {
+        ConsumerRecords<String, V> records = consumer.poll(Duration.ofMillis(POLL_MILLIS));
+        for (TopicPartition partition : records.partitions()) {
+            PartitionWork work = works.get(partition);
+            if (work == null || work.retryOffset >= 0) {
+                // revoked between the fetch and this poll returning, or fetched again after the seek back
+                continue;
+            }
+            List<ConsumerRecord<String, V>> batch = records.records(partition);
+            work.enqueue(batch);
+            if (work.depth.get() >= queueCapacity && paused.add(partition)) {
+                work.paused = true;
+                consumer.pause(Collections.singletonList(partition));
+            }
+        }
+        seekFailed();
+        if (!paused.isEmpty()) {
+            List<TopicPartition> resume = new ArrayList<>();
+            for (TopicPartition partition : paused) {
+                PartitionWork work = works.get(partition);
+                if (work == null || (work.retryOffset < 0 && work.depth.get() <= queueCapacity / 2)) {
+                    resume.add(partition);
+                    if (work != null) {
+                        work.paused = false;
+                    }
+                }
+            }
+            if (!resume.isEmpty()) {
+                resume.forEach(paused::remove);
+                resume.removeIf(partition -> !works.containsKey(partition));
+                consumer.resume(resume);
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastCommitMillis >= commitIntervalMillis) {
+            lastCommitMillis = now;
+            Map<TopicPartition, OffsetAndMetadata> offsets = committable(works.values());
+            if (!offsets.isEmpty()) {
+                consumer.commitAsync(offsets, (committed, e) -> {
+                    if (e != null) {
+                        log.warn("commit offsets error, topic: {}, offsets: {}", topic, committed, e);
+                    }
+                });
+            }
+            updateLag();
+        }
+    }
+
+    /**
+     * Seek the partitions with a failed batch back to it once their worker stopped and the backoff passed,
+     * the partition is paused meanwhile and what was queued after the batch is dropped to be fetched again.
+     */
+    private void seekFailed() {
+        for (PartitionWork work : works.values()) {
+            long offset = work.retryOffset;
+            if (offset < 0 || work.scheduled.get()) {
+                continue;
+            }
+            if (paused.add(work.partition)) {
+                work.paused = true;
+                consumer.pause(Collections.singletonList(work.partition));
+            }
+            if (System.currentTimeMillis() < work.retryAtMillis) {
+                continue;
+            }
+            work.batches.clear();
+            work.depth.set(0);
+            consumer.seek(work.partition, offset);
+            work.retryOffset = -1;
+        }
+    }
+
+    /**
+     * Next offsets to commit, only for the partitions that moved since their last commit.
+     */
+    private Map<TopicPartition, OffsetAndMetadata> committable(Collection<PartitionWork> candidates) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (PartitionWork work : candidates) {
+            long next = work.nextOffset;
+            if (next >= 0 && next > work.committedOffset) {
+                offsets.put(work.partition, new OffsetAndMetadata(next));
+                work.committedOffset = next;
+            }
+        }
+        return offsets;
+    }
+
+    private void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        if (offsets.isEmpty()) {
+            return;
+        }
+        try {
+            consumer.commitSync(offsets);
+        } catch (Throwable t) {
+            log.error("commit offsets error, topic: {}, offsets: {}", topic, offsets, t);
+        }
+    }
+
+    /**
+     * The fetch lag of the client, behind the fetch position, plus what was fetched and not yet consumed.
+     */
+    private void updateLag() {
+        for (Map.Entry<MetricName, ? extends Metric> entry : consumer.metrics().entrySet()) {
+            MetricName name = entry.getKey();
+            if (!LAG_METRIC.equals(name.name())) {
+                continue;
+            }
+            String partition = name.tags().get("partition");
+            if (partition == null) {
+                continue;
+            }
+            PartitionWork work = works.get(new TopicPartition(topic, Integer.parseInt(partition)));
+            Object value = entry.getValue().metricValue();
+            if (work != null && value instanceof Number) {
+                double lag = ((Number) value).doubleValue();
+                work.fetchLag = Double.isNaN(lag) ? 0 : (long) lag;
+            }
+        }
+    }
+
+    private class RebalanceListener implements ConsumerRebalanceListener {
+
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            List<PartitionWork> revoked = new ArrayList<>(partitions.size());
+            for (TopicPartition partition : partitions) {
+                PartitionWork work = works.remove(partition);
+                paused.remove(partition);
+                if (work != null) {
+                    work.close(revokeTimeoutMillis);
+                    revoked.add(work);
+                }
+            }
+            commitSync(committable(revoked));
+            log.info("partitions revoked, topic: {}, partitions: {}", topic, partitions);
+        }
+
+        @Override
+        public void onPartitionsLost(Collection<TopicPartition> partitions) {
+            // already owned by another member, whatever was consumed here is redelivered there
+            for (TopicPartition partition : partitions) {
+                PartitionWork work = works.remove(partition);
+                paused.remove(partition);
+                if (work != null) {
+                    work.close(0);
+                }
+            }
+            log.warn("partitions lost, topic: {}, partitions: {}", topic, partitions);
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            for (TopicPartition partition : partitions) {
+                works.put(partition, new PartitionWork(partition));
+            }
+            log.info("partitions assigned, topic: {}, partitions: {}", topic, partitions);
+        }
+    }
+
+    private class PartitionWork implements Runnable {
+
+        private final TopicPartition partition;
+
+        private final ConcurrentLinkedQueue<List<ConsumerRecord<String, V>>> batches = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger depth = new AtomicInteger();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private volatile boolean closed;
+
+        /**
+         * Offset after the last record of the last consumed batch, batches complete in order.
+         */
+        private volatile long nextOffset = -1;
+
+        /**
+         * First offset of a failed batch the poll thread has to seek back to, -1 if none.
+         */
+        private volatile long retryOffset = -1;
+
+        private volatile long retryAtMillis;
+
+        /**
+         * Only touched by the worker.
+         */
+        private long attemptOffset = -1;
+
+        private int attempts;
+
+        /**
+         * Only touched by the poll thread.
+         */
+        private long committedOffset = -1;
+
+        private volatile long fetchLag;
+
+        private volatile boolean paused;
+
+        PartitionWork(TopicPartition partition) {
+            this.partition = partition;
+        }
+
+        void enqueue(List<ConsumerRecord<String, V>> batch) {
+            depth.addAndGet(batch.size());
+            batches.add(batch);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                workerPool.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!closed && retryOffset < 0) {
+                    if (virtualPermits != null) {
+                        virtualPermits.acquireUninterruptibly();
+                    }
+                    // waiting for a permit is not busy time
+                    long start = System.nanoTime();
+                    try {
+                        List<ConsumerRecord<String, V>> batch;
+                        if (!closed && (batch = batches.poll()) != null) {
+                            consume(batch);
+                        }
+                    } finally {
+                        busyNanos.add(System.nanoTime() - start);
+                        if (virtualPermits != null) {
+                            virtualPermits.release();
+                        }
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    scheduled.set(false);
+                    notifyAll();
+                }
+            }
+            if (!closed && retryOffset < 0 && !batches.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void consume(List<ConsumerRecord<String, V>> batch) {
+            long first = batch.get(0).offset();
+            long last = batch.get(batch.size() - 1).offset();
+            boolean success;
+            try {
+                success = !Boolean.FALSE.equals(consumerMethod.apply(new ConsumerRecords<>(Collections.singletonMap(partition, batch))));
+            } catch (Throwable t) {
+                log.error("consumer message error, partition: {}", partition, t);
+                success = false;
+            }
+            depth.addAndGet(-batch.size());
+            if (!success) {
+                attempts = attemptOffset == first ? attempts + 1 : 1;
+                attemptOffset = first;
+                if (attempts < retryTimes) {
+                    log.warn("consume batch failed, partition: {}, offset: {}, attempt: {}, consume it again", partition, first, attempts);
+                    retryAtMillis = System.currentTimeMillis() + RETRY_BACKOFF_MILLIS;
+                    retryOffset = first;
+                    return;
+                }
+                log.error("consume batch failed {} times, partition: {}, offsets: [{}, {}], skip it", attempts, partition, first, last);
+            }
+            attemptOffset = -1;
+            attempts = 0;
+            nextOffset = last + 1;
+        }
+
+        /**
+         * Drop what is still queued and wait for the batch in flight, so the committed offset is final.
+         */
+        void close(long timeoutMillis) {
+            closed = true;
+            batches.clear();
+            depth.set(0);
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            synchronized (this) {
+                long remaining;
+                while (scheduled.get() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+            if (scheduled.get()) {
+                log.warn("partition batch still running after {}ms, partition: {}", timeoutMillis, partition);
+            }
+        }
+    }
+
+    /**
+     * One collector for every engine of the process, labelled by topic and partition.
+     */
+    private static final class ConsumerMetrics extends Collector {
+
+        private static final ConsumerMetrics INSTANCE = new ConsumerMetrics().register(SelfMetricsRegistry.get());
+
+        private final CopyOnWriteArrayList<PartitionedConsumer<?>> consumers = new CopyOnWriteArrayList<>();
+
+        private final Map<PartitionedConsumer<?>, long[]> lastBusy = new ConcurrentHashMap<>();
+
+        void add(PartitionedConsumer<?> consumer) {
+            consumers.add(consumer);
+            lastBusy.put(consumer, new long[]{consumer.busyNanos.sum(), System.nanoTime()});
+        }
+
+        void remove(PartitionedConsumer<?> consumer) {
+            consumers.remove(consumer);
+            lastBusy.remove(consumer);
+        }
+
+        @Override
+        public List<MetricFamilySamples> collect() {
+            List<String> partitionLabels = Arrays.asList("topic", "partition");
+            GaugeMetricFamily lag = new GaugeMetricFamily("trace_etl_kafka_partition_lag",
+                    "records of the partition not consumed yet", partitionLabels);
+            GaugeMetricFamily depth = new GaugeMetricFamily("trace_etl_kafka_partition_queue_depth",
+                    "records fetched and waiting for a worker", partitionLabels);
+            GaugeMetricFamily paused = new GaugeMetricFamily("trace_etl_kafka_partition_paused",
+                    "1 when the partition is paused by back pressure", partitionLabels);
+            GaugeMetricFamily utilization = new GaugeMetricFamily("trace_etl_kafka_worker_utilization",
+                    "busy share of the workers since the last scrape", Collections.singletonList("topic"));
+            for (PartitionedConsumer<?> consumer : consumers) {
+                for (PartitionedConsumer<?>.PartitionWork work : consumer.works.values()) {
+                    List<String> labels = Arrays.asList(consumer.topic, String.valueOf(work.partition.partition()));
+                    int queued = work.depth.get();
+                    lag.addMetric(labels, work.fetchLag + queued);
+                    depth.addMetric(labels, queued);
+                    paused.addMetric(labels, work.paused ? 1 : 0);
+                }
+                long busy = consumer.busyNanos.sum();
+                long now = System.nanoTime();
+                long[] last = lastBusy.computeIfAbsent(consumer, key -> new long[]{busy, now});
+                double share;
+                synchronized (last) {
+                    long elapsed = now - last[1];
+                    share = elapsed <= 0 ? 0 : Math.min(1, (double) (busy - last[0]) / elapsed / consumer.workers);
+                    last[0] = busy;
+                    last[1] = now;
+                }
+                utilization.addMetric(Collections.singletonList(consumer.topic), share);
+            }
+            return Arrays.asList(lag, depth, paused, utilization);
+        }
+    }
+}
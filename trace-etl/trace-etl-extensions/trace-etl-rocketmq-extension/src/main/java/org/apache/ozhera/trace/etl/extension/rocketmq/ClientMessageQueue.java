@@ -20,88 +20,272 @@
 package org.apache.ozhera.trace.etl.extension.rocketmq;
 
 import org.apache.ozhera.trace.etl.common.HashUtil;
+import org.apache.ozhera.trace.etl.util.SelfMetricsRegistry;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.message.MessageQueue;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 /**
+ * Messages are routed by traceId to one ring per rocketmq queue, see {@link MessageRing}, and sent per queue
+ * in batches. Enqueue never waits on a slow queue, a full ring is handled by the {@link OverflowPolicy}.
+ * The routes are an array replaced as a whole, only when the queues fetched from the broker changed.
+ *
  * @Description
  * @Author dingtao
  * @Date 2022/11/6 4:27 下午
  */
 @Slf4j
 public class ClientMessageQueue {
-    public List<ClientMessageQueueWrapper> clientMessageQueues = new CopyOnWriteArrayList<>();
 
-    private volatile int rocketMQQueueSize;
+    private static final ClientMessageQueueWrapper[] NO_QUEUES = new ClientMessageQueueWrapper[0];
+
+    private final static int FETCH_ROCKETMQ_QUEUE_GAP = 10;
 
-    private RocketMQExtension producer;
+    private volatile ClientMessageQueueWrapper[] clientMessageQueues = NO_QUEUES;
 
-    private static final int CLIENT_QUEUE_SIZE = 2000;
+    private final BiConsumer<List<MessageExt>, MessageQueue> sender;
 
-    private final static int FETCH_ROCKETMQ_QUEUE_GAP = 10;
+    private final Supplier<List<MessageQueue>> queueFetcher;
+
+    @Getter
+    private final int queueSize;
+
+    @Getter
+    private final int batchSize;
+
+    @Getter
+    private final long lingerMillis;
+
+    @Getter
+    private final OverflowPolicy overflowPolicy;
+
+    @Getter
+    private final String spillPath;
+
+    private Runnable pauseConsumer = () -> {
+    };
+
+    private Runnable resumeConsumer = () -> {
+    };
+
+    private final AtomicBoolean paused = new AtomicBoolean();
+
+    private ScheduledThreadPoolExecutor fetchQueueExecutor;
 
-    public ClientMessageQueue(RocketMQExtension producer) {
-        this.producer = producer;
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+    private final AtomicLong spilledMessages = new AtomicLong();
+
+    private final AtomicLong pauses = new AtomicLong();
+
+    private final AtomicLong sentMessages = new AtomicLong();
+
+    private final AtomicLong sentBatches = new AtomicLong();
+
+    public ClientMessageQueue(RocketMQExtension producer, int queueSize, int batchSize, long lingerMillis,
+                              OverflowPolicy overflowPolicy, String spillPath) {
+        this(producer::send, producer::fetchMessageQueue, queueSize, batchSize, lingerMillis, overflowPolicy, spillPath);
+    }
+
+    ClientMessageQueue(BiConsumer<List<MessageExt>, MessageQueue> sender, Supplier<List<MessageQueue>> queueFetcher,
+                       int queueSize, int batchSize, long lingerMillis, OverflowPolicy overflowPolicy, String spillPath) {
+        this.sender = sender;
+        this.queueFetcher = queueFetcher;
+        this.queueSize = queueSize;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.overflowPolicy = overflowPolicy;
+        this.spillPath = spillPath;
     }
 
-    public void setRocketMQQueueSize(int size) {
-        rocketMQQueueSize = size;
+    /**
+     * Used by {@link OverflowPolicy#PAUSE}, the consumer is suspended when a ring is full.
+     */
+    public void setConsumerControl(Runnable pause, Runnable resume) {
+        this.pauseConsumer = pause;
+        this.resumeConsumer = resume;
     }
 
     public void checkClientQueue(List<MessageQueue> queueList) {
         if (queueList == null || queueList.size() == 0) {
             return;
         }
+        ClientMessageQueueWrapper[] current = clientMessageQueues;
+        if (sameQueues(current, queueList)) {
+            return;
+        }
+        Map<MessageQueue, ClientMessageQueueWrapper> existing = new HashMap<>(current.length * 2);
+        for (ClientMessageQueueWrapper wrapper : current) {
+            existing.put(wrapper.getRocketMQMessageQueue(), wrapper);
+        }
         // If the local message queue is missing, add it
-        queueList.stream()
-                .filter(i -> !clientMessageQueues.stream().anyMatch(j -> j.getRocketMQMessageQueue().equals(i)))
-                .forEach(queue -> clientMessageQueues.add(new ClientMessageQueueWrapper(queue, new ArrayBlockingQueue<>(CLIENT_QUEUE_SIZE), producer)));
-
-        setRocketMQQueueSize(queueList.size());
-
-        // If the local message queue is extra, it will be destroyed
-        List<ClientMessageQueueWrapper> collect = clientMessageQueues.stream()
-                .filter(i -> !queueList.contains(i.getRocketMQMessageQueue()))
-                .collect(Collectors.toList());
-
-        clientMessageQueues.stream()
-                .filter(i -> !queueList.contains(i.getRocketMQMessageQueue()))
-                .forEach(clientMessageQueues::remove);
+        ClientMessageQueueWrapper[] next = new ClientMessageQueueWrapper[queueList.size()];
+        for (int i = 0; i < next.length; i++) {
+            MessageQueue queue = queueList.get(i);
+            ClientMessageQueueWrapper wrapper = existing.remove(queue);
+            next[i] = wrapper != null ? wrapper : new ClientMessageQueueWrapper(queue, this);
+        }
+        clientMessageQueues = next;
+        // If the local message queue is extra, it will be destroyed once the messages already routed to it are sent
+        existing.values().forEach(ClientMessageQueueWrapper::stopExport);
+        log.info("client queues changed from {} to {}, stopped: {}", current.length, next.length, existing.size());
+    }
 
-        collect.forEach(ClientMessageQueueWrapper::stopExport);
+    private static boolean sameQueues(ClientMessageQueueWrapper[] current, List<MessageQueue> queueList) {
+        if (current.length != queueList.size()) {
+            return false;
+        }
+        for (int i = 0; i < current.length; i++) {
+            if (!current[i].getRocketMQMessageQueue().equals(queueList.get(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public void enqueue(String traceId, MessageExt message) {
         try {
-            // hash by traceId
-            int i = HashUtil.consistentHash(traceId, rocketMQQueueSize);
-            ClientMessageQueueWrapper clientMessageQueueWrapper = clientMessageQueues.get(i);
-            clientMessageQueueWrapper.getClientMessageQueue().put(message);
+            while (true) {
+                ClientMessageQueueWrapper[] queues = clientMessageQueues;
+                if (queues.length == 0) {
+                    droppedMessages.incrementAndGet();
+                    log.error("client queue enqueue error : no rocketmq queue fetched yet");
+                    return;
+                }
+                // hash by traceId
+                ClientMessageQueueWrapper clientMessageQueueWrapper = queues[HashUtil.consistentHash(traceId, queues.length)];
+                if (!clientMessageQueueWrapper.isRunning()) {
+                    // removed by a concurrent check, read the new routes
+                    continue;
+                }
+                if (clientMessageQueueWrapper.offer(message)) {
+                    return;
+                }
+                if (overflowPolicy == OverflowPolicy.PAUSE) {
+                    // the consumer stops pulling, what it already pulled is held by the queue
+                    pause();
+                    clientMessageQueueWrapper.hold(message);
+                    return;
+                }
+                if (overflowPolicy == OverflowPolicy.SPILL && clientMessageQueueWrapper.spill(message)) {
+                    spilledMessages.incrementAndGet();
+                    return;
+                }
+                droppedMessages.incrementAndGet();
+                return;
+            }
         } catch (Throwable t) {
             log.error("client queue enqueue error : ", t);
         }
     }
 
+    void send(List<MessageExt> messages, MessageQueue queue) {
+        sender.accept(messages, queue);
+        sentMessages.addAndGet(messages.size());
+        sentBatches.incrementAndGet();
+    }
+
+    private void pause() {
+        if (paused.compareAndSet(false, true)) {
+            pauses.incrementAndGet();
+            log.warn("client queue full, suspend consumer");
+            pauseConsumer.run();
+        }
+    }
+
+    /**
+     * Resume the consumer once every ring is back under half its capacity.
+     */
+    void resumeIfDrained() {
+        if (!paused.get()) {
+            return;
+        }
+        for (ClientMessageQueueWrapper wrapper : clientMessageQueues) {
+            if (wrapper.size() > wrapper.capacity() / 2) {
+                return;
+            }
+        }
+        if (paused.compareAndSet(true, false)) {
+            log.info("client queues drained, resume consumer");
+            resumeConsumer.run();
+        }
+    }
+
     public void initFetchQueueTask() {
-        new ScheduledThreadPoolExecutor(1).scheduleAtFixedRate(
+        new QueueCollector().register(SelfMetricsRegistry.get());
+        fetchQueueExecutor = new ScheduledThreadPoolExecutor(1);
+        fetchQueueExecutor.scheduleAtFixedRate(
                 () -> {
-                    List<MessageQueue> messageQueues = producer.fetchMessageQueue();
-                    log.info("fetch message queue size : " + messageQueues.size());
+                    List<MessageQueue> messageQueues = queueFetcher.get();
                     if (messageQueues == null || messageQueues.size() == 0) {
                         return;
                     }
+                    log.info("fetch message queue size : " + messageQueues.size());
                     checkClientQueue(messageQueues);
                 },
                 0,
                 FETCH_ROCKETMQ_QUEUE_GAP,
                 TimeUnit.SECONDS);
     }
-}
\ No newline at end of file
+
+    /**
+     * Stop fetching the queues and let every exporter send what its ring holds.
+     */
+    public void shutdown() {
+        if (fetchQueueExecutor != null) {
+            fetchQueueExecutor.shutdown();
+        }
+        ClientMessageQueueWrapper[] current = clientMessageQueues;
+        clientMessageQueues = NO_QUEUES;
+        for (ClientMessageQueueWrapper wrapper : current) {
+            wrapper.stopExport();
+        }
+    }
+
+    private class QueueCollector extends Collector {
+
+        @Override
+        public List<MetricFamilySamples> collect() {
+            List<String> queueLabel = Collections.singletonList("queue");
+            GaugeMetricFamily depth = new GaugeMetricFamily("trace_etl_rocketmq_client_queue_depth",
+                    "messages waiting in the ring of the queue or held while the consumer is suspended", queueLabel);
+            GaugeMetricFamily spillBytes = new GaugeMetricFamily("trace_etl_rocketmq_client_queue_spill_bytes",
+                    "bytes waiting in the spill file of the queue", queueLabel);
+            for (ClientMessageQueueWrapper wrapper : clientMessageQueues) {
+                MessageQueue queue = wrapper.getRocketMQMessageQueue();
+                List<String> labels = Collections.singletonList(queue.getBrokerName() + "-" + queue.getQueueId());
+                depth.addMetric(labels, wrapper.size());
+                spillBytes.addMetric(labels, wrapper.spilledBytes());
+            }
+            return Arrays.asList(depth, spillBytes,
+                    new CounterMetricFamily("trace_etl_rocketmq_client_queue_dropped",
+                            "messages dropped on a full ring", droppedMessages.get()),
+                    new CounterMetricFamily("trace_etl_rocketmq_client_queue_spilled",
+                            "messages spilled to disk on a full ring", spilledMessages.get()),
+                    new CounterMetricFamily("trace_etl_rocketmq_client_queue_pauses",
+                            "times the consumer was suspended on a full ring", pauses.get()),
+                    new CounterMetricFamily("trace_etl_rocketmq_client_queue_sent",
+                            "messages sent by the client queues", sentMessages.get()),
+                    new CounterMetricFamily("trace_etl_rocketmq_client_queue_batches",
+                            "batches sent by the client queues", sentBatches.get()),
+                    new GaugeMetricFamily("trace_etl_rocketmq_client_queue_paused",
+                            "1 while the consumer is suspended by a full ring", paused.get() ? 1 : 0));
+        }
+    }
+}
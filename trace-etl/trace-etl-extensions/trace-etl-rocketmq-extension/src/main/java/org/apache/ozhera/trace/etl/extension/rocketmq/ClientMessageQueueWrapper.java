@@ -23,12 +23,15 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.message.MessageQueue;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @Description
@@ -38,38 +41,123 @@ import java.util.concurrent.Executors;
 @Slf4j
 public class ClientMessageQueueWrapper {
 
-    private MessageQueue rocketMQMessageQueue;
+    /**
+     * Wait of the exporter while the spill file holds messages it could not read yet.
+     */
+    private static final long SPILL_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
 
-    private BlockingQueue<MessageExt> clientMessageQueue;
+    /**
+     * Messages may still be published into the ring by producers that read the queues before it was removed.
+     */
+    private static final long STOP_GRACE_MILLIS = 1000;
 
-    private RocketMQExtension producer;
+    private final MessageQueue rocketMQMessageQueue;
 
-    private ExecutorService executor;
+    private final MessageRing ring;
 
-    private boolean running = true;
+    private final SpillFile spillFile;
 
-    public ClientMessageQueueWrapper(MessageQueue rocketMQMessageQueue, BlockingQueue<MessageExt> clientMessageQueue, RocketMQExtension producer) {
+    private final ClientMessageQueue owner;
+
+    private final Thread exporter;
+
+    /**
+     * Messages that found the ring full under {@link OverflowPolicy#PAUSE}, those the consumer had already pulled
+     * when it was suspended, sent after the ring.
+     */
+    private final ConcurrentLinkedQueue<MessageExt> held = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger heldCount = new AtomicInteger();
+
+    /**
+     * Set by the exporter before it parks, producers only unpark it then.
+     */
+    private volatile boolean idle;
+
+    private volatile boolean running = true;
+
+    private volatile long stopTime;
+
+    public ClientMessageQueueWrapper(MessageQueue rocketMQMessageQueue, ClientMessageQueue owner) {
         this.rocketMQMessageQueue = rocketMQMessageQueue;
-        this.clientMessageQueue = clientMessageQueue;
-        this.producer = producer;
-        startExport();
+        this.owner = owner;
+        this.ring = new MessageRing(owner.getQueueSize());
+        this.spillFile = owner.getOverflowPolicy() == OverflowPolicy.SPILL ? openSpillFile() : null;
+        this.exporter = new Thread(new ClientQueueExporter(),
+                "client-queue-exporter-" + rocketMQMessageQueue.getBrokerName() + "-" + rocketMQMessageQueue.getQueueId());
+        this.exporter.start();
         log.info(rocketMQMessageQueue.getBrokerName() + " - " + rocketMQMessageQueue.getQueueId() + " start");
     }
 
-    public BlockingQueue<MessageExt> getClientMessageQueue() {
-        return clientMessageQueue;
-    }
-
-    public void setClientMessageQueue(BlockingQueue<MessageExt> clientMessageQueue) {
-        this.clientMessageQueue = clientMessageQueue;
+    private SpillFile openSpillFile() {
+        File file = new File(owner.getSpillPath(), rocketMQMessageQueue.getTopic() + "-" + rocketMQMessageQueue.getBrokerName()
+                + "-" + rocketMQMessageQueue.getQueueId() + ".spill");
+        try {
+            return new SpillFile(file);
+        } catch (IOException e) {
+            log.error("open spill file error, overflow messages of {} will be dropped", rocketMQMessageQueue, e);
+            return null;
+        }
     }
 
     public MessageQueue getRocketMQMessageQueue() {
         return rocketMQMessageQueue;
     }
 
-    public void setRocketMQMessageQueue(MessageQueue rocketMQMessageQueue) {
-        this.rocketMQMessageQueue = rocketMQMessageQueue;
+    boolean offer(MessageExt message) {
+        if (!ring.offer(message)) {
+            return false;
+        }
+        wakeExporter();
+        return true;
+    }
+
+    /**
+     * Keep a message the full ring refused while the consumer is suspended, never blocks the caller.
+     */
+    void hold(MessageExt message) {
+        held.offer(message);
+        heldCount.incrementAndGet();
+        wakeExporter();
+    }
+
+    boolean spill(MessageExt message) {
+        if (spillFile == null) {
+            return false;
+        }
+        try {
+            spillFile.append(message);
+            wakeExporter();
+            return true;
+        } catch (IOException e) {
+            log.error("spill message error, queue: {}", rocketMQMessageQueue, e);
+            return false;
+        }
+    }
+
+    private void wakeExporter() {
+        if (idle) {
+            LockSupport.unpark(exporter);
+        }
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Messages waiting in the ring or held.
+     */
+    int size() {
+        return ring.size() + heldCount.get();
+    }
+
+    int capacity() {
+        return ring.capacity();
+    }
+
+    long spilledBytes() {
+        return spillFile == null ? 0 : spillFile.pendingBytes();
     }
 
     @Override
@@ -92,65 +180,96 @@ public class ClientMessageQueueWrapper {
         return rocketMQMessageQueue.hashCode();
     }
 
-    private void startExport() {
-        // Initializes the export task, periodically and quantitatively fetches messages from the client queue and sends them to mq
-        executor = Executors.newSingleThreadExecutor(r -> {
-            Thread thread = new Thread(r);
-            thread.setDaemon(false);
-            thread.setName("client-queue-exporter-" + rocketMQMessageQueue.getBrokerName() + "-" + rocketMQMessageQueue.getQueueId());
-            return thread;
-        });
-        executor.submit(new ClientQueueExporter());
-    }
-
+    /**
+     * The exporter sends what is left in the ring and exits, no caller waits for it.
+     */
     public void stopExport() {
-        // Wait for all messages to be successfully sent
-        while (clientMessageQueue.size() > 0) {
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException e) {
-                log.error("sleep error : ", e);
-            }
-        }
+        stopTime = System.currentTimeMillis();
         running = false;
-        // Destroy thread pool
-        executor.shutdown();
-        log.info(rocketMQMessageQueue.getBrokerName() + " - " + rocketMQMessageQueue.getQueueId() + " stopped");
+        LockSupport.unpark(exporter);
     }
 
     private class ClientQueueExporter implements Runnable {
 
-        private static final int CLIENT_QUEUE_BATCH_SEND_SIZE = 1000;
-
-        private static final int CLIENT_QUEUE_SEND_GAP = 1000;
-
-        private long lastSendTime = System.currentTimeMillis();
-
-        public ClientQueueExporter() {
-        }
-
         @Override
         public void run() {
-            while (running) {
+            int batchSize = owner.getBatchSize();
+            long lingerMillis = owner.getLingerMillis();
+            List<MessageExt> batch = new ArrayList<>(batchSize);
+            long firstPendingTime = 0;
+            while (true) {
                 try {
-                    int clientQueueSize = clientMessageQueue.size();
-                    if (clientQueueSize > 0) {
-                        if (clientQueueSize >= CLIENT_QUEUE_BATCH_SEND_SIZE || System.currentTimeMillis() - lastSendTime >= CLIENT_QUEUE_SEND_GAP) {
-                            List<MessageExt> list = new ArrayList<>();
-                            clientMessageQueue.drainTo(list);
-                            producer.send(list, rocketMQMessageQueue);
-                        }
+                    int drained = ring.drainTo(batch, batchSize - batch.size());
+                    if (drained == 0 && batch.size() < batchSize) {
+                        drained = drainHeld(batch, batchSize - batch.size());
+                    }
+                    if (drained == 0 && spillFile != null && batch.size() < batchSize && !spillFile.isEmpty()) {
+                        drained = spillFile.readTo(batch, batchSize - batch.size());
+                    }
+                    long now = System.currentTimeMillis();
+                    if (!batch.isEmpty() && firstPendingTime == 0) {
+                        firstPendingTime = now;
+                    }
+                    boolean stopping = !running && size() == 0;
+                    if (batch.size() >= batchSize || (!batch.isEmpty() && (stopping || now - firstPendingTime >= lingerMillis))) {
+                        owner.send(batch, rocketMQMessageQueue);
+                        batch.clear();
+                        firstPendingTime = 0;
+                        owner.resumeIfDrained();
+                        continue;
+                    }
+                    if (stopping && now - stopTime >= STOP_GRACE_MILLIS) {
+                        break;
+                    }
+                    if (drained == 0) {
+                        awaitMessages(batch.isEmpty() ? 0 : firstPendingTime + lingerMillis, now);
                     }
                 } catch (Throwable t) {
                     log.error("client queue exporter error : ", t);
+                    batch.clear();
+                    firstPendingTime = 0;
                 }
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                    log.error("sleep error : ", e);
+            }
+            if (spillFile != null) {
+                spillFile.close();
+            }
+            log.info(rocketMQMessageQueue.getBrokerName() + " - " + rocketMQMessageQueue.getQueueId() + " stopped");
+        }
+
+        private int drainHeld(List<MessageExt> batch, int max) {
+            int count = 0;
+            MessageExt message;
+            while (count < max && (message = held.poll()) != null) {
+                batch.add(message);
+                count++;
+            }
+            heldCount.addAndGet(-count);
+            return count;
+        }
+
+        /**
+         * Park until a producer publishes, the queue stops, or the deadline of the pending batch, 0 if none.
+         * A message claimed in the ring but not published yet is only a spin away.
+         */
+        private void awaitMessages(long deadline, long now) {
+            if (!running) {
+                deadline = deadline == 0 ? stopTime + STOP_GRACE_MILLIS : Math.min(deadline, stopTime + STOP_GRACE_MILLIS);
+            }
+            idle = true;
+            try {
+                if (ring.size() > 0 || !held.isEmpty()) {
+                    Thread.onSpinWait();
+                } else if (spillFile != null && !spillFile.isEmpty()) {
+                    LockSupport.parkNanos(SPILL_PARK_NANOS);
+                } else if (deadline == 0) {
+                    LockSupport.park(this);
+                } else if (deadline > now) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(deadline - now));
                 }
+            } finally {
+                idle = false;
             }
         }
     }
 
-}
\ No newline at end of file
+}
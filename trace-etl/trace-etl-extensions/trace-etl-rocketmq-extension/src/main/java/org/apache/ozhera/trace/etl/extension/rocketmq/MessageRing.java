@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.extension.rocketmq;
+
+import org.apache.rocketmq.common.message.MessageExt;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded ring of messages with many producers and a single consumer, laid out like a Disruptor ring buffer:
+ * producers claim a sequence with one CAS, write the slot and publish the sequence in the slot's own marker,
+ * so the consumer reads the published slots in order without any lock.
+ * <p>
+ * {@link #offer} never blocks, a full ring is left to the caller's {@link OverflowPolicy}.
+ */
+final class MessageRing {
+
+    private final MessageExt[] slots;
+
+    private final AtomicLongArray published;
+
+    private final int mask;
+
+    private final AtomicLong claimed = new AtomicLong();
+
+    /**
+     * Next sequence to read, only written by the consumer.
+     */
+    private volatile long consumed;
+
+    MessageRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new MessageExt[size];
+        this.published = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    boolean offer(MessageExt message) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= slots.length) {
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        int index = (int) (sequence & mask);
+        slots[index] = message;
+        published.lazySet(index, sequence);
+        return true;
+    }
+
+    /**
+     * Move up to max published messages in sequence order, stops at the first slot claimed but not yet written.
+     */
+    int drainTo(List<MessageExt> target, int max) {
+        long next = consumed;
+        int count = 0;
+        while (count < max) {
+            int index = (int) (next & mask);
+            if (published.get(index) != next) {
+                break;
+            }
+            target.add(slots[index]);
+            slots[index] = null;
+            next++;
+            count++;
+        }
+        if (count > 0) {
+            consumed = next;
+        }
+        return count;
+    }
+
+    int size() {
+        return (int) (claimed.get() - consumed);
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.extension.rocketmq;
+
+/**
+ * What {@link ClientMessageQueue#enqueue} does when the ring of the target queue is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Append the message body to a file of the queue, sent again once the ring has room.
+     */
+    SPILL,
+
+    /**
+     * Drop the message and count it.
+     */
+    DROP,
+
+    /**
+     * Suspend the consumer until every ring is back under half its capacity. The messages it had already pulled
+     * are held by their queue and sent after the ring, the listener thread never waits.
+     */
+    PAUSE;
+
+    public static OverflowPolicy of(String name) {
+        for (OverflowPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        return PAUSE;
+    }
+}
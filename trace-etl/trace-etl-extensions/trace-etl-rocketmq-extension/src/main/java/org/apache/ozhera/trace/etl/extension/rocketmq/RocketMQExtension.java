@@ -32,9 +32,12 @@ import org.apache.rocketmq.client.producer.DefaultMQProducer;
 import org.apache.rocketmq.common.message.Message;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.message.MessageQueue;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -57,6 +60,26 @@ public class RocketMQExtension implements MQExtension<MessageExt, MessageExt> {
 
     private ClientMessageQueue clientMessageQueue;
 
+    private volatile DefaultMQPushConsumer consumer;
+
+    @Value("${mq.client.queue.size:2048}")
+    private int clientQueueSize;
+
+    @Value("${mq.client.queue.batch:1000}")
+    private int clientQueueBatchSize;
+
+    @Value("${mq.client.queue.linger.ms:100}")
+    private long clientQueueLingerMillis;
+
+    /**
+     * spill, drop or pause, see {@link OverflowPolicy}.
+     */
+    @Value("${mq.client.queue.overflow:pause}")
+    private String clientQueueOverflow;
+
+    @Value("${mq.client.queue.spill.path:/home/work/trace-etl/client-queue}")
+    private String clientQueueSpillPath;
+
     @Override
     public void initMq(MqConfig<MessageExt> config) {
         log.info("init rocketmq");
@@ -75,7 +98,9 @@ public class RocketMQExtension implements MQExtension<MessageExt, MessageExt> {
             producer.start();
 
             // init clientMessageQueue
-            clientMessageQueue = new ClientMessageQueue(this);
+            clientMessageQueue = new ClientMessageQueue(this, clientQueueSize, clientQueueBatchSize, clientQueueLingerMillis,
+                    OverflowPolicy.of(clientQueueOverflow), clientQueueSpillPath);
+            clientMessageQueue.setConsumerControl(this::suspendConsumer, this::resumeConsumer);
             // Before initializing rocketmq consumer,
             // initialize the local message queue to
             // ensure that the local message queue is available when messages come in
@@ -91,11 +116,12 @@ public class RocketMQExtension implements MQExtension<MessageExt, MessageExt> {
             // initializing rocketmq consumer
             log.info("init consumer start ...");
             batchConsumerMethod = config.getBatchConsumerMethod();
-            DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(config.getConsumerGroup());
-            consumer.setNamesrvAddr(config.getNameSerAddr());
-            consumer.subscribe(config.getConsumerTopicName(), "*");
-            consumer.registerMessageListener(new TraceEtlMessageListener());
-            consumer.start();
+            DefaultMQPushConsumer pushConsumer = new DefaultMQPushConsumer(config.getConsumerGroup());
+            pushConsumer.setNamesrvAddr(config.getNameSerAddr());
+            pushConsumer.subscribe(config.getConsumerTopicName(), "*");
+            pushConsumer.registerMessageListener(new TraceEtlMessageListener());
+            pushConsumer.start();
+            consumer = pushConsumer;
             log.info("init consumer end ...");
         } catch (Throwable ex) {
             log.error("init error", ex);
@@ -142,6 +168,27 @@ public class RocketMQExtension implements MQExtension<MessageExt, MessageExt> {
     }
 
 
+    private void suspendConsumer() {
+        DefaultMQPushConsumer pushConsumer = consumer;
+        if (pushConsumer != null) {
+            pushConsumer.suspend();
+        }
+    }
+
+    private void resumeConsumer() {
+        DefaultMQPushConsumer pushConsumer = consumer;
+        if (pushConsumer != null) {
+            pushConsumer.resume();
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (clientMessageQueue != null) {
+            clientMessageQueue.shutdown();
+        }
+    }
+
     public List<MessageQueue> fetchMessageQueue() {
         try {
             return this.producer.fetchPublishMessageQueues(topic);
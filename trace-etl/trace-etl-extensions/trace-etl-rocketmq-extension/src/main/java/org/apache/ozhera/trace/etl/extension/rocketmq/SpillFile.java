@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.extension.rocketmq;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageExt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Messages of one queue that did not fit in its ring, as int length prefixed records appended to a file.
+ * A record keeps the topic, the flag, the properties (tags and keys included) and the body of the message.
+ * The file is read back from the start and truncated once everything was read, messages left by a previous
+ * process are sent after a restart. The read position is not persisted, so the messages read before a restart
+ * are sent again.
+ */
+@Slf4j
+final class SpillFile {
+
+    private final File file;
+
+    private final FileChannel channel;
+
+    private long writePosition;
+
+    private long readPosition;
+
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+
+    SpillFile(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("create spill dir error: " + parent);
+        }
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.writePosition = channel.size();
+        if (writePosition > 0) {
+            log.info("spill file {} holds {} bytes from a previous run", file, writePosition);
+        }
+    }
+
+    synchronized void append(MessageExt message) throws IOException {
+        byte[] record = encode(message);
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + record.length);
+        buffer.putInt(record.length).put(record).flip();
+        while (buffer.hasRemaining()) {
+            writePosition += channel.write(buffer, writePosition);
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return readPosition >= writePosition;
+    }
+
+    synchronized long pendingBytes() {
+        return writePosition - readPosition;
+    }
+
+    /**
+     * Read up to max messages, the file is truncated when the last one was read.
+     */
+    synchronized int readTo(List<MessageExt> target, int max) throws IOException {
+        int count = 0;
+        while (count < max && readPosition < writePosition) {
+            lengthBuffer.clear();
+            readFully(lengthBuffer, readPosition);
+            int length = lengthBuffer.getInt(0);
+            if (length < 0 || readPosition + Integer.BYTES + length > writePosition) {
+                log.error("corrupted spill file {} at {}, {} bytes dropped", file, readPosition, writePosition - readPosition);
+                readPosition = writePosition;
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(length);
+            readFully(record, readPosition + Integer.BYTES);
+            readPosition += Integer.BYTES + length;
+            try {
+                target.add(decode(record.array()));
+                count++;
+            } catch (IOException e) {
+                log.error("corrupted spill record in {} at {}, {} bytes dropped", file, readPosition - length, length, e);
+            }
+        }
+        if (readPosition >= writePosition && writePosition > 0) {
+            channel.truncate(0);
+            readPosition = 0;
+            writePosition = 0;
+        }
+        return count;
+    }
+
+    static byte[] encode(MessageExt message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeNullable(out, message.getTopic());
+        out.writeInt(message.getFlag());
+        Map<String, String> properties = message.getProperties();
+        out.writeInt(properties == null ? -1 : properties.size());
+        if (properties != null) {
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                out.writeUTF(property.getKey());
+                writeNullable(out, property.getValue());
+            }
+        }
+        byte[] body = message.getBody();
+        out.writeInt(body == null ? -1 : body.length);
+        if (body != null) {
+            out.write(body);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static MessageExt decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        MessageExt message = new MessageExt();
+        message.setTopic(readNullable(in));
+        message.setFlag(in.readInt());
+        int size = in.readInt();
+        if (size >= 0) {
+            Map<String, String> properties = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                properties.put(in.readUTF(), readNullable(in));
+            }
+            MessageAccessor.setProperties(message, properties);
+        }
+        int length = in.readInt();
+        if (length >= 0) {
+            byte[] body = new byte[length];
+            in.readFully(body);
+            message.setBody(body);
+        }
+        return message;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("unexpected end of spill file " + file);
+            }
+        }
+    }
+
+    synchronized void close() {
+        try {
+            channel.close();
+            if (writePosition == 0) {
+                file.delete();
+            }
+        } catch (IOException e) {
+            log.warn("close spill file error, file: {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.extension.rocketmq;
+
+import org.apache.ozhera.trace.etl.common.HashUtil;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Messages per second routed by traceId through the client queues into an in-process stand-in producer,
+ * with 4 consumer threads and 8 broker queues of which the first one sends 10 times slower than the others.
+ * blocking is the former ArrayBlockingQueue put/drainTo per queue, the other modes are {@link ClientMessageQueue}
+ * with the matching {@link OverflowPolicy}, the consumer pause being a no-op.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ClientMessageQueueBenchmark {
+
+    private static final int QUEUES = 8;
+
+    private static final int TRACE_IDS = 1 << 16;
+
+    private static final int QUEUE_SIZE = 2048;
+
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Stand-in broker cost per message, in Blackhole tokens, the first queue pays ten times more.
+     */
+    private static final long SEND_TOKENS = 20;
+
+    @Param({"blocking", "pause", "drop", "spill"})
+    public String mode;
+
+    private List<MessageQueue> queues;
+
+    private String[] traceIds;
+
+    private MessageExt message;
+
+    private ClientMessageQueue clientMessageQueue;
+
+    private LegacyQueues legacyQueues;
+
+    private Path spillDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        queues = new ArrayList<>();
+        for (int i = 0; i < QUEUES; i++) {
+            queues.add(new MessageQueue("hera-trace-es", "broker-" + (i % 2), i));
+        }
+        traceIds = new String[TRACE_IDS];
+        for (int i = 0; i < TRACE_IDS; i++) {
+            traceIds[i] = UUID.randomUUID().toString().replace("-", "");
+        }
+        message = new MessageExt();
+        message.setBody(new byte[512]);
+        if ("blocking".equals(mode)) {
+            legacyQueues = new LegacyQueues();
+            return;
+        }
+        spillDir = Files.createTempDirectory("client-queue-spill");
+        clientMessageQueue = new ClientMessageQueue(this::send, () -> queues, QUEUE_SIZE, BATCH_SIZE, 100,
+                OverflowPolicy.of(mode), spillDir.toString());
+        clientMessageQueue.checkClientQueue(queues);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (legacyQueues != null) {
+            legacyQueues.stop();
+        }
+        if (clientMessageQueue != null) {
+            clientMessageQueue.shutdown();
+        }
+        if (spillDir != null) {
+            try (Stream<Path> paths = Files.walk(spillDir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public void enqueue(Cursor cursor) {
+        String traceId = traceIds[cursor.next++ & (TRACE_IDS - 1)];
+        if (legacyQueues != null) {
+            legacyQueues.enqueue(traceId, message);
+        } else {
+            clientMessageQueue.enqueue(traceId, message);
+        }
+    }
+
+    private void send(List<MessageExt> messages, MessageQueue queue) {
+        long tokens = SEND_TOKENS * messages.size();
+        Blackhole.consumeCPU(queue.getQueueId() == 0 ? tokens * 10 : tokens);
+    }
+
+    /**
+     * The former client queue: a blocking put per message and an exporter thread draining every millisecond.
+     */
+    private class LegacyQueues {
+
+        private final List<ArrayBlockingQueue<MessageExt>> blockingQueues = new ArrayList<>();
+
+        private final List<Thread> exporters = new ArrayList<>();
+
+        private volatile boolean running = true;
+
+        LegacyQueues() {
+            for (MessageQueue queue : queues) {
+                ArrayBlockingQueue<MessageExt> blockingQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+                blockingQueues.add(blockingQueue);
+                Thread exporter = new Thread(() -> {
+                    while (running) {
+                        if (!blockingQueue.isEmpty()) {
+                            List<MessageExt> list = new ArrayList<>();
+                            blockingQueue.drainTo(list);
+                            send(list, queue);
+                        }
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                });
+                exporter.start();
+                exporters.add(exporter);
+            }
+        }
+
+        void enqueue(String traceId, MessageExt message) {
+            try {
+                blockingQueues.get(HashUtil.consistentHash(traceId, blockingQueues.size())).put(message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void stop() {
+            running = false;
+            exporters.forEach(Thread::interrupt);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ClientMessageQueueBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.extension.rocketmq;
+
+import org.apache.rocketmq.common.message.MessageExt;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+public class MessageRingTest {
+
+    @Test
+    public void testCapacityRoundedToPowerOfTwo() {
+        Assert.assertEquals(4, new MessageRing(3).capacity());
+        Assert.assertEquals(8, new MessageRing(8).capacity());
+        Assert.assertEquals(16, new MessageRing(9).capacity());
+    }
+
+    @Test
+    public void testOverflow() {
+        MessageRing ring = new MessageRing(4);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(ring.offer(message(i)));
+        }
+        Assert.assertFalse(ring.offer(message(4)));
+        Assert.assertEquals(4, ring.size());
+
+        List<MessageExt> drained = new ArrayList<>();
+        Assert.assertEquals(1, ring.drainTo(drained, 1));
+        Assert.assertTrue(ring.offer(message(4)));
+        Assert.assertFalse(ring.offer(message(5)));
+    }
+
+    @Test
+    public void testWraparoundKeepsOrder() {
+        MessageRing ring = new MessageRing(4);
+        List<MessageExt> drained = new ArrayList<>();
+        int next = 0;
+        for (int round = 0; round < 100; round++) {
+            // 3 in, 3 out moves the sequences around the 4 slots
+            for (int i = 0; i < 3; i++) {
+                Assert.assertTrue(ring.offer(message(next + i)));
+            }
+            drained.clear();
+            Assert.assertEquals(3, ring.drainTo(drained, 10));
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(String.valueOf(next + i), body(drained.get(i)));
+            }
+            next += 3;
+            Assert.assertEquals(0, ring.size());
+        }
+        drained.clear();
+        Assert.assertEquals(0, ring.drainTo(drained, 10));
+    }
+
+    @Test
+    public void testDrainHonoursMax() {
+        MessageRing ring = new MessageRing(8);
+        for (int i = 0; i < 5; i++) {
+            ring.offer(message(i));
+        }
+        List<MessageExt> drained = new ArrayList<>();
+        Assert.assertEquals(2, ring.drainTo(drained, 2));
+        Assert.assertEquals(3, ring.drainTo(drained, 8));
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(String.valueOf(i), body(drained.get(i)));
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        MessageRing ring = new MessageRing(64);
+        int producers = 4;
+        int perProducer = 20000;
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    MessageExt message = message(producer * perProducer + i);
+                    while (!ring.offer(message)) {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        Set<String> seen = new HashSet<>();
+        int[] lastOfProducer = new int[producers];
+        Arrays.fill(lastOfProducer, -1);
+        List<MessageExt> drained = new ArrayList<>();
+        while (seen.size() < producers * perProducer) {
+            drained.clear();
+            if (ring.drainTo(drained, 16) == 0) {
+                Thread.yield();
+                continue;
+            }
+            for (MessageExt message : drained) {
+                int value = Integer.parseInt(body(message));
+                Assert.assertTrue(seen.add(body(message)));
+                // the messages of one producer come out in the order they went in
+                Assert.assertTrue(value > lastOfProducer[value / perProducer]);
+                lastOfProducer[value / perProducer] = value;
+            }
+        }
+        done.await();
+        Assert.assertEquals(0, ring.size());
+    }
+
+    static MessageExt message(int value) {
+        MessageExt message = new MessageExt();
+        message.setBody(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        return message;
+    }
+
+    static String body(MessageExt message) {
+        return new String(message.getBody(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.extension.rocketmq;
+
+import org.apache.rocketmq.common.message.MessageExt;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SpillFileTest {
+
+    private File dir;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("spill").toFile();
+        file = new File(new File(dir, "queues"), "topic-broker-0.spill");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = file.getParentFile().listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        file.getParentFile().delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testKeepsEveryField() throws IOException {
+        MessageExt message = new MessageExt();
+        message.setTopic("hera-trace");
+        message.setFlag(3);
+        message.setTags("tag");
+        message.setKeys("4bf92f3577b34da6a3ce929d0e0e4736");
+        message.putUserProperty("env", "staging");
+        message.setBody("span".getBytes(StandardCharsets.UTF_8));
+
+        SpillFile spillFile = new SpillFile(file);
+        spillFile.append(message);
+        List<MessageExt> read = new ArrayList<>();
+        Assert.assertEquals(1, spillFile.readTo(read, 10));
+        MessageExt replayed = read.get(0);
+        Assert.assertEquals("hera-trace", replayed.getTopic());
+        Assert.assertEquals(3, replayed.getFlag());
+        Assert.assertEquals("tag", replayed.getTags());
+        Assert.assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", replayed.getKeys());
+        Assert.assertEquals("staging", replayed.getUserProperty("env"));
+        Assert.assertEquals(message.getProperties(), replayed.getProperties());
+        Assert.assertEquals("span", MessageRingTest.body(replayed));
+        spillFile.close();
+    }
+
+    @Test
+    public void testWithoutTopicPropertiesOrBody() throws IOException {
+        SpillFile spillFile = new SpillFile(file);
+        spillFile.append(new MessageExt());
+        List<MessageExt> read = new ArrayList<>();
+        Assert.assertEquals(1, spillFile.readTo(read, 10));
+        Assert.assertNull(read.get(0).getTopic());
+        Assert.assertNull(read.get(0).getBody());
+        spillFile.close();
+    }
+
+    @Test
+    public void testReadInBatchesThenTruncate() throws IOException {
+        SpillFile spillFile = new SpillFile(file);
+        Assert.assertTrue(spillFile.isEmpty());
+        for (int i = 0; i < 10; i++) {
+            spillFile.append(MessageRingTest.message(i));
+        }
+        Assert.assertFalse(spillFile.isEmpty());
+        Assert.assertTrue(spillFile.pendingBytes() > 0);
+
+        List<MessageExt> read = new ArrayList<>();
+        Assert.assertEquals(4, spillFile.readTo(read, 4));
+        Assert.assertEquals(4, spillFile.readTo(read, 4));
+        // appended while reading, read after the older ones
+        spillFile.append(MessageRingTest.message(10));
+        Assert.assertEquals(3, spillFile.readTo(read, 4));
+        for (int i = 0; i < 11; i++) {
+            Assert.assertEquals(String.valueOf(i), MessageRingTest.body(read.get(i)));
+        }
+        Assert.assertTrue(spillFile.isEmpty());
+        Assert.assertEquals(0, file.length());
+        Assert.assertEquals(0, spillFile.readTo(read, 4));
+        spillFile.close();
+        // an empty spill file is removed on close
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void testReplayAfterRestart() throws IOException {
+        SpillFile spillFile = new SpillFile(file);
+        for (int i = 0; i < 3; i++) {
+            spillFile.append(MessageRingTest.message(i));
+        }
+        List<MessageExt> read = new ArrayList<>();
+        Assert.assertEquals(1, spillFile.readTo(read, 1));
+        spillFile.close();
+        Assert.assertTrue(file.exists());
+
+        // the read position is not kept, every message is sent again
+        SpillFile reopened = new SpillFile(file);
+        read.clear();
+        Assert.assertEquals(3, reopened.readTo(read, 10));
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(String.valueOf(i), MessageRingTest.body(read.get(i)));
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void testTruncatedTailIsDropped() throws IOException {
+        SpillFile spillFile = new SpillFile(file);
+        spillFile.append(MessageRingTest.message(1));
+        spillFile.append(MessageRingTest.message(2));
+        spillFile.close();
+        // a crash in the middle of the last append
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+
+        SpillFile reopened = new SpillFile(file);
+        List<MessageExt> read = new ArrayList<>();
+        Assert.assertEquals(1, reopened.readTo(read, 10));
+        Assert.assertEquals("1", MessageRingTest.body(read.get(0)));
+        Assert.assertTrue(reopened.isEmpty());
+        reopened.close();
+    }
+}
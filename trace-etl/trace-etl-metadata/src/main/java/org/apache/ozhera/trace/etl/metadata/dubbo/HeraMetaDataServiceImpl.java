@@ -29,6 +29,8 @@ import org.apache.ozhera.trace.etl.util.convert.HeraMetaDataConvert;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.dubbo.config.annotation.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 
@@ -39,6 +41,8 @@ import java.util.List;
 @Service(interfaceClass = HeraMetaDataService.class, group = "${dubbo.group}")
 public class HeraMetaDataServiceImpl implements HeraMetaDataService {
 
+    private static final int INSERT_BATCH_SIZE = 500;
+
     private HeraMetaDataMapper heraMetaDataMapper;
 
     public HeraMetaDataServiceImpl(HeraMetaDataMapper heraMetaDataMapper) {
@@ -74,7 +78,7 @@ public class HeraMetaDataServiceImpl implements HeraMetaDataService {
         if(heraMetaData == null){
             return 0;
         }
-        return heraMetaDataMapper.insert(heraMetaData);
+        return heraMetaDataMapper.insertIgnoreExisting(Collections.singletonList(heraMetaData));
     }
 
     @Override
@@ -82,9 +86,16 @@ public class HeraMetaDataServiceImpl implements HeraMetaDataService {
         if(models == null || models.size() == 0) {
             return 0;
         }
-        int result = 0;
+        List<HeraMetaData> list = new ArrayList<>(models.size());
         for(HeraMetaDataModel model : models){
-            result += insert(model);
+            HeraMetaData heraMetaData = model == null ? null : HeraMetaDataConvert.INSTANCE.toBo(model);
+            if(heraMetaData != null){
+                list.add(heraMetaData);
+            }
+        }
+        int result = 0;
+        for(int from = 0; from < list.size(); from += INSERT_BATCH_SIZE){
+            result += heraMetaDataMapper.insertIgnoreExisting(list.subList(from, Math.min(list.size(), from + INSERT_BATCH_SIZE)));
         }
         return result;
     }
@@ -20,18 +20,12 @@
 package org.apache.ozhera.trace.etl.metadata.mq;
 
 import com.alibaba.nacos.api.config.annotation.NacosValue;
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.google.gson.Gson;
 import org.apache.ozhera.trace.etl.api.service.HeraMetaDataService;
 import org.apache.ozhera.trace.etl.api.service.MQExtension;
 import org.apache.ozhera.trace.etl.bo.MqConfig;
-import org.apache.ozhera.trace.etl.domain.metadata.HeraMetaData;
 import org.apache.ozhera.trace.etl.domain.metadata.HeraMetaDataMessage;
-import org.apache.ozhera.trace.etl.domain.metadata.HeraMetaDataPortModel;
-import org.apache.ozhera.trace.etl.mapper.HeraMetaDataMapper;
 import org.apache.ozhera.trace.etl.service.RedisService;
-import org.apache.ozhera.trace.etl.util.convert.HeraMetaDataConvert;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
@@ -40,12 +34,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
+import org.apache.ozhera.trace.etl.metadata.service.HeraMetaDataBatchWriter;
 import org.apache.ozhera.trace.etl.metadata.util.Const;
 
 import javax.annotation.PostConstruct;
-import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -77,7 +71,7 @@ public class KafkaHeraMetaDataConsumer {
     private MQExtension mq;
 
     @Autowired
-    private HeraMetaDataMapper heraMetaDataMapper;
+    private HeraMetaDataBatchWriter heraMetaDataBatchWriter;
 
     private Gson gson = new Gson();
 
@@ -90,102 +84,33 @@ public class KafkaHeraMetaDataConsumer {
         config.setConsumerTopicName(consumerTopic);
 
         config.setConsumerMethod((records)->{
-            for (ConsumerRecord<String, String> message : records) {
-                consumeMessage(message);
-            }
+            consumeMessages(records);
             return true;
         });
 
         mq.initMq(config);
     }
 
-    private void consumeMessage(ConsumerRecord<String, String> message) {
-        try {
-            byte[] body = message.value().getBytes(StandardCharsets.ISO_8859_1);
-            HeraMetaDataMessage heraMetaDataMessage = gson.fromJson(new String(body), HeraMetaDataMessage.class);
-            log.info("KafkaHeraMetaDataConsumer# consumeMessage convert heraMetaDataMessage : {}", heraMetaDataMessage.toString());
-
-            HeraMetaData heraMetaData = HeraMetaDataConvert.INSTANCE.messageToBo(heraMetaDataMessage);
-
-            if ("insert".equals(heraMetaDataMessage.getOperator())) {
-                int availablePort = getAvailablePort(heraMetaDataMessage.getPort());
-                if (availablePort > 0) {
-                    // Check whether synchronous data blocking is required to prevent repeated data insertion
-                    if (waitSyncData()) {
-                        // Gets a distributed lock to prevent repeated insertions
-                        String key = heraMetaDataMessage.getMetaId() + "_" + heraMetaDataMessage.getHost() + "_" + availablePort;
-                        if (redisService.getDisLock(key)) {
-                            try {
-                                List<HeraMetaData> list = getList(heraMetaDataMessage.getMetaId(), heraMetaDataMessage.getHost(), heraMetaDataMessage.getPort());
-                                if (list == null || list.isEmpty()) {
-                                    Date date = new Date();
-                                    heraMetaData.setCreateTime(date);
-                                    heraMetaData.setUpdateTime(date);
-                                    heraMetaDataMapper.insert(heraMetaData);
-                                }
-                            } finally {
-                                redisService.del(key);
-                            }
-                        }
-                    }
-                }
-            } else if ("update".equals(heraMetaDataMessage.getOperator())) {
-                int availablePort = getAvailablePort(heraMetaDataMessage.getPort());
-                if (availablePort > 0) {
-                    // Check whether synchronous data blocking is required to prevent repeated data insertion
-                    if (waitSyncData()) {
-                        // Gets a distributed lock to prevent repeated insertions
-                        String key = heraMetaDataMessage.getMetaId() + "_" + heraMetaDataMessage.getHost() + "_" + availablePort;
-                        if (redisService.getDisLock(key)) {
-                            try {
-                                Date date = new Date();
-                                heraMetaData.setUpdateTime(date);
-                                updateByHostAndPort(heraMetaData);
-                            } finally {
-                                redisService.del(key);
-                            }
-                        }
-                    }
-                }
-            }
-        } catch (Throwable ex) {
-            log.error("KafkaHeraMetaDataConsumer#consumeMessage error:" + ex.getMessage(), ex);
-        }
-    }
-
-    private int getAvailablePort(HeraMetaDataPortModel port) {
-        Class<? extends HeraMetaDataPortModel> aClass = port.getClass();
-        Field[] declaredFields = aClass.getDeclaredFields();
-        for (Field field : declaredFields) {
-            field.setAccessible(true);
+    private void consumeMessages(ConsumerRecords<String, String> records) {
+        List<HeraMetaDataMessage> messages = new ArrayList<>(records.count());
+        for (ConsumerRecord<String, String> message : records) {
             try {
-                int o = (int) field.get(port);
-                if (o > 0) {
-                    return o;
-                }
-            } catch (Exception e) {
-                log.error("Hera meta data Consumer getAvailablePort error : ", e);
+                byte[] body = message.value().getBytes(StandardCharsets.ISO_8859_1);
+                messages.add(gson.fromJson(new String(body), HeraMetaDataMessage.class));
+            } catch (Throwable ex) {
+                log.error("KafkaHeraMetaDataConsumer#consumeMessage error:" + ex.getMessage(), ex);
             }
         }
-        return 0;
-    }
-
-    private List<HeraMetaData> getList(Integer metaId, String ip, HeraMetaDataPortModel port) {
-        QueryWrapper<HeraMetaData> queryWrapper = new QueryWrapper();
-        queryWrapper.eq("meta_id", metaId);
-        queryWrapper.eq("host", ip);
-        queryWrapper.eq("port -> '$.dubboPort'", port.getDubboPort());
-        return heraMetaDataMapper.selectList(queryWrapper);
-    }
-
-    /**
-     * only support dubbo port update concurrently
-     */
-    private int updateByHostAndPort(HeraMetaData heraMetaData){
-        UpdateWrapper<HeraMetaData> updateWrapper = new UpdateWrapper<>();
-        updateWrapper.eq("host", heraMetaData.getHost());
-        updateWrapper.eq("port -> '$.dubboPort'", heraMetaData.getPort().getDubboPort());
-        return heraMetaDataMapper.update(heraMetaData, updateWrapper);
+        if (messages.isEmpty()) {
+            return;
+        }
+        try {
+            // Check whether synchronous data blocking is required to prevent repeated data insertion
+            waitSyncData();
+            heraMetaDataBatchWriter.write(messages);
+        } catch (Throwable ex) {
+            log.error("KafkaHeraMetaDataConsumer#consumeMessages error:" + ex.getMessage(), ex);
+        }
     }
 
     /**
@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.metadata.service;
+
+import org.apache.ozhera.trace.etl.domain.metadata.HeraMetaData;
+import org.apache.ozhera.trace.etl.domain.metadata.HeraMetaDataMessage;
+import org.apache.ozhera.trace.etl.domain.metadata.HeraMetaDataPortModel;
+import org.apache.ozhera.trace.etl.mapper.HeraMetaDataMapper;
+import org.apache.ozhera.trace.etl.util.convert.HeraMetaDataConvert;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Writes the metadata messages of one poll as a few statements instead of a lock, a query and a write per message.
+ * <p>
+ * Messages are collapsed per (host, dubboPort), the existing rows of a chunk of them are read with one query on
+ * the generated dubbo_port column, then the chunk is applied with one multi-row insert and one multi-row update by id.
+ * The insert is idempotent on the unique key (host, dubbo_port, meta_id), so consumers racing on the same instance do
+ * not need a distributed lock.
+ * <p>
+ * Same semantics as the former per message path: an insert is ignored if the instance exists, an update
+ * writes the non null fields to every row of (host, dubboPort) and is ignored if there is none. The updates of a poll
+ * are overlaid in order, so the last write of a field wins, and those following an insert are folded into its row.
+ */
+@Slf4j
+@Service
+public class HeraMetaDataBatchWriter {
+
+    private static final String INSERT = "insert";
+
+    private static final String UPDATE = "update";
+
+    @Value("${metadata.batch.size:500}")
+    private int batchSize = 500;
+
+    @Autowired
+    private HeraMetaDataMapper heraMetaDataMapper;
+
+    public HeraMetaDataBatchWriter() {
+    }
+
+    HeraMetaDataBatchWriter(HeraMetaDataMapper heraMetaDataMapper, int batchSize) {
+        this.heraMetaDataMapper = heraMetaDataMapper;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return rows inserted or updated
+     */
+    public int write(List<HeraMetaDataMessage> messages) {
+        List<Instance> instances = collapse(messages);
+        int written = 0;
+        for (int from = 0; from < instances.size(); from += batchSize) {
+            List<Instance> chunk = instances.subList(from, Math.min(instances.size(), from + batchSize));
+            try {
+                written += apply(chunk);
+            } catch (Exception e) {
+                log.error("write hera meta data chunk error, retry one by one, size: {}", chunk.size(), e);
+                written += applyOneByOne(chunk);
+            }
+        }
+        log.info("write hera meta data messages: {} instances: {} rows: {}", messages.size(), instances.size(), written);
+        return written;
+    }
+
+    private int applyOneByOne(List<Instance> chunk) {
+        int written = 0;
+        for (Instance instance : chunk) {
+            try {
+                written += apply(Collections.singletonList(instance));
+            } catch (Exception e) {
+                log.error("write hera meta data error, host: {} dubboPort: {}", instance.host, instance.dubboPort, e);
+            }
+        }
+        return written;
+    }
+
+    List<Instance> collapse(List<HeraMetaDataMessage> messages) {
+        Map<String, Instance> instances = new LinkedHashMap<>();
+        for (HeraMetaDataMessage message : messages) {
+            String operator = message.getOperator();
+            if (!INSERT.equals(operator) && !UPDATE.equals(operator)) {
+                continue;
+            }
+            if (message.getPort() == null || !hasPort(message.getPort())) {
+                continue;
+            }
+            HeraMetaData data = HeraMetaDataConvert.INSTANCE.messageToBo(message);
+            int dubboPort = message.getPort().getDubboPort();
+            Instance instance = instances.computeIfAbsent(hostPort(message.getHost(), dubboPort),
+                    key -> new Instance(message.getHost(), dubboPort, data));
+            if (INSERT.equals(operator)) {
+                // a later insert of the same unique key is ignored, the row exists by then
+                instance.inserts.putIfAbsent(message.getMetaId(), data);
+            } else {
+                for (HeraMetaData insert : instance.inserts.values()) {
+                    overlay(data, insert);
+                }
+                instance.update = instance.update == null ? overlay(data, new HeraMetaData()) : overlay(data, instance.update);
+            }
+        }
+        return new ArrayList<>(instances.values());
+    }
+
+    private int apply(List<Instance> chunk) {
+        List<HeraMetaData> keys = new ArrayList<>(chunk.size());
+        for (Instance instance : chunk) {
+            keys.add(instance.key);
+        }
+        Map<String, List<HeraMetaData>> existing = new HashMap<>();
+        for (HeraMetaData row : heraMetaDataMapper.selectByHostAndDubboPort(keys)) {
+            existing.computeIfAbsent(hostPort(row.getHost(), row.getPort() == null ? 0 : row.getPort().getDubboPort()),
+                    key -> new ArrayList<>()).add(row);
+        }
+        Date now = new Date();
+        List<HeraMetaData> inserts = new ArrayList<>();
+        List<HeraMetaData> updates = new ArrayList<>();
+        for (Instance instance : chunk) {
+            List<HeraMetaData> rows = existing.getOrDefault(hostPort(instance.host, instance.dubboPort), Collections.emptyList());
+            for (Map.Entry<Integer, HeraMetaData> insert : instance.inserts.entrySet()) {
+                if (!containsMetaId(rows, insert.getKey())) {
+                    HeraMetaData row = insert.getValue();
+                    row.setCreateTime(now);
+                    row.setUpdateTime(now);
+                    inserts.add(row);
+                }
+            }
+            if (instance.update != null) {
+                for (HeraMetaData row : rows) {
+                    HeraMetaData update = overlay(instance.update, new HeraMetaData());
+                    update.setId(row.getId());
+                    update.setUpdateTime(now);
+                    updates.add(update);
+                }
+            }
+        }
+        int written = 0;
+        if (!inserts.isEmpty()) {
+            written += heraMetaDataMapper.insertIgnoreExisting(inserts);
+        }
+        if (!updates.isEmpty()) {
+            written += heraMetaDataMapper.updateBatchById(updates);
+        }
+        return written;
+    }
+
+    private static boolean containsMetaId(List<HeraMetaData> rows, Integer metaId) {
+        for (HeraMetaData row : rows) {
+            if (Objects.equals(row.getMetaId(), metaId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String hostPort(String host, int dubboPort) {
+        return host + "_" + dubboPort;
+    }
+
+    /**
+     * Same check as the former reflective one: any exposed port.
+     */
+    private static boolean hasPort(HeraMetaDataPortModel port) {
+        return port.getPort() > 0 || port.getDubboPort() > 0 || port.getHttpPort() > 0
+                || port.getGrpcPort() > 0 || port.getThriftPort() > 0;
+    }
+
+    /**
+     * Copy the non null fields of from into to.
+     */
+    private static HeraMetaData overlay(HeraMetaData from, HeraMetaData to) {
+        if (from.getMetaId() != null) {
+            to.setMetaId(from.getMetaId());
+        }
+        if (from.getMetaName() != null) {
+            to.setMetaName(from.getMetaName());
+        }
+        if (from.getEnvId() != null) {
+            to.setEnvId(from.getEnvId());
+        }
+        if (from.getEnvName() != null) {
+            to.setEnvName(from.getEnvName());
+        }
+        if (from.getDubboServiceMeta() != null) {
+            to.setDubboServiceMeta(from.getDubboServiceMeta());
+        }
+        if (from.getType() != null) {
+            to.setType(from.getType());
+        }
+        if (from.getHost() != null) {
+            to.setHost(from.getHost());
+        }
+        if (from.getPort() != null) {
+            to.setPort(from.getPort());
+        }
+        if (from.getCreateTime() != null) {
+            to.setCreateTime(from.getCreateTime());
+        }
+        if (from.getUpdateTime() != null) {
+            to.setUpdateTime(from.getUpdateTime());
+        }
+        if (from.getCreateBy() != null) {
+            to.setCreateBy(from.getCreateBy());
+        }
+        if (from.getUpdateBy() != null) {
+            to.setUpdateBy(from.getUpdateBy());
+        }
+        return to;
+    }
+
+    /**
+     * Messages of one poll for one (host, dubboPort).
+     */
+    static final class Instance {
+
+        final String host;
+
+        final int dubboPort;
+
+        final HeraMetaData key;
+
+        /**
+         * The first insert of each meta id, with the updates that followed it folded in.
+         */
+        final Map<Integer, HeraMetaData> inserts = new LinkedHashMap<>();
+
+        /**
+         * Every update of the poll, for the rows already stored.
+         */
+        HeraMetaData update;
+
+        Instance(String host, int dubboPort, HeraMetaData key) {
+            this.host = host;
+            this.dubboPort = dubboPort;
+            this.key = key;
+        }
+    }
+}
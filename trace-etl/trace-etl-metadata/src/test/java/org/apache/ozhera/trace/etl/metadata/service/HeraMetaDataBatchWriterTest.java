@@ -0,0 +1,311 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.metadata.service;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.MybatisSqlSessionFactoryBuilder;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.apache.ozhera.trace.etl.domain.metadata.HeraMetaData;
+import org.apache.ozhera.trace.etl.domain.metadata.HeraMetaDataMessage;
+import org.apache.ozhera.trace.etl.domain.metadata.HeraMetaDataPort;
+import org.apache.ozhera.trace.etl.domain.metadata.HeraMetaDataPortModel;
+import org.apache.ozhera.trace.etl.mapper.HeraMetaDataMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link HeraMetaDataBatchWriter} against an embedded H2 in MySQL mode, with the hera_meta_data table of hera.sql.
+ * H2 has no {@code ->>} json path, so the stored dubbo_port column is generated by {@link #dubboPort}, which unquotes
+ * {@code $.dubboPort} of the port json the same way.
+ */
+public class HeraMetaDataBatchWriterTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private static final String[] SCHEMA = {
+            "create alias json_dubbo_port deterministic for \"" + HeraMetaDataBatchWriterTest.class.getName() + ".dubboPort\"",
+            "create table hera_meta_data (" +
+                    "id bigint not null auto_increment, " +
+                    "type varchar(10) default null, " +
+                    "meta_id int default null, " +
+                    "meta_name varchar(255) default null, " +
+                    "env_id int default null, " +
+                    "env_name varchar(255) default null, " +
+                    "host varchar(255) default null, " +
+                    "port varchar(1024) default null, " +
+                    "dubbo_service_meta text default null, " +
+                    "create_time datetime default null, " +
+                    "update_time datetime default null, " +
+                    "create_by varchar(125) default null, " +
+                    "update_by varchar(125) default null, " +
+                    "dubbo_port int generated always as (json_dubbo_port(port)), " +
+                    "primary key (id), " +
+                    "key index_meta_id (meta_id), " +
+                    "unique key uk_host_dubbo_port_meta (host, dubbo_port, meta_id))"
+    };
+
+    private PooledDataSource dataSource;
+
+    private HeraMetaDataMapper mapper;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = new PooledDataSource("org.h2.Driver",
+                "jdbc:h2:mem:meta" + System.nanoTime() + ";MODE=MySQL;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000", "sa", "");
+        dataSource.setPoolMaximumActiveConnections(16);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            for (String sql : SCHEMA) {
+                statement.execute(sql);
+            }
+        }
+        MybatisConfiguration configuration = new MybatisConfiguration();
+        configuration.setEnvironment(new Environment("test", new JdbcTransactionFactory(), dataSource));
+        configuration.addMapper(HeraMetaDataMapper.class);
+        mapper = SqlSessionManager.newInstance(new MybatisSqlSessionFactoryBuilder().build(configuration))
+                .getMapper(HeraMetaDataMapper.class);
+    }
+
+    /**
+     * {@code port ->> '$.dubboPort'}: null when the json or the member is missing.
+     */
+    public static Integer dubboPort(String port) throws Exception {
+        if (port == null) {
+            return null;
+        }
+        JsonNode dubboPort = JSON.readTree(port).get("dubboPort");
+        return dubboPort == null || dubboPort.isNull() ? null : Integer.valueOf(dubboPort.asText());
+    }
+
+    @After
+    public void tearDown() {
+        dataSource.forceCloseAll();
+    }
+
+    @Test
+    public void testCollapsedAndIdempotentInsert() {
+        HeraMetaDataBatchWriter writer = new HeraMetaDataBatchWriter(mapper, 100);
+        List<HeraMetaDataMessage> poll = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            poll.add(message("insert", i % 100, "10.0.0." + (i % 100), 20880));
+        }
+        Assert.assertEquals(100, writer.collapse(poll).size());
+        writer.write(poll);
+        // a replayed poll is a no-op
+        writer.write(poll);
+        Assert.assertEquals(100, count());
+    }
+
+    @Test
+    public void testUpdateOnlyTouchesExistingRows() {
+        HeraMetaDataBatchWriter writer = new HeraMetaDataBatchWriter(mapper, 100);
+        writer.write(List.of(message("insert", 1, "10.0.0.1", 20880)));
+        HeraMetaDataMessage update = message("update", 1, "10.0.0.1", 20880);
+        update.setMetaName("renamed");
+        update.setEnvName(null);
+        writer.write(List.of(update, message("update", 2, "10.0.0.2", 20880)));
+
+        List<HeraMetaData> rows = mapper.selectList(new QueryWrapper<>());
+        Assert.assertEquals(1, rows.size());
+        Assert.assertEquals("renamed", rows.get(0).getMetaName());
+        // null fields of an update keep the stored value
+        Assert.assertEquals("env", rows.get(0).getEnvName());
+        Assert.assertEquals(20880, rows.get(0).getPort().getDubboPort());
+    }
+
+    @Test
+    public void testUpdateAfterInsertIsFolded() {
+        HeraMetaDataBatchWriter writer = new HeraMetaDataBatchWriter(mapper, 100);
+        HeraMetaDataMessage update = message("update", 1, "10.0.0.1", 20880);
+        update.setMetaName("renamed");
+        writer.write(List.of(message("insert", 1, "10.0.0.1", 20880), update));
+
+        List<HeraMetaData> rows = mapper.selectList(new QueryWrapper<>());
+        Assert.assertEquals(1, rows.size());
+        Assert.assertEquals("renamed", rows.get(0).getMetaName());
+    }
+
+    @Test
+    public void testUpdatesOverlaidInOrderPerHostAndPort() {
+        HeraMetaDataBatchWriter writer = new HeraMetaDataBatchWriter(mapper, 100);
+        HeraMetaDataMessage rename = message("update", 1, "10.0.0.1", 20880);
+        rename.setMetaId(null);
+        rename.setEnvName(null);
+        rename.setMetaName("renamed");
+        HeraMetaDataMessage move = message("update", 2, "10.0.0.1", 20880);
+        move.setMetaId(null);
+        move.setMetaName(null);
+        move.setEnvName("moved");
+        // every update of (host, dubboPort) reaches the rows inserted before it, whatever their meta id
+        writer.write(List.of(message("insert", 1, "10.0.0.1", 20880), rename, message("insert", 2, "10.0.0.1", 20880), move));
+
+        List<HeraMetaData> rows = mapper.selectList(new QueryWrapper<HeraMetaData>().orderByAsc("meta_id"));
+        Assert.assertEquals(2, rows.size());
+        Assert.assertEquals("renamed", rows.get(0).getMetaName());
+        Assert.assertEquals("moved", rows.get(0).getEnvName());
+        Assert.assertEquals("app-2", rows.get(1).getMetaName());
+        Assert.assertEquals("moved", rows.get(1).getEnvName());
+
+        // the stored rows get the last write of each field
+        rename.setMetaName("first");
+        HeraMetaDataMessage last = message("update", 2, "10.0.0.1", 20880);
+        last.setMetaId(null);
+        last.setEnvName(null);
+        last.setMetaName("last");
+        writer.write(List.of(rename, last));
+        for (HeraMetaData row : mapper.selectList(new QueryWrapper<>())) {
+            Assert.assertEquals("last", row.getMetaName());
+            Assert.assertEquals("moved", row.getEnvName());
+        }
+    }
+
+    /**
+     * A mass deploy: several consumers, each poll full of registrations and updates of the same instances.
+     */
+    @Test
+    public void testConcurrentLoad() throws Exception {
+        int instances = 2000;
+        int consumers = 4;
+        int polls = 20;
+        int pollSize = 500;
+        HeraMetaDataBatchWriter writer = new HeraMetaDataBatchWriter(mapper, 200);
+        Set<Integer> inserted = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(consumers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int c = 0; c < consumers; c++) {
+            futures.add(pool.submit(() -> {
+                for (int p = 0; p < polls; p++) {
+                    List<HeraMetaDataMessage> poll = new ArrayList<>(pollSize);
+                    for (int i = 0; i < pollSize; i++) {
+                        int instance = ThreadLocalRandom.current().nextInt(instances);
+                        if (ThreadLocalRandom.current().nextInt(4) == 0) {
+                            HeraMetaDataMessage update = message("update", instance, host(instance), 20880);
+                            update.setMetaName("renamed-" + instance);
+                            poll.add(update);
+                        } else {
+                            poll.add(message("insert", instance, host(instance), 20880));
+                            inserted.add(instance);
+                        }
+                    }
+                    writer.write(poll);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.MINUTES);
+        }
+        pool.shutdown();
+
+        List<HeraMetaData> rows = mapper.selectList(new QueryWrapper<>());
+        Assert.assertEquals(inserted.size(), rows.size());
+        Set<Integer> stored = new HashSet<>();
+        for (HeraMetaData row : rows) {
+            int instance = row.getMetaId();
+            Assert.assertTrue(stored.add(instance));
+            Assert.assertTrue(inserted.contains(instance));
+            Assert.assertEquals(host(instance), row.getHost());
+            Assert.assertEquals(20880, row.getPort().getDubboPort());
+            Assert.assertEquals(8080, row.getPort().getHttpPort());
+            Assert.assertTrue(row.getMetaName(), row.getMetaName().equals("app-" + instance)
+                    || row.getMetaName().equals("renamed-" + instance));
+            Assert.assertEquals("env", row.getEnvName());
+            Assert.assertEquals("APP", row.getType());
+            Assert.assertNotNull(row.getCreateTime());
+        }
+        Assert.assertEquals(rows.size(), mapper.selectByHostAndDubboPort(rows).size());
+    }
+
+    @Test
+    public void testUniqueKeyOnGeneratedDubboPort() {
+        HeraMetaDataBatchWriter writer = new HeraMetaDataBatchWriter(mapper, 100);
+        writer.write(List.of(message("insert", 1, "10.0.0.1", 20880)));
+        // the same instance on another dubbo port, or registered for another meta id, is another row
+        writer.write(List.of(message("insert", 1, "10.0.0.1", 20881), message("insert", 2, "10.0.0.1", 20880)));
+        Assert.assertEquals(3, count());
+        Assert.assertEquals(2, mapper.selectByHostAndDubboPort(List.of(row(1, "10.0.0.1", 20880))).size());
+
+        HeraMetaData duplicate = row(1, "10.0.0.1", 20880);
+        duplicate.setMetaName("other");
+        try {
+            mapper.insert(duplicate);
+            Assert.fail("the unique key on the generated dubbo_port should reject the row");
+        } catch (PersistenceException expected) {
+            // enforced by the schema, not by the writer
+        }
+        // the batch insert skips the duplicate and still writes the new row
+        mapper.insertIgnoreExisting(List.of(duplicate, row(3, "10.0.0.3", 20880)));
+        Assert.assertEquals(4, count());
+        Assert.assertEquals("app-1", mapper.selectByHostAndDubboPort(List.of(row(1, "10.0.0.1", 20880))).stream()
+                .filter(stored -> stored.getMetaId() == 1).findFirst().get().getMetaName());
+    }
+
+    private int count() {
+        return mapper.selectCount(new QueryWrapper<>()).intValue();
+    }
+
+    private static String host(int instance) {
+        return "10.0." + instance / 256 + "." + instance % 256;
+    }
+
+    private static HeraMetaData row(int metaId, String host, int dubboPort) {
+        HeraMetaData row = new HeraMetaData();
+        row.setMetaId(metaId);
+        row.setMetaName("app-" + metaId);
+        row.setType("APP");
+        row.setHost(host);
+        row.setPort(new HeraMetaDataPort(0, dubboPort, 8080, 0, 0));
+        return row;
+    }
+
+    private static HeraMetaDataMessage message(String operator, int metaId, String host, int dubboPort) {
+        HeraMetaDataMessage message = new HeraMetaDataMessage();
+        message.setOperator(operator);
+        message.setMetaId(metaId);
+        message.setMetaName("app-" + metaId);
+        message.setEnvId(1);
+        message.setEnvName("env");
+        message.setType("APP");
+        message.setHost(host);
+        message.setPort(new HeraMetaDataPortModel(0, dubboPort, 8080, 0, 0));
+        return message;
+    }
+}
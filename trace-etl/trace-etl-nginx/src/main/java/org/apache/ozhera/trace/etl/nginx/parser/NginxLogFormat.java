@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.nginx.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An nginx log_format compiled into the literals between its variables, e.g.
+ * {@code $remote_addr - $remote_user [$time_local] "$request" $status}.
+ * <p>
+ * A line is split in one pass over its bytes: each variable ends at the first occurrence of the literal that
+ * follows it, so nothing is allocated, only the offsets of the values are written. Two variables must be separated
+ * by a literal, and the literal after a variable must not occur in its values, which holds for the quoted
+ * variables as nginx escapes the quote.
+ */
+public final class NginxLogFormat {
+
+    private final String[] variables;
+
+    /**
+     * literals[0] is before the first variable, literals[i + 1] after variable i.
+     */
+    private final byte[][] literals;
+
+    private NginxLogFormat(String[] variables, byte[][] literals) {
+        this.variables = variables;
+        this.literals = literals;
+    }
+
+    public static NginxLogFormat compile(String format) {
+        if (format == null || format.isEmpty()) {
+            throw new IllegalArgumentException("empty nginx log format");
+        }
+        List<String> variables = new ArrayList<>();
+        List<byte[]> literals = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < format.length()) {
+            char c = format.charAt(i);
+            if (c != '$') {
+                literal.append(c);
+                i++;
+                continue;
+            }
+            int start = i + 1;
+            boolean braced = start < format.length() && format.charAt(start) == '{';
+            int end = braced ? format.indexOf('}', start) : start;
+            if (braced) {
+                if (end < 0) {
+                    throw new IllegalArgumentException("unclosed variable at " + i + " in nginx log format: " + format);
+                }
+                start++;
+            } else {
+                while (end < format.length() && isVariableChar(format.charAt(end))) {
+                    end++;
+                }
+            }
+            if (end == start) {
+                throw new IllegalArgumentException("empty variable at " + i + " in nginx log format: " + format);
+            }
+            if (!variables.isEmpty() && literal.length() == 0) {
+                throw new IllegalArgumentException("no separator before $" + format.substring(start, end) + " in nginx log format: " + format);
+            }
+            literals.add(literal.toString().getBytes(StandardCharsets.UTF_8));
+            literal.setLength(0);
+            variables.add(format.substring(start, end));
+            i = braced ? end + 1 : end;
+        }
+        if (variables.isEmpty()) {
+            throw new IllegalArgumentException("no variable in nginx log format: " + format);
+        }
+        literals.add(literal.toString().getBytes(StandardCharsets.UTF_8));
+        return new NginxLogFormat(variables.toArray(new String[0]), literals.toArray(new byte[0][]));
+    }
+
+    private static boolean isVariableChar(char c) {
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    public int size() {
+        return variables.length;
+    }
+
+    public String variable(int i) {
+        return variables[i];
+    }
+
+    /**
+     * @return the index of the variable, -1 when the format does not log it
+     */
+    public int indexOf(String variable) {
+        for (int i = 0; i < variables.length; i++) {
+            if (variables[i].equals(variable)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Split line[offset, offset + length), a trailing line break is ignored.
+     *
+     * @param starts receives the start offset of each variable
+     * @param ends   receives the end offset of each variable
+     * @return false when the line does not match the format
+     */
+    public boolean tokenize(byte[] line, int offset, int length, int[] starts, int[] ends) {
+        int limit = offset + length;
+        while (limit > offset && (line[limit - 1] == '\n' || line[limit - 1] == '\r')) {
+            limit--;
+        }
+        int pos = offset;
+        if (!matches(line, pos, limit, literals[0])) {
+            return false;
+        }
+        pos += literals[0].length;
+        int last = variables.length - 1;
+        for (int i = 0; i <= last; i++) {
+            byte[] next = literals[i + 1];
+            int end;
+            if (i == last) {
+                end = limit - next.length;
+                if (end < pos || !matches(line, end, limit, next)) {
+                    return false;
+                }
+            } else {
+                end = indexOf(line, pos, limit, next);
+                if (end < 0) {
+                    return false;
+                }
+            }
+            starts[i] = pos;
+            ends[i] = end;
+            pos = end + next.length;
+        }
+        return true;
+    }
+
+    private static boolean matches(byte[] line, int pos, int limit, byte[] literal) {
+        if (limit - pos < literal.length) {
+            return false;
+        }
+        for (int i = 0; i < literal.length; i++) {
+            if (line[pos + i] != literal[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] line, int from, int limit, byte[] literal) {
+        byte first = literal[0];
+        int max = limit - literal.length;
+        for (int i = from; i <= max; i++) {
+            if (line[i] == first && matches(line, i, limit, literal)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(variables);
+    }
+}
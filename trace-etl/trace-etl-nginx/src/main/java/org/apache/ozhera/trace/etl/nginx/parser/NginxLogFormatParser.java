@@ -0,0 +1,464 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.nginx.parser;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ozhera.trace.etl.domain.NginxJaegerDomain;
+import org.apache.ozhera.tspandata.TAttributes;
+import org.apache.ozhera.tspandata.TExtra;
+import org.apache.ozhera.tspandata.TKind;
+import org.apache.ozhera.tspandata.TResource;
+import org.apache.ozhera.tspandata.TSpanData;
+import org.apache.ozhera.tspandata.TStatus;
+import org.apache.ozhera.tspandata.TValue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses the lines of any nginx log_format, see {@link NginxLogFormat}.
+ * <p>
+ * The variables used are $remote_addr, $host (or $server_name, $http_host), $request, $uri (or $request_uri),
+ * $status, $http_referer, $http_user_agent, $http_x_forwarded_for, $upstream_addr, $upstream_status,
+ * $upstream_response_time, $request_time, $hostname, $server_addr, the time of the line from $msec, $time_local or
+ * $time_iso8601, and the traceId variable given to the constructor. A value of "-" is no value. nginx logs the
+ * line when the request ends, so the span starts $request_time before the time of the line; a line without
+ * traceId gets a random one, a line without host the service {@link #DEFAULT_SERVICE_NAME}.
+ * <p>
+ * {@link #toTSpanDateBytes(byte[], int, int)} works on the bytes of the line: the values are located in one pass,
+ * the span, its attributes and the serializer are reused per thread, and the low cardinality values (host,
+ * addresses, status) are decoded once per thread.
+ */
+@Slf4j
+public class NginxLogFormatParser extends NginxLogToTraceBase {
+
+    private static final int STRING_CACHE_SIZE = 512;
+
+    private static final long NANOS_PER_MILLI = 1000_000L;
+
+    private static final byte[] MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec".getBytes(StandardCharsets.US_ASCII);
+
+    private final NginxLogFormat format;
+
+    private final int remoteAddr;
+    private final int host;
+    private final int request;
+    private final int uri;
+    private final int status;
+    private final int referer;
+    private final int userAgent;
+    private final int forwardedFor;
+    private final int upstreamAddr;
+    private final int upstreamStatus;
+    private final int upstreamResponseTime;
+    private final int requestTime;
+    private final int hostname;
+    private final int serverAddr;
+    private final int msec;
+    private final int timeLocal;
+    private final int timeIso8601;
+    private final int traceId;
+
+    private final ThreadLocal<Context> context;
+
+    /**
+     * @param logFormat       the log_format of the lines, without the name
+     * @param traceIdVariable the variable holding the traceId, e.g. http_x_trace_id
+     */
+    public NginxLogFormatParser(String logFormat, String traceIdVariable) {
+        this.format = NginxLogFormat.compile(logFormat);
+        this.remoteAddr = format.indexOf("remote_addr");
+        this.host = firstOf("host", "server_name", "http_host");
+        this.request = format.indexOf("request");
+        this.uri = firstOf("uri", "request_uri");
+        this.status = format.indexOf("status");
+        this.referer = format.indexOf("http_referer");
+        this.userAgent = format.indexOf("http_user_agent");
+        this.forwardedFor = format.indexOf("http_x_forwarded_for");
+        this.upstreamAddr = format.indexOf("upstream_addr");
+        this.upstreamStatus = format.indexOf("upstream_status");
+        this.upstreamResponseTime = format.indexOf("upstream_response_time");
+        this.requestTime = format.indexOf("request_time");
+        this.hostname = format.indexOf("hostname");
+        this.serverAddr = format.indexOf("server_addr");
+        this.msec = format.indexOf("msec");
+        this.timeLocal = format.indexOf("time_local");
+        this.timeIso8601 = format.indexOf("time_iso8601");
+        this.traceId = traceIdVariable == null ? -1 : format.indexOf(traceIdVariable);
+        this.context = ThreadLocal.withInitial(() -> new Context(format.size()));
+        log.info("nginx log format variables:{} traceId:{}", format, traceIdVariable);
+    }
+
+    private int firstOf(String... variables) {
+        for (String variable : variables) {
+            int index = format.indexOf(variable);
+            if (index >= 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public NginxJaegerDomain parse(String message) {
+        if (message == null) {
+            return null;
+        }
+        byte[] line = message.getBytes(StandardCharsets.UTF_8);
+        Context ctx = context.get();
+        if (!format.tokenize(line, 0, line.length, ctx.starts, ctx.ends)) {
+            return null;
+        }
+        NginxJaegerDomain domain = new NginxJaegerDomain();
+        domain.setRemoteAddr(ctx.string(line, remoteAddr));
+        domain.setHost(ctx.shared(line, host));
+        domain.setRequest(ctx.string(line, request));
+        domain.setUri(uri(ctx, line));
+        domain.setStatus((int) ctx.number(line, status));
+        domain.setRefer(ctx.string(line, referer));
+        domain.setUa(ctx.string(line, userAgent));
+        domain.setxForwardedFor(ctx.string(line, forwardedFor));
+        domain.setUpstreamAddr(ctx.shared(line, upstreamAddr));
+        domain.setUpstreamStatus(ctx.shared(line, upstreamStatus));
+        domain.setUpstreamRespTime(ctx.string(line, upstreamResponseTime));
+        domain.setNginxHostName(ctx.shared(line, hostname));
+        domain.setNginxIp(ctx.shared(line, serverAddr));
+        long durationNanos = Math.max(0, ctx.decimalNanos(line, requestTime));
+        domain.setRequestTime(String.valueOf(durationNanos / NANOS_PER_MILLI));
+        domain.setStartTime(String.valueOf((endNanos(ctx, line) - durationNanos) / NANOS_PER_MILLI));
+        String trace = ctx.string(line, traceId);
+        domain.setTraceId(trace == null ? generateTraceId() : trace);
+        domain.setSpanId(generateSpanId());
+        return domain;
+    }
+
+    @Override
+    public byte[] toTSpanDateBytes(byte[] line, int offset, int length) {
+        Context ctx = context.get();
+        if (!format.tokenize(line, offset, length, ctx.starts, ctx.ends)) {
+            return null;
+        }
+        try {
+            int code = (int) ctx.number(line, status);
+            boolean error = 400 <= code && code < 600;
+            long durationNanos = Math.max(0, ctx.decimalNanos(line, requestTime));
+            long startNanos = endNanos(ctx, line) - durationNanos;
+            String trace = ctx.string(line, traceId);
+
+            TSpanData span = ctx.span;
+            span.setTraceId(trace == null ? generateTraceId() : trace);
+            span.setSpanId(generateSpanId());
+            span.setName(uri(ctx, line));
+            span.setStatus(error ? TStatus.ERROR : TStatus.UNSET);
+            span.setStartEpochNanos(startNanos);
+            span.setEndEpochNanos(startNanos + durationNanos);
+
+            List<TValue> values = ctx.values;
+            values.get(0).setStringValue(ctx.shared(line, remoteAddr));
+            values.get(1).setStringValue(ctx.string(line, request));
+            values.get(2).setLongValue(code);
+            values.get(3).setBoolValue(error);
+            values.get(4).setStringValue(ctx.string(line, referer));
+            values.get(5).setStringValue(ctx.shared(line, userAgent));
+            values.get(6).setStringValue(ctx.string(line, forwardedFor));
+            values.get(7).setStringValue(ctx.shared(line, upstreamAddr));
+            values.get(8).setStringValue(ctx.shared(line, upstreamStatus));
+
+            String nginxHostName = ctx.shared(line, hostname);
+            String nginxIp = ctx.shared(line, serverAddr);
+            ctx.resourceValues.get(0).setStringValue(nginxHostName);
+            ctx.resourceValues.get(1).setStringValue(nginxIp);
+            TExtra extra = ctx.extra;
+            extra.setServiceName(ctx.serviceName(ctx.shared(line, host)));
+            extra.setHostname(nginxHostName);
+            extra.setIp(nginxIp);
+            return serialize(span);
+        } catch (Throwable e) {
+            log.error("transform TSpanData error : ", e);
+        }
+        return null;
+    }
+
+    /**
+     * The path of $uri, or of the request line when it is not logged.
+     */
+    private String uri(Context ctx, byte[] line) {
+        if (uri >= 0) {
+            return parseUri(ctx.string(line, uri));
+        }
+        if (request < 0) {
+            return parseUri(null);
+        }
+        int start = ctx.starts[request];
+        int end = ctx.ends[request];
+        int space = indexOf(line, start, end, (byte) ' ');
+        if (space < 0) {
+            return parseUri(null);
+        }
+        int pathStart = space + 1;
+        int pathEnd = pathStart;
+        while (pathEnd < end && line[pathEnd] != ' ' && line[pathEnd] != '?') {
+            pathEnd++;
+        }
+        return pathEnd == pathStart ? parseUri(null) : new String(line, pathStart, pathEnd - pathStart, StandardCharsets.UTF_8);
+    }
+
+    private long endNanos(Context ctx, byte[] line) {
+        long millis = -1;
+        if (msec >= 0) {
+            long nanos = ctx.decimalNanos(line, msec);
+            millis = nanos < 0 ? -1 : nanos / NANOS_PER_MILLI;
+        }
+        if (millis < 0 && timeLocal >= 0) {
+            millis = timeLocalMillis(line, ctx.starts[timeLocal], ctx.ends[timeLocal]);
+        }
+        if (millis < 0 && timeIso8601 >= 0) {
+            millis = timeIso8601Millis(line, ctx.starts[timeIso8601], ctx.ends[timeIso8601]);
+        }
+        return (millis < 0 ? System.currentTimeMillis() : millis) * NANOS_PER_MILLI;
+    }
+
+    /**
+     * 10/Oct/2000:13:55:36 -0700
+     */
+    static long timeLocalMillis(byte[] b, int s, int e) {
+        if (e - s != 26 || b[s + 2] != '/' || b[s + 6] != '/' || b[s + 11] != ':' || b[s + 20] != ' ') {
+            return -1;
+        }
+        int month = -1;
+        for (int m = 0; m < 12; m++) {
+            if (b[s + 3] == MONTHS[m * 3] && b[s + 4] == MONTHS[m * 3 + 1] && b[s + 5] == MONTHS[m * 3 + 2]) {
+                month = m + 1;
+                break;
+            }
+        }
+        int offsetMinutes = offsetMinutes(b, s + 21, false);
+        return epochMillis(digits(b, s + 7, 4), month, digits(b, s, 2),
+                digits(b, s + 12, 2), digits(b, s + 15, 2), digits(b, s + 18, 2), offsetMinutes);
+    }
+
+    /**
+     * 2000-10-10T13:55:36-07:00, or with a Z offset
+     */
+    static long timeIso8601Millis(byte[] b, int s, int e) {
+        int length = e - s;
+        if ((length != 25 && length != 20) || b[s + 4] != '-' || b[s + 7] != '-' || b[s + 10] != 'T' || b[s + 13] != ':') {
+            return -1;
+        }
+        int offsetMinutes;
+        if (length == 20) {
+            offsetMinutes = b[s + 19] == 'Z' ? 0 : Integer.MIN_VALUE;
+        } else {
+            offsetMinutes = b[s + 22] == ':' ? offsetMinutes(b, s + 19, true) : Integer.MIN_VALUE;
+        }
+        return epochMillis(digits(b, s, 4), digits(b, s + 5, 2), digits(b, s + 8, 2),
+                digits(b, s + 11, 2), digits(b, s + 14, 2), digits(b, s + 17, 2), offsetMinutes);
+    }
+
+    private static int offsetMinutes(byte[] b, int s, boolean colon) {
+        int sign = b[s] == '-' ? -1 : b[s] == '+' ? 1 : 0;
+        int hours = digits(b, s + 1, 2);
+        int minutes = digits(b, s + (colon ? 4 : 3), 2);
+        if (sign == 0 || hours < 0 || minutes < 0) {
+            return Integer.MIN_VALUE;
+        }
+        return sign * (hours * 60 + minutes);
+    }
+
+    private static long epochMillis(int year, int month, int day, int hour, int minute, int second, int offsetMinutes) {
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 60 || offsetMinutes == Integer.MIN_VALUE) {
+            return -1;
+        }
+        // days from civil, proleptic gregorian
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        long days = era * 146097L + doe - 719468;
+        long seconds = days * 86400 + hour * 3600L + minute * 60L + second - offsetMinutes * 60L;
+        return seconds * 1000;
+    }
+
+    private static int digits(byte[] b, int s, int count) {
+        int value = 0;
+        for (int i = s; i < s + count; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    private static int indexOf(byte[] b, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Per thread state: value offsets, the reused span and a small cache of decoded values.
+     */
+    private static final class Context {
+
+        private final int[] starts;
+
+        private final int[] ends;
+
+        private final TSpanData span = new TSpanData();
+
+        private final List<TValue> values = new ArrayList<>(SPAN_ATTRIBUTE_KEYS.size());
+
+        private final List<TValue> resourceValues = new ArrayList<>(RESOURCE_ATTRIBUTE_KEYS.size());
+
+        private final TExtra extra = new TExtra();
+
+        private final byte[][] cachedBytes = new byte[STRING_CACHE_SIZE][];
+
+        private final String[] cachedStrings = new String[STRING_CACHE_SIZE];
+
+        private String lastHost;
+
+        private String lastServiceName;
+
+        private Context(int variables) {
+            this.starts = new int[variables];
+            this.ends = new int[variables];
+            for (int i = 0; i < SPAN_ATTRIBUTE_KEYS.size(); i++) {
+                values.add(new TValue());
+            }
+            for (int i = 0; i < RESOURCE_ATTRIBUTE_KEYS.size(); i++) {
+                resourceValues.add(new TValue());
+            }
+            span.setKind(TKind.SERVER);
+            span.setAttributes(new TAttributes().setKeys(SPAN_ATTRIBUTE_KEYS).setValues(values));
+            span.setTotalAttributeCount(SPAN_ATTRIBUTE_KEYS.size());
+            span.setResouce(new TResource().setAttributes(new TAttributes().setKeys(RESOURCE_ATTRIBUTE_KEYS).setValues(resourceValues)));
+            span.setExtra(extra);
+        }
+
+        private boolean absent(byte[] line, int variable) {
+            if (variable < 0) {
+                return true;
+            }
+            int s = starts[variable];
+            int e = ends[variable];
+            return e == s || (e - s == 1 && line[s] == '-');
+        }
+
+        private String string(byte[] line, int variable) {
+            if (absent(line, variable)) {
+                return null;
+            }
+            return new String(line, starts[variable], ends[variable] - starts[variable], StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Decoded once per thread while the value stays in its slot of the cache.
+         */
+        private String shared(byte[] line, int variable) {
+            if (absent(line, variable)) {
+                return null;
+            }
+            int s = starts[variable];
+            int e = ends[variable];
+            int hash = 1;
+            for (int i = s; i < e; i++) {
+                hash = 31 * hash + line[i];
+            }
+            int slot = (hash ^ (hash >>> 16)) & (STRING_CACHE_SIZE - 1);
+            byte[] cached = cachedBytes[slot];
+            if (cached != null && Arrays.equals(cached, 0, cached.length, line, s, e)) {
+                return cachedStrings[slot];
+            }
+            String value = new String(line, s, e - s, StandardCharsets.UTF_8);
+            cachedBytes[slot] = Arrays.copyOfRange(line, s, e);
+            cachedStrings[slot] = value;
+            return value;
+        }
+
+        private String serviceName(String host) {
+            if (lastServiceName == null || host != lastHost) {
+                lastHost = host;
+                lastServiceName = NginxLogToTraceBase.serviceName(host);
+            }
+            return lastServiceName;
+        }
+
+        /**
+         * @return the integer value, -1 when absent or not a number
+         */
+        private long number(byte[] line, int variable) {
+            if (absent(line, variable)) {
+                return -1;
+            }
+            long value = 0;
+            for (int i = starts[variable]; i < ends[variable]; i++) {
+                int d = line[i] - '0';
+                if (d < 0 || d > 9) {
+                    return -1;
+                }
+                value = value * 10 + d;
+            }
+            return value;
+        }
+
+        /**
+         * Seconds with a fractional part, as $msec and $request_time, in nanoseconds.
+         *
+         * @return -1 when absent or not a number
+         */
+        private long decimalNanos(byte[] line, int variable) {
+            if (absent(line, variable)) {
+                return -1;
+            }
+            long seconds = 0;
+            long fraction = 0;
+            long scale = 1000_000_000L;
+            boolean dot = false;
+            for (int i = starts[variable]; i < ends[variable]; i++) {
+                byte c = line[i];
+                if (c == '.' && !dot) {
+                    dot = true;
+                    continue;
+                }
+                int d = c - '0';
+                if (d < 0 || d > 9) {
+                    return -1;
+                }
+                if (!dot) {
+                    seconds = seconds * 10 + d;
+                } else if (scale > 1) {
+                    scale /= 10;
+                    fraction += d * scale;
+                }
+            }
+            return seconds * 1000_000_000L + fraction;
+        }
+    }
+}
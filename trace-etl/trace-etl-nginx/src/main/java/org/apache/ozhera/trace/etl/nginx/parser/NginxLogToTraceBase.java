@@ -34,13 +34,18 @@ import org.apache.ozhera.tspandata.TStatus;
 import org.apache.ozhera.tspandata.TValue;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.thrift.TException;
 import org.apache.thrift.TSerializer;
+import org.apache.thrift.transport.TTransportException;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @Description
@@ -50,9 +55,43 @@ import java.util.Random;
 @Slf4j
 public abstract class NginxLogToTraceBase {
 
-    private String[] spanIdChars = {"1", "2", "3", "4", "5", "6", "7", "8", "9", "a", "b", "c", "d", "e", "f"};
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
 
-    private Random r = new Random();
+    private static final String SERVICE_NAME_PREFIX = "nginx-";
+
+    /**
+     * Service name of the lines without host, e.g. a log_format without $host.
+     */
+    public static final String DEFAULT_SERVICE_NAME = SERVICE_NAME_PREFIX + "unknown";
+
+    /**
+     * The attribute keys are the same for every line, so one instance of each is shared by all the spans.
+     */
+    protected static final List<TAttributeKey> SPAN_ATTRIBUTE_KEYS = Collections.unmodifiableList(Arrays.asList(
+            attributeKey("http.remote.address", TAttributeType.STRING),
+            attributeKey("http.request", TAttributeType.STRING),
+            attributeKey("http.status_code", TAttributeType.LONG),
+            attributeKey("error", TAttributeType.BOOLEAN),
+            attributeKey("http.referer", TAttributeType.STRING),
+            attributeKey("http.user_agent", TAttributeType.STRING),
+            attributeKey("http.x-forwarded-for", TAttributeType.STRING),
+            attributeKey("http.upstream.address", TAttributeType.STRING),
+            attributeKey("http.upstream.status", TAttributeType.STRING)));
+
+    protected static final List<TAttributeKey> RESOURCE_ATTRIBUTE_KEYS = Collections.unmodifiableList(Arrays.asList(
+            attributeKey("host", TAttributeType.STRING),
+            attributeKey("ip", TAttributeType.STRING)));
+
+    /**
+     * A TSerializer resets and reuses its output buffer, so one per thread serializes every span of the thread.
+     */
+    private static final ThreadLocal<TSerializer> SERIALIZER = ThreadLocal.withInitial(() -> {
+        try {
+            return new TSerializer(ThriftUtil.PROTOCOL_FACTORY);
+        } catch (TTransportException e) {
+            throw new IllegalStateException(e);
+        }
+    });
 
     public String toJaegerTrace(String message) {
         NginxJaegerDomain parse = parse(message);
@@ -94,8 +133,7 @@ public abstract class NginxLogToTraceBase {
             spanData.setKind(TKind.SERVER);
             spanData.setResouce(completeResource(parse));
             spanData.setExtra(completeExtra(parse));
-            TSerializer serializer = new TSerializer(ThriftUtil.PROTOCOL_FACTORY);
-                return serializer.serialize(spanData);
+                return serialize(spanData);
             } catch (Throwable e) {
                 log.error("transform TSpanData error : ",e);
             }
@@ -103,6 +141,22 @@ public abstract class NginxLogToTraceBase {
         return null;
     }
 
+    /**
+     * Same as {@link #toTSpanDateBytes(String)} for a raw line, implementations that parse bytes override it
+     * to skip decoding the whole line.
+     */
+    public byte[] toTSpanDateBytes(byte[] line, int offset, int length) {
+        return toTSpanDateBytes(new String(line, offset, length, StandardCharsets.UTF_8));
+    }
+
+    protected static String serviceName(String host) {
+        return StringUtils.isEmpty(host) ? DEFAULT_SERVICE_NAME : SERVICE_NAME_PREFIX + host;
+    }
+
+    protected static byte[] serialize(TSpanData spanData) throws TException {
+        return SERIALIZER.get().serialize(spanData);
+    }
+
     private List<Map<String, Object>> completeTags(NginxJaegerDomain parse) {
         List<Map<String, Object>> result = new ArrayList<>();
         result.add(generateTags("http.remote.address", parse.getRemoteAddr(), JaegerAttrType.STRING));
@@ -119,38 +173,18 @@ public abstract class NginxLogToTraceBase {
 
     private TAttributes completeAttributes(NginxJaegerDomain parse){
         TAttributes ret = new TAttributes();
-        List<TAttributeKey> keys = new ArrayList<>();
-        List<TValue> values = new ArrayList<>();
-
-        keys.add(getKey("http.remote.address", TAttributeType.STRING));
+        List<TValue> values = new ArrayList<>(SPAN_ATTRIBUTE_KEYS.size());
         values.add(new TValue().setStringValue(parse.getRemoteAddr()));
-
-        keys.add(getKey("http.request", TAttributeType.STRING));
         values.add(new TValue().setStringValue(parse.getRequest()));
-
-        keys.add(getKey("http.status_code", TAttributeType.LONG));
         values.add(new TValue().setLongValue(parse.getStatus()));
-
-        keys.add(getKey("error", TAttributeType.BOOLEAN));
         boolean error = 400 <= parse.getStatus() && parse.getStatus() < 600;
         values.add(new TValue().setBoolValue(error));
-
-        keys.add(getKey("http.referer", TAttributeType.STRING));
         values.add(new TValue().setStringValue(parse.getRefer()));
-
-        keys.add(getKey("http.user_agent", TAttributeType.STRING));
         values.add(new TValue().setStringValue(parse.getUa()));
-
-        keys.add(getKey("http.x-forwarded-for", TAttributeType.STRING));
         values.add(new TValue().setStringValue(parse.getxForwardedFor()));
-
-        keys.add(getKey("http.upstream.address", TAttributeType.STRING));
         values.add(new TValue().setStringValue(parse.getUpstreamAddr()));
-
-        keys.add(getKey("http.upstream.status", TAttributeType.STRING));
         values.add(new TValue().setStringValue(parse.getUpstreamStatus()));
-
-        ret.setKeys(keys);
+        ret.setKeys(SPAN_ATTRIBUTE_KEYS);
         ret.setValues(values);
         return ret;
     }
@@ -158,16 +192,10 @@ public abstract class NginxLogToTraceBase {
     private TResource completeResource(NginxJaegerDomain parse){
         TResource ret = new TResource();
         TAttributes tAttributes = new TAttributes();
-        List<TAttributeKey> keys = new ArrayList<>();
-        List<TValue> values = new ArrayList<>();
-
-        keys.add(getKey("host", TAttributeType.STRING));
+        List<TValue> values = new ArrayList<>(RESOURCE_ATTRIBUTE_KEYS.size());
         values.add(new TValue().setStringValue(parse.getNginxHostName()));
-
-        keys.add(getKey("ip", TAttributeType.STRING));
         values.add(new TValue().setStringValue(parse.getNginxIp()));
-
-        tAttributes.setKeys(keys);
+        tAttributes.setKeys(RESOURCE_ATTRIBUTE_KEYS);
         tAttributes.setValues(values);
         ret.setAttributes(tAttributes);
         return ret;
@@ -175,13 +203,13 @@ public abstract class NginxLogToTraceBase {
 
     private TExtra completeExtra(NginxJaegerDomain parse){
         TExtra tExtra = new TExtra();
-        tExtra.setServiceName("nginx-" + parse.getHost());
+        tExtra.setServiceName(serviceName(parse.getHost()));
         tExtra.setHostname(parse.getNginxHostName());
         tExtra.setIp(parse.getNginxIp());
         return tExtra;
     }
 
-    private TAttributeKey getKey(String key, TAttributeType type){
+    private static TAttributeKey attributeKey(String key, TAttributeType type){
         TAttributeKey ret = new TAttributeKey();
         ret.setValue(key);
         ret.setType(type);
@@ -190,7 +218,7 @@ public abstract class NginxLogToTraceBase {
 
     private Map<String, Object> complateProcess(NginxJaegerDomain parse) {
         Map<String, Object> result = new HashMap<>();
-        result.put("serviceName", "nginx-" + parse.getHost());
+        result.put("serviceName", serviceName(parse.getHost()));
         List<Map<String, Object>> processTags = new ArrayList<>();
         if(StringUtils.isNotEmpty(parse.getNginxHostName())) {
             processTags.add(generateTags("host", parse.getNginxHostName(), JaegerAttrType.STRING));
@@ -213,12 +241,37 @@ public abstract class NginxLogToTraceBase {
         return null;
     }
 
+    /**
+     * 16 hex chars of a random non zero id.
+     */
     protected String generateSpanId() {
-        StringBuffer spanId = new StringBuffer();
-        for (int i = 0; i < 16; i++) {
-            spanId.append(r.nextInt(16) - 1);
+        return hex(randomId());
+    }
+
+    /**
+     * 32 hex chars of a random non zero id.
+     */
+    protected String generateTraceId() {
+        return hex(ThreadLocalRandom.current().nextLong(), randomId());
+    }
+
+    private static long randomId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    protected static String hex(long... ids) {
+        char[] chars = new char[ids.length * 16];
+        int pos = 0;
+        for (long id : ids) {
+            for (int shift = 60; shift >= 0; shift -= 4) {
+                chars[pos++] = HEX[(int) (id >>> shift) & 0xf];
+            }
         }
-        return spanId.toString();
+        return new String(chars);
     }
 
     /**
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.nginx.parser;
+
+import org.apache.ozhera.trace.etl.domain.NginxJaegerDomain;
+import org.apache.ozhera.trace.etl.util.ThriftUtil;
+import org.apache.ozhera.tspandata.TSpanData;
+import org.apache.ozhera.tspandata.TStatus;
+import org.apache.thrift.TDeserializer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class NginxLogFormatParserTest {
+
+    private static final String LOG_FORMAT = "$remote_addr - $remote_user [$time_local] \"$request\" $status $body_bytes_sent "
+            + "\"$http_referer\" \"$http_user_agent\" \"$http_x_forwarded_for\" $host $hostname $server_addr "
+            + "$upstream_addr $upstream_status $upstream_response_time $request_time $msec $http_x_trace_id";
+
+    private static final String LINE = "10.0.0.1 - - [06/May/2024:20:53:20 +0800] \"GET /api/order/list?id=1 HTTP/1.1\" 502 512 "
+            + "\"https://m.example.com/a b\" \"Mozilla/5.0 (X11; Linux) \\x22quoted\\x22 [x]\" \"-\" shop.example.com "
+            + "nginx-edge-01 10.38.200.1 10.38.3.85:8080 502 0.120 0.125 1715000000.064 4b4d8474a3ea284d3bd0334684e55160";
+
+    private final NginxLogFormatParser parser = new NginxLogFormatParser(LOG_FORMAT, "http_x_trace_id");
+
+    @Test
+    public void testParse() {
+        NginxJaegerDomain domain = parser.parse(LINE);
+        Assert.assertEquals("10.0.0.1", domain.getRemoteAddr());
+        Assert.assertEquals("shop.example.com", domain.getHost());
+        Assert.assertEquals("GET /api/order/list?id=1 HTTP/1.1", domain.getRequest());
+        Assert.assertEquals("/api/order/list", domain.getUri());
+        Assert.assertEquals(502, domain.getStatus());
+        Assert.assertEquals("nginx-edge-01", domain.getNginxHostName());
+        Assert.assertEquals("10.38.200.1", domain.getNginxIp());
+        Assert.assertEquals("10.38.3.85:8080", domain.getUpstreamAddr());
+        Assert.assertEquals("502", domain.getUpstreamStatus());
+        Assert.assertEquals("0.120", domain.getUpstreamRespTime());
+        Assert.assertEquals("125", domain.getRequestTime());
+        // the line is logged when the request ends
+        Assert.assertEquals(String.valueOf(1715000000064L - 125), domain.getStartTime());
+        Assert.assertEquals("4b4d8474a3ea284d3bd0334684e55160", domain.getTraceId());
+        Assert.assertEquals(16, domain.getSpanId().length());
+    }
+
+    @Test
+    public void testQuotedValues() {
+        NginxJaegerDomain domain = parser.parse(LINE);
+        // spaces, brackets and the quotes nginx escaped as \x22 stay inside the quoted value
+        Assert.assertEquals("https://m.example.com/a b", domain.getRefer());
+        Assert.assertEquals("Mozilla/5.0 (X11; Linux) \\x22quoted\\x22 [x]", domain.getUa());
+    }
+
+    @Test
+    public void testDashIsNoValue() {
+        String line = "10.0.0.1 - - [06/May/2024:20:53:20 +0800] \"GET /health HTTP/1.1\" - 0 \"-\" \"-\" \"-\" - - - - - - - - -";
+        NginxJaegerDomain domain = parser.parse(line);
+        Assert.assertNull(domain.getRefer());
+        Assert.assertNull(domain.getUa());
+        Assert.assertNull(domain.getxForwardedFor());
+        Assert.assertNull(domain.getHost());
+        Assert.assertNull(domain.getUpstreamAddr());
+        Assert.assertNull(domain.getNginxHostName());
+        Assert.assertEquals(-1, domain.getStatus());
+        Assert.assertEquals("0", domain.getRequestTime());
+        // no $msec, the time of the line is read from $time_local
+        Assert.assertEquals(String.valueOf(1715000000000L), domain.getStartTime());
+        // no traceId, a random one
+        Assert.assertTrue(domain.getTraceId().matches("[0-9a-f]{32}"));
+
+        TSpanData span = span(parser.toTSpanDateBytes(bytes(line), 0, line.length()));
+        Assert.assertEquals("/health", span.getName());
+        Assert.assertEquals(TStatus.UNSET, span.getStatus());
+        Assert.assertEquals(NginxLogToTraceBase.DEFAULT_SERVICE_NAME, span.getExtra().getServiceName());
+    }
+
+    @Test
+    public void testMalformedLines() {
+        Assert.assertNull(parser.parse(null));
+        Assert.assertNull(parser.parse(""));
+        Assert.assertNull(parser.parse("not an access log line"));
+        // cut in the middle of a quoted value
+        Assert.assertNull(parser.parse(LINE.substring(0, LINE.indexOf("Mozilla") + 10)));
+        // a variable missing at the end
+        Assert.assertNull(parser.parse(LINE.substring(0, LINE.lastIndexOf(' '))));
+        byte[] malformed = bytes("10.0.0.1 - - [06/May/2024:20:53:20 +0800] \"GET / HTTP/1.1");
+        Assert.assertNull(parser.toTSpanDateBytes(malformed, 0, malformed.length));
+        Assert.assertNull(parser.toTSpanDateBytes("garbage"));
+        // the parser keeps working after a bad line
+        Assert.assertNotNull(parser.parse(LINE));
+    }
+
+    @Test
+    public void testSpanFromBytesAndString() {
+        byte[] line = bytes("xx" + LINE + "\n");
+        TSpanData fromBytes = span(parser.toTSpanDateBytes(line, 2, line.length - 2));
+        TSpanData fromString = span(parser.toTSpanDateBytes(LINE));
+        for (TSpanData span : new TSpanData[]{fromBytes, fromString}) {
+            Assert.assertEquals("4b4d8474a3ea284d3bd0334684e55160", span.getTraceId());
+            Assert.assertEquals("/api/order/list", span.getName());
+            Assert.assertEquals(TStatus.ERROR, span.getStatus());
+            Assert.assertEquals((1715000000064L - 125) * 1000_000L, span.getStartEpochNanos());
+            Assert.assertEquals(1715000000064L * 1000_000L, span.getEndEpochNanos());
+            Assert.assertEquals("nginx-shop.example.com", span.getExtra().getServiceName());
+            Assert.assertEquals("nginx-edge-01", span.getExtra().getHostname());
+            Assert.assertEquals("10.38.200.1", span.getExtra().getIp());
+            Assert.assertEquals(NginxLogToTraceBase.SPAN_ATTRIBUTE_KEYS, span.getAttributes().getKeys());
+            Assert.assertEquals("10.0.0.1", span.getAttributes().getValues().get(0).getStringValue());
+            Assert.assertEquals(502, span.getAttributes().getValues().get(2).getLongValue());
+            Assert.assertTrue(span.getAttributes().getValues().get(3).isBoolValue());
+            Assert.assertFalse(span.getAttributes().getValues().get(6).isSetStringValue());
+        }
+    }
+
+    @Test
+    public void testWithoutHost() {
+        NginxLogFormatParser withoutHost = new NginxLogFormatParser("$remote_addr [$time_iso8601] \"$request\" $status", null);
+        String line = "10.0.0.1 [2024-05-06T12:53:20Z] \"POST /api/pay HTTP/1.1\" 200";
+        NginxJaegerDomain domain = withoutHost.parse(line);
+        Assert.assertNull(domain.getHost());
+        Assert.assertEquals(String.valueOf(1715000000000L), domain.getStartTime());
+        Assert.assertEquals(NginxLogToTraceBase.DEFAULT_SERVICE_NAME,
+                span(withoutHost.toTSpanDateBytes(bytes(line), 0, line.length())).getExtra().getServiceName());
+        Assert.assertEquals(NginxLogToTraceBase.DEFAULT_SERVICE_NAME,
+                span(withoutHost.toTSpanDateBytes(line)).getExtra().getServiceName());
+    }
+
+    @Test
+    public void testTimeLocalAndIso8601() {
+        byte[] local = bytes("06/May/2024:12:53:20 +0000");
+        Assert.assertEquals(1715000000000L, NginxLogFormatParser.timeLocalMillis(local, 0, local.length));
+        byte[] iso = bytes("2024-05-06T20:53:20+08:00");
+        Assert.assertEquals(1715000000000L, NginxLogFormatParser.timeIso8601Millis(iso, 0, iso.length));
+        byte[] badMonth = bytes("06/Foo/2024:12:53:20 +0000");
+        Assert.assertEquals(-1, NginxLogFormatParser.timeLocalMillis(badMonth, 0, badMonth.length));
+        byte[] badOffset = bytes("2024-05-06T20:53:20+0800");
+        Assert.assertEquals(-1, NginxLogFormatParser.timeIso8601Millis(badOffset, 0, badOffset.length));
+    }
+
+    private static byte[] bytes(String line) {
+        return line.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static TSpanData span(byte[] bytes) {
+        Assert.assertNotNull(bytes);
+        try {
+            TSpanData span = new TSpanData();
+            new TDeserializer(ThriftUtil.PROTOCOL_FACTORY).deserialize(span, bytes);
+            return span;
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
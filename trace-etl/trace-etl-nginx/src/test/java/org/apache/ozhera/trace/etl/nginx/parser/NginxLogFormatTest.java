@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.nginx.parser;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class NginxLogFormatTest {
+
+    @Test
+    public void testCompile() {
+        NginxLogFormat format = NginxLogFormat.compile("[${time_local}] \"$request\" $status;");
+        Assert.assertEquals(3, format.size());
+        Assert.assertEquals("time_local", format.variable(0));
+        Assert.assertEquals("request", format.variable(1));
+        Assert.assertEquals("status", format.variable(2));
+        Assert.assertEquals(-1, format.indexOf("host"));
+    }
+
+    @Test
+    public void testInvalidFormats() {
+        for (String invalid : new String[]{null, "", "no variable", "$a$b", "${unclosed", "$ x"}) {
+            try {
+                NginxLogFormat.compile(invalid);
+                Assert.fail("should not compile: " + invalid);
+            } catch (IllegalArgumentException expected) {
+                // rejected
+            }
+        }
+    }
+
+    @Test
+    public void testTokenize() {
+        NginxLogFormat format = NginxLogFormat.compile("$remote_addr - [$time_local] \"$request\" $status");
+        Assert.assertArrayEquals(new String[]{"10.0.0.1", "06/May/2024:20:53:20 +0800", "GET / HTTP/1.1", "200"},
+                tokenize(format, "10.0.0.1 - [06/May/2024:20:53:20 +0800] \"GET / HTTP/1.1\" 200\r\n"));
+        // empty values
+        Assert.assertArrayEquals(new String[]{"", "", "", ""}, tokenize(format, " - [] \"\" "));
+        Assert.assertNull(tokenize(format, "10.0.0.1 [06/May/2024:20:53:20 +0800] \"GET / HTTP/1.1\" 200"));
+        Assert.assertNull(tokenize(format, "10.0.0.1 - [06/May/2024:20:53:20 +0800] \"GET / HTTP/1.1"));
+    }
+
+    @Test
+    public void testTrailingLiteral() {
+        NginxLogFormat format = NginxLogFormat.compile("\"$request\" \"$http_user_agent\"");
+        // the last value ends at the last literal, not at the first quote
+        Assert.assertArrayEquals(new String[]{"GET / HTTP/1.1", "a\" \"b"}, tokenize(format, "\"GET / HTTP/1.1\" \"a\" \"b\""));
+        Assert.assertNull(tokenize(format, "\"GET / HTTP/1.1\" \"a"));
+    }
+
+    private static String[] tokenize(NginxLogFormat format, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        int[] starts = new int[format.size()];
+        int[] ends = new int[format.size()];
+        if (!format.tokenize(bytes, 0, bytes.length, starts, ends)) {
+            return null;
+        }
+        String[] values = new String[format.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new String(bytes, starts[i], ends[i] - starts[i], StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.nginx.parser;
+
+import org.apache.ozhera.trace.etl.domain.NginxJaegerDomain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * From an access log line to the TSpanData bytes, over the lines of nginx-access.log: a regex parser on the
+ * {@link NginxLogToTraceBase} path, {@link NginxLogFormatParser} from the String line, and from the line bytes.
+ * Run with -prof gc, gc.alloc.rate.norm is the bytes allocated per line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class NginxLogParseBenchmark {
+
+    static final String LOG_FORMAT = "$remote_addr - $remote_user [$time_local] \"$request\" $status $body_bytes_sent "
+            + "\"$http_referer\" \"$http_user_agent\" \"$http_x_forwarded_for\" $host $hostname $server_addr "
+            + "$upstream_addr $upstream_status $upstream_response_time $request_time $msec $http_x_trace_id";
+
+    private final NginxLogToTraceBase regexParser = new RegexParser();
+
+    private final NginxLogFormatParser formatParser = new NginxLogFormatParser(LOG_FORMAT, "http_x_trace_id");
+
+    private String[] lines;
+
+    private byte[][] lineBytes;
+
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> corpus = new ArrayList<>();
+        try (InputStream in = NginxLogParseBenchmark.class.getResourceAsStream("/nginx-access.log");
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    corpus.add(line);
+                }
+            }
+        }
+        lines = corpus.toArray(new String[0]);
+        lineBytes = new byte[lines.length][];
+        for (int i = 0; i < lines.length; i++) {
+            lineBytes[i] = lines[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public byte[] regex() {
+        return regexParser.toTSpanDateBytes(lines[nextLine()]);
+    }
+
+    @Benchmark
+    public byte[] formatString() {
+        return formatParser.toTSpanDateBytes(lines[nextLine()]);
+    }
+
+    @Benchmark
+    public byte[] formatBytes() {
+        byte[] line = lineBytes[nextLine()];
+        return formatParser.toTSpanDateBytes(line, 0, line.length);
+    }
+
+    private int nextLine() {
+        int i = next++;
+        if (next == lines.length) {
+            next = 0;
+        }
+        return i;
+    }
+
+    /**
+     * The usual implementation of {@link NginxLogToTraceBase#parse(String)}: one regex over the line.
+     */
+    private static final class RegexParser extends NginxLogToTraceBase {
+
+        private static final Pattern LINE = Pattern.compile("^(\\S+) - (\\S+) \\[([^\\]]+)] \"([^\"]*)\" (\\d{3}) (\\d+) "
+                + "\"([^\"]*)\" \"([^\"]*)\" \"([^\"]*)\" (\\S+) (\\S+) (\\S+) (\\S+) (\\S+) (\\S+) (\\S+) (\\S+) (\\S+)$");
+
+        @Override
+        public NginxJaegerDomain parse(String message) {
+            Matcher matcher = LINE.matcher(message);
+            if (!matcher.matches()) {
+                return null;
+            }
+            NginxJaegerDomain domain = new NginxJaegerDomain();
+            domain.setRemoteAddr(matcher.group(1));
+            domain.setRequest(matcher.group(4));
+            String[] request = matcher.group(4).split(" ");
+            domain.setUri(parseUri(request.length > 1 ? request[1] : null));
+            domain.setStatus(Integer.parseInt(matcher.group(5)));
+            domain.setRefer(matcher.group(7));
+            domain.setUa(matcher.group(8));
+            domain.setxForwardedFor(matcher.group(9));
+            domain.setHost(matcher.group(10));
+            domain.setNginxHostName(matcher.group(11));
+            domain.setNginxIp(matcher.group(12));
+            domain.setUpstreamAddr(matcher.group(13));
+            domain.setUpstreamStatus(matcher.group(14));
+            domain.setUpstreamRespTime(matcher.group(15));
+            long requestTime = (long) (Double.parseDouble(matcher.group(16)) * 1000);
+            long end = (long) (Double.parseDouble(matcher.group(17)) * 1000);
+            domain.setRequestTime(String.valueOf(requestTime));
+            domain.setStartTime(String.valueOf(end - requestTime));
+            domain.setTraceId(matcher.group(18));
+            domain.setSpanId(generateSpanId());
+            return domain;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(NginxLogParseBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
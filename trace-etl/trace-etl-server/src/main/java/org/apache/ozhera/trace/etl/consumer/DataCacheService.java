@@ -21,10 +21,12 @@ package org.apache.ozhera.trace.etl.consumer;
 
 import com.alibaba.nacos.api.config.annotation.NacosValue;
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
 import com.xiaomi.youpin.prometheus.client.multi.MutiMetrics;
 import com.xiaomi.youpin.prometheus.client.multi.MutiPrometheus;
-import io.prometheus.client.Collector;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
@@ -33,20 +35,38 @@ import io.prometheus.client.exporter.common.TextFormat;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.ozhera.trace.etl.metrics.EtlSelfMetrics;
+import org.apache.ozhera.trace.etl.metrics.MetricFamilyStream;
+import org.apache.ozhera.trace.etl.metrics.MetricsCatalog;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * @author goodjava@qq.com
@@ -56,7 +76,18 @@ import java.util.stream.Collectors;
 @Slf4j
 public class DataCacheService {
 
-    private CopyOnWriteArrayList<byte[]> cacheData = new CopyOnWriteArrayList<>();
+    /**
+     * Snapshots waiting for a scrape, oldest first. A snapshot is either the retired registry itself,
+     * serialised straight onto the scrape response, or a spill file written when Prometheus was late.
+     */
+    private final Deque<Snapshot> pending = new ArrayDeque<>();
+
+    private final ReentrantLock pendingLock = new ReentrantLock();
+
+    /**
+     * The retired registry a scrape is streaming, guarded by the pending lock.
+     */
+    private MutiMetrics serving;
 
     /**
      * Start caching after pulling data from Prometheus.
@@ -72,43 +103,66 @@ public class DataCacheService {
     @Resource
     private EnterManager enterManager;
 
+    @Resource
+    private MetricsCatalog metricsCatalog;
+
+    @Resource
+    private EtlSelfMetrics etlSelfMetrics;
+
     @NacosValue(value = "${prometheus.pull.header}", autoRefreshed = true)
     private String prometheusPullHeader;
 
+    @Value("${metrics.spill.dir:}")
+    private String spillDir;
+
+    /**
+     * Same bound as the old in memory cache, which was cleared once more than 4 snapshots piled up.
+     */
+    @Value("${metrics.spill.max.files:4}")
+    private int spillMaxFiles;
+
+    @Value("${metrics.spill.max.bytes:1073741824}")
+    private long spillMaxBytes;
+
+    private Path spillPath;
+
+    private long spillBytes;
+
+    private final AtomicLong lastSeriesCount = new AtomicLong();
+
+    private DistributionSummary snapshotBytes;
+
+    private Timer serializeTimer;
+
     public int dataSize() {
-        return cacheData.size();
+        pendingLock.lock();
+        try {
+            return pending.size();
+        } finally {
+            pendingLock.unlock();
+        }
     }
 
     @PostConstruct
-    public void init() {
-        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(() -> {
-            try {
-                if (cacheData.size() > 4) {
-                    log.info("clear cache data:{}", cacheData.size());
-                    cacheData.clear();
-                }
-            } catch (Throwable ex) {
-                log.error(ex.getMessage());
-            }
-        }, 0, 60, TimeUnit.SECONDS);
+    public void init() throws IOException {
+        spillPath = StringUtils.isEmpty(spillDir) ? Paths.get(System.getProperty("java.io.tmpdir"), "trace-etl-metrics-spill") : Paths.get(spillDir);
+        Files.createDirectories(spillPath);
+        cleanSpillDir();
+        snapshotBytes = DistributionSummary.builder("trace_etl_exposition_bytes")
+                .description("bytes of one metrics snapshot")
+                .baseUnit("bytes")
+                .register(etlSelfMetrics.getRegistry());
+        serializeTimer = Timer.builder("trace_etl_exposition_serialize")
+                .description("time to serialise one metrics snapshot")
+                .register(etlSelfMetrics.getRegistry());
+        io.micrometer.core.instrument.Gauge.builder("trace_etl_exposition_series", lastSeriesCount, AtomicLong::get)
+                .description("series in the last metrics snapshot")
+                .register(etlSelfMetrics.getRegistry());
 
         Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(() -> {
             if (startCache) {
                 try {
-                    Stopwatch sw = Stopwatch.createStarted();
-                    enterManager.getMonitor().enter();
-                    try {
-                        while (enterManager.getProcessNum().get() > 0) {
-                            TimeUnit.MILLISECONDS.sleep(20);
-                        }
-                        call.change();
-                    } finally {
-                        enterManager.getMonitor().leave();
-                        log.info("change use time:{}ms", sw.elapsed(TimeUnit.MILLISECONDS));
-                    }
-
-                    cacheData();
-
+                    rotate();
                 } catch (Throwable ex) {
                     log.error(ex.getMessage(), ex);
                 }
@@ -116,84 +170,177 @@ public class DataCacheService {
         }, 0, 15, TimeUnit.SECONDS);
     }
 
-    public byte[] getData() {
-        log.info("get data");
-        Stopwatch sw = Stopwatch.createStarted();
+    /**
+     * Retire the current registry: the registry that becomes current again must be empty,
+     * so if Prometheus has not scraped it yet it is spilled to disk first.
+     * The pre-aggregated span metrics of the retired registry are merged into it before it is queued.
+     */
+    public void rotate() {
+        pendingLock.lock();
         try {
-            if (cacheData.size() >= 1) {
-                return cacheData.remove(0);
+            MutiMetrics next = call.old();
+            if (next == serving) {
+                // the registry is still being written to a scrape, it keeps collecting until the next rotation
+                log.warn("metrics scrape still running, skip rotation");
+                return;
             }
+            if (removePendingRegistry(next)) {
+                spill(next);
+            }
+            enterManager.swap(call::change);
+            MutiMetrics retired = call.old();
+            metricsCatalog.merge(retired);
+            pending.addLast(new Snapshot(retired, null, 0, 0));
         } finally {
-            log.info("get data use time:{}ms", sw.elapsed(TimeUnit.MILLISECONDS));
+            pendingLock.unlock();
         }
-        return new byte[]{};
     }
 
+    /**
+     * Take the oldest pending snapshot for a scrape. A retired registry is serialised by the scrape straight onto the
+     * response, without holding the pending lock: rotate() does not reuse it until the exposition is closed.
+     *
+     * @return the snapshot, or an empty exposition if nothing is pending
+     */
+    public Exposition prepareData() {
+        pendingLock.lock();
+        try {
+            Snapshot snapshot = pending.pollFirst();
+            if (snapshot == null) {
+                return Exposition.EMPTY;
+            }
+            if (snapshot.file != null) {
+                spillBytes -= snapshot.fileSize;
+                return new Exposition(null, snapshot.file, snapshot.fileSize, snapshot.bytes);
+            }
+            serving = snapshot.registry;
+            return new Exposition(this, snapshot.registry);
+        } finally {
+            pendingLock.unlock();
+        }
+    }
 
-    public void cacheData() {
+    private void served(MutiMetrics registry) {
+        pendingLock.lock();
+        try {
+            if (serving == registry) {
+                serving = null;
+            }
+        } finally {
+            pendingLock.unlock();
+        }
+    }
 
-        Executors.newSingleThreadExecutor().submit(() -> {
-            log.info("cache data");
-            Stopwatch sw = Stopwatch.createStarted();
-            List<String> list = new ArrayList<>();
-            MutiMetrics old = call.old();
-            CollectorRegistry registry = old.getRegistry();
-            try {
-                Field field = registry.getClass().getDeclaredField("namesToCollectors");
-                field.setAccessible(true);
-                Map<String, Collector> namesToCollectors = (Map<String, Collector>) field.get(registry);
-                list = namesToCollectors.keySet().stream()
-                        .filter(it -> !it.endsWith("created"))
-                        .collect(Collectors.toList());
-            } catch (Exception e) {
-                log.info("export metrics error : ", e);
-            }
-            try (ByteArrayOutputStream baos = new ByteArrayOutputStream(); OutputStreamWriter writer = new OutputStreamWriter(baos)) {
-                TextFormat.writeFormat(prometheusPullHeader, writer, registry.filteredMetricFamilySamples(Sets.newHashSet(list)));
-                writer.flush();
-                byte[] bytes = baos.toByteArray();
-                this.cacheData.add(bytes);
-            } catch (Throwable ex) {
-                log.error(ex.getMessage());
-            } finally {
-                clearMetrics(old);
-            }
-            log.info("cache data use time:{} ms", sw.elapsed(TimeUnit.MILLISECONDS));
-        });
-    }
-
-    public byte[] cacheDataSync() {
-        call.change();
-        log.info("cache data sync start");
+    /**
+     * First scrape: retire the registry that collected since startup and prepare it right away.
+     */
+    public Exposition prepareDataSync() {
+        rotate();
+        return prepareData();
+    }
+
+    private long serialize(MutiMetrics registry, OutputStream out) throws IOException {
         Stopwatch sw = Stopwatch.createStarted();
-        List<String> list = new ArrayList<>();
-        MutiMetrics old = call.old();
-        CollectorRegistry registry = old.getRegistry();
+        CountingOutputStream counting = new CountingOutputStream(out);
+        MetricFamilyStream families = new MetricFamilyStream(registry.getRegistry().metricFamilySamples());
         try {
-            Field field = registry.getClass().getDeclaredField("namesToCollectors");
-            field.setAccessible(true);
-            Map<String, Collector> namesToCollectors = (Map<String, Collector>) field.get(registry);
-            list = namesToCollectors.keySet().stream()
-                    .filter(it -> !it.endsWith("created"))
-                    .collect(Collectors.toList());
-        } catch (Exception e) {
-            log.info("sync cache data error : ", e);
-        }
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream(); OutputStreamWriter writer = new OutputStreamWriter(baos)) {
-            TextFormat.writeFormat(TextFormat.CONTENT_TYPE_004, writer, registry.filteredMetricFamilySamples(Sets.newHashSet(list)));
+            Writer writer = new OutputStreamWriter(counting, StandardCharsets.UTF_8);
+            TextFormat.writeFormat(prometheusPullHeader, writer, families);
             writer.flush();
-            return baos.toByteArray();
-        } catch (Throwable ex) {
-            log.error(ex.getMessage());
         } finally {
-            clearMetrics(old);
-            log.info("sync cache data use time:{} ms", sw.elapsed(TimeUnit.MILLISECONDS));
+            clearMetrics(registry);
+            long elapsed = sw.elapsed(TimeUnit.NANOSECONDS);
+            serializeTimer.record(elapsed, TimeUnit.NANOSECONDS);
+            snapshotBytes.record(counting.getCount());
+            lastSeriesCount.set(families.getSeriesCount());
+            log.info("serialize metrics bytes:{} series:{} use time:{}ms", counting.getCount(), families.getSeriesCount(), TimeUnit.NANOSECONDS.toMillis(elapsed));
+        }
+        return counting.getCount();
+    }
+
+    private void spill(MutiMetrics registry) {
+        Path file = spillPath.resolve("metrics-" + System.currentTimeMillis() + ".txt.gz");
+        long bytes = 0;
+        try (OutputStream os = Files.newOutputStream(file); GZIPOutputStream gzip = new GZIPOutputStream(os, 8192)) {
+            bytes = serialize(registry, gzip);
+        } catch (Throwable ex) {
+            log.error("spill metrics error", ex);
+            deleteQuietly(file);
+            return;
+        }
+        long fileSize = fileSize(file);
+        spillBytes += fileSize;
+        pending.addLast(new Snapshot(null, file, fileSize, bytes));
+        log.info("prometheus is late, spill metrics bytes:{} to {}", bytes, file);
+        trimSpill();
+    }
+
+    private void trimSpill() {
+        while (spillFiles() > spillMaxFiles || spillBytes > spillMaxBytes) {
+            Snapshot oldest = null;
+            for (Snapshot snapshot : pending) {
+                if (snapshot.file != null) {
+                    oldest = snapshot;
+                    break;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            pending.remove(oldest);
+            spillBytes -= oldest.fileSize;
+            deleteQuietly(oldest.file);
+            log.info("clear spilled metrics:{}", oldest.file);
+        }
+    }
+
+    private boolean removePendingRegistry(MutiMetrics registry) {
+        for (Snapshot snapshot : pending) {
+            if (snapshot.registry == registry) {
+                pending.remove(snapshot);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int spillFiles() {
+        int count = 0;
+        for (Snapshot snapshot : pending) {
+            if (snapshot.file != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void cleanSpillDir() {
+        try (Stream<Path> files = Files.list(spillPath)) {
+            files.forEach(this::deleteQuietly);
+        } catch (IOException e) {
+            log.warn("clean spill dir error", e);
+        }
+    }
+
+    private long fileSize(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("delete spill file error:{}", file, e);
         }
-        return null;
     }
 
     private void clearMetrics(MutiMetrics old) {
         try {
+            metricsCatalog.clear(old);
             MutiPrometheus prometheus = old.gMetricsMgr;
             if (prometheus != null) {
                 Map<String, Object> prometheusMetrics = prometheus.getPrometheusMetrics();
@@ -226,5 +373,127 @@ public class DataCacheService {
         }
     }
 
+    private static final class Snapshot {
+
+        private final MutiMetrics registry;
+
+        private final Path file;
+
+        private final long fileSize;
+
+        /**
+         * Uncompressed size of a spilled snapshot.
+         */
+        private final long bytes;
+
+        private Snapshot(MutiMetrics registry, Path file, long fileSize, long bytes) {
+            this.registry = registry;
+            this.file = file;
+            this.fileSize = fileSize;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A snapshot taken off the pending queue, owned by the scrape that prepared it.
+     * A spilled snapshot is a complete gzip file whose lengths are known before the response headers are sent.
+     * A retired registry is serialised while it is written, its lengths are only known once written: a failure then
+     * leaves an incomplete gzip stream, so the scrape fails instead of taking a partial snapshot.
+     */
+    public static final class Exposition implements Closeable {
+
+        static final Exposition EMPTY = new Exposition(emptyGzip(), null, 0, 0);
+
+        private final byte[] gzipData;
+
+        private final Path file;
+
+        private final DataCacheService owner;
+
+        private final MutiMetrics registry;
+
+        private boolean written;
+
+        /**
+         * Compressed length, -1 until a registry is written.
+         */
+        @Getter
+        private final long gzipLength;
+
+        /**
+         * Uncompressed length, -1 until a registry is written.
+         */
+        @Getter
+        private long length;
+
+        private Exposition(byte[] gzipData, Path file, long gzipLength, long length) {
+            this.gzipData = gzipData;
+            this.file = file;
+            this.owner = null;
+            this.registry = null;
+            this.gzipLength = file == null ? gzipData.length : gzipLength;
+            this.length = length;
+        }
+
+        private Exposition(DataCacheService owner, MutiMetrics registry) {
+            this.gzipData = null;
+            this.file = null;
+            this.owner = owner;
+            this.registry = registry;
+            this.gzipLength = -1;
+            this.length = -1;
+        }
+
+        public void writeGzip(OutputStream out) throws IOException {
+            if (registry != null) {
+                GZIPOutputStream gzip = new GZIPOutputStream(out, 8192);
+                length = serialize(gzip);
+                // the caller closes the response
+                gzip.finish();
+            } else if (file == null) {
+                out.write(gzipData);
+            } else {
+                Files.copy(file, out);
+            }
+        }
+
+        public void write(OutputStream out) throws IOException {
+            if (registry != null) {
+                length = serialize(out);
+                return;
+            }
+            try (InputStream is = new GZIPInputStream(file == null ? new ByteArrayInputStream(gzipData) : Files.newInputStream(file), 8192)) {
+                ByteStreams.copy(is, out);
+            }
+        }
+
+        private long serialize(OutputStream out) throws IOException {
+            written = true;
+            return owner.serialize(registry, out);
+        }
+
+        @Override
+        public void close() {
+            if (file != null) {
+                deleteQuietly(file);
+            }
+            if (registry != null) {
+                if (!written) {
+                    owner.clearMetrics(registry);
+                }
+                owner.served(registry);
+            }
+        }
+
+        private static byte[] emptyGzip() {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try {
+                new GZIPOutputStream(buffer).close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return buffer.toByteArray();
+        }
+    }
 
-}
\ No newline at end of file
+}
@@ -19,12 +19,22 @@
 
 package org.apache.ozhera.trace.etl.consumer;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.util.concurrent.Monitor;
-import org.apache.ozhera.trace.etl.api.service.IEnterManager;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ozhera.trace.etl.api.service.IEnterManager;
+import org.apache.ozhera.trace.etl.metrics.EtlSelfMetrics;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BooleanSupplier;
 
 /**
@@ -32,8 +42,23 @@ import java.util.function.BooleanSupplier;
  * @date 2023/8/31 13:49
  */
 @Service
+@Slf4j
 public class EnterManager implements IEnterManager {
 
+    public static final String SWAP_MODE_MONITOR = "monitor";
+
+    public static final String SWAP_MODE_EPOCH = "epoch";
+
+    /**
+     * monitor: consumers block on the monitor while the registry is swapped.
+     * epoch: consumers never block, the swap only waits for batches of the previous epoch.
+     */
+    @Value("${metrics.swap.mode:epoch}")
+    private String swapMode;
+
+    @Resource
+    private EtlSelfMetrics etlSelfMetrics;
+
     @Getter
     private Monitor monitor = new Monitor();
 
@@ -46,6 +71,27 @@ public class EnterManager implements IEnterManager {
         }
     });
 
+    private final EpochGate epochGate = new EpochGate();
+
+    private final AtomicLong monitorSpans = new AtomicLong();
+
+    private final AtomicLong epochSpans = new AtomicLong();
+
+    private Timer swapPauseTimer;
+
+    private boolean epochMode;
+
+    @PostConstruct
+    public void init() {
+        epochMode = SWAP_MODE_EPOCH.equals(swapMode);
+        log.info("metrics swap mode:{}", epochMode ? SWAP_MODE_EPOCH : SWAP_MODE_MONITOR);
+        swapPauseTimer = Timer.builder("trace_etl_metrics_swap_pause")
+                .description("time spent waiting for consumers when the metrics registry is swapped")
+                .register(etlSelfMetrics.getRegistry());
+        Gauge.builder("trace_etl_metrics_epoch_spans", epochSpans, AtomicLong::get)
+                .description("spans processed between the last two registry swaps")
+                .register(etlSelfMetrics.getRegistry());
+    }
 
     public void enter() {
         monitor.enter();
@@ -57,4 +103,56 @@ public class EnterManager implements IEnterManager {
         return this.processNum;
     }
 
-}
\ No newline at end of file
+    @Override
+    public long begin() {
+        if (epochMode) {
+            return epochGate.begin();
+        }
+        enter();
+        processNum.incrementAndGet();
+        return 0;
+    }
+
+    @Override
+    public void end(long token, int spanCount) {
+        if (epochMode) {
+            epochGate.end(token, spanCount);
+            return;
+        }
+        monitorSpans.addAndGet(spanCount);
+        processNum.decrementAndGet();
+    }
+
+    @Override
+    public synchronized void swap(Runnable change) {
+        Stopwatch sw = Stopwatch.createStarted();
+        try {
+            if (epochMode) {
+                epochSpans.set(epochGate.advance(change));
+            } else {
+                swapWithMonitor(change);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("swap interrupted", e);
+        } finally {
+            long pause = sw.elapsed(TimeUnit.NANOSECONDS);
+            swapPauseTimer.record(pause, TimeUnit.NANOSECONDS);
+            log.info("change use time:{}ms", TimeUnit.NANOSECONDS.toMillis(pause));
+        }
+    }
+
+    private void swapWithMonitor(Runnable change) throws InterruptedException {
+        monitor.enter();
+        try {
+            while (processNum.get() > 0) {
+                TimeUnit.MILLISECONDS.sleep(20);
+            }
+            change.run();
+            epochSpans.set(monitorSpans.getAndSet(0));
+        } finally {
+            monitor.leave();
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.consumer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free epoch registration for consumer batches.
+ * <p>
+ * A batch increments the active counter of its thread stripe for the current epoch parity and re-checks the epoch,
+ * so it never blocks. {@link #advance(Runnable)} runs the registry change first, then bumps the epoch and waits only
+ * for batches still registered on the old parity. Any batch registered on the new parity started after the change,
+ * so it can not write into the old registry.
+ */
+class EpochGate {
+
+    /**
+     * 16 longs = 128 bytes between two hot slots, so two stripes never share a cache line.
+     */
+    private static final int PAD = 16;
+
+    private static final int STRIPE_BITS = 16;
+
+    private static final long STRIPE_MASK = (1L << STRIPE_BITS) - 1;
+
+    private final int stripes;
+
+    private final AtomicLongArray active;
+
+    private final AtomicLongArray spans;
+
+    private volatile long epoch;
+
+    EpochGate() {
+        this.stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        this.active = new AtomicLongArray(stripes * 2 * PAD);
+        this.spans = new AtomicLongArray(stripes * 2 * PAD);
+    }
+
+    long begin() {
+        int stripe = stripe();
+        while (true) {
+            long e = epoch;
+            int slot = slot(stripe, e);
+            active.incrementAndGet(slot);
+            if (epoch == e) {
+                return (e << STRIPE_BITS) | stripe;
+            }
+            // the epoch moved between the read and the registration, register on the new one
+            active.decrementAndGet(slot);
+        }
+    }
+
+    void end(long token, int spanCount) {
+        int slot = slot((int) (token & STRIPE_MASK), token >>> STRIPE_BITS);
+        if (spanCount > 0) {
+            spans.addAndGet(slot, spanCount);
+        }
+        active.decrementAndGet(slot);
+    }
+
+    /**
+     * Must not be called concurrently.
+     *
+     * @return number of spans processed by the batches of the finished epoch
+     */
+    long advance(Runnable change) {
+        change.run();
+        long old = epoch;
+        epoch = old + 1;
+        while (activeCount(old) > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+        }
+        long total = 0;
+        for (int i = 0; i < stripes; i++) {
+            total += spans.getAndSet(slot(i, old), 0);
+        }
+        return total;
+    }
+
+    private long activeCount(long e) {
+        long total = 0;
+        for (int i = 0; i < stripes; i++) {
+            total += active.get(slot(i, e));
+        }
+        return total;
+    }
+
+    private int slot(int stripe, long e) {
+        return ((stripe << 1) | (int) (e & 1)) * PAD;
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) & (stripes - 1));
+    }
+}
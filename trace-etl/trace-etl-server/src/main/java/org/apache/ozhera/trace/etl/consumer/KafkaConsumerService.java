@@ -22,16 +22,15 @@ package org.apache.ozhera.trace.etl.consumer;
 import com.alibaba.nacos.api.config.annotation.NacosValue;
 import org.apache.ozhera.trace.etl.api.service.IEnterManager;
 import org.apache.ozhera.trace.etl.api.service.IMetricsParseService;
-import org.apache.ozhera.trace.etl.api.service.MQExtension;
 import org.apache.ozhera.trace.etl.bo.MqConfig;
-import org.apache.ozhera.trace.etl.util.ThriftUtil;
+import org.apache.ozhera.trace.etl.extension.kafka.KafkaExtension;
+import org.apache.ozhera.trace.etl.util.SpanDecoder;
 import org.apache.ozhera.tspandata.TSpanData;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.rocketmq.client.exception.MQClientException;
-import org.apache.thrift.TDeserializer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -69,11 +68,27 @@ public class KafkaConsumerService {
     @Resource
     private IMetricsParseService metricsExporterService;
 
+    /**
+     * Poll the span values as byte[] and forward them unchanged, instead of decoding them to a String and back.
+     */
+    @Value("${mq.consumer.bytes:true}")
+    private boolean bytesMode;
+
+    /**
+     * Only decode the span fields the metrics use, events and links are skipped.
+     */
+    @Value("${mq.consumer.partial.decode:false}")
+    private boolean partialDecode;
+
     @Autowired
-    private MQExtension mq;
+    private KafkaExtension mq;
 
     @PostConstruct
     public void takeMessage() throws MQClientException {
+        if (bytesMode) {
+            takeBytesMessage();
+            return;
+        }
 
         MqConfig<ConsumerRecords<String, String>> config = new MqConfig<>();
         config.setNameSerAddr(nameSerAddr);
@@ -84,17 +99,18 @@ public class KafkaConsumerService {
         config.setConsumerTopicName(topicName);
 
         config.setConsumerMethod((records)->{
-            enterManager.enter();
-            enterManager.getProcessNum().incrementAndGet();
+            long token = enterManager.begin();
+            int spanCount = 0;
             try {
                 List<ProducerRecord<String, String>> producerRecordList = new ArrayList<>();
                 for (ConsumerRecord<String, String> message : records) {
                     String traceId = "";
                     try {
-                        TSpanData tSpanData = new TSpanData();
-                        new TDeserializer(ThriftUtil.PROTOCOL_FACTORY).deserialize(tSpanData, message.value().getBytes(StandardCharsets.ISO_8859_1));
+                        byte[] bytes = message.value().getBytes(StandardCharsets.ISO_8859_1);
+                        TSpanData tSpanData = SpanDecoder.get().decode(bytes, 0, bytes.length, partialDecode);
                         traceId = tSpanData.getTraceId();
                         metricsExporterService.parse(tSpanData);
+                        spanCount++;
                     } catch (Throwable t) {
                         log.error("consumer message error", t);
                     }
@@ -105,11 +121,54 @@ public class KafkaConsumerService {
                 }
                 return true;
             } finally {
-                enterManager.getProcessNum().decrementAndGet();
+                enterManager.end(token, spanCount);
             }
         });
 
         mq.initMq(config);
     }
 
-}
\ No newline at end of file
+    private void takeBytesMessage() {
+        MqConfig<ConsumerRecords<String, byte[]>> config = new MqConfig<>();
+        config.setNameSerAddr(nameSerAddr);
+        config.setProducerGroup(producerGroup);
+        config.setProducerTopicName(esTopicName);
+
+        config.setConsumerGroup(consumerGroup);
+        config.setConsumerTopicName(topicName);
+
+        config.setConsumerMethod((records) -> {
+            long token = enterManager.begin();
+            int spanCount = 0;
+            try {
+                SpanDecoder decoder = SpanDecoder.get();
+                List<ProducerRecord<String, byte[]>> producerRecordList = new ArrayList<>(records.count());
+                for (ConsumerRecord<String, byte[]> message : records) {
+                    String traceId = "";
+                    byte[] value = message.value();
+                    boolean raw = message.headers().lastHeader(SpanDecoder.FORMAT_HEADER) != null;
+                    try {
+                        TSpanData tSpanData = raw ? decoder.decode(value, 0, value.length, partialDecode)
+                                : decoder.decodeUtf8Latin1(value, partialDecode);
+                        traceId = tSpanData.getTraceId();
+                        metricsExporterService.parse(tSpanData);
+                        spanCount++;
+                    } catch (Throwable t) {
+                        log.error("consumer message error", t);
+                    }
+                    // the es consumer still reads the span as latin1 text
+                    producerRecordList.add(new ProducerRecord<>(esTopicName, traceId, raw ? SpanDecoder.latin1ToUtf8(value) : value));
+                }
+                if (producerRecordList.size() > 0) {
+                    mq.sendBytes(producerRecordList);
+                }
+                return true;
+            } finally {
+                enterManager.end(token, spanCount);
+            }
+        });
+
+        mq.initBytesMq(config);
+    }
+
+}
@@ -27,10 +27,14 @@ import org.apache.ozhera.trace.etl.constant.SpanKind;
 import org.apache.ozhera.trace.etl.constant.SpanType;
 import org.apache.ozhera.trace.etl.domain.DriverDomain;
 import org.apache.ozhera.trace.etl.domain.ErrorTraceMessage;
-import org.apache.ozhera.trace.etl.domain.HeraTraceEtlConfig;
 import org.apache.ozhera.trace.etl.domain.JaegerTracerDomain;
 import org.apache.ozhera.trace.etl.domain.MetricsParseResult;
+import org.apache.ozhera.trace.etl.metrics.HeraMetric;
+import org.apache.ozhera.trace.etl.metrics.LabelTuple;
+import org.apache.ozhera.trace.etl.metrics.MetricsCatalog;
 import org.apache.ozhera.trace.etl.service.HeraContextService;
+import org.apache.ozhera.trace.etl.service.config.TraceConfigEntry;
+import org.apache.ozhera.trace.etl.util.ExcludeMatcher;
 import org.apache.ozhera.trace.etl.util.ThriftUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
@@ -105,14 +109,14 @@ public class MetricsParseService implements IMetricsParseService {
     @Autowired
     private MutiMetricsCall mutiMetrics;
 
+    @Autowired
+    private MetricsCatalog metricsCatalog;
+
     @PostConstruct
     public void init() {
         mutiMetrics.init(env, "");
     }
 
-    private static final double[] redisBuckets = new double[]{0.1D, 0.5D, 1.0D, 10.0D, 100.0D, 500.0D, 1000.0D};
-    private static final double[] aopDubboBuckets = new double[]{50.0D, 100.0D, 150.0D, 200.0D, 250.0D, 300.0D, 400.0D, 500.0D, 700.0D, 1000.0D, 2000.0D, 3000.0D, 5000.0D};
-    private static final double[] sqlBuckets = new double[]{10.0D, 50.0D, 100.0D, 500.0D, 1000.0D};
     private static final String DB_DRIVER = "dbDriver";
 
     public void parse(TSpanData tSpanData) {
@@ -125,12 +129,13 @@ public class MetricsParseService implements IMetricsParseService {
             // Collect information such as span source, QPS, daily total, etc.
             traceStatistics(serviceName);
             // Parse TSpanData and convert it into an indicator class.
-            MetricsParseResult metricsParseResult = metricsParse(tSpanData);
+            TraceConfigEntry config = traceConfig.getEntry(serviceName);
+            MetricsParseResult metricsParseResult = metricsParse(tSpanData, config);
             if (metricsParseResult.isIgnore()) {
                 return;
             }
             if (metricsParseResult.isValidate()) {
-                computeMetrics(metricsParseResult.getJaegerTracerDomain(), metricsParseResult.getHeraTraceEtlConfig());
+                computeMetrics(metricsParseResult.getJaegerTracerDomain(), config);
             }
             if (metricsParseResult.getDriverDomain() != null) {
                 esService.insertDriver(metricsParseResult.getDriverDomain());
@@ -142,19 +147,20 @@ public class MetricsParseService implements IMetricsParseService {
     }
 
     private void traceStatistics(String applicationName) {
-        mutiMetrics.newCounter("trace_statistics_span_count", "application")
-                .with(applicationName)
-                .add(1, applicationName);
+        metricsCatalog.inc(HeraMetric.TRACE_STATISTICS_SPAN_COUNT, LabelTuple.of(applicationName));
     }
 
     public MetricsParseResult metricsParse(TSpanData tSpanData) {
+        return metricsParse(tSpanData, traceConfig.getEntry(tSpanData.getExtra().getServiceName()));
+    }
+
+    private MetricsParseResult metricsParse(TSpanData tSpanData, TraceConfigEntry config) {
         String serviceName = tSpanData.getExtra().getServiceName();
         if (StringUtils.isEmpty(serviceName) || exclude(excludeServiceName, serviceName)) {
             return new MetricsParseResult(true);
         }
-        HeraTraceEtlConfig config = defaultConfig(traceConfig.getConfig(serviceName));
         String operationName = tSpanData.getName();
-        if (StringUtils.isEmpty(operationName) || exclude(config == null ? excludeMethod : config.getExcludeMethod(), operationName)) {
+        if (StringUtils.isEmpty(operationName) || exclude(config == null ? null : config.getExcludeMethod(), excludeMethod, operationName)) {
             return new MetricsParseResult(true);
         }
         DriverDomain driverDomain = null;
@@ -189,96 +195,8 @@ public class MetricsParseService implements IMetricsParseService {
         List<TValue> tagsValues = attributes.getValues();
         boolean isValidate = true;
         if (tagsKeys != null && tagsValues != null && tagsKeys.size() > 0 && tagsKeys.size() == tagsValues.size()) {
-            for (int i = 0; i < tagsKeys.size(); i++) {
-                String key = tagsKeys.get(i).getValue();
-                String value = ThriftUtil.getStringValue(tagsValues.get(i), tagsKeys.get(i).getType());
-                if ("thread.name".equals(key) && exclude(config == null ? excludeThread : config.getExcludeThread(), value)) {
-                    isValidate = false;
-                    break;
-                }
-                if ("http.url".equals(key) && exclude(config == null ? excludeHttpurl : config.getExcludeHttpUrl(), value)) {
-                    isValidate = false;
-                    break;
-                }
-                if ("http.user_agent".equals(key) && exclude(config == null ? excludeUA : config.getExcludeUa(), value)) {
-                    isValidate = false;
-                    break;
-                }
-                if ("db.statement".equals(key) && exclude(config == null ? excludeDB : config.getExcludeSql(), value)) {
-                    isValidate = false;
-                    break;
-                }
-                if ("http.status_code".equals(key)) {
-                    jtd.setHttpCode(value);
-                }
-                if ("rpc.system".equals(key)) {
-                    jtd.setType(value);
-                }
-                if ("rpc.method".equals(key)) {
-                    if(excludeDubboMethod){
-                        jtd.setMethod(DEFAULT_DUBBO_METHOD);
-                    }else {
-                        jtd.setMethod(value);
-                    }
-                }
-                if ("rpc.service".equals(key)) {
-                    jtd.setRpcServiceName(value);
-                }
-                if ("span.kind".equals(key)) {
-                    jtd.setKind(value);
-                }
-                if ("db.system".equals(key)) {
-                    jtd.setType(value);
-                }
-                if ("db.statement".equals(key)) {
-                    jtd.setStatement(value);
-                }
-                if ("http.method".equals(key)) {
-                    jtd.setType("aop");
-                }
-                if ("net.peer.name".equals(key) || "net.peer.ip".equals(key)) {
-                    jtd.setDbHost(value);
-                }
-                if ("net.peer.port".equals(key)) {
-                    jtd.setDbPort(value);
-                }
-                if ("error".equals(key) && Boolean.valueOf(value)) {
-                    jtd.setSuccess(false);
-                }
-                if ("db.connection_string".equals(key)) {
-                    jtd.setDataSource(value);
-                }
-                if ("db.operation".equals(key)) {
-                    jtd.setSqlMethod(value);
-                }
-                if ("db.name".equals(key)) {
-                    jtd.setDbName(value);
-                }
-                if ("messaging.system".equals(key)) {
-                    jtd.setType(value);
-                }
-                if ("messaging.destination".equals(key)) {
-                    jtd.setTopic(value);
-                }
-                if ("hera.annotations".equals(key) && Boolean.valueOf(value)) {
-                    jtd.setType(SpanType.CUSTOMIZE_MTTHOD);
-                }
-                //deal db driver
-                if (driverDomain != null && "db.driver.domainPort".equals(key)) {
-                    driverDomain.setDomainPort(value);
-                }
-                if (driverDomain != null && "db.driver.userName".equals(key)) {
-                    driverDomain.setUserName(value);
-                }
-                if (driverDomain != null && "db.driver.password".equals(key)) {
-                    driverDomain.setPassword(value);
-                }
-                if (driverDomain != null && "db.driver.type".equals(key)) {
-                    driverDomain.setType(value);
-                }
-                if (driverDomain != null && "db.driver.dbName".equals(key)) {
-                    driverDomain.setDataBaseName(value);
-                }
+            for (int i = 0; i < tagsKeys.size() && isValidate; i++) {
+                isValidate = applyTag(tagsKeys.get(i), tagsValues.get(i), jtd, driverDomain, config);
             }
         }
         // Gets the properties in process
@@ -289,33 +207,147 @@ public class MetricsParseService implements IMetricsParseService {
             List<TValue> resourceValues = resourceAttributes.getValues();
             if (resourceKeys != null && resourceValues != null && resourceKeys.size() > 0) {
                 for (int i = 0; i < resourceKeys.size(); i++) {
-                    String key = resourceKeys.get(i).getValue();
-                    String value = ThriftUtil.getStringValue(resourceValues.get(i), resourceKeys.get(i).getType());
-                    if ("service.env".equals(key)) {
-                        jtd.setServiceEnv(value);
-                    }
-                    if ("service.function.module".equals(key)) {
-                        jtd.setFunctionModule(value);
-                    }
-                    if ("service.function.name".equals(key)) {
-                        jtd.setFunctionName(value);
-                    }
-                    if ("service.function.id".equals(key)) {
-                        jtd.setFunctionId(value);
-                    }
-                    if ("service.env.id".equals(key)) {
-                        jtd.setServiceEnvId(value);
-                    }
+                    applyResource(resourceKeys.get(i), resourceValues.get(i), jtd);
                 }
             }
         }
         if (StringUtils.isEmpty(jtd.getServiceEnv())) {
             jtd.setServiceEnv("default_env");
         }
-        return new MetricsParseResult(jtd, driverDomain, false, isValidate, config);
+        return new MetricsParseResult(jtd, driverDomain, false, isValidate, config == null ? null : config.getConfig());
     }
 
-    private void computeMetrics(JaegerTracerDomain jtc, HeraTraceEtlConfig config) {
+    /**
+     * Dispatch one span tag by key, the value is only decoded for the keys that are used.
+     *
+     * @return false if the span is excluded
+     */
+    private boolean applyTag(TAttributeKey attributeKey, TValue attributeValue, JaegerTracerDomain jtd, DriverDomain driverDomain, TraceConfigEntry config) {
+        String key = attributeKey.getValue();
+        if (key == null) {
+            return true;
+        }
+        switch (key) {
+            case "thread.name":
+                return !exclude(config == null ? null : config.getExcludeThread(), excludeThread, ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+            case "http.url":
+                return !exclude(config == null ? null : config.getExcludeHttpUrl(), excludeHttpurl, ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+            case "http.user_agent":
+                return !exclude(config == null ? null : config.getExcludeUa(), excludeUA, ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+            case "db.statement": {
+                String value = ThriftUtil.getStringValue(attributeValue, attributeKey.getType());
+                if (exclude(config == null ? null : config.getExcludeSql(), excludeDB, value)) {
+                    return false;
+                }
+                jtd.setStatement(value);
+                return true;
+            }
+            case "http.status_code":
+                jtd.setHttpCode(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                return true;
+            case "rpc.system":
+            case "db.system":
+            case "messaging.system":
+                jtd.setType(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                return true;
+            case "rpc.method":
+                jtd.setMethod(excludeDubboMethod ? DEFAULT_DUBBO_METHOD : ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                return true;
+            case "rpc.service":
+                jtd.setRpcServiceName(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                return true;
+            case "span.kind":
+                jtd.setKind(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                return true;
+            case "http.method":
+                jtd.setType("aop");
+                return true;
+            case "net.peer.name":
+            case "net.peer.ip":
+                jtd.setDbHost(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                return true;
+            case "net.peer.port":
+                jtd.setDbPort(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                return true;
+            case "error":
+                if (Boolean.valueOf(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()))) {
+                    jtd.setSuccess(false);
+                }
+                return true;
+            case "db.connection_string":
+                jtd.setDataSource(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                return true;
+            case "db.operation":
+                jtd.setSqlMethod(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                return true;
+            case "db.name":
+                jtd.setDbName(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                return true;
+            case "messaging.destination":
+                jtd.setTopic(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                return true;
+            case "hera.annotations":
+                if (Boolean.valueOf(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()))) {
+                    jtd.setType(SpanType.CUSTOMIZE_MTTHOD);
+                }
+                return true;
+            default:
+                if (driverDomain != null && key.startsWith("db.driver.")) {
+                    applyDriverTag(key, ThriftUtil.getStringValue(attributeValue, attributeKey.getType()), driverDomain);
+                }
+                return true;
+        }
+    }
+
+    private void applyDriverTag(String key, String value, DriverDomain driverDomain) {
+        switch (key) {
+            case "db.driver.domainPort":
+                driverDomain.setDomainPort(value);
+                break;
+            case "db.driver.userName":
+                driverDomain.setUserName(value);
+                break;
+            case "db.driver.password":
+                driverDomain.setPassword(value);
+                break;
+            case "db.driver.type":
+                driverDomain.setType(value);
+                break;
+            case "db.driver.dbName":
+                driverDomain.setDataBaseName(value);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void applyResource(TAttributeKey attributeKey, TValue attributeValue, JaegerTracerDomain jtd) {
+        String key = attributeKey.getValue();
+        if (key == null) {
+            return;
+        }
+        switch (key) {
+            case "service.env":
+                jtd.setServiceEnv(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                break;
+            case "service.function.module":
+                jtd.setFunctionModule(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                break;
+            case "service.function.name":
+                jtd.setFunctionName(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                break;
+            case "service.function.id":
+                jtd.setFunctionId(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                break;
+            case "service.env.id":
+                jtd.setServiceEnvId(ThriftUtil.getStringValue(attributeValue, attributeKey.getType()));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void computeMetrics(JaegerTracerDomain jtc, TraceConfigEntry config) {
         if (StringUtils.isEmpty(jtc.getType())) {
             return;
         }
@@ -336,320 +368,196 @@ public class MetricsParseService implements IMetricsParseService {
         jtc.setMetricsServiceName(metricsServiceName);
         // http request
         if (SpanType.HTTP.equals(jtc.getType())) {
-            String httpMetricsName = "hera_";
+            LabelTuple methodLabels = LabelTuple.of(jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+            LabelTuple applicationLabels = LabelTuple.of(metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
             if (SpanKind.SERVER.equals(jtc.getKind())) {
                 // Filters http server counters
-                if (exclude(config == null ? excludeHttpServer : config.getExcludeHttpserverMethod(), jtc.getMethod())) {
+                if (exclude(config == null ? null : config.getExcludeHttpserverMethod(), excludeHttpServer, jtc.getMethod())) {
                     return;
                 }
-                mutiMetrics.newCounter(httpMetricsName + jtc.getType() + "TotalMethodCount", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                        .with(jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.inc(HeraMetric.HTTP_SERVER_TOTAL_COUNT, methodLabels);
                 // success or fail counter
                 if (jtc.isSuccess()) {
-                    mutiMetrics.newCounter(httpMetricsName + jtc.getType() + "SuccessMethodCount", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.HTTP_SERVER_SUCCESS_COUNT, methodLabels);
                     // slow query
-                    if (jtc.getDuration() > (config == null ? httpSlowTime : config.getHttpSlowThreshold())) {
-                        mutiMetrics.newCounter(httpMetricsName + "httpSlowQuery", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                                .with(jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                                .add(1, jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    if (jtc.getDuration() > (config == null ? httpSlowTime : config.httpSlowThreshold(httpSlowTime))) {
+                        metricsCatalog.inc(HeraMetric.HTTP_SERVER_SLOW_COUNT, methodLabels);
                         esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "http", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "timeout", jtc.getHttpCode(), jtc.getServiceEnv()));
                     }
                 } else {
-                    mutiMetrics.newCounter(httpMetricsName + "httpError", "methodName", "application", "serverIp", "errorCode", "serverEnv", "serverEnvId")
-                            .with(jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getHttpCode(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getHttpCode(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.HTTP_SERVER_ERROR_COUNT, LabelTuple.of(jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getHttpCode(), jtc.getServiceEnv(), jtc.getServiceEnvId()));
                     esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "http", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "error", jtc.getHttpCode(), jtc.getServiceEnv()));
                 }
-                mutiMetrics.newHistogram(httpMetricsName + jtc.getType() + "MethodTimeCount", aopDubboBuckets, new String[]{"methodName", "application", "serverIp", "serverEnv", "serverEnvId"})
-                        .with(jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .observe(jtc.getDuration(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                mutiMetrics.newHistogram(httpMetricsName + jtc.getType() + "MethodTimeCount_without_methodName", aopDubboBuckets, new String[]{"application", "serverIp", "serverEnv", "serverEnvId"})
-                        .with(metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .observe(jtc.getDuration(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.observe(HeraMetric.HTTP_SERVER_DURATION_HISTOGRAM, methodLabels, jtc.getDuration());
+                metricsCatalog.observe(HeraMetric.HTTP_SERVER_DURATION_HISTOGRAM_WITHOUT_METHOD, applicationLabels, jtc.getDuration());
             } else if (SpanKind.CLIENT.equals(jtc.getKind())) {
-                mutiMetrics.newCounter(httpMetricsName + jtc.getType() + "ClientTotalMethodCount", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                        .with(jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.inc(HeraMetric.HTTP_CLIENT_TOTAL_COUNT, methodLabels);
                 if (jtc.isSuccess()) {
-                    mutiMetrics.newCounter(httpMetricsName + jtc.getType() + "ClientSuccessMethodCount", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                    if (jtc.getDuration() > (config == null ? httpSlowTime : config.getHttpSlowThreshold())) {
-                        mutiMetrics.newCounter(httpMetricsName + "httpClientSlowQuery", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                                .with(jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                                .add(1, jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.HTTP_CLIENT_SUCCESS_COUNT, methodLabels);
+                    if (jtc.getDuration() > (config == null ? httpSlowTime : config.httpSlowThreshold(httpSlowTime))) {
+                        metricsCatalog.inc(HeraMetric.HTTP_CLIENT_SLOW_COUNT, methodLabels);
                         esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "http_client", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "timeout", jtc.getHttpCode(), jtc.getServiceEnv()));
                     }
                 } else {
-                    mutiMetrics.newCounter(httpMetricsName + "httpClientError", "methodName", "application", "serverIp", "errorCode", "serverEnv", "serverEnvId")
-                            .with(jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getHttpCode(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getHttpCode(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.HTTP_CLIENT_ERROR_COUNT, LabelTuple.of(jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getHttpCode(), jtc.getServiceEnv(), jtc.getServiceEnvId()));
                     esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "http_client", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "error", jtc.getHttpCode(), jtc.getServiceEnv()));
                 }
-                mutiMetrics.newHistogram(httpMetricsName + jtc.getType() + "ClientMethodTimeCount", aopDubboBuckets, new String[]{"methodName", "application", "serverIp", "serverEnv", "serverEnvId"})
-                        .with(jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .observe(jtc.getDuration(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                mutiMetrics.newHistogram(httpMetricsName + jtc.getType() + "ClientMethodTimeCount_without_methodName", aopDubboBuckets, new String[]{"application", "serverIp", "serverEnv", "serverEnvId"})
-                        .with(metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .observe(jtc.getDuration(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.observe(HeraMetric.HTTP_CLIENT_DURATION_HISTOGRAM, methodLabels, jtc.getDuration());
+                metricsCatalog.observe(HeraMetric.HTTP_CLIENT_DURATION_HISTOGRAM_WITHOUT_METHOD, applicationLabels, jtc.getDuration());
             }
         }
         // dubbo request
         if (SpanType.DUBBO.equals(jtc.getType())) {
-            String dubboMetricsName = "hera_";
+            LabelTuple rpcMethodLabels = LabelTuple.of(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+            LabelTuple rpcServiceLabels = LabelTuple.of(jtc.getRpcServiceName(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
             if (SpanKind.CLIENT.equals(jtc.getKind())) {
-                mutiMetrics.newHistogram(dubboMetricsName + "dubboConsumerTimeCost", aopDubboBuckets, new String[]{"serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId"})
-                        .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .observe(jtc.getDuration(), jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                mutiMetrics.newHistogram(dubboMetricsName + "dubboConsumerTimeCost_without_methodName", aopDubboBuckets, new String[]{"serviceName", "application", "serverIp", "serverEnv", "serverEnvId"})
-                        .with(jtc.getRpcServiceName(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .observe(jtc.getDuration(), jtc.getRpcServiceName(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                mutiMetrics.newCounter(dubboMetricsName + "dubboBisTotalCount", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                        .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.observe(HeraMetric.DUBBO_CLIENT_DURATION_HISTOGRAM, rpcMethodLabels, jtc.getDuration());
+                metricsCatalog.observe(HeraMetric.DUBBO_CLIENT_DURATION_HISTOGRAM_WITHOUT_METHOD, rpcServiceLabels, jtc.getDuration());
+                metricsCatalog.inc(HeraMetric.DUBBO_CLIENT_TOTAL_COUNT, rpcMethodLabels);
                 if (jtc.isSuccess()) {
-                    mutiMetrics.newCounter(dubboMetricsName + "dubboBisSuccessCount", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                    if (jtc.getDuration() > (config == null ? dubboSlowTime : config.getDubboSlowThreshold())) {
-                        mutiMetrics.newCounter(dubboMetricsName + "dubboConsumerSlowQuery", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                                .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                                .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.DUBBO_CLIENT_SUCCESS_COUNT, rpcMethodLabels);
+                    if (jtc.getDuration() > (config == null ? dubboSlowTime : config.dubboSlowThreshold(dubboSlowTime))) {
+                        metricsCatalog.inc(HeraMetric.DUBBO_CLIENT_SLOW_COUNT, rpcMethodLabels);
                         esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getRpcServiceName() + "/" + jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "dubbo_consumer", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "timeout", jtc.getHttpCode(), jtc.getServiceEnv()));
                     }
                 } else {
-                    mutiMetrics.newCounter(dubboMetricsName + "dubboConsumerError", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.DUBBO_CLIENT_ERROR_COUNT, rpcMethodLabels);
                     esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getRpcServiceName() + "/" + jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "dubbo_consumer", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "error", jtc.getHttpCode(), jtc.getServiceEnv()));
                 }
             } else if (SpanKind.SERVER.equals(jtc.getKind())) {
-                mutiMetrics.newCounter(dubboMetricsName + "dubboMethodCalledCount", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                        .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                mutiMetrics.newHistogram(dubboMetricsName + "dubboProviderCount", aopDubboBuckets, new String[]{"serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId"})
-                        .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .observe(jtc.getDuration(), jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                mutiMetrics.newHistogram(dubboMetricsName + "dubboProviderCount_without_methodName", aopDubboBuckets, new String[]{"serviceName", "application", "serverIp", "serverEnv", "serverEnvId"})
-                        .with(jtc.getRpcServiceName(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .observe(jtc.getDuration(), jtc.getRpcServiceName(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.inc(HeraMetric.DUBBO_SERVER_TOTAL_COUNT, rpcMethodLabels);
+                metricsCatalog.observe(HeraMetric.DUBBO_SERVER_DURATION_HISTOGRAM, rpcMethodLabels, jtc.getDuration());
+                metricsCatalog.observe(HeraMetric.DUBBO_SERVER_DURATION_HISTOGRAM_WITHOUT_METHOD, rpcServiceLabels, jtc.getDuration());
                 if (jtc.isSuccess()) {
-                    mutiMetrics.newCounter(dubboMetricsName + "dubboMethodCalledSuccessCount", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                    if (jtc.getDuration() > (config == null ? dubboSlowTime : config.getDubboSlowThreshold())) {
-                        mutiMetrics.newCounter(dubboMetricsName + "dubboProviderSlowQuery", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                                .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                                .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.DUBBO_SERVER_SUCCESS_COUNT, rpcMethodLabels);
+                    if (jtc.getDuration() > (config == null ? dubboSlowTime : config.dubboSlowThreshold(dubboSlowTime))) {
+                        metricsCatalog.inc(HeraMetric.DUBBO_SERVER_SLOW_COUNT, rpcMethodLabels);
                         esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getRpcServiceName() + "/" + jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "dubbo_provider", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "timeout", jtc.getHttpCode(), jtc.getServiceEnv()));
                     }
                 } else {
-                    mutiMetrics.newCounter(dubboMetricsName + "dubboProviderError", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.DUBBO_SERVER_ERROR_COUNT, rpcMethodLabels);
                     esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getRpcServiceName() + "/" + jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "dubbo_provider", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "error", jtc.getHttpCode(), jtc.getServiceEnv()));
                 }
             }
         }
         // redis
         if (SpanType.REDIS.equals(jtc.getType())) {
-            String redisMetricsName = "hera_";
+            LabelTuple redisLabels = LabelTuple.of(reduceString(jtc.getMethod(), 100), jtc.getDbHost(), jtc.getDbPort(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
             if (jtc.isSuccess()) {
-                mutiMetrics.newCounter(redisMetricsName + "RedisSuccessCount", "method", "host", "port", "application", "serverIp", "serverEnv", "serverEnvId")
-                        .with(reduceString(jtc.getMethod(), 100), jtc.getDbHost(), jtc.getDbPort(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, reduceString(jtc.getMethod(), 100), jtc.getDbHost(), jtc.getDbPort(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.inc(HeraMetric.REDIS_SUCCESS_COUNT, redisLabels);
             } else {
-                mutiMetrics.newCounter(redisMetricsName + "redisError", "method", "host", "port", "application", "serverIp", "serverEnv", "serverEnvId")
-                        .with(reduceString(jtc.getMethod(), 100), jtc.getDbHost(), jtc.getDbPort(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, reduceString(jtc.getMethod(), 100), jtc.getDbHost(), jtc.getDbPort(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.inc(HeraMetric.REDIS_ERROR_COUNT, redisLabels);
                 esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "redis", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), jtc.getDbHost() + ":" + jtc.getDbPort(), String.valueOf(jtc.getDuration()), "error", jtc.getHttpCode(), jtc.getServiceEnv()));
             }
-            mutiMetrics.newCounter(redisMetricsName + "RedisTotalCount", "method", "host", "port", "application", "serverIp", "serverEnv", "serverEnvId")
-                    .with(reduceString(jtc.getMethod(), 100), jtc.getDbHost(), jtc.getDbPort(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                    .add(1, reduceString(jtc.getMethod(), 100), jtc.getDbHost(), jtc.getDbPort(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-            mutiMetrics.newHistogram(redisMetricsName + "RedisMethodTimeCost", redisBuckets, new String[]{"method", "host", "port", "application", "serverIp", "serverEnv", "serverEnvId"})
-                    .with(reduceString(jtc.getMethod(), 100), jtc.getDbHost(), jtc.getDbPort(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                    .observe(jtc.getDuration(), reduceString(jtc.getMethod(), 100), jtc.getDbHost(), jtc.getDbPort(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+            metricsCatalog.inc(HeraMetric.REDIS_TOTAL_COUNT, redisLabels);
+            metricsCatalog.observe(HeraMetric.REDIS_DURATION_HISTOGRAM, redisLabels, jtc.getDuration());
         }
         // mysql
         if (SpanType.MYSQL.equals(jtc.getType())) {
-            String mysqlMetricsName = "hera_";
+            LabelTuple sqlLabels = LabelTuple.of(jtc.getDataSource() + "/" + jtc.getDbName(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
             if (jtc.isSuccess()) {
-                mutiMetrics.newCounter(mysqlMetricsName + "sqlSuccessCount", "dataSource", "sqlMethod", "sql", "application", "serverIp", "serverEnv", "serverEnvId")
-                        .with(jtc.getDataSource() + "/" + jtc.getDbName(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, jtc.getDataSource() + "/" + jtc.getDbName(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                if (jtc.getDuration() > (config == null ? mysqlSlowTime : config.getMysqlSlowThreshold())) {
-                    mutiMetrics.newCounter(mysqlMetricsName + "dbSlowQuery", "dataSource", "sqlMethod", "sql", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getDataSource() + "/" + jtc.getDbName(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getDataSource() + "/" + jtc.getDbName(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.inc(HeraMetric.MYSQL_SUCCESS_COUNT, sqlLabels);
+                if (jtc.getDuration() > (config == null ? mysqlSlowTime : config.mysqlSlowThreshold(mysqlSlowTime))) {
+                    metricsCatalog.inc(HeraMetric.MYSQL_SLOW_COUNT, sqlLabels);
                     esService.insertErrorTrace(new ErrorTraceMessage(esDomain, reduceString(jtc.getSql(), 200), metricsServiceName, jtc.getTraceId(), "mysql", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), jtc.getDataSource() + "/" + jtc.getDbName(), String.valueOf(jtc.getDuration()), "timeout", jtc.getHttpCode(), jtc.getServiceEnv()));
                 }
             } else {
-                mutiMetrics.newCounter(mysqlMetricsName + "dbError", "dataSource", "sqlMethod", "sql", "application", "serverIp", "serverEnv", "serverEnvId")
-                        .with(jtc.getDataSource() + "/" + jtc.getDbName(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, jtc.getDataSource() + "/" + jtc.getDbName(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.inc(HeraMetric.MYSQL_ERROR_COUNT, sqlLabels);
                 esService.insertErrorTrace(new ErrorTraceMessage(esDomain, reduceString(jtc.getSql(), 200), metricsServiceName, jtc.getTraceId(), "mysql", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), jtc.getDataSource() + "/" + jtc.getDbName(), String.valueOf(jtc.getDuration()), "error", jtc.getHttpCode(), jtc.getServiceEnv()));
             }
-            mutiMetrics.newCounter(mysqlMetricsName + "sqlTotalCount", "dataSource", "sqlMethod", "sql", "application", "serverIp", "serverEnv", "serverEnvId")
-                    .with(jtc.getDataSource() + "/" + jtc.getDbName(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                    .add(1, jtc.getDataSource() + "/" + jtc.getDbName(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-            mutiMetrics.newHistogram(mysqlMetricsName + "sqlTotalTimer", sqlBuckets, new String[]{"dataSource", "sqlMethod", "sql", "application", "serverIp", "serverEnv", "serverEnvId"})
-                    .with(jtc.getDataSource() + "/" + jtc.getDbName(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                    .observe(jtc.getDuration(), jtc.getDataSource() + "/" + jtc.getDbName(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+            metricsCatalog.inc(HeraMetric.MYSQL_TOTAL_COUNT, sqlLabels);
+            metricsCatalog.observe(HeraMetric.MYSQL_DURATION_HISTOGRAM, sqlLabels, jtc.getDuration());
         }
         // MongoDB
         if (SpanType.MONGODB.equals(jtc.getType())) {
-            String mysqlMetricsName = "hera_";
+            LabelTuple mongoLabels = LabelTuple.of(jtc.getDataSource(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
             if (jtc.isSuccess()) {
-                mutiMetrics.newCounter(mysqlMetricsName + "mongoSuccessCount", "dataSource", "method", "command", "application", "serverIp", "serverEnv", "serverEnvId")
-                        .with(jtc.getDataSource(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, jtc.getDataSource(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.inc(HeraMetric.MONGO_SUCCESS_COUNT, mongoLabels);
                 if (jtc.getDuration() > mysqlSlowTime) {
-                    mutiMetrics.newCounter(mysqlMetricsName + "mongodbSlowQuery", "dataSource", "method", "command", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getDataSource(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getDataSource(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.MONGO_SLOW_COUNT, mongoLabels);
                     esService.insertErrorTrace(new ErrorTraceMessage(esDomain, reduceString(jtc.getSql(), 200), metricsServiceName, jtc.getTraceId(), SpanType.MONGODB, jtc.getServerIp(), String.valueOf(jtc.getEndTime()), jtc.getDataSource(), String.valueOf(jtc.getDuration()), "timeout", jtc.getHttpCode(), jtc.getServiceEnv()));
                 }
             } else {
-                mutiMetrics.newCounter(mysqlMetricsName + "mongodbError", "dataSource", "method", "command", "application", "serverIp", "serverEnv", "serverEnvId")
-                        .with(jtc.getDataSource(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, jtc.getDataSource(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.inc(HeraMetric.MONGO_ERROR_COUNT, mongoLabels);
                 esService.insertErrorTrace(new ErrorTraceMessage(esDomain, reduceString(jtc.getSql(), 200), metricsServiceName, jtc.getTraceId(), SpanType.MONGODB, jtc.getServerIp(), String.valueOf(jtc.getEndTime()), jtc.getDataSource(), String.valueOf(jtc.getDuration()), "error", jtc.getHttpCode(), jtc.getServiceEnv()));
             }
-            mutiMetrics.newCounter(mysqlMetricsName + "mongoTotalCount", "dataSource", "method", "command", "application", "serverIp", "serverEnv", "serverEnvId")
-                    .with(jtc.getDataSource(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                    .add(1, jtc.getDataSource(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-            mutiMetrics.newHistogram(mysqlMetricsName + "mongoTotalTimer", sqlBuckets, new String[]{"dataSource", "method", "command", "application", "serverIp", "serverEnv", "serverEnvId"})
-                    .with(jtc.getDataSource(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                    .observe(jtc.getDuration(), jtc.getDataSource(), jtc.getSqlMethod(), reduceString(jtc.getSql(), 100), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+            metricsCatalog.inc(HeraMetric.MONGO_TOTAL_COUNT, mongoLabels);
+            metricsCatalog.observe(HeraMetric.MONGO_DURATION_HISTOGRAM, mongoLabels, jtc.getDuration());
         }
         // rocketmq
         if (SpanType.ROCKETMQ.equals(jtc.getType())) {
-            String metricsName = "hera_";
+            LabelTuple topicLabels = LabelTuple.of(jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
             if (SpanKind.PRODUCER.equals(jtc.getKind())) {
-                mutiMetrics.newHistogram(metricsName + "rocketmqProducerTimeCost", aopDubboBuckets, new String[]{"topic", "application", "serverIp", "serverEnv", "serverEnvId"})
-                        .with(jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .observe(jtc.getDuration(), jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                mutiMetrics.newCounter(metricsName + "rocketmqProducerTotalCount", "topic", "application", "serverIp", "serverEnv", "serverEnvId")
-                        .with(jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.observe(HeraMetric.ROCKETMQ_PRODUCER_DURATION_HISTOGRAM, topicLabels, jtc.getDuration());
+                metricsCatalog.inc(HeraMetric.ROCKETMQ_PRODUCER_TOTAL_COUNT, topicLabels);
                 if (jtc.isSuccess()) {
-                    mutiMetrics.newCounter(metricsName + "rocketmqProducerSuccessCount", "topic", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.ROCKETMQ_PRODUCER_SUCCESS_COUNT, topicLabels);
                     if (jtc.getDuration() > dubboSlowTime) {
-                        mutiMetrics.newCounter(metricsName + "rocketmqProducerSlowQuery", "topic", "application", "serverIp", "serverEnv", "serverEnvId")
-                                .with(jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                                .add(1, jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                        metricsCatalog.inc(HeraMetric.ROCKETMQ_PRODUCER_SLOW_COUNT, topicLabels);
                         esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "rocketmq_producer", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "timeout", jtc.getHttpCode(), jtc.getServiceEnv()));
                     }
                 } else {
-                    mutiMetrics.newCounter(metricsName + "rocketmqProducerError", "topic", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.ROCKETMQ_PRODUCER_ERROR_COUNT, topicLabels);
                     esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "rocketmq_producer", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "error", jtc.getHttpCode(), jtc.getServiceEnv()));
                 }
             } else if (SpanKind.CONSUMER.equals(jtc.getKind())) {
-                mutiMetrics.newHistogram(metricsName + "rocketmqConsumerTimeCost", aopDubboBuckets, new String[]{"topic", "application", "serverIp", "serverEnv", "serverEnvId"})
-                        .with(jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .observe(jtc.getDuration(), jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                mutiMetrics.newCounter(metricsName + "rocketmqConsumerTotalCount", "topic", "application", "serverIp", "serverEnv", "serverEnvId")
-                        .with(jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.observe(HeraMetric.ROCKETMQ_CONSUMER_DURATION_HISTOGRAM, topicLabels, jtc.getDuration());
+                metricsCatalog.inc(HeraMetric.ROCKETMQ_CONSUMER_TOTAL_COUNT, topicLabels);
                 if (jtc.isSuccess()) {
-                    mutiMetrics.newCounter(metricsName + "rocketmqConsumerSuccessCount", "topic", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.ROCKETMQ_CONSUMER_SUCCESS_COUNT, topicLabels);
                     if (jtc.getDuration() > dubboSlowTime) {
-                        mutiMetrics.newCounter(metricsName + "rocketmqConsumerSlowQuery", "topic", "application", "serverIp", "serverEnv", "serverEnvId")
-                                .with(jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                                .add(1, jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                        metricsCatalog.inc(HeraMetric.ROCKETMQ_CONSUMER_SLOW_COUNT, topicLabels);
                         esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "rocketmq_consumer", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "timeout", jtc.getHttpCode(), jtc.getServiceEnv()));
                     }
                 } else {
-                    mutiMetrics.newCounter(metricsName + "rocketmqConsumerError", "topic", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getTopic(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.ROCKETMQ_CONSUMER_ERROR_COUNT, topicLabels);
                     esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "rocketmq_consumer", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "error", jtc.getHttpCode(), jtc.getServiceEnv()));
                 }
             }
         }
         // customizeAnno
         if (SpanType.CUSTOMIZE_MTTHOD.equals(jtc.getType())) {
-            String metricsName = "hera_";
-            mutiMetrics.newHistogram(metricsName + "CustomizeMethodTimeCost", aopDubboBuckets, new String[]{"application", "methodName", "serverIp", "serverEnv", "serverEnvId"})
-                    .with(metricsServiceName, jtc.getMethod(), jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                    .observe(jtc.getDuration(), metricsServiceName, jtc.getMethod(), jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-            mutiMetrics.newCounter(metricsName + "CustomizeMethodTotalCount", "application", "methodName", "serverIp", "serverEnv", "serverEnvId")
-                    .with(metricsServiceName, jtc.getMethod(), jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                    .add(1, metricsServiceName, jtc.getMethod(), jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+            LabelTuple customizeLabels = LabelTuple.of(metricsServiceName, jtc.getMethod(), jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+            metricsCatalog.observe(HeraMetric.CUSTOMIZE_METHOD_DURATION_HISTOGRAM, customizeLabels, jtc.getDuration());
+            metricsCatalog.inc(HeraMetric.CUSTOMIZE_METHOD_TOTAL_COUNT, customizeLabels);
             if (jtc.isSuccess()) {
-                mutiMetrics.newCounter(metricsName + "CustomizeMethodSuccessCount", "application", "methodName", "serverIp", "serverEnv", "serverEnvId")
-                        .with(metricsServiceName, jtc.getMethod(), jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, metricsServiceName, jtc.getMethod(), jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.inc(HeraMetric.CUSTOMIZE_METHOD_SUCCESS_COUNT, customizeLabels);
                 if (jtc.getDuration() > dubboSlowTime) {
-                    mutiMetrics.newCounter(metricsName + "CustomizeMethodSlowQuery", "application", "methodName", "serverIp", "serverEnv", "serverEnvId")
-                            .with(metricsServiceName, jtc.getMethod(), jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, metricsServiceName, jtc.getMethod(), jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.CUSTOMIZE_METHOD_SLOW_COUNT, customizeLabels);
                     esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "customize_method", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "timeout", jtc.getHttpCode(), jtc.getServiceEnv()));
                 }
             } else {
-                mutiMetrics.newCounter(metricsName + "CustomizeMethodError", "application", "methodName", "serverIp", "serverEnv", "serverEnvId")
-                        .with(metricsServiceName, jtc.getMethod(), jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, metricsServiceName, jtc.getMethod(), jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.inc(HeraMetric.CUSTOMIZE_METHOD_ERROR_COUNT, customizeLabels);
                 esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "customize_method", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "error", jtc.getHttpCode(), jtc.getServiceEnv()));
             }
         }
         // grpc
         if (SpanType.GRPC.equals(jtc.getType())) {
-            String dubboMetricsName = "hera_";
+            LabelTuple rpcMethodLabels = LabelTuple.of(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
             if (SpanKind.CLIENT.equals(jtc.getKind())) {
-                mutiMetrics.newHistogram(dubboMetricsName + "grpcClientTimeCost", aopDubboBuckets, new String[]{"serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId"})
-                        .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .observe(jtc.getDuration(), jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                mutiMetrics.newCounter(dubboMetricsName + "grpcClient", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                        .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.observe(HeraMetric.GRPC_CLIENT_DURATION_HISTOGRAM, rpcMethodLabels, jtc.getDuration());
+                metricsCatalog.inc(HeraMetric.GRPC_CLIENT_TOTAL_COUNT, rpcMethodLabels);
                 if (jtc.isSuccess()) {
-                    mutiMetrics.newCounter(dubboMetricsName + "grpcClientSuccess", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                    if (jtc.getDuration() > (config == null ? dubboSlowTime : config.getDubboSlowThreshold())) {
-                        mutiMetrics.newCounter(dubboMetricsName + "grpcClientSlowQuery", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                                .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                                .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.GRPC_CLIENT_SUCCESS_COUNT, rpcMethodLabels);
+                    if (jtc.getDuration() > (config == null ? dubboSlowTime : config.dubboSlowThreshold(dubboSlowTime))) {
+                        metricsCatalog.inc(HeraMetric.GRPC_CLIENT_SLOW_COUNT, rpcMethodLabels);
                         esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getRpcServiceName() + "/" + jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "grpc_client", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "timeout", jtc.getHttpCode(), jtc.getServiceEnv()));
                     }
                 } else {
-                    mutiMetrics.newCounter(dubboMetricsName + "grpcClientError", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.GRPC_CLIENT_ERROR_COUNT, rpcMethodLabels);
                     esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getRpcServiceName() + "/" + jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "grpc_client", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "error", jtc.getHttpCode(), jtc.getServiceEnv()));
                 }
             } else if (SpanKind.SERVER.equals(jtc.getKind())) {
-                mutiMetrics.newCounter(dubboMetricsName + "grpcServer", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                        .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                mutiMetrics.newHistogram(dubboMetricsName + "grpcServerTimeCost", aopDubboBuckets, new String[]{"serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId"})
-                        .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                        .observe(jtc.getDuration(), jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                metricsCatalog.inc(HeraMetric.GRPC_SERVER_TOTAL_COUNT, rpcMethodLabels);
+                metricsCatalog.observe(HeraMetric.GRPC_SERVER_DURATION_HISTOGRAM, rpcMethodLabels, jtc.getDuration());
                 if (jtc.isSuccess()) {
-                    mutiMetrics.newCounter(dubboMetricsName + "grpcServerSuccess", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
-                    if (jtc.getDuration() > (config == null ? dubboSlowTime : config.getDubboSlowThreshold())) {
-                        mutiMetrics.newCounter(dubboMetricsName + "grpcServerSlowQuery", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                                .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                                .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.GRPC_SERVER_SUCCESS_COUNT, rpcMethodLabels);
+                    if (jtc.getDuration() > (config == null ? dubboSlowTime : config.dubboSlowThreshold(dubboSlowTime))) {
+                        metricsCatalog.inc(HeraMetric.GRPC_SERVER_SLOW_COUNT, rpcMethodLabels);
                         esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getRpcServiceName() + "/" + jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "grpc_server", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "timeout", jtc.getHttpCode(), jtc.getServiceEnv()));
                     }
                 } else {
-                    mutiMetrics.newCounter(dubboMetricsName + "grpcServerError", "serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId")
-                            .with(jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId())
-                            .add(1, jtc.getRpcServiceName(), jtc.getMethod(), metricsServiceName, jtc.getServerIp(), jtc.getServiceEnv(), jtc.getServiceEnvId());
+                    metricsCatalog.inc(HeraMetric.GRPC_SERVER_ERROR_COUNT, rpcMethodLabels);
                     esService.insertErrorTrace(new ErrorTraceMessage(esDomain, jtc.getRpcServiceName() + "/" + jtc.getMethod(), metricsServiceName, jtc.getTraceId(), "grpc_server", jtc.getServerIp(), String.valueOf(jtc.getEndTime()), "", String.valueOf(jtc.getDuration()), "error", jtc.getHttpCode(), jtc.getServiceEnv()));
                 }
             }
@@ -657,13 +565,14 @@ public class MetricsParseService implements IMetricsParseService {
     }
 
     private boolean exclude(String excludeList, String excludeString) {
-        String[] splits = excludeList.split("\\|");
-        for (String split : splits) {
-            if (StringUtils.isNotEmpty(split) && excludeString.contains(split)) {
-                return true;
-            }
-        }
-        return false;
+        return ExcludeMatcher.of(excludeList).matches(excludeString);
+    }
+
+    /**
+     * @param configured the list of the service config, compiled once per config version, null to use the defaults
+     */
+    private boolean exclude(ExcludeMatcher configured, String defaults, String excludeString) {
+        return configured != null ? configured.matches(excludeString) : exclude(defaults, excludeString);
     }
 
     /**
@@ -707,38 +616,4 @@ public class MetricsParseService implements IMetricsParseService {
         return serviceName.replace("-", "_");
     }
 
-    private HeraTraceEtlConfig defaultConfig(HeraTraceEtlConfig config) {
-        if (config == null) {
-            return null;
-        }
-        if (StringUtils.isEmpty(config.getExcludeHttpserverMethod())) {
-            config.setExcludeHttpserverMethod(excludeHttpServer);
-        }
-        if (StringUtils.isEmpty(config.getExcludeMethod())) {
-            config.setExcludeMethod(excludeMethod);
-        }
-        if (StringUtils.isEmpty(config.getExcludeSql())) {
-            config.setExcludeSql(excludeDB);
-        }
-        if (StringUtils.isEmpty(config.getExcludeHttpUrl())) {
-            config.setExcludeHttpUrl(excludeHttpurl);
-        }
-        if (StringUtils.isEmpty(config.getExcludeThread())) {
-            config.setExcludeThread(excludeThread);
-        }
-        if (StringUtils.isEmpty(config.getExcludeUa())) {
-            config.setExcludeUa(excludeUA);
-        }
-        if (config.getDubboSlowThreshold() == null) {
-            config.setDubboSlowThreshold(dubboSlowTime);
-        }
-        if (config.getHttpSlowThreshold() == null) {
-            config.setHttpSlowThreshold(httpSlowTime);
-        }
-        if (config.getMysqlSlowThreshold() == null) {
-            config.setMysqlSlowThreshold(mysqlSlowTime);
-        }
-        return config;
-    }
-
 }
\ No newline at end of file
@@ -35,13 +35,21 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Service
 public class MutiMetricsCall {
 
+    public static final int GENERATIONS = 2;
 
-    private MutiMetrics[] mutiMetricsArray = new MutiMetrics[2];
+    private MutiMetrics[] mutiMetricsArray = new MutiMetrics[GENERATIONS];
 
     @Getter
     private AtomicInteger index = new AtomicInteger(0);
 
+    /**
+     * The service passed to init, MutiMetrics appends it as the value of the constant application label.
+     */
+    @Getter
+    private String service = "";
+
     public void init(String group, String service) {
+        this.service = service;
         Arrays.stream(mutiMetricsArray).forEach(it -> {
             it.init(group, service);
         });
@@ -60,6 +68,19 @@ public class MutiMetricsCall {
         return mutiMetricsArray[this.index.get() == 0 ? 1 : 0];
     }
 
+    public MutiMetrics generation(int generation) {
+        return mutiMetricsArray[generation];
+    }
+
+    public int generationOf(MutiMetrics mutiMetrics) {
+        for (int i = 0; i < mutiMetricsArray.length; i++) {
+            if (mutiMetricsArray[i] == mutiMetrics) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
 
     public MutiMetricsCall() {
         mutiMetricsArray[0] = new MutiMetrics();
@@ -24,12 +24,11 @@ import org.apache.ozhera.trace.etl.api.service.IEnterManager;
 import org.apache.ozhera.trace.etl.api.service.IMetricsParseService;
 import org.apache.ozhera.trace.etl.api.service.MQExtension;
 import org.apache.ozhera.trace.etl.bo.MqConfig;
-import org.apache.ozhera.trace.etl.util.ThriftUtil;
+import org.apache.ozhera.trace.etl.util.SpanDecoder;
 import org.apache.ozhera.tspandata.TSpanData;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.client.exception.MQClientException;
 import org.apache.rocketmq.common.message.MessageExt;
-import org.apache.thrift.TDeserializer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -69,6 +68,12 @@ public class RocketMQConsumerService {
     @Resource
     private IMetricsParseService metricsExporterService;
 
+    /**
+     * Only decode the span fields the metrics use, events and links are skipped.
+     */
+    @Value("${mq.consumer.partial.decode:false}")
+    private boolean partialDecode;
+
     @Autowired
     private MQExtension mq;
 
@@ -84,16 +89,18 @@ public class RocketMQConsumerService {
         config.setConsumerTopicName(topicName);
 
         config.setBatchConsumerMethod((list)->{
-            enterManager.enter();
-            enterManager.getProcessNum().incrementAndGet();
+            long token = enterManager.begin();
+            int spanCount = 0;
             try {
+                SpanDecoder decoder = SpanDecoder.get();
                 for (MessageExt message : list) {
                     String traceId = "";
                     try {
-                        TSpanData tSpanData = new TSpanData();
-                        new TDeserializer(ThriftUtil.PROTOCOL_FACTORY).deserialize(tSpanData, message.getBody());
+                        byte[] body = message.getBody();
+                        TSpanData tSpanData = decoder.decode(body, 0, body.length, partialDecode);
                         traceId = tSpanData.getTraceId();
                         metricsExporterService.parse(tSpanData);
+                        spanCount++;
                     } catch (Throwable t) {
                         log.error("consumer message error", t);
                     }
@@ -101,7 +108,7 @@ public class RocketMQConsumerService {
                 }
                 return true;
             } finally {
-                enterManager.getProcessNum().decrementAndGet();
+                enterManager.end(token, spanCount);
             }
         });
 
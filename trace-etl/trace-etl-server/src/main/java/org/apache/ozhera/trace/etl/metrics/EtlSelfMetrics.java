@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.metrics;
+
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.Collector;
+import lombok.Getter;
+import org.apache.ozhera.trace.etl.util.SelfMetricsRegistry;
+import org.apache.ozhera.trace.etl.util.prometheus.HTTPServer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Metrics about trace-etl-server itself, exposed together with the jvm metrics on /jvm.
+ * They live outside the swapped MutiMetrics registries, so they are never cleared by a swap.
+ * The metrics of {@link SelfMetricsRegistry} are exposed with them.
+ */
+@Component
+public class EtlSelfMetrics {
+
+    @Value("${app.name}")
+    private String appName;
+
+    @Getter
+    private final PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+    @PostConstruct
+    public void init() {
+        registry.config().commonTags(HTTPServer.APPLICATION, appName);
+        // the metrics the extensions and services register on the process registry are served here as well
+        registry.getPrometheusRegistry().register(new Collector() {
+            @Override
+            public List<MetricFamilySamples> collect() {
+                return Collections.list(SelfMetricsRegistry.get().metricFamilySamples());
+            }
+        });
+    }
+}
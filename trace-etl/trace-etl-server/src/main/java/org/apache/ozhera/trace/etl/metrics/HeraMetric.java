@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.metrics;
+
+import lombok.Getter;
+
+/**
+ * Every metric family exported by trace-etl-server, grouped by span type and kind.
+ * The names and label names must stay identical to what the dashboards query.
+ */
+@Getter
+public enum HeraMetric {
+
+    /**
+     * span statistics
+     */
+    TRACE_STATISTICS_SPAN_COUNT(Type.COUNTER, "trace_statistics_span_count", null, Labels.APPLICATION),
+
+    /**
+     * http server
+     */
+    HTTP_SERVER_TOTAL_COUNT(Type.COUNTER, "hera_aopTotalMethodCount", null, Labels.METHOD),
+    HTTP_SERVER_SUCCESS_COUNT(Type.COUNTER, "hera_aopSuccessMethodCount", null, Labels.METHOD),
+    HTTP_SERVER_SLOW_COUNT(Type.COUNTER, "hera_httpSlowQuery", null, Labels.METHOD),
+    HTTP_SERVER_ERROR_COUNT(Type.COUNTER, "hera_httpError", null, Labels.METHOD_ERROR_CODE),
+    HTTP_SERVER_DURATION_HISTOGRAM(Type.HISTOGRAM, "hera_aopMethodTimeCount", Buckets.AOP_DUBBO, Labels.METHOD),
+    HTTP_SERVER_DURATION_HISTOGRAM_WITHOUT_METHOD(Type.HISTOGRAM, "hera_aopMethodTimeCount_without_methodName", Buckets.AOP_DUBBO, Labels.APPLICATION_ONLY),
+
+    /**
+     * http client
+     */
+    HTTP_CLIENT_TOTAL_COUNT(Type.COUNTER, "hera_aopClientTotalMethodCount", null, Labels.METHOD),
+    HTTP_CLIENT_SUCCESS_COUNT(Type.COUNTER, "hera_aopClientSuccessMethodCount", null, Labels.METHOD),
+    HTTP_CLIENT_SLOW_COUNT(Type.COUNTER, "hera_httpClientSlowQuery", null, Labels.METHOD),
+    HTTP_CLIENT_ERROR_COUNT(Type.COUNTER, "hera_httpClientError", null, Labels.METHOD_ERROR_CODE),
+    HTTP_CLIENT_DURATION_HISTOGRAM(Type.HISTOGRAM, "hera_aopClientMethodTimeCount", Buckets.AOP_DUBBO, Labels.METHOD),
+    HTTP_CLIENT_DURATION_HISTOGRAM_WITHOUT_METHOD(Type.HISTOGRAM, "hera_aopClientMethodTimeCount_without_methodName", Buckets.AOP_DUBBO, Labels.APPLICATION_ONLY),
+
+    /**
+     * dubbo consumer
+     */
+    DUBBO_CLIENT_TOTAL_COUNT(Type.COUNTER, "hera_dubboBisTotalCount", null, Labels.RPC_METHOD),
+    DUBBO_CLIENT_SUCCESS_COUNT(Type.COUNTER, "hera_dubboBisSuccessCount", null, Labels.RPC_METHOD),
+    DUBBO_CLIENT_SLOW_COUNT(Type.COUNTER, "hera_dubboConsumerSlowQuery", null, Labels.RPC_METHOD),
+    DUBBO_CLIENT_ERROR_COUNT(Type.COUNTER, "hera_dubboConsumerError", null, Labels.RPC_METHOD),
+    DUBBO_CLIENT_DURATION_HISTOGRAM(Type.HISTOGRAM, "hera_dubboConsumerTimeCost", Buckets.AOP_DUBBO, Labels.RPC_METHOD),
+    DUBBO_CLIENT_DURATION_HISTOGRAM_WITHOUT_METHOD(Type.HISTOGRAM, "hera_dubboConsumerTimeCost_without_methodName", Buckets.AOP_DUBBO, Labels.RPC_SERVICE),
+
+    /**
+     * dubbo provider
+     */
+    DUBBO_SERVER_TOTAL_COUNT(Type.COUNTER, "hera_dubboMethodCalledCount", null, Labels.RPC_METHOD),
+    DUBBO_SERVER_SUCCESS_COUNT(Type.COUNTER, "hera_dubboMethodCalledSuccessCount", null, Labels.RPC_METHOD),
+    DUBBO_SERVER_SLOW_COUNT(Type.COUNTER, "hera_dubboProviderSlowQuery", null, Labels.RPC_METHOD),
+    DUBBO_SERVER_ERROR_COUNT(Type.COUNTER, "hera_dubboProviderError", null, Labels.RPC_METHOD),
+    DUBBO_SERVER_DURATION_HISTOGRAM(Type.HISTOGRAM, "hera_dubboProviderCount", Buckets.AOP_DUBBO, Labels.RPC_METHOD),
+    DUBBO_SERVER_DURATION_HISTOGRAM_WITHOUT_METHOD(Type.HISTOGRAM, "hera_dubboProviderCount_without_methodName", Buckets.AOP_DUBBO, Labels.RPC_SERVICE),
+
+    /**
+     * redis
+     */
+    REDIS_TOTAL_COUNT(Type.COUNTER, "hera_RedisTotalCount", null, Labels.REDIS),
+    REDIS_SUCCESS_COUNT(Type.COUNTER, "hera_RedisSuccessCount", null, Labels.REDIS),
+    REDIS_ERROR_COUNT(Type.COUNTER, "hera_redisError", null, Labels.REDIS),
+    REDIS_DURATION_HISTOGRAM(Type.HISTOGRAM, "hera_RedisMethodTimeCost", Buckets.REDIS, Labels.REDIS),
+
+    /**
+     * mysql
+     */
+    MYSQL_TOTAL_COUNT(Type.COUNTER, "hera_sqlTotalCount", null, Labels.SQL),
+    MYSQL_SUCCESS_COUNT(Type.COUNTER, "hera_sqlSuccessCount", null, Labels.SQL),
+    MYSQL_SLOW_COUNT(Type.COUNTER, "hera_dbSlowQuery", null, Labels.SQL),
+    MYSQL_ERROR_COUNT(Type.COUNTER, "hera_dbError", null, Labels.SQL),
+    MYSQL_DURATION_HISTOGRAM(Type.HISTOGRAM, "hera_sqlTotalTimer", Buckets.SQL, Labels.SQL),
+
+    /**
+     * mongodb
+     */
+    MONGO_TOTAL_COUNT(Type.COUNTER, "hera_mongoTotalCount", null, Labels.MONGO),
+    MONGO_SUCCESS_COUNT(Type.COUNTER, "hera_mongoSuccessCount", null, Labels.MONGO),
+    MONGO_SLOW_COUNT(Type.COUNTER, "hera_mongodbSlowQuery", null, Labels.MONGO),
+    MONGO_ERROR_COUNT(Type.COUNTER, "hera_mongodbError", null, Labels.MONGO),
+    MONGO_DURATION_HISTOGRAM(Type.HISTOGRAM, "hera_mongoTotalTimer", Buckets.SQL, Labels.MONGO),
+
+    /**
+     * rocketmq producer
+     */
+    ROCKETMQ_PRODUCER_TOTAL_COUNT(Type.COUNTER, "hera_rocketmqProducerTotalCount", null, Labels.TOPIC),
+    ROCKETMQ_PRODUCER_SUCCESS_COUNT(Type.COUNTER, "hera_rocketmqProducerSuccessCount", null, Labels.TOPIC),
+    ROCKETMQ_PRODUCER_SLOW_COUNT(Type.COUNTER, "hera_rocketmqProducerSlowQuery", null, Labels.TOPIC),
+    ROCKETMQ_PRODUCER_ERROR_COUNT(Type.COUNTER, "hera_rocketmqProducerError", null, Labels.TOPIC),
+    ROCKETMQ_PRODUCER_DURATION_HISTOGRAM(Type.HISTOGRAM, "hera_rocketmqProducerTimeCost", Buckets.AOP_DUBBO, Labels.TOPIC),
+
+    /**
+     * rocketmq consumer
+     */
+    ROCKETMQ_CONSUMER_TOTAL_COUNT(Type.COUNTER, "hera_rocketmqConsumerTotalCount", null, Labels.TOPIC),
+    ROCKETMQ_CONSUMER_SUCCESS_COUNT(Type.COUNTER, "hera_rocketmqConsumerSuccessCount", null, Labels.TOPIC),
+    ROCKETMQ_CONSUMER_SLOW_COUNT(Type.COUNTER, "hera_rocketmqConsumerSlowQuery", null, Labels.TOPIC),
+    ROCKETMQ_CONSUMER_ERROR_COUNT(Type.COUNTER, "hera_rocketmqConsumerError", null, Labels.TOPIC),
+    ROCKETMQ_CONSUMER_DURATION_HISTOGRAM(Type.HISTOGRAM, "hera_rocketmqConsumerTimeCost", Buckets.AOP_DUBBO, Labels.TOPIC),
+
+    /**
+     * customize method
+     */
+    CUSTOMIZE_METHOD_TOTAL_COUNT(Type.COUNTER, "hera_CustomizeMethodTotalCount", null, Labels.CUSTOMIZE_METHOD),
+    CUSTOMIZE_METHOD_SUCCESS_COUNT(Type.COUNTER, "hera_CustomizeMethodSuccessCount", null, Labels.CUSTOMIZE_METHOD),
+    CUSTOMIZE_METHOD_SLOW_COUNT(Type.COUNTER, "hera_CustomizeMethodSlowQuery", null, Labels.CUSTOMIZE_METHOD),
+    CUSTOMIZE_METHOD_ERROR_COUNT(Type.COUNTER, "hera_CustomizeMethodError", null, Labels.CUSTOMIZE_METHOD),
+    CUSTOMIZE_METHOD_DURATION_HISTOGRAM(Type.HISTOGRAM, "hera_CustomizeMethodTimeCost", Buckets.AOP_DUBBO, Labels.CUSTOMIZE_METHOD),
+
+    /**
+     * grpc client
+     */
+    GRPC_CLIENT_TOTAL_COUNT(Type.COUNTER, "hera_grpcClient", null, Labels.RPC_METHOD),
+    GRPC_CLIENT_SUCCESS_COUNT(Type.COUNTER, "hera_grpcClientSuccess", null, Labels.RPC_METHOD),
+    GRPC_CLIENT_SLOW_COUNT(Type.COUNTER, "hera_grpcClientSlowQuery", null, Labels.RPC_METHOD),
+    GRPC_CLIENT_ERROR_COUNT(Type.COUNTER, "hera_grpcClientError", null, Labels.RPC_METHOD),
+    GRPC_CLIENT_DURATION_HISTOGRAM(Type.HISTOGRAM, "hera_grpcClientTimeCost", Buckets.AOP_DUBBO, Labels.RPC_METHOD),
+
+    /**
+     * grpc server
+     */
+    GRPC_SERVER_TOTAL_COUNT(Type.COUNTER, "hera_grpcServer", null, Labels.RPC_METHOD),
+    GRPC_SERVER_SUCCESS_COUNT(Type.COUNTER, "hera_grpcServerSuccess", null, Labels.RPC_METHOD),
+    GRPC_SERVER_SLOW_COUNT(Type.COUNTER, "hera_grpcServerSlowQuery", null, Labels.RPC_METHOD),
+    GRPC_SERVER_ERROR_COUNT(Type.COUNTER, "hera_grpcServerError", null, Labels.RPC_METHOD),
+    GRPC_SERVER_DURATION_HISTOGRAM(Type.HISTOGRAM, "hera_grpcServerTimeCost", Buckets.AOP_DUBBO, Labels.RPC_METHOD);
+
+    public enum Type {
+        COUNTER,
+        HISTOGRAM
+    }
+
+    private final Type type;
+
+    private final String metricName;
+
+    private final double[] buckets;
+
+    private final String[] labelNames;
+
+    HeraMetric(Type type, String metricName, double[] buckets, String[] labelNames) {
+        this.type = type;
+        this.metricName = metricName;
+        this.buckets = buckets;
+        this.labelNames = labelNames;
+    }
+
+    public static final class Buckets {
+        public static final double[] REDIS = new double[]{0.1D, 0.5D, 1.0D, 10.0D, 100.0D, 500.0D, 1000.0D};
+        public static final double[] AOP_DUBBO = new double[]{50.0D, 100.0D, 150.0D, 200.0D, 250.0D, 300.0D, 400.0D, 500.0D, 700.0D, 1000.0D, 2000.0D, 3000.0D, 5000.0D};
+        public static final double[] SQL = new double[]{10.0D, 50.0D, 100.0D, 500.0D, 1000.0D};
+    }
+
+    /**
+     * Label layouts shared by several families. The order is the order of the values in a {@link LabelTuple}.
+     */
+    public static final class Labels {
+        public static final String[] APPLICATION = new String[]{"application"};
+        public static final String[] METHOD = new String[]{"methodName", "application", "serverIp", "serverEnv", "serverEnvId"};
+        public static final String[] METHOD_ERROR_CODE = new String[]{"methodName", "application", "serverIp", "errorCode", "serverEnv", "serverEnvId"};
+        public static final String[] APPLICATION_ONLY = new String[]{"application", "serverIp", "serverEnv", "serverEnvId"};
+        public static final String[] RPC_METHOD = new String[]{"serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId"};
+        public static final String[] RPC_SERVICE = new String[]{"serviceName", "application", "serverIp", "serverEnv", "serverEnvId"};
+        public static final String[] REDIS = new String[]{"method", "host", "port", "application", "serverIp", "serverEnv", "serverEnvId"};
+        public static final String[] SQL = new String[]{"dataSource", "sqlMethod", "sql", "application", "serverIp", "serverEnv", "serverEnvId"};
+        public static final String[] MONGO = new String[]{"dataSource", "method", "command", "application", "serverIp", "serverEnv", "serverEnvId"};
+        public static final String[] TOPIC = new String[]{"topic", "application", "serverIp", "serverEnv", "serverEnvId"};
+        public static final String[] CUSTOMIZE_METHOD = new String[]{"application", "methodName", "serverIp", "serverEnv", "serverEnvId"};
+    }
+
+}
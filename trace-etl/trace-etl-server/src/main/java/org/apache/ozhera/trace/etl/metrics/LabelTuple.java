@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Immutable label values of one series. The hash is computed once, so the same tuple can be
+ * probed against several metric families of a span without rehashing the strings.
+ */
+public final class LabelTuple {
+
+    private final String[] values;
+
+    private final int hash;
+
+    private LabelTuple(String[] values) {
+        this.values = values;
+        this.hash = Arrays.hashCode(values);
+    }
+
+    public static LabelTuple of(String... values) {
+        return new LabelTuple(values);
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public String get(int i) {
+        return values[i];
+    }
+
+    /**
+     * Label values as the collector expects them, with the constant labels appended at the end.
+     */
+    String[] toLabelValues(String[] constValues) {
+        if (constValues.length == 0) {
+            return values.clone();
+        }
+        String[] result = Arrays.copyOf(values, values.length + constValues.length);
+        System.arraycopy(constValues, 0, result, values.length, constValues.length);
+        return result;
+    }
+
+    String[] values() {
+        return values;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LabelTuple)) {
+            return false;
+        }
+        LabelTuple that = (LabelTuple) o;
+        return hash == that.hash && Arrays.equals(values, that.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.metrics;
+
+import io.prometheus.client.Collector;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Lazily walks the metric families of a registry, dropping the "_created" samples and counting the series written.
+ * Replaces reading CollectorRegistry.namesToCollectors by reflection to build a name filter.
+ */
+public class MetricFamilyStream implements Enumeration<Collector.MetricFamilySamples> {
+
+    private static final String CREATED_SUFFIX = "_created";
+
+    private final Enumeration<Collector.MetricFamilySamples> delegate;
+
+    private long seriesCount;
+
+    public MetricFamilyStream(Enumeration<Collector.MetricFamilySamples> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+        return delegate.hasMoreElements();
+    }
+
+    @Override
+    public Collector.MetricFamilySamples nextElement() {
+        Collector.MetricFamilySamples family = delegate.nextElement();
+        List<Collector.MetricFamilySamples.Sample> samples = family.samples;
+        int created = 0;
+        for (Collector.MetricFamilySamples.Sample sample : samples) {
+            if (sample.name.endsWith(CREATED_SUFFIX)) {
+                created++;
+            }
+        }
+        seriesCount += samples.size() - created;
+        if (created == 0) {
+            return family;
+        }
+        List<Collector.MetricFamilySamples.Sample> filtered = new ArrayList<>(samples.size() - created);
+        for (Collector.MetricFamilySamples.Sample sample : samples) {
+            if (!sample.name.endsWith(CREATED_SUFFIX)) {
+                filtered.add(sample);
+            }
+        }
+        return new Collector.MetricFamilySamples(family.name, family.type, family.help, filtered);
+    }
+
+    public long getSeriesCount() {
+        return seriesCount;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.metrics;
+
+import com.xiaomi.youpin.prometheus.client.XmCounter;
+import com.xiaomi.youpin.prometheus.client.XmHistogram;
+import com.xiaomi.youpin.prometheus.client.multi.MutiMetrics;
+import com.xiaomi.youpin.prometheus.client.multi.MutiPrometheus;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.SimpleCollector;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A metric family resolved once against one {@link MutiMetrics} generation.
+ * <p>
+ * The family is registered through the normal {@link MutiMetrics} api, so naming and constant labels are unchanged,
+ * then the underlying prometheus collector is looked up and its children are cached per {@link LabelTuple}.
+ * If the collector can not be resolved the handle falls back to the {@link XmCounter}/{@link XmHistogram} path.
+ * Only the public collector api is used: the number of constant labels {@link MutiMetrics} added is found by the
+ * first child, and pre-aggregated histogram cells are replayed through {@link Histogram.Child#observe}.
+ */
+@Slf4j
+final class MetricHandle {
+
+    /**
+     * Most constant labels probed for, {@link MutiMetrics} adds at most a couple.
+     */
+    private static final int MAX_CONST_LABELS = 4;
+
+    /**
+     * Replayed observations are rounded to 1/1024, their partial sums stay exact.
+     */
+    private static final double REPLAY_GRID = 1024D;
+
+    private final HeraMetric metric;
+
+    private final XmCounter xmCounter;
+
+    private final XmHistogram xmHistogram;
+
+    private final Counter counter;
+
+    private final Histogram histogram;
+
+    private final String constLabelValue;
+
+    /**
+     * The values of the constant labels, null until the first child is resolved.
+     */
+    private volatile String[] constValues;
+
+    private final MutiMetrics mutiMetrics;
+
+    private SeriesStats stats;
+
+    private boolean statsUnavailable;
+
+    private final ConcurrentHashMap<LabelTuple, Object> children = new ConcurrentHashMap<>();
+
+    private MetricHandle(HeraMetric metric, XmCounter xmCounter, XmHistogram xmHistogram, SimpleCollector<?> collector, String constLabelValue, MutiMetrics mutiMetrics) {
+        this.metric = metric;
+        this.xmCounter = xmCounter;
+        this.xmHistogram = xmHistogram;
+        this.counter = collector instanceof Counter ? (Counter) collector : null;
+        this.histogram = collector instanceof Histogram ? (Histogram) collector : null;
+        this.constLabelValue = constLabelValue;
+        this.mutiMetrics = mutiMetrics;
+    }
+
+    static MetricHandle create(HeraMetric metric, MutiMetrics mutiMetrics, String constLabelValue) {
+        XmCounter xmCounter = null;
+        XmHistogram xmHistogram = null;
+        if (metric.getType() == HeraMetric.Type.COUNTER) {
+            xmCounter = mutiMetrics.newCounter(metric.getMetricName(), metric.getLabelNames());
+        } else {
+            xmHistogram = mutiMetrics.newHistogram(metric.getMetricName(), metric.getBuckets(), metric.getLabelNames());
+        }
+        SimpleCollector<?> collector = null;
+        try {
+            MutiPrometheus prometheus = mutiMetrics.gMetricsMgr;
+            Object raw = prometheus == null ? null : prometheus.getPrometheusMetrics().get(metric.getMetricName());
+            if (raw instanceof Counter || raw instanceof Histogram) {
+                collector = (SimpleCollector<?>) raw;
+            }
+        } catch (Exception e) {
+            log.warn("resolve metric collector error, metric: {}, fall back to label path", metric.getMetricName(), e);
+        }
+        return new MetricHandle(metric, xmCounter, xmHistogram, collector, constLabelValue, mutiMetrics);
+    }
+
+    void inc(LabelTuple labels) {
+        if (counter == null) {
+            xmCounter.with(labels.values()).add(1, labels.values());
+            return;
+        }
+        Counter.Child child = (Counter.Child) child(labels);
+        if (child != null) {
+            child.inc();
+        }
+    }
+
+    void observe(LabelTuple labels, double value) {
+        if (histogram == null) {
+            xmHistogram.with(labels.values()).observe(value, labels.values());
+            return;
+        }
+        Histogram.Child child = (Histogram.Child) child(labels);
+        if (child != null) {
+            child.observe(value);
+        }
+    }
+
+    /**
+     * Merge a pre-aggregated counter cell.
+     */
+    void add(LabelTuple labels, long count) {
+        if (counter == null) {
+            xmCounter.with(labels.values()).add(count, labels.values());
+            return;
+        }
+        Counter.Child child = (Counter.Child) child(labels);
+        if (child != null) {
+            child.inc(count);
+        }
+    }
+
+    /**
+     * Merge a pre-aggregated histogram cell: per bucket, count - 1 observations of its mean rounded to
+     * {@link #REPLAY_GRID} and one of what is left of its sum. Every observation stays in its bucket, so the bucket
+     * counts are exact, and so is the sum whenever the observations are multiples of the grid, as ms durations are.
+     */
+    void replay(LabelTuple labels, SpanAggregator.HistogramCell cell, boolean keepStats) {
+        Histogram.Child child = histogram == null ? null : (Histogram.Child) child(labels);
+        if (histogram == null || child != null) {
+            replayObservations(labels, child, cell);
+        }
+        if (keepStats && cell.max >= cell.min) {
+            SeriesStats seriesStats = stats();
+            if (seriesStats != null) {
+                seriesStats.update(labels, cell.min, cell.max);
+            }
+        }
+    }
+
+    private void replayObservations(LabelTuple labels, Histogram.Child child, SpanAggregator.HistogramCell cell) {
+        double lower = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < cell.counts.length; i++) {
+            long count = cell.counts[i];
+            double upper = cell.upperBounds[i];
+            if (count > 0) {
+                double mean = cell.sums[i] / count;
+                double value = Math.rint(mean * REPLAY_GRID) / REPLAY_GRID;
+                double last = cell.sums[i] - (count - 1) * value;
+                if (!inBucket(value, lower, upper) || !inBucket(last, lower, upper)) {
+                    value = Math.min(upper, Math.max(Math.nextUp(lower), mean));
+                    last = value;
+                }
+                for (long n = 1; n < count; n++) {
+                    observe(labels, child, value);
+                }
+                observe(labels, child, last);
+            }
+            lower = upper;
+        }
+    }
+
+    private void observe(LabelTuple labels, Histogram.Child child, double value) {
+        if (child != null) {
+            child.observe(value);
+        } else {
+            observe(labels, value);
+        }
+    }
+
+    private static boolean inBucket(double value, double lower, double upper) {
+        return value > lower && value <= upper;
+    }
+
+    /**
+     * Unregister what the handle added to the registry on its own, the families created through
+     * {@link MutiMetrics} are cleared with the rest of the registry.
+     */
+    void close() {
+        if (stats != null) {
+            try {
+                mutiMetrics.getRegistry().unregister(stats);
+            } catch (Exception e) {
+                log.warn("unregister series stats error, metric: {}", metric.getMetricName(), e);
+            }
+            stats = null;
+        }
+    }
+
+    private SeriesStats stats() {
+        if (stats == null && histogram != null && !statsUnavailable) {
+            try {
+                List<String> labelNames = labelNames();
+                if (labelNames == null) {
+                    // no child yet
+                    return null;
+                }
+                String name = histogram.describe().get(0).name;
+                stats = new SeriesStats(name, labelNames, constValues).register(mutiMetrics.getRegistry());
+            } catch (Exception e) {
+                statsUnavailable = true;
+                log.warn("register series stats error, metric: {}", metric.getMetricName(), e);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * The label names of the histogram, constant ones included, read from the samples of its children.
+     */
+    private List<String> labelNames() {
+        for (Collector.MetricFamilySamples family : histogram.collect()) {
+            for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+                if (sample.name.endsWith("_count")) {
+                    return sample.labelNames;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Object child(LabelTuple labels) {
+        Object child = children.get(labels);
+        return child != null ? child : resolveChild(labels);
+    }
+
+    private Object resolveChild(LabelTuple labels) {
+        try {
+            return children.computeIfAbsent(labels, this::newChild);
+        } catch (Throwable throwable) {
+            // same as the label path: a null label value drops the sample
+            log.warn("metric: {} labels: {} error: {}", metric.getMetricName(), labels, throwable.getMessage());
+            return null;
+        }
+    }
+
+    private Object newChild(LabelTuple labels) {
+        String[] known = constValues;
+        if (known != null) {
+            return collectorChild(labels.toLabelValues(known));
+        }
+        // labels() checks the number of values before creating a child, the first one that fits is the real one
+        IllegalArgumentException error = null;
+        for (int size = 0; size <= MAX_CONST_LABELS; size++) {
+            String[] values = new String[size];
+            Arrays.fill(values, constLabelValue);
+            try {
+                Object child = collectorChild(labels.toLabelValues(values));
+                constValues = values;
+                return child;
+            } catch (IllegalArgumentException e) {
+                error = e;
+            }
+        }
+        throw error;
+    }
+
+    private Object collectorChild(String[] labelValues) {
+        return counter != null ? counter.labels(labelValues) : histogram.labels(labelValues);
+    }
+
+    int childrenSize() {
+        return children.size();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.metrics;
+
+import com.google.common.base.Stopwatch;
+import com.xiaomi.youpin.prometheus.client.multi.MutiMetrics;
+import io.micrometer.core.instrument.Gauge;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ozhera.trace.etl.consumer.MutiMetricsCall;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pre-resolved handles for every {@link HeraMetric}, one set per {@link MutiMetrics} of {@link MutiMetricsCall}.
+ * <p>
+ * The per span path is an array read for the family plus one hash probe for the series.
+ * Handles of a generation are dropped by {@link #clear(MutiMetrics)} when its registry is cleared.
+ * <p>
+ * With metrics.aggregate.enabled the spans only touch the striped tables of {@link SpanAggregator},
+ * and {@link #merge(MutiMetrics)} moves them into the registry once it has been retired by the swap.
+ */
+@Slf4j
+@Service
+public class MetricsCatalog {
+
+    private static final HeraMetric[] METRICS = HeraMetric.values();
+
+    private final MutiMetricsCall call;
+
+    private final AtomicReferenceArray<MetricHandle>[] handles;
+
+    @Value("${metrics.aggregate.enabled:true}")
+    private boolean aggregateEnabled;
+
+    /**
+     * Also expose the min/max of every histogram series, only available with aggregation.
+     */
+    @Value("${metrics.aggregate.stats:false}")
+    private boolean aggregateStats;
+
+    @Resource
+    private EtlSelfMetrics etlSelfMetrics;
+
+    private volatile SpanAggregator aggregator;
+
+    private final AtomicLong lastMergedCells = new AtomicLong();
+
+    private final AtomicLong lastMergeMillis = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public MetricsCatalog(MutiMetricsCall call) {
+        this.call = call;
+        this.handles = new AtomicReferenceArray[MutiMetricsCall.GENERATIONS];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = new AtomicReferenceArray<>(METRICS.length);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (aggregateEnabled) {
+            aggregate(aggregateStats);
+        }
+        log.info("metrics aggregate:{} stats:{}", aggregateEnabled, aggregateEnabled && aggregateStats);
+        Gauge.builder("trace_etl_metrics_merged_cells", lastMergedCells, AtomicLong::get)
+                .description("pre-aggregated series cells merged at the last registry swap")
+                .register(etlSelfMetrics.getRegistry());
+        Gauge.builder("trace_etl_metrics_merge_millis", lastMergeMillis, AtomicLong::get)
+                .description("time to merge the pre-aggregated tables at the last registry swap")
+                .register(etlSelfMetrics.getRegistry());
+    }
+
+    /**
+     * Switch to the pre-aggregated path, before any span is recorded.
+     */
+    public void aggregate(boolean keepStats) {
+        this.aggregator = new SpanAggregator(keepStats);
+    }
+
+    public void inc(HeraMetric metric, LabelTuple labels) {
+        SpanAggregator spanAggregator = aggregator;
+        if (spanAggregator != null) {
+            spanAggregator.inc(call.getIndex().get(), metric, labels);
+            return;
+        }
+        handle(metric, call.getIndex().get()).inc(labels);
+    }
+
+    public void observe(HeraMetric metric, LabelTuple labels, double value) {
+        SpanAggregator spanAggregator = aggregator;
+        if (spanAggregator != null) {
+            spanAggregator.observe(call.getIndex().get(), metric, labels, value);
+            return;
+        }
+        handle(metric, call.getIndex().get()).observe(labels, value);
+    }
+
+    /**
+     * Move the pre-aggregated tables of a retired generation into its registry.
+     * Must run after the swap has drained every batch of that generation and before the registry is serialised.
+     */
+    public void merge(MutiMetrics retired) {
+        SpanAggregator spanAggregator = aggregator;
+        int generation = call.generationOf(retired);
+        if (spanAggregator == null || generation < 0) {
+            return;
+        }
+        Stopwatch sw = Stopwatch.createStarted();
+        boolean keepStats = spanAggregator.isKeepStats();
+        int cells = spanAggregator.drain(generation, new SpanAggregator.Sink() {
+            @Override
+            public void counter(HeraMetric metric, LabelTuple labels, long count) {
+                handle(metric, generation).add(labels, count);
+            }
+
+            @Override
+            public void histogram(HeraMetric metric, LabelTuple labels, SpanAggregator.HistogramCell cell) {
+                handle(metric, generation).replay(labels, cell, keepStats);
+            }
+        });
+        long elapsed = sw.elapsed(TimeUnit.MILLISECONDS);
+        lastMergedCells.set(cells);
+        lastMergeMillis.set(elapsed);
+        log.info("merge metrics cells:{} use time:{}ms", cells, elapsed);
+    }
+
+    /**
+     * Must be called before the collectors of this generation are unregistered, so that the next use
+     * registers fresh collectors instead of writing into detached ones.
+     */
+    public void clear(MutiMetrics mutiMetrics) {
+        int generation = call.generationOf(mutiMetrics);
+        if (generation < 0) {
+            return;
+        }
+        AtomicReferenceArray<MetricHandle> generationHandles = handles[generation];
+        for (int i = 0; i < generationHandles.length(); i++) {
+            MetricHandle handle = generationHandles.getAndSet(i, null);
+            if (handle != null) {
+                handle.close();
+            }
+        }
+    }
+
+    private MetricHandle handle(HeraMetric metric, int generation) {
+        AtomicReferenceArray<MetricHandle> generationHandles = handles[generation];
+        MetricHandle handle = generationHandles.get(metric.ordinal());
+        if (handle != null) {
+            return handle;
+        }
+        MetricHandle created = MetricHandle.create(metric, call.generation(generation), call.getService());
+        if (generationHandles.compareAndSet(metric.ordinal(), null, created)) {
+            return created;
+        }
+        MetricHandle winner = generationHandles.get(metric.ordinal());
+        return winner != null ? winner : created;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.metrics;
+
+import io.prometheus.client.Collector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Min and max of every series of one histogram family, exposed as the gauges {@code <name>_min} and {@code <name>_max}
+ * next to the histogram in the same registry. Only filled from the pre-aggregated tables, see {@link SpanAggregator}.
+ */
+final class SeriesStats extends Collector {
+
+    private final String name;
+
+    private final List<String> labelNames;
+
+    private final String[] constValues;
+
+    private final Map<LabelTuple, double[]> series = new ConcurrentHashMap<>();
+
+    SeriesStats(String name, List<String> labelNames, String[] constValues) {
+        this.name = name;
+        this.labelNames = labelNames;
+        this.constValues = constValues;
+    }
+
+    void update(LabelTuple labels, double min, double max) {
+        series.merge(labels, new double[]{min, max}, (current, update) -> {
+            current[0] = Math.min(current[0], update[0]);
+            current[1] = Math.max(current[1], update[1]);
+            return current;
+        });
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples.Sample> minSamples = new ArrayList<>(series.size());
+        List<MetricFamilySamples.Sample> maxSamples = new ArrayList<>(series.size());
+        String minName = name + "_min";
+        String maxName = name + "_max";
+        for (Map.Entry<LabelTuple, double[]> entry : series.entrySet()) {
+            List<String> labelValues = Arrays.asList(entry.getKey().toLabelValues(constValues));
+            minSamples.add(new MetricFamilySamples.Sample(minName, labelNames, labelValues, entry.getValue()[0]));
+            maxSamples.add(new MetricFamilySamples.Sample(maxName, labelNames, labelValues, entry.getValue()[1]));
+        }
+        List<MetricFamilySamples> families = new ArrayList<>(2);
+        families.add(new MetricFamilySamples(minName, Type.GAUGE, "min of " + name, minSamples));
+        families.add(new MetricFamilySamples(maxName, Type.GAUGE, "max of " + name, maxSamples));
+        return families;
+    }
+}
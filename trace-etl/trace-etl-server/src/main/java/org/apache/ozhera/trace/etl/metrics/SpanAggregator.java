@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.metrics;
+
+import org.apache.ozhera.trace.etl.consumer.MutiMetricsCall;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped pre-aggregation of span metrics.
+ * <p>
+ * A fixed number of stripes, picked by thread id, each own one table per registry generation and metric family,
+ * keyed by {@link LabelTuple}, so recording a span is an uncontended lock, a hash probe and a few array increments.
+ * The stripes do not grow with the threads, short lived virtual threads share them like any other.
+ * {@link #drain(int, Sink)} takes the tables of a generation out of every stripe after the swap has waited for
+ * every batch of that generation to end, and merges them outside of the stripe locks.
+ */
+final class SpanAggregator {
+
+    private static final HeraMetric[] METRICS = HeraMetric.values();
+
+    private static final double[][] UPPER_BOUNDS = new double[METRICS.length][];
+
+    static {
+        for (HeraMetric metric : METRICS) {
+            if (metric.getType() == HeraMetric.Type.HISTOGRAM) {
+                double[] buckets = metric.getBuckets();
+                UPPER_BOUNDS[metric.ordinal()] = buckets[buckets.length - 1] == Double.POSITIVE_INFINITY
+                        ? buckets : appendInfinity(buckets);
+            }
+        }
+    }
+
+    private final boolean keepStats;
+
+    private final Stripe[] stripes;
+
+    private final int mask;
+
+    SpanAggregator(boolean keepStats) {
+        this.keepStats = keepStats;
+        int size = 1;
+        while (size < Runtime.getRuntime().availableProcessors() * 4) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.mask = size - 1;
+    }
+
+    boolean isKeepStats() {
+        return keepStats;
+    }
+
+    void inc(int generation, HeraMetric metric, LabelTuple labels) {
+        Stripe stripe = stripe();
+        stripe.lock.lock();
+        try {
+            Map<LabelTuple, Object> table = stripe.table(generation, metric);
+            long[] cell = (long[]) table.get(labels);
+            if (cell == null) {
+                cell = new long[1];
+                table.put(labels, cell);
+            }
+            cell[0]++;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    void observe(int generation, HeraMetric metric, LabelTuple labels, double value) {
+        Stripe stripe = stripe();
+        stripe.lock.lock();
+        try {
+            Map<LabelTuple, Object> table = stripe.table(generation, metric);
+            HistogramCell cell = (HistogramCell) table.get(labels);
+            if (cell == null) {
+                cell = new HistogramCell(UPPER_BOUNDS[metric.ordinal()]);
+                table.put(labels, cell);
+            }
+            cell.observe(value);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Hand every cell of the generation to the sink and empty the tables.
+     * Only call once no batch can still record into this generation.
+     *
+     * @return cells merged
+     */
+    int drain(int generation, Sink sink) {
+        int cells = 0;
+        for (Stripe stripe : stripes) {
+            Map<LabelTuple, Object>[] generationTables;
+            stripe.lock.lock();
+            try {
+                generationTables = stripe.take(generation);
+            } finally {
+                stripe.lock.unlock();
+            }
+            cells += drain(generationTables, sink);
+        }
+        return cells;
+    }
+
+    private static int drain(Map<LabelTuple, Object>[] generationTables, Sink sink) {
+        int cells = 0;
+        for (int i = 0; i < generationTables.length; i++) {
+            Map<LabelTuple, Object> table = generationTables[i];
+            if (table == null || table.isEmpty()) {
+                continue;
+            }
+            HeraMetric metric = METRICS[i];
+            for (Map.Entry<LabelTuple, Object> entry : table.entrySet()) {
+                if (metric.getType() == HeraMetric.Type.COUNTER) {
+                    sink.counter(metric, entry.getKey(), ((long[]) entry.getValue())[0]);
+                } else {
+                    sink.histogram(metric, entry.getKey(), (HistogramCell) entry.getValue());
+                }
+            }
+            cells += table.size();
+        }
+        return cells;
+    }
+
+    private Stripe stripe() {
+        long id = Thread.currentThread().threadId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return stripes[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    private static double[] appendInfinity(double[] buckets) {
+        double[] bounds = Arrays.copyOf(buckets, buckets.length + 1);
+        bounds[buckets.length] = Double.POSITIVE_INFINITY;
+        return bounds;
+    }
+
+    interface Sink {
+
+        void counter(HeraMetric metric, LabelTuple labels, long count);
+
+        void histogram(HeraMetric metric, LabelTuple labels, HistogramCell cell);
+    }
+
+    /**
+     * Non cumulative bucket counts, as prometheus keeps them, plus the sum of every bucket so that the
+     * observations can be replayed bucket by bucket with an exact total, and the min/max of the series.
+     */
+    static final class HistogramCell {
+
+        final double[] upperBounds;
+
+        final long[] counts;
+
+        final double[] sums;
+
+        double min = Double.POSITIVE_INFINITY;
+
+        double max = Double.NEGATIVE_INFINITY;
+
+        HistogramCell(double[] upperBounds) {
+            this.upperBounds = upperBounds;
+            this.counts = new long[upperBounds.length];
+            this.sums = new double[upperBounds.length];
+        }
+
+        void observe(double value) {
+            for (int i = 0; i < upperBounds.length; i++) {
+                if (value <= upperBounds[i]) {
+                    counts[i]++;
+                    sums[i] += value;
+                    break;
+                }
+            }
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+        }
+    }
+
+    private static final class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        @SuppressWarnings("unchecked")
+        private final Map<LabelTuple, Object>[][] tables = new Map[MutiMetricsCall.GENERATIONS][METRICS.length];
+
+        Map<LabelTuple, Object> table(int generation, HeraMetric metric) {
+            Map<LabelTuple, Object>[] generationTables = tables[generation];
+            Map<LabelTuple, Object> table = generationTables[metric.ordinal()];
+            if (table == null) {
+                table = new HashMap<>();
+                generationTables[metric.ordinal()] = table;
+            }
+            return table;
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<LabelTuple, Object>[] take(int generation) {
+            Map<LabelTuple, Object>[] generationTables = tables[generation];
+            tables[generation] = new Map[METRICS.length];
+            return generationTables;
+        }
+    }
+}
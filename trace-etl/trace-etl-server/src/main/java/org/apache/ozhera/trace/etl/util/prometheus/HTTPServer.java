@@ -20,13 +20,13 @@
 package org.apache.ozhera.trace.etl.util.prometheus;
 
 import com.alibaba.nacos.api.config.annotation.NacosValue;
-import com.google.common.collect.Sets;
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import org.apache.ozhera.trace.etl.consumer.DataCacheService;
-import org.apache.ozhera.trace.etl.consumer.EnterManager;
+import org.apache.ozhera.trace.etl.metrics.EtlSelfMetrics;
+import org.apache.ozhera.trace.etl.metrics.MetricFamilyStream;
 import com.xiaomi.youpin.prometheus.client.binder.ClassLoaderMetricsReduced;
 import com.xiaomi.youpin.prometheus.client.binder.JvmGcMetricsReduced;
 import com.xiaomi.youpin.prometheus.client.binder.JvmMemoryMetricsReduced;
@@ -34,9 +34,7 @@ import com.xiaomi.youpin.prometheus.client.binder.JvmThreadMetricsReduced;
 import io.micrometer.core.instrument.binder.system.FileDescriptorMetrics;
 import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
 import io.micrometer.core.instrument.binder.system.UptimeMetrics;
-import io.micrometer.prometheus.PrometheusConfig;
 import io.micrometer.prometheus.PrometheusMeterRegistry;
-import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.exporter.common.TextFormat;
 import org.apache.commons.lang3.StringUtils;
@@ -51,17 +49,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 @Component
 public class HTTPServer {
@@ -74,15 +69,13 @@ public class HTTPServer {
     private String token;
     @Value("${security.scanner.ua}")
     private String ua;
-    @Value("${app.name}")
-    private String appName;
     @Value("${metrics.uri.whitelist}")
     private String uriWhitelist;
 
     @Resource
     private DataCacheService dataCacheService;
     @Resource
-    private EnterManager enterManager;
+    private EtlSelfMetrics etlSelfMetrics;
 
     private HttpServer server;
     private ExecutorService executorService;
@@ -97,8 +90,7 @@ public class HTTPServer {
             }
             HashMap<String, CollectorRegistry> handleMap = new HashMap<>();
             handleMap.put("default", CollectorRegistry.defaultRegistry);
-            PrometheusMeterRegistry jvmRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
-            jvmRegistry.config().commonTags(APPLICATION, appName);
+            PrometheusMeterRegistry jvmRegistry = etlSelfMetrics.getRegistry();
             bindJvm(jvmRegistry);
             handleMap.put("jvm", jvmRegistry.getPrometheusRegistry());
             HttpHandler mHandler = new HTTPServer.HTTPMetricHandler(handleMap);
@@ -141,19 +133,8 @@ public class HTTPServer {
             if (now - lastTime1 > 5000L) {
                 isCache = false;
                 this.uriLastTime.put(url, now);
-                List<String> list = new ArrayList<>();
-                try {
-                    Field field = registry.getClass().getDeclaredField("namesToCollectors");
-                    field.setAccessible(true);
-                    Map<String, Collector> namesToCollectors = (Map<String, Collector>) field.get(registry);
-                    list = namesToCollectors.keySet().stream()
-                            .filter(it -> !it.endsWith("created"))
-                            .collect(Collectors.toList());
-                } catch (Exception e) {
-                    log.info("export metrics error : ", e);
-                }
                 try (ByteArrayOutputStream baos = new ByteArrayOutputStream(); OutputStreamWriter writer = new OutputStreamWriter(baos)) {
-                    TextFormat.writeFormat(contentType, writer, registry.filteredMetricFamilySamples(Sets.newHashSet(list)));
+                    TextFormat.writeFormat(contentType, writer, new MetricFamilyStream(registry.metricFamilySamples()));
                     writer.flush();
                     byte[] bytes = baos.toByteArray();
                     this.data.put(url, bytes);
@@ -180,7 +161,7 @@ public class HTTPServer {
             }
             String hostString = exchange.getRemoteAddress().getHostString();
             String path = exchange.getRequestURI().getPath();
-            byte[] data = null;
+            long size = 0;
             try (OutputStream os = exchange.getResponseBody()) {
                 if ("/-/healthy".equals(path)) {
                     exchange.sendResponseHeaders(200, HEALTHY_RESPONSE.length);
@@ -194,29 +175,67 @@ public class HTTPServer {
                     if ("/jvm".equals(path)) {
                         CollectorRegistry registry = this.registryMap.get("jvm");
                         Map<String, Object> dataMap = getData(contentType, registry, path, hostString);
-                        data = (byte[]) dataMap.get("data");
+                        byte[] data = (byte[]) dataMap.get("data");
+                        size = data.length;
+                        exchange.sendResponseHeaders(200, data.length);
+                        os.write(data);
                     } else {
-                        if (dataCacheService.isStartCache()) {
-                            data = dataCacheService.getData();
-                        } else {
-                            data = firstPull();
+                        DataCacheService.Exposition exposition;
+                        try {
+                            exposition = dataCacheService.isStartCache() ? dataCacheService.prepareData() : firstPull();
+                        } catch (Throwable ex) {
+                            log.error("prepare metrics error", ex);
+                            sendError(exchange);
+                            return;
+                        }
+                        try (exposition) {
+                            // a length of 0 sends the body chunked, -1 sends none
+                            if (acceptGzip(exchange)) {
+                                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                                exchange.sendResponseHeaders(200, Math.max(exposition.getGzipLength(), 0));
+                                exposition.writeGzip(os);
+                            } else {
+                                long length = exposition.getLength();
+                                exchange.sendResponseHeaders(200, length < 0 ? 0 : length == 0 ? -1 : length);
+                                exposition.write(os);
+                            }
+                            size = exposition.getLength();
                         }
                     }
-                    exchange.sendResponseHeaders(200, data.length);
-                    os.write(data);
                     os.flush();
                 }
             } catch (Throwable ex) {
-                ex.printStackTrace();
-                exchange.sendResponseHeaders(200, 0);
-                exchange.getResponseBody().write(new byte[]{});
+                log.error("prometheus request error", ex);
+                sendError(exchange);
             } finally {
                 String query = exchange.getRequestURI().getRawQuery();
                 long b = System.currentTimeMillis();
-                int len = null != data ? data.length : 0;
-                log.info("prometheus request uri : " + path + " queryString : " + query + " remoteAddr：" + hostString + " duration : " + (b - a) + " data size:" + len);
+                log.info("prometheus request uri : " + path + " queryString : " + query + " remoteAddr：" + hostString + " duration : " + (b - a) + " data size:" + size);
+
+            }
+        }
+
+        private void sendError(HttpExchange exchange) {
+            try {
+                exchange.sendResponseHeaders(500, -1);
+            } catch (IOException e) {
+                // headers already sent, the scrape fails on the truncated body
+            } finally {
+                exchange.close();
+            }
+        }
 
+        private boolean acceptGzip(HttpExchange exchange) {
+            List<String> encodings = exchange.getRequestHeaders().get("Accept-Encoding");
+            if (encodings == null) {
+                return false;
             }
+            for (String encoding : encodings) {
+                if (encoding.contains("gzip")) {
+                    return true;
+                }
+            }
+            return false;
         }
 
         /**
@@ -225,22 +244,14 @@ public class HTTPServer {
          * When Prometheus pulls for the first time, it pulls directly from CollectRegister.
          * The cacheData operation in ConsumerService will not be executed until 15 seconds after the first pull of Prometheus.
          *
-         * @return
+         * @return the registry collected since startup
          */
-        private byte[] firstPull() {
+        private DataCacheService.Exposition firstPull() {
             try {
-                enterManager.getMonitor().enter();
-                while (enterManager.getProcessNum().get() > 0) {
-                    TimeUnit.MILLISECONDS.sleep(200);
-                }
-                return dataCacheService.cacheDataSync();
-            } catch (Throwable ex) {
-                log.error("first pull error", ex);
+                return dataCacheService.prepareDataSync();
             } finally {
                 dataCacheService.setStartCache(true);
-                enterManager.getMonitor().leave();
             }
-            return null;
         }
 
         private boolean filterRequest(HttpExchange exchange) {
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.consumer;
+
+import org.apache.ozhera.trace.etl.metrics.EtlSelfMetrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The epoch swap against the monitor swap it replaces, on the same consumer load:
+ * no batch writes into a registry once it has been retired, no span is lost,
+ * and the spans reported per swap add up to every span processed.
+ */
+public class EnterManagerTest {
+
+    private static final int CONSUMERS = 4;
+
+    private static final int SWAPS = 50;
+
+    private static final int BATCH = 8;
+
+    @Test
+    public void testEpochSwapMatchesMonitorSwap() throws Exception {
+        Result monitor = run(EnterManager.SWAP_MODE_MONITOR);
+        Result epoch = run(EnterManager.SWAP_MODE_EPOCH);
+        for (Result result : new Result[]{monitor, epoch}) {
+            Assert.assertEquals(result.mode, 0, result.lateWrites);
+            Assert.assertEquals(result.mode, result.produced, result.recorded);
+            Assert.assertEquals(result.mode, result.produced, result.reported);
+            Assert.assertTrue(result.mode, result.produced > 0);
+        }
+    }
+
+    @Test
+    public void testSwapWithoutBatches() throws Exception {
+        for (String mode : new String[]{EnterManager.SWAP_MODE_MONITOR, EnterManager.SWAP_MODE_EPOCH}) {
+            EnterManager enterManager = enterManager(mode);
+            AtomicInteger changes = new AtomicInteger();
+            enterManager.swap(changes::incrementAndGet);
+            enterManager.swap(changes::incrementAndGet);
+            Assert.assertEquals(mode, 2, changes.get());
+            Assert.assertEquals(mode, 0, epochSpans(enterManager));
+        }
+    }
+
+    private static Result run(String mode) throws Exception {
+        EnterManager enterManager = enterManager(mode);
+        AtomicLongArray registries = new AtomicLongArray(MutiMetricsCall.GENERATIONS);
+        AtomicInteger index = new AtomicInteger();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong produced = new AtomicLong();
+        List<Thread> consumers = new ArrayList<>();
+        for (int i = 0; i < CONSUMERS; i++) {
+            Thread consumer = new Thread(() -> {
+                while (running.get()) {
+                    long token = enterManager.begin();
+                    try {
+                        int generation = index.get();
+                        for (int k = 0; k < BATCH; k++) {
+                            registries.incrementAndGet(generation);
+                            Thread.yield();
+                        }
+                    } finally {
+                        enterManager.end(token, BATCH);
+                    }
+                    produced.addAndGet(BATCH);
+                }
+            }, "consumer-" + i);
+            consumer.start();
+            consumers.add(consumer);
+        }
+        long reported = 0;
+        long lateWrites = 0;
+        int retired = -1;
+        long retiredCount = 0;
+        for (int i = 0; i < SWAPS; i++) {
+            Thread.sleep(2);
+            if (retired >= 0 && registries.get(retired) != retiredCount) {
+                lateWrites++;
+            }
+            enterManager.swap(() -> index.updateAndGet(g -> g == 0 ? 1 : 0));
+            reported += epochSpans(enterManager);
+            retired = index.get() == 0 ? 1 : 0;
+            retiredCount = registries.get(retired);
+        }
+        running.set(false);
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        if (registries.get(retired) != retiredCount) {
+            lateWrites++;
+        }
+        // the spans of the batches after the last swap are reported by the next one
+        enterManager.swap(() -> index.updateAndGet(g -> g == 0 ? 1 : 0));
+        reported += epochSpans(enterManager);
+        return new Result(mode, produced.get(), registries.get(0) + registries.get(1), reported, lateWrites);
+    }
+
+    private static EnterManager enterManager(String mode) throws Exception {
+        EnterManager enterManager = new EnterManager();
+        set(enterManager, "swapMode", mode);
+        set(enterManager, "etlSelfMetrics", new EtlSelfMetrics());
+        enterManager.init();
+        return enterManager;
+    }
+
+    private static long epochSpans(EnterManager enterManager) throws Exception {
+        Field field = EnterManager.class.getDeclaredField("epochSpans");
+        field.setAccessible(true);
+        return ((AtomicLong) field.get(enterManager)).get();
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private static final class Result {
+
+        private final String mode;
+
+        private final long produced;
+
+        private final long recorded;
+
+        private final long reported;
+
+        private final long lateWrites;
+
+        private Result(String mode, long produced, long recorded, long reported, long lateWrites) {
+            this.mode = mode;
+            this.produced = produced;
+            this.recorded = recorded;
+            this.reported = reported;
+            this.lateWrites = lateWrites;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.consumer;
+
+import org.apache.ozhera.trace.etl.config.TraceConfig;
+import org.apache.ozhera.trace.etl.domain.MetricsParseResult;
+import org.apache.ozhera.trace.etl.util.ThriftUtil;
+import org.apache.ozhera.tspandata.TAttributeKey;
+import org.apache.ozhera.tspandata.TAttributeType;
+import org.apache.ozhera.tspandata.TAttributes;
+import org.apache.ozhera.tspandata.TExtra;
+import org.apache.ozhera.tspandata.TResource;
+import org.apache.ozhera.tspandata.TSpanData;
+import org.apache.ozhera.tspandata.TValue;
+import org.apache.thrift.TDeserializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per span cost of MetricsParseService.metricsParse.
+ * <p>
+ * Spans recorded from the trace topic can be replayed with -Dspans=&lt;file&gt;, the file being a sequence of
+ * int length + TCompactProtocol encoded TSpanData. Without it a fixed mix of http, dubbo, mysql and redis spans is used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsParseBenchmark {
+
+    private MetricsParseService service;
+
+    private TSpanData[] spans;
+
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        service = new MetricsParseService();
+        set(service, "traceConfig", new TraceConfig());
+        set(service, "excludeServiceName", "hera_trace_etl|hera_log");
+        set(service, "excludeMethod", "/health|/actuator|doHealthCheck");
+        set(service, "excludeThread", "nacos|RocketmqClient|Druid-ConnectionPool");
+        set(service, "excludeHttpurl", "/metrics|/favicon.ico");
+        set(service, "excludeUA", "kube-probe|Prometheus");
+        set(service, "excludeDB", "select 1|SELECT 1");
+        set(service, "excludeHttpServer", "");
+        String file = System.getProperty("spans");
+        List<TSpanData> samples = file == null ? sampleSpans() : readSpans(file);
+        spans = samples.toArray(new TSpanData[0]);
+    }
+
+    @Benchmark
+    public MetricsParseResult metricsParse() {
+        TSpanData span = spans[next];
+        next = next + 1 == spans.length ? 0 : next + 1;
+        return service.metricsParse(span);
+    }
+
+    private static List<TSpanData> sampleSpans() {
+        List<TSpanData> samples = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            samples.add(span("demo-http", "/api/order/" + i, new Object[][]{
+                    {"http.method", "GET"}, {"http.url", "http://demo/api/order/" + i}, {"http.status_code", 200L},
+                    {"http.user_agent", "okhttp/4.9.0"}, {"span.kind", "server"}, {"thread.name", "http-nio-8080-exec-" + i},
+                    {"net.peer.ip", "10.0.0." + i}, {"net.peer.port", 51234L}, {"error", false}}));
+            samples.add(span("demo-dubbo", "com.demo.OrderService/get", new Object[][]{
+                    {"rpc.system", "dubbo"}, {"rpc.service", "com.demo.OrderService"}, {"rpc.method", "get" + i},
+                    {"span.kind", "client"}, {"thread.name", "DubboServerHandler-" + i}, {"net.peer.name", "10.0.1." + i},
+                    {"net.peer.port", 20880L}}));
+            samples.add(span("demo-mysql", "query", new Object[][]{
+                    {"db.system", "mysql"}, {"db.connection_string", "jdbc:mysql://db:3306"}, {"db.name", "demo"},
+                    {"db.operation", "SELECT"}, {"db.statement", "select id, name from t_order where id = ?" + i},
+                    {"thread.name", "DubboServerHandler-" + i}, {"net.peer.name", "db"}, {"net.peer.port", 3306L}}));
+            samples.add(span("demo-redis", "GET", new Object[][]{
+                    {"db.system", "redis"}, {"db.statement", "GET order:" + i}, {"net.peer.name", "redis"},
+                    {"net.peer.port", 6379L}, {"thread.name", "lettuce-nioEventLoop-" + i}}));
+        }
+        return samples;
+    }
+
+    private static TSpanData span(String serviceName, String name, Object[][] tags) {
+        TSpanData span = new TSpanData();
+        span.setTraceId("4bf92f3577b34da6a3ce929d0e0e4736");
+        span.setSpanId("00f067aa0ba902b7");
+        span.setName(name);
+        long start = System.currentTimeMillis() * 1000_000L;
+        span.setStartEpochNanos(start);
+        span.setEndEpochNanos(start + 12_000_000L);
+        span.setExtra(new TExtra().setServiceName("1-" + serviceName).setIp("10.0.0.1").setHostname("demo"));
+        span.setAttributes(attributes(tags));
+        span.setResouce(new TResource().setAttributes(attributes(new Object[][]{
+                {"service.env", "staging"}, {"service.env.id", "1"}, {"telemetry.sdk.language", "java"}})));
+        return span;
+    }
+
+    private static TAttributes attributes(Object[][] tags) {
+        List<TAttributeKey> keys = new ArrayList<>(tags.length);
+        List<TValue> values = new ArrayList<>(tags.length);
+        for (Object[] tag : tags) {
+            Object value = tag[1];
+            if (value instanceof Long) {
+                keys.add(new TAttributeKey().setValue((String) tag[0]).setType(TAttributeType.LONG));
+                values.add(new TValue().setLongValue((Long) value));
+            } else if (value instanceof Boolean) {
+                keys.add(new TAttributeKey().setValue((String) tag[0]).setType(TAttributeType.BOOLEAN));
+                values.add(new TValue().setBoolValue((Boolean) value));
+            } else {
+                keys.add(new TAttributeKey().setValue((String) tag[0]).setType(TAttributeType.STRING));
+                values.add(new TValue().setStringValue((String) value));
+            }
+        }
+        return new TAttributes().setKeys(keys).setValues(values);
+    }
+
+    private static List<TSpanData> readSpans(String file) throws Exception {
+        List<TSpanData> samples = new ArrayList<>();
+        TDeserializer deserializer = new TDeserializer(ThriftUtil.PROTOCOL_FACTORY);
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                TSpanData span = new TSpanData();
+                deserializer.deserialize(span, bytes);
+                samples.add(span);
+            }
+        }
+        if (samples.isEmpty()) {
+            throw new IOException("no span in " + file);
+        }
+        return samples;
+    }
+
+    private static void set(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MetricsParseBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
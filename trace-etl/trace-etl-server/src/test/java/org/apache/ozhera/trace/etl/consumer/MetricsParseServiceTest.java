@@ -0,0 +1,402 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.consumer;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.ozhera.trace.etl.config.TraceConfig;
+import org.apache.ozhera.trace.etl.constant.SpanType;
+import org.apache.ozhera.trace.etl.domain.DriverDomain;
+import org.apache.ozhera.trace.etl.domain.HeraTraceEtlConfig;
+import org.apache.ozhera.trace.etl.domain.JaegerTracerDomain;
+import org.apache.ozhera.trace.etl.domain.MetricsParseResult;
+import org.apache.ozhera.trace.etl.util.ThriftUtil;
+import org.apache.ozhera.tspandata.TAttributeKey;
+import org.apache.ozhera.tspandata.TAttributeType;
+import org.apache.ozhera.tspandata.TAttributes;
+import org.apache.ozhera.tspandata.TExtra;
+import org.apache.ozhera.tspandata.TResource;
+import org.apache.ozhera.tspandata.TSpanData;
+import org.apache.ozhera.tspandata.TValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * {@link MetricsParseService#metricsParse} against the chain of equals checks it replaces, kept below as
+ * {@link #legacyParse}, on random spans with and without a service config.
+ */
+public class MetricsParseServiceTest {
+
+    private static final String EXCLUDE_SERVICE_NAME = "hera_trace_etl|hera_log";
+    private static final String EXCLUDE_METHOD = "/health|/actuator|doHealthCheck";
+    private static final String EXCLUDE_THREAD = "nacos|RocketmqClient||Druid";
+    private static final String EXCLUDE_HTTP_URL = "/metrics|/favicon.ico";
+    private static final String EXCLUDE_UA = "kube-probe|Prometheus";
+    private static final String EXCLUDE_DB = "select 1|SELECT 1";
+
+    private static final String CONFIGURED_SERVICE = "2-configured";
+
+    private static final String[] SERVICES = {"1-demo", CONFIGURED_SERVICE, "3-hera_log", ""};
+
+    private static final String[] OPERATIONS = {"/api/get", "dbDriver", "/health", "doHealthCheck", "", "com.demo.Service/get"};
+
+    private static final String[] KEYS = {
+            "thread.name", "http.url", "http.user_agent", "db.statement", "http.status_code", "rpc.system",
+            "rpc.method", "rpc.service", "span.kind", "db.system", "http.method", "net.peer.name", "net.peer.ip",
+            "net.peer.port", "error", "db.connection_string", "db.operation", "db.name", "messaging.system",
+            "messaging.destination", "hera.annotations", "db.driver.domainPort", "db.driver.userName",
+            "db.driver.password", "db.driver.type", "db.driver.dbName", "db.driver.other", "unknown", null};
+
+    private static final String[] RESOURCE_KEYS = {
+            "service.env", "service.function.module", "service.function.name", "service.function.id",
+            "service.env.id", "service.other", null};
+
+    private static final String[] VALUES = {
+            "true", "false", "TRUE", "", "200", "mysql", "redis", "server", "nacos-1", "main", "/metrics/x",
+            "/api", "kube-probe/1.0", "curl", "select 1 from dual", "select * from t", "Prometheus", "Druid-1"};
+
+    private static final TAttributeType[] TYPES = {
+            TAttributeType.STRING, TAttributeType.STRING, TAttributeType.STRING, TAttributeType.LONG,
+            TAttributeType.BOOLEAN, TAttributeType.DOUBLE};
+
+    @Test
+    public void testRandomSpansMatchLegacyParse() throws Exception {
+        for (boolean excludeFlags : new boolean[]{false, true}) {
+            MetricsParseService service = service(excludeFlags);
+            Random random = new Random(7);
+            for (int i = 0; i < 20000; i++) {
+                TSpanData span = randomSpan(random);
+                assertSameResult(span, service.metricsParse(span), legacyParse(span, excludeFlags));
+            }
+        }
+    }
+
+    @Test
+    public void testExcludedTagStopsTheLoop() throws Exception {
+        TSpanData span = span("1-demo", "/api/get",
+                new String[]{"span.kind", "thread.name", "messaging.destination"},
+                new String[]{"server", "nacos-1", "orders"});
+        MetricsParseResult result = service(false).metricsParse(span);
+        Assert.assertFalse(result.isValidate());
+        Assert.assertEquals("server", result.getJaegerTracerDomain().getKind());
+        Assert.assertNull(result.getJaegerTracerDomain().getTopic());
+        assertSameResult(span, result, legacyParse(span, false));
+    }
+
+    private static void assertSameResult(TSpanData span, MetricsParseResult actual, MetricsParseResult expected) throws Exception {
+        String message = String.valueOf(span);
+        Assert.assertEquals(message, expected.isIgnore(), actual.isIgnore());
+        if (expected.isIgnore()) {
+            return;
+        }
+        Assert.assertEquals(message, expected.isValidate(), actual.isValidate());
+        Assert.assertEquals(message, fields(expected.getJaegerTracerDomain()), fields(actual.getJaegerTracerDomain()));
+        Assert.assertEquals(message, expected.getDriverDomain() == null, actual.getDriverDomain() == null);
+        if (expected.getDriverDomain() != null) {
+            expected.getDriverDomain().setTimeStamp(null);
+            actual.getDriverDomain().setTimeStamp(null);
+            Assert.assertEquals(message, fields(expected.getDriverDomain()), fields(actual.getDriverDomain()));
+        }
+    }
+
+    private static Map<String, Object> fields(Object o) throws Exception {
+        Map<String, Object> fields = new TreeMap<>();
+        for (Field field : o.getClass().getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            field.setAccessible(true);
+            fields.put(field.getName(), field.get(o));
+        }
+        return fields;
+    }
+
+    private static MetricsParseService service(boolean excludeFlags) throws Exception {
+        MetricsParseService service = new MetricsParseService();
+        TraceConfig traceConfig = new TraceConfig();
+        traceConfig.insert(configured());
+        set(service, "traceConfig", traceConfig);
+        set(service, "excludeServiceName", EXCLUDE_SERVICE_NAME);
+        set(service, "excludeMethod", EXCLUDE_METHOD);
+        set(service, "excludeThread", EXCLUDE_THREAD);
+        set(service, "excludeHttpurl", EXCLUDE_HTTP_URL);
+        set(service, "excludeUA", EXCLUDE_UA);
+        set(service, "excludeDB", EXCLUDE_DB);
+        set(service, "excludeHttpServer", "");
+        set(service, "excludeServerIp", excludeFlags);
+        set(service, "excludeDubboMethod", excludeFlags);
+        return service;
+    }
+
+    /**
+     * A config overriding some of the lists, the empty ones fall back to the defaults.
+     */
+    private static HeraTraceEtlConfig configured() {
+        HeraTraceEtlConfig config = new HeraTraceEtlConfig();
+        config.setBindId("2");
+        config.setAppName("configured");
+        config.setExcludeMethod("/api/get");
+        config.setExcludeThread("main");
+        config.setExcludeUa("");
+        config.setExcludeSql("select *");
+        return config;
+    }
+
+    /**
+     * metricsParse before the tags were dispatched by key, for the lists of {@link #service} and {@link #configured}.
+     */
+    private static MetricsParseResult legacyParse(TSpanData tSpanData, boolean excludeFlags) {
+        String serviceName = tSpanData.getExtra().getServiceName();
+        if (StringUtils.isEmpty(serviceName) || exclude(EXCLUDE_SERVICE_NAME, serviceName)) {
+            return new MetricsParseResult(true);
+        }
+        HeraTraceEtlConfig config = CONFIGURED_SERVICE.equals(serviceName) ? configured() : null;
+        String excludeMethod = orDefault(config == null ? null : config.getExcludeMethod(), EXCLUDE_METHOD);
+        String excludeThread = orDefault(config == null ? null : config.getExcludeThread(), EXCLUDE_THREAD);
+        String excludeHttpUrl = orDefault(config == null ? null : config.getExcludeHttpUrl(), EXCLUDE_HTTP_URL);
+        String excludeUa = orDefault(config == null ? null : config.getExcludeUa(), EXCLUDE_UA);
+        String excludeDb = orDefault(config == null ? null : config.getExcludeSql(), EXCLUDE_DB);
+        String operationName = tSpanData.getName();
+        if (StringUtils.isEmpty(operationName) || exclude(excludeMethod, operationName)) {
+            return new MetricsParseResult(true);
+        }
+        DriverDomain driverDomain = null;
+        if (operationName.equals("dbDriver")) {
+            driverDomain = new DriverDomain();
+            driverDomain.setAppName(serviceName.replace("-", "_"));
+        }
+        JaegerTracerDomain jtd = new JaegerTracerDomain();
+        jtd.setServiceName(serviceName);
+        jtd.setTraceId(tSpanData.getTraceId());
+        long startTime = tSpanData.getStartEpochNanos();
+        if (startTime > 0) {
+            jtd.setStartTime(startTime / (1000 * 1000));
+        }
+        long duration = tSpanData.getEndEpochNanos() - startTime;
+        long durationUs = duration / 1000;
+        if (duration > 0) {
+            jtd.setDuration(durationUs);
+        }
+        jtd.setEndTime(jtd.getStartTime() + durationUs / 1000);
+        jtd.setMethod(operationName);
+        jtd.setServerIp(excludeFlags ? "10.0.0.0" : tSpanData.getExtra().getIp());
+        TAttributes attributes = tSpanData.getAttributes();
+        List<TAttributeKey> tagsKeys = attributes.getKeys();
+        List<TValue> tagsValues = attributes.getValues();
+        boolean isValidate = true;
+        if (tagsKeys != null && tagsValues != null && tagsKeys.size() > 0 && tagsKeys.size() == tagsValues.size()) {
+            for (int i = 0; i < tagsKeys.size(); i++) {
+                String key = tagsKeys.get(i).getValue();
+                String value = ThriftUtil.getStringValue(tagsValues.get(i), tagsKeys.get(i).getType());
+                if ("thread.name".equals(key) && exclude(excludeThread, value)) {
+                    isValidate = false;
+                    break;
+                }
+                if ("http.url".equals(key) && exclude(excludeHttpUrl, value)) {
+                    isValidate = false;
+                    break;
+                }
+                if ("http.user_agent".equals(key) && exclude(excludeUa, value)) {
+                    isValidate = false;
+                    break;
+                }
+                if ("db.statement".equals(key) && exclude(excludeDb, value)) {
+                    isValidate = false;
+                    break;
+                }
+                if ("http.status_code".equals(key)) {
+                    jtd.setHttpCode(value);
+                }
+                if ("rpc.system".equals(key)) {
+                    jtd.setType(value);
+                }
+                if ("rpc.method".equals(key)) {
+                    jtd.setMethod(excludeFlags ? "default" : value);
+                }
+                if ("rpc.service".equals(key)) {
+                    jtd.setRpcServiceName(value);
+                }
+                if ("span.kind".equals(key)) {
+                    jtd.setKind(value);
+                }
+                if ("db.system".equals(key)) {
+                    jtd.setType(value);
+                }
+                if ("db.statement".equals(key)) {
+                    jtd.setStatement(value);
+                }
+                if ("http.method".equals(key)) {
+                    jtd.setType("aop");
+                }
+                if ("net.peer.name".equals(key) || "net.peer.ip".equals(key)) {
+                    jtd.setDbHost(value);
+                }
+                if ("net.peer.port".equals(key)) {
+                    jtd.setDbPort(value);
+                }
+                if ("error".equals(key) && Boolean.valueOf(value)) {
+                    jtd.setSuccess(false);
+                }
+                if ("db.connection_string".equals(key)) {
+                    jtd.setDataSource(value);
+                }
+                if ("db.operation".equals(key)) {
+                    jtd.setSqlMethod(value);
+                }
+                if ("db.name".equals(key)) {
+                    jtd.setDbName(value);
+                }
+                if ("messaging.system".equals(key)) {
+                    jtd.setType(value);
+                }
+                if ("messaging.destination".equals(key)) {
+                    jtd.setTopic(value);
+                }
+                if ("hera.annotations".equals(key) && Boolean.valueOf(value)) {
+                    jtd.setType(SpanType.CUSTOMIZE_MTTHOD);
+                }
+                if (driverDomain != null && "db.driver.domainPort".equals(key)) {
+                    driverDomain.setDomainPort(value);
+                }
+                if (driverDomain != null && "db.driver.userName".equals(key)) {
+                    driverDomain.setUserName(value);
+                }
+                if (driverDomain != null && "db.driver.password".equals(key)) {
+                    driverDomain.setPassword(value);
+                }
+                if (driverDomain != null && "db.driver.type".equals(key)) {
+                    driverDomain.setType(value);
+                }
+                if (driverDomain != null && "db.driver.dbName".equals(key)) {
+                    driverDomain.setDataBaseName(value);
+                }
+            }
+        }
+        TResource resource = tSpanData.getResouce();
+        if (resource != null) {
+            TAttributes resourceAttributes = resource.getAttributes();
+            List<TAttributeKey> resourceKeys = resourceAttributes.getKeys();
+            List<TValue> resourceValues = resourceAttributes.getValues();
+            if (resourceKeys != null && resourceValues != null && resourceKeys.size() > 0) {
+                for (int i = 0; i < resourceKeys.size(); i++) {
+                    String key = resourceKeys.get(i).getValue();
+                    String value = ThriftUtil.getStringValue(resourceValues.get(i), resourceKeys.get(i).getType());
+                    if ("service.env".equals(key)) {
+                        jtd.setServiceEnv(value);
+                    }
+                    if ("service.function.module".equals(key)) {
+                        jtd.setFunctionModule(value);
+                    }
+                    if ("service.function.name".equals(key)) {
+                        jtd.setFunctionName(value);
+                    }
+                    if ("service.function.id".equals(key)) {
+                        jtd.setFunctionId(value);
+                    }
+                    if ("service.env.id".equals(key)) {
+                        jtd.setServiceEnvId(value);
+                    }
+                }
+            }
+        }
+        if (StringUtils.isEmpty(jtd.getServiceEnv())) {
+            jtd.setServiceEnv("default_env");
+        }
+        return new MetricsParseResult(jtd, driverDomain, false, isValidate, config);
+    }
+
+    private static String orDefault(String configured, String defaults) {
+        return StringUtils.isEmpty(configured) ? defaults : configured;
+    }
+
+    private static boolean exclude(String excludeList, String excludeString) {
+        String[] splits = excludeList.split("\\|");
+        for (String split : splits) {
+            if (StringUtils.isNotEmpty(split) && excludeString.contains(split)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static TSpanData randomSpan(Random random) {
+        int tags = random.nextInt(8);
+        String[] keys = new String[tags];
+        String[] values = new String[tags];
+        for (int i = 0; i < tags; i++) {
+            keys[i] = KEYS[random.nextInt(KEYS.length)];
+            values[i] = VALUES[random.nextInt(VALUES.length)];
+        }
+        TSpanData span = span(SERVICES[random.nextInt(SERVICES.length)], OPERATIONS[random.nextInt(OPERATIONS.length)], keys, values);
+        for (TAttributeKey key : span.getAttributes().getKeys()) {
+            key.setType(TYPES[random.nextInt(TYPES.length)]);
+        }
+        if (random.nextInt(10) == 0) {
+            // keys and values of different sizes are skipped
+            span.getAttributes().getValues().add(new TValue().setStringValue("extra"));
+        }
+        long start = random.nextInt(3) == 0 ? 0 : 1_700_000_000_000_000_000L + random.nextInt(1_000_000_000);
+        span.setStartEpochNanos(start);
+        span.setEndEpochNanos(start + random.nextInt(2_000_000_000) - 1000);
+        if (random.nextInt(4) != 0) {
+            int resources = random.nextInt(4);
+            List<TAttributeKey> resourceKeys = new ArrayList<>();
+            List<TValue> resourceValues = new ArrayList<>();
+            for (int i = 0; i < resources; i++) {
+                resourceKeys.add(new TAttributeKey().setValue(RESOURCE_KEYS[random.nextInt(RESOURCE_KEYS.length)]).setType(TAttributeType.STRING));
+                resourceValues.add(new TValue().setStringValue(VALUES[random.nextInt(VALUES.length)]));
+            }
+            span.setResouce(new TResource().setAttributes(new TAttributes().setKeys(resourceKeys).setValues(resourceValues)));
+        }
+        return span;
+    }
+
+    private static TSpanData span(String serviceName, String operationName, String[] keys, String[] values) {
+        List<TAttributeKey> attributeKeys = new ArrayList<>();
+        List<TValue> attributeValues = new ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            attributeKeys.add(new TAttributeKey().setValue(keys[i]).setType(TAttributeType.STRING));
+            attributeValues.add(new TValue().setStringValue(values[i]).setLongValue(values[i].length()).setBoolValue(values[i].isEmpty()).setDoubleValue(0.5));
+        }
+        TSpanData span = new TSpanData();
+        span.setTraceId("4bf92f3577b34da6a3ce929d0e0e4736");
+        span.setSpanId("00f067aa0ba902b7");
+        span.setName(operationName);
+        span.setStartEpochNanos(1_700_000_000_000_000_000L);
+        span.setEndEpochNanos(1_700_000_000_012_345_678L);
+        span.setExtra(new TExtra().setServiceName(serviceName).setIp("10.1.2.3"));
+        span.setAttributes(new TAttributes().setKeys(attributeKeys).setValues(attributeValues));
+        return span;
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.consumer;
+
+import org.apache.ozhera.trace.etl.util.SpanDecoder;
+import org.apache.ozhera.trace.etl.util.ThriftUtil;
+import org.apache.ozhera.tspandata.TAttributeKey;
+import org.apache.ozhera.tspandata.TAttributeType;
+import org.apache.ozhera.tspandata.TAttributes;
+import org.apache.ozhera.tspandata.TEvent;
+import org.apache.ozhera.tspandata.TExtra;
+import org.apache.ozhera.tspandata.TKind;
+import org.apache.ozhera.tspandata.TLink;
+import org.apache.ozhera.tspandata.TResource;
+import org.apache.ozhera.tspandata.TSpanContext;
+import org.apache.ozhera.tspandata.TSpanData;
+import org.apache.ozhera.tspandata.TStatus;
+import org.apache.ozhera.tspandata.TValue;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spans decoded per second on one consumer thread, from the record value as it is on the kafka wire:
+ * the legacy String + getBytes + new TDeserializer path, the byte[] path with the per thread decoder,
+ * and the partial decode. Run with -prof gc for the allocation rate per span.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class SpanDecodeBenchmark {
+
+    private byte[] wireValue;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] thrift = new TSerializer(ThriftUtil.PROTOCOL_FACTORY).serialize(sampleSpan());
+        // what the agent sends: latin1 text of the thrift bytes through the kafka StringSerializer
+        wireValue = new String(thrift, StandardCharsets.ISO_8859_1).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public TSpanData legacy() throws Exception {
+        String value = new String(wireValue, StandardCharsets.UTF_8);
+        TSpanData tSpanData = new TSpanData();
+        new TDeserializer(ThriftUtil.PROTOCOL_FACTORY).deserialize(tSpanData, value.getBytes(StandardCharsets.ISO_8859_1));
+        return tSpanData;
+    }
+
+    @Benchmark
+    public TSpanData bytes() throws Exception {
+        return SpanDecoder.get().decodeUtf8Latin1(wireValue, false);
+    }
+
+    @Benchmark
+    public TSpanData bytesPartial() throws Exception {
+        return SpanDecoder.get().decodeUtf8Latin1(wireValue, true);
+    }
+
+    private static TSpanData sampleSpan() {
+        TSpanData span = new TSpanData();
+        span.setTraceId("4bf92f3577b34da6a3ce929d0e0e4736");
+        span.setSpanId("00f067aa0ba902b7");
+        span.setName("/api/order/get");
+        span.setKind(TKind.SERVER);
+        long start = System.currentTimeMillis() * 1000_000L;
+        span.setStartEpochNanos(start);
+        span.setEndEpochNanos(start + 12_000_000L);
+        span.setStatus(TStatus.OK);
+        span.setParentSpanContext(new TSpanContext().setTraceId("4bf92f3577b34da6a3ce929d0e0e4736").setSpanId("00f067aa0ba90200"));
+        span.setExtra(new TExtra().setServiceName("1-demo").setIp("10.0.0.1").setHostname("demo-7d9f"));
+        span.setAttributes(attributes("http.method", "GET", "http.url", "http://demo/api/order/get?id=1",
+                "http.status_code", "200", "span.kind", "server", "thread.name", "http-nio-8080-exec-1"));
+        span.setResouce(new TResource().setAttributes(attributes("service.env", "staging", "service.env.id", "1",
+                "telemetry.sdk.language", "java", "telemetry.sdk.version", "1.0.0")));
+        List<TEvent> events = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            events.add(new TEvent().setName("log").setEpochNanos(start + i)
+                    .setAttributes(attributes("message", "order " + i + " loaded from cache, größe " + i)));
+        }
+        span.setEvents(events);
+        List<TLink> links = new ArrayList<>();
+        links.add(new TLink().setSpanContext(new TSpanContext().setTraceId("0af7651916cd43dd8448eb211c80319c").setSpanId("b7ad6b7169203331"))
+                .setAttributes(attributes("link.type", "follows_from")));
+        span.setLinks(links);
+        return span;
+    }
+
+    private static TAttributes attributes(String... keyValues) {
+        List<TAttributeKey> keys = new ArrayList<>();
+        List<TValue> values = new ArrayList<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            keys.add(new TAttributeKey().setValue(keyValues[i]).setType(TAttributeType.STRING));
+            values.add(new TValue().setStringValue(keyValues[i + 1]));
+        }
+        return new TAttributes().setKeys(keys).setValues(values);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SpanDecodeBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
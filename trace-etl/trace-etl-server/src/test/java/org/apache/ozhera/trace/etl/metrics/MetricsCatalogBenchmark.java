@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.metrics;
+
+import org.apache.ozhera.trace.etl.consumer.MutiMetricsCall;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spans per second of the metric update part of MetricsParseService.computeMetrics,
+ * the legacy newCounter/with/add path against the pre-resolved {@link MetricsCatalog},
+ * and against the catalog with striped pre-aggregation.
+ * <p>
+ * Run with the main method, or: java -cp target/test-classes:... org.openjdk.jmh.Main MetricsCatalogBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class MetricsCatalogBenchmark {
+
+    private static final int SERIES = 64;
+
+    private static final String APP = "hera_demo";
+
+    private static final String IP = "10.0.0.1";
+
+    private static final String ENV = "default_env";
+
+    private static final String ENV_ID = "1";
+
+    private MutiMetricsCall call;
+
+    private MetricsCatalog catalog;
+
+    private MetricsCatalog aggregatedCatalog;
+
+    private String[] methods;
+
+    private String[] sqls;
+
+    @Setup
+    public void setup() {
+        call = new MutiMetricsCall();
+        call.init("bench", "");
+        catalog = new MetricsCatalog(call);
+        aggregatedCatalog = new MetricsCatalog(call);
+        aggregatedCatalog.aggregate(false);
+        methods = new String[SERIES];
+        sqls = new String[SERIES];
+        for (int i = 0; i < SERIES; i++) {
+            methods[i] = "method" + i;
+            sqls[i] = "select * from t" + i + " where id = ?";
+        }
+    }
+
+    private int next(SpanCursor cursor) {
+        return (cursor.i++) & (SERIES - 1);
+    }
+
+    @State(Scope.Thread)
+    public static class SpanCursor {
+        int i;
+    }
+
+    @Benchmark
+    public void legacyDubbo(SpanCursor cursor) {
+        String m = methods[next(cursor)];
+        call.newCounter("hera_dubboMethodCalledCount", HeraMetric.Labels.RPC_METHOD)
+                .with("com.demo.Service", m, APP, IP, ENV, ENV_ID)
+                .add(1, "com.demo.Service", m, APP, IP, ENV, ENV_ID);
+        call.newHistogram("hera_dubboProviderCount", HeraMetric.Buckets.AOP_DUBBO, HeraMetric.Labels.RPC_METHOD)
+                .with("com.demo.Service", m, APP, IP, ENV, ENV_ID)
+                .observe(120, "com.demo.Service", m, APP, IP, ENV, ENV_ID);
+        call.newHistogram("hera_dubboProviderCount_without_methodName", HeraMetric.Buckets.AOP_DUBBO, HeraMetric.Labels.RPC_SERVICE)
+                .with("com.demo.Service", APP, IP, ENV, ENV_ID)
+                .observe(120, "com.demo.Service", APP, IP, ENV, ENV_ID);
+        call.newCounter("hera_dubboMethodCalledSuccessCount", HeraMetric.Labels.RPC_METHOD)
+                .with("com.demo.Service", m, APP, IP, ENV, ENV_ID)
+                .add(1, "com.demo.Service", m, APP, IP, ENV, ENV_ID);
+    }
+
+    @Benchmark
+    public void catalogDubbo(SpanCursor cursor) {
+        String m = methods[next(cursor)];
+        LabelTuple rpcMethodLabels = LabelTuple.of("com.demo.Service", m, APP, IP, ENV, ENV_ID);
+        LabelTuple rpcServiceLabels = LabelTuple.of("com.demo.Service", APP, IP, ENV, ENV_ID);
+        catalog.inc(HeraMetric.DUBBO_SERVER_TOTAL_COUNT, rpcMethodLabels);
+        catalog.observe(HeraMetric.DUBBO_SERVER_DURATION_HISTOGRAM, rpcMethodLabels, 120);
+        catalog.observe(HeraMetric.DUBBO_SERVER_DURATION_HISTOGRAM_WITHOUT_METHOD, rpcServiceLabels, 120);
+        catalog.inc(HeraMetric.DUBBO_SERVER_SUCCESS_COUNT, rpcMethodLabels);
+    }
+
+    @Benchmark
+    public void aggregatedDubbo(SpanCursor cursor) {
+        String m = methods[next(cursor)];
+        LabelTuple rpcMethodLabels = LabelTuple.of("com.demo.Service", m, APP, IP, ENV, ENV_ID);
+        LabelTuple rpcServiceLabels = LabelTuple.of("com.demo.Service", APP, IP, ENV, ENV_ID);
+        aggregatedCatalog.inc(HeraMetric.DUBBO_SERVER_TOTAL_COUNT, rpcMethodLabels);
+        aggregatedCatalog.observe(HeraMetric.DUBBO_SERVER_DURATION_HISTOGRAM, rpcMethodLabels, 120);
+        aggregatedCatalog.observe(HeraMetric.DUBBO_SERVER_DURATION_HISTOGRAM_WITHOUT_METHOD, rpcServiceLabels, 120);
+        aggregatedCatalog.inc(HeraMetric.DUBBO_SERVER_SUCCESS_COUNT, rpcMethodLabels);
+    }
+
+    @Benchmark
+    public void legacyHttp(SpanCursor cursor) {
+        String m = methods[next(cursor)];
+        call.newCounter("hera_aopTotalMethodCount", HeraMetric.Labels.METHOD)
+                .with(m, APP, IP, ENV, ENV_ID)
+                .add(1, m, APP, IP, ENV, ENV_ID);
+        call.newCounter("hera_aopSuccessMethodCount", HeraMetric.Labels.METHOD)
+                .with(m, APP, IP, ENV, ENV_ID)
+                .add(1, m, APP, IP, ENV, ENV_ID);
+        call.newHistogram("hera_aopMethodTimeCount", HeraMetric.Buckets.AOP_DUBBO, HeraMetric.Labels.METHOD)
+                .with(m, APP, IP, ENV, ENV_ID)
+                .observe(80, m, APP, IP, ENV, ENV_ID);
+        call.newHistogram("hera_aopMethodTimeCount_without_methodName", HeraMetric.Buckets.AOP_DUBBO, HeraMetric.Labels.APPLICATION_ONLY)
+                .with(APP, IP, ENV, ENV_ID)
+                .observe(80, APP, IP, ENV, ENV_ID);
+    }
+
+    @Benchmark
+    public void catalogHttp(SpanCursor cursor) {
+        String m = methods[next(cursor)];
+        LabelTuple methodLabels = LabelTuple.of(m, APP, IP, ENV, ENV_ID);
+        LabelTuple applicationLabels = LabelTuple.of(APP, IP, ENV, ENV_ID);
+        catalog.inc(HeraMetric.HTTP_SERVER_TOTAL_COUNT, methodLabels);
+        catalog.inc(HeraMetric.HTTP_SERVER_SUCCESS_COUNT, methodLabels);
+        catalog.observe(HeraMetric.HTTP_SERVER_DURATION_HISTOGRAM, methodLabels, 80);
+        catalog.observe(HeraMetric.HTTP_SERVER_DURATION_HISTOGRAM_WITHOUT_METHOD, applicationLabels, 80);
+    }
+
+    @Benchmark
+    public void aggregatedHttp(SpanCursor cursor) {
+        String m = methods[next(cursor)];
+        LabelTuple methodLabels = LabelTuple.of(m, APP, IP, ENV, ENV_ID);
+        LabelTuple applicationLabels = LabelTuple.of(APP, IP, ENV, ENV_ID);
+        aggregatedCatalog.inc(HeraMetric.HTTP_SERVER_TOTAL_COUNT, methodLabels);
+        aggregatedCatalog.inc(HeraMetric.HTTP_SERVER_SUCCESS_COUNT, methodLabels);
+        aggregatedCatalog.observe(HeraMetric.HTTP_SERVER_DURATION_HISTOGRAM, methodLabels, 80);
+        aggregatedCatalog.observe(HeraMetric.HTTP_SERVER_DURATION_HISTOGRAM_WITHOUT_METHOD, applicationLabels, 80);
+    }
+
+    @Benchmark
+    public void legacyMysql(SpanCursor cursor) {
+        String sql = sqls[next(cursor)];
+        call.newCounter("hera_sqlSuccessCount", HeraMetric.Labels.SQL)
+                .with("jdbc:mysql://db/demo", "select", sql, APP, IP, ENV, ENV_ID)
+                .add(1, "jdbc:mysql://db/demo", "select", sql, APP, IP, ENV, ENV_ID);
+        call.newCounter("hera_sqlTotalCount", HeraMetric.Labels.SQL)
+                .with("jdbc:mysql://db/demo", "select", sql, APP, IP, ENV, ENV_ID)
+                .add(1, "jdbc:mysql://db/demo", "select", sql, APP, IP, ENV, ENV_ID);
+        call.newHistogram("hera_sqlTotalTimer", HeraMetric.Buckets.SQL, HeraMetric.Labels.SQL)
+                .with("jdbc:mysql://db/demo", "select", sql, APP, IP, ENV, ENV_ID)
+                .observe(12, "jdbc:mysql://db/demo", "select", sql, APP, IP, ENV, ENV_ID);
+    }
+
+    @Benchmark
+    public void catalogMysql(SpanCursor cursor) {
+        String sql = sqls[next(cursor)];
+        LabelTuple sqlLabels = LabelTuple.of("jdbc:mysql://db/demo", "select", sql, APP, IP, ENV, ENV_ID);
+        catalog.inc(HeraMetric.MYSQL_SUCCESS_COUNT, sqlLabels);
+        catalog.inc(HeraMetric.MYSQL_TOTAL_COUNT, sqlLabels);
+        catalog.observe(HeraMetric.MYSQL_DURATION_HISTOGRAM, sqlLabels, 12);
+    }
+
+    @Benchmark
+    public void legacyRedis(SpanCursor cursor) {
+        String m = methods[next(cursor)];
+        call.newCounter("hera_RedisSuccessCount", HeraMetric.Labels.REDIS)
+                .with(m, "redis.host", "6379", APP, IP, ENV, ENV_ID)
+                .add(1, m, "redis.host", "6379", APP, IP, ENV, ENV_ID);
+        call.newCounter("hera_RedisTotalCount", HeraMetric.Labels.REDIS)
+                .with(m, "redis.host", "6379", APP, IP, ENV, ENV_ID)
+                .add(1, m, "redis.host", "6379", APP, IP, ENV, ENV_ID);
+        call.newHistogram("hera_RedisMethodTimeCost", HeraMetric.Buckets.REDIS, HeraMetric.Labels.REDIS)
+                .with(m, "redis.host", "6379", APP, IP, ENV, ENV_ID)
+                .observe(1, m, "redis.host", "6379", APP, IP, ENV, ENV_ID);
+    }
+
+    @Benchmark
+    public void catalogRedis(SpanCursor cursor) {
+        String m = methods[next(cursor)];
+        LabelTuple redisLabels = LabelTuple.of(m, "redis.host", "6379", APP, IP, ENV, ENV_ID);
+        catalog.inc(HeraMetric.REDIS_SUCCESS_COUNT, redisLabels);
+        catalog.inc(HeraMetric.REDIS_TOTAL_COUNT, redisLabels);
+        catalog.observe(HeraMetric.REDIS_DURATION_HISTOGRAM, redisLabels, 1);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MetricsCatalogBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.metrics;
+
+import com.xiaomi.youpin.prometheus.client.multi.MutiMetrics;
+import io.prometheus.client.Collector;
+import org.apache.ozhera.trace.etl.consumer.MutiMetricsCall;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The catalog against the newCounter/newHistogram calls of MetricsParseService.computeMetrics it replaces:
+ * the same families, and the same samples for the same spans, directly and through the pre-aggregated tables.
+ */
+public class MetricsCatalogTest {
+
+    private static final String[] APPLICATION = {"application"};
+    private static final String[] METHOD = {"methodName", "application", "serverIp", "serverEnv", "serverEnvId"};
+    private static final String[] METHOD_ERROR_CODE = {"methodName", "application", "serverIp", "errorCode", "serverEnv", "serverEnvId"};
+    private static final String[] APPLICATION_ONLY = {"application", "serverIp", "serverEnv", "serverEnvId"};
+    private static final String[] RPC_METHOD = {"serviceName", "methodName", "application", "serverIp", "serverEnv", "serverEnvId"};
+    private static final String[] RPC_SERVICE = {"serviceName", "application", "serverIp", "serverEnv", "serverEnvId"};
+    private static final String[] REDIS = {"method", "host", "port", "application", "serverIp", "serverEnv", "serverEnvId"};
+    private static final String[] SQL = {"dataSource", "sqlMethod", "sql", "application", "serverIp", "serverEnv", "serverEnvId"};
+    private static final String[] MONGO = {"dataSource", "method", "command", "application", "serverIp", "serverEnv", "serverEnvId"};
+    private static final String[] TOPIC = {"topic", "application", "serverIp", "serverEnv", "serverEnvId"};
+    private static final String[] CUSTOMIZE_METHOD = {"application", "methodName", "serverIp", "serverEnv", "serverEnvId"};
+
+    private static final double[] REDIS_BUCKETS = {0.1D, 0.5D, 1.0D, 10.0D, 100.0D, 500.0D, 1000.0D};
+    private static final double[] AOP_DUBBO_BUCKETS = {50.0D, 100.0D, 150.0D, 200.0D, 250.0D, 300.0D, 400.0D, 500.0D, 700.0D, 1000.0D, 2000.0D, 3000.0D, 5000.0D};
+    private static final double[] SQL_BUCKETS = {10.0D, 50.0D, 100.0D, 500.0D, 1000.0D};
+
+    /**
+     * Observations on, between and past the bucket bounds, whole numbers so that the sums are exact in any order.
+     */
+    private static final double[] OBSERVATIONS = {0, 1, 10, 50, 51, 100, 700, 999, 1000, 5000, 12000};
+
+    /**
+     * Every family computeMetrics and traceStatistics registered, name to labels and buckets (null for a counter).
+     */
+    private static final Map<String, Family> LEGACY = new HashMap<>();
+
+    static {
+        counter("trace_statistics_span_count", APPLICATION);
+        counter("hera_aopTotalMethodCount", METHOD);
+        counter("hera_aopSuccessMethodCount", METHOD);
+        counter("hera_httpSlowQuery", METHOD);
+        counter("hera_httpError", METHOD_ERROR_CODE);
+        histogram("hera_aopMethodTimeCount", AOP_DUBBO_BUCKETS, METHOD);
+        histogram("hera_aopMethodTimeCount_without_methodName", AOP_DUBBO_BUCKETS, APPLICATION_ONLY);
+        counter("hera_aopClientTotalMethodCount", METHOD);
+        counter("hera_aopClientSuccessMethodCount", METHOD);
+        counter("hera_httpClientSlowQuery", METHOD);
+        counter("hera_httpClientError", METHOD_ERROR_CODE);
+        histogram("hera_aopClientMethodTimeCount", AOP_DUBBO_BUCKETS, METHOD);
+        histogram("hera_aopClientMethodTimeCount_without_methodName", AOP_DUBBO_BUCKETS, APPLICATION_ONLY);
+        counter("hera_dubboBisTotalCount", RPC_METHOD);
+        counter("hera_dubboBisSuccessCount", RPC_METHOD);
+        counter("hera_dubboConsumerSlowQuery", RPC_METHOD);
+        counter("hera_dubboConsumerError", RPC_METHOD);
+        histogram("hera_dubboConsumerTimeCost", AOP_DUBBO_BUCKETS, RPC_METHOD);
+        histogram("hera_dubboConsumerTimeCost_without_methodName", AOP_DUBBO_BUCKETS, RPC_SERVICE);
+        counter("hera_dubboMethodCalledCount", RPC_METHOD);
+        counter("hera_dubboMethodCalledSuccessCount", RPC_METHOD);
+        counter("hera_dubboProviderSlowQuery", RPC_METHOD);
+        counter("hera_dubboProviderError", RPC_METHOD);
+        histogram("hera_dubboProviderCount", AOP_DUBBO_BUCKETS, RPC_METHOD);
+        histogram("hera_dubboProviderCount_without_methodName", AOP_DUBBO_BUCKETS, RPC_SERVICE);
+        counter("hera_RedisTotalCount", REDIS);
+        counter("hera_RedisSuccessCount", REDIS);
+        counter("hera_redisError", REDIS);
+        histogram("hera_RedisMethodTimeCost", REDIS_BUCKETS, REDIS);
+        counter("hera_sqlTotalCount", SQL);
+        counter("hera_sqlSuccessCount", SQL);
+        counter("hera_dbSlowQuery", SQL);
+        counter("hera_dbError", SQL);
+        histogram("hera_sqlTotalTimer", SQL_BUCKETS, SQL);
+        counter("hera_mongoTotalCount", MONGO);
+        counter("hera_mongoSuccessCount", MONGO);
+        counter("hera_mongodbSlowQuery", MONGO);
+        counter("hera_mongodbError", MONGO);
+        histogram("hera_mongoTotalTimer", SQL_BUCKETS, MONGO);
+        counter("hera_rocketmqProducerTotalCount", TOPIC);
+        counter("hera_rocketmqProducerSuccessCount", TOPIC);
+        counter("hera_rocketmqProducerSlowQuery", TOPIC);
+        counter("hera_rocketmqProducerError", TOPIC);
+        histogram("hera_rocketmqProducerTimeCost", AOP_DUBBO_BUCKETS, TOPIC);
+        counter("hera_rocketmqConsumerTotalCount", TOPIC);
+        counter("hera_rocketmqConsumerSuccessCount", TOPIC);
+        counter("hera_rocketmqConsumerSlowQuery", TOPIC);
+        counter("hera_rocketmqConsumerError", TOPIC);
+        histogram("hera_rocketmqConsumerTimeCost", AOP_DUBBO_BUCKETS, TOPIC);
+        counter("hera_CustomizeMethodTotalCount", CUSTOMIZE_METHOD);
+        counter("hera_CustomizeMethodSuccessCount", CUSTOMIZE_METHOD);
+        counter("hera_CustomizeMethodSlowQuery", CUSTOMIZE_METHOD);
+        counter("hera_CustomizeMethodError", CUSTOMIZE_METHOD);
+        histogram("hera_CustomizeMethodTimeCost", AOP_DUBBO_BUCKETS, CUSTOMIZE_METHOD);
+        counter("hera_grpcClient", RPC_METHOD);
+        counter("hera_grpcClientSuccess", RPC_METHOD);
+        counter("hera_grpcClientSlowQuery", RPC_METHOD);
+        counter("hera_grpcClientError", RPC_METHOD);
+        histogram("hera_grpcClientTimeCost", AOP_DUBBO_BUCKETS, RPC_METHOD);
+        counter("hera_grpcServer", RPC_METHOD);
+        counter("hera_grpcServerSuccess", RPC_METHOD);
+        counter("hera_grpcServerSlowQuery", RPC_METHOD);
+        counter("hera_grpcServerError", RPC_METHOD);
+        histogram("hera_grpcServerTimeCost", AOP_DUBBO_BUCKETS, RPC_METHOD);
+    }
+
+    @Test
+    public void testFamiliesMatchComputeMetrics() {
+        Assert.assertEquals(LEGACY.size(), HeraMetric.values().length);
+        for (HeraMetric metric : HeraMetric.values()) {
+            Family family = LEGACY.get(metric.getMetricName());
+            Assert.assertNotNull(metric.getMetricName(), family);
+            Assert.assertEquals(metric.getMetricName(), family.buckets == null ? HeraMetric.Type.COUNTER : HeraMetric.Type.HISTOGRAM, metric.getType());
+            Assert.assertArrayEquals(metric.getMetricName(), family.labelNames, metric.getLabelNames());
+            Assert.assertArrayEquals(metric.getMetricName(), family.buckets, metric.getBuckets(), 0);
+        }
+    }
+
+    @Test
+    public void testHandlesMatchLegacyPath() {
+        assertSameSamples("", false);
+        assertSameSamples("trace-etl", false);
+    }
+
+    @Test
+    public void testAggregatedMatchesLegacyPath() {
+        assertSameSamples("", true);
+        assertSameSamples("trace-etl", true);
+    }
+
+    private static void assertSameSamples(String service, boolean aggregate) {
+        MutiMetricsCall legacyCall = new MutiMetricsCall();
+        legacyCall.init("test", service);
+        MutiMetricsCall catalogCall = new MutiMetricsCall();
+        catalogCall.init("test", service);
+        MetricsCatalog catalog = new MetricsCatalog(catalogCall);
+        if (aggregate) {
+            catalog.aggregate(false);
+        }
+        for (HeraMetric metric : HeraMetric.values()) {
+            Family family = LEGACY.get(metric.getMetricName());
+            for (int series = 0; series < 3; series++) {
+                String[] values = labelValues(family.labelNames.length, series);
+                for (int i = 0; i <= series; i++) {
+                    for (double observation : OBSERVATIONS) {
+                        if (family.buckets == null) {
+                            legacyCall.newCounter(metric.getMetricName(), family.labelNames)
+                                    .with(values)
+                                    .add(1, values);
+                            catalog.inc(metric, LabelTuple.of(values.clone()));
+                        } else {
+                            legacyCall.newHistogram(metric.getMetricName(), family.buckets, family.labelNames)
+                                    .with(values)
+                                    .observe(observation, values);
+                            catalog.observe(metric, LabelTuple.of(values.clone()), observation);
+                        }
+                    }
+                }
+            }
+        }
+        MutiMetrics recorded = catalogCall.generation(catalogCall.getIndex().get());
+        if (aggregate) {
+            catalogCall.change();
+            catalog.merge(recorded);
+        }
+        Map<String, Double> expected = samples(legacyCall.generation(legacyCall.getIndex().get()));
+        Map<String, Double> actual = samples(recorded);
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, Double> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()), 0);
+        }
+    }
+
+    /**
+     * Every sample of the registry by name and labels, without the creation timestamps.
+     */
+    private static Map<String, Double> samples(MutiMetrics mutiMetrics) {
+        Map<String, Double> samples = new TreeMap<>();
+        for (Collector.MetricFamilySamples family : Collections.list(mutiMetrics.getRegistry().metricFamilySamples())) {
+            for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+                if (sample.name.endsWith("_created")) {
+                    continue;
+                }
+                samples.put(sample.name + sample.labelNames + sample.labelValues, sample.value);
+            }
+        }
+        return samples;
+    }
+
+    private static String[] labelValues(int size, int series) {
+        String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = "v" + i + "-" + series;
+        }
+        return values;
+    }
+
+    private static void counter(String name, String... labelNames) {
+        LEGACY.put(name, new Family(null, labelNames));
+    }
+
+    private static void histogram(String name, double[] buckets, String... labelNames) {
+        LEGACY.put(name, new Family(buckets, labelNames));
+    }
+
+    private static final class Family {
+
+        private final double[] buckets;
+
+        private final String[] labelNames;
+
+        private Family(double[] buckets, String[] labelNames) {
+            this.buckets = buckets;
+            this.labelNames = labelNames;
+        }
+    }
+}
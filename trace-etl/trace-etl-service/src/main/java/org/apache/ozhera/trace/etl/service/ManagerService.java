@@ -24,6 +24,7 @@ import org.apache.ozhera.trace.etl.domain.HeraTraceEtlConfig;
 import org.apache.ozhera.trace.etl.domain.PageData;
 import com.xiaomi.youpin.infra.rpc.Result;
 
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -36,6 +37,11 @@ public interface ManagerService {
     
     List<HeraTraceEtlConfig> getAll(HeraTraceConfigVo vo);
     
+    /**
+     * Configs changed at or after since, by update_time. Deletes are not returned, only a full read shows them.
+     */
+    List<HeraTraceEtlConfig> getUpdatedSince(Date since);
+    
     PageData<List<HeraTraceEtlConfig>> getAllPage(HeraTraceConfigVo vo);
     
     HeraTraceEtlConfig getByBaseInfoId(Integer baseInfoId);
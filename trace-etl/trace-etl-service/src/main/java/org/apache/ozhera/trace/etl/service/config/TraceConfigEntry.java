@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.service.config;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.ozhera.trace.etl.domain.HeraTraceEtlConfig;
+import org.apache.ozhera.trace.etl.util.ExcludeMatcher;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * One {@link HeraTraceEtlConfig} with what the span path needs precompiled: the exclude lists as
+ * {@link ExcludeMatcher}, the debug flags as a set. A matcher is null when the config has no list of its own,
+ * so the caller falls back to its nacos default. Immutable, the config must not be changed once wrapped.
+ */
+public final class TraceConfigEntry {
+
+    private final HeraTraceEtlConfig config;
+
+    private final long updateTime;
+
+    private final long loadTime = System.currentTimeMillis();
+
+    private final ExcludeMatcher excludeMethod;
+
+    private final ExcludeMatcher excludeHttpserverMethod;
+
+    private final ExcludeMatcher excludeThread;
+
+    private final ExcludeMatcher excludeSql;
+
+    private final ExcludeMatcher excludeHttpUrl;
+
+    private final ExcludeMatcher excludeUa;
+
+    private final Set<String> debugFlags;
+
+    public TraceConfigEntry(HeraTraceEtlConfig config) {
+        this.config = config;
+        this.updateTime = config.getUpdateTime() == null ? 0 : config.getUpdateTime().getTime();
+        this.excludeMethod = matcher(config.getExcludeMethod());
+        this.excludeHttpserverMethod = matcher(config.getExcludeHttpserverMethod());
+        this.excludeThread = matcher(config.getExcludeThread());
+        this.excludeSql = matcher(config.getExcludeSql());
+        this.excludeHttpUrl = matcher(config.getExcludeHttpUrl());
+        this.excludeUa = matcher(config.getExcludeUa());
+        this.debugFlags = debugFlags(config.getTraceDebugFlag());
+    }
+
+    /**
+     * The key of a config: bindId-appName, the service name of its spans.
+     */
+    public static String key(HeraTraceEtlConfig config) {
+        return config.getBindId() + "-" + config.getAppName();
+    }
+
+    private static ExcludeMatcher matcher(String excludeList) {
+        return StringUtils.isEmpty(excludeList) ? null : ExcludeMatcher.of(excludeList);
+    }
+
+    private static Set<String> debugFlags(String traceDebugFlag) {
+        if (StringUtils.isEmpty(traceDebugFlag)) {
+            return Collections.emptySet();
+        }
+        Set<String> flags = new HashSet<>();
+        for (String flag : traceDebugFlag.split("\\|")) {
+            if (!flag.isEmpty()) {
+                flags.add(flag);
+            }
+        }
+        return Collections.unmodifiableSet(flags);
+    }
+
+    public HeraTraceEtlConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * The update_time of the config in millis, 0 when unknown.
+     */
+    public long getUpdateTime() {
+        return updateTime;
+    }
+
+    /**
+     * When the entry was built locally, in millis.
+     */
+    long getLoadTime() {
+        return loadTime;
+    }
+
+    public ExcludeMatcher getExcludeMethod() {
+        return excludeMethod;
+    }
+
+    public ExcludeMatcher getExcludeHttpserverMethod() {
+        return excludeHttpserverMethod;
+    }
+
+    public ExcludeMatcher getExcludeThread() {
+        return excludeThread;
+    }
+
+    public ExcludeMatcher getExcludeSql() {
+        return excludeSql;
+    }
+
+    public ExcludeMatcher getExcludeHttpUrl() {
+        return excludeHttpUrl;
+    }
+
+    public ExcludeMatcher getExcludeUa() {
+        return excludeUa;
+    }
+
+    public Set<String> getDebugFlags() {
+        return debugFlags;
+    }
+
+    public int httpSlowThreshold(int defaultValue) {
+        return config.getHttpSlowThreshold() == null ? defaultValue : config.getHttpSlowThreshold();
+    }
+
+    public int dubboSlowThreshold(int defaultValue) {
+        return config.getDubboSlowThreshold() == null ? defaultValue : config.getDubboSlowThreshold();
+    }
+
+    public int mysqlSlowThreshold(int defaultValue) {
+        return config.getMysqlSlowThreshold() == null ? defaultValue : config.getMysqlSlowThreshold();
+    }
+
+    public int traceFilter(int defaultValue) {
+        return config.getTraceFilter() == null ? defaultValue : config.getTraceFilter();
+    }
+
+    public int traceDurationThreshold(int defaultValue) {
+        return config.getTraceDurationThreshold() == null ? defaultValue : config.getTraceDurationThreshold();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.service.config;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An immutable version of the trace configs, by {@link TraceConfigEntry#key}. A change builds a new snapshot that
+ * replaces the old one at once, so a reader always sees one consistent version without locking.
+ */
+public final class TraceConfigSnapshot {
+
+    public static final TraceConfigSnapshot EMPTY = new TraceConfigSnapshot(0, Collections.emptyMap());
+
+    private final long version;
+
+    private final Map<String, TraceConfigEntry> entries;
+
+    TraceConfigSnapshot(long version, Map<String, TraceConfigEntry> entries) {
+        this.version = version;
+        this.entries = Collections.unmodifiableMap(entries);
+    }
+
+    public TraceConfigEntry get(String serviceName) {
+        return serviceName == null ? null : entries.get(serviceName);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    Map<String, TraceConfigEntry> entries() {
+        return entries;
+    }
+}
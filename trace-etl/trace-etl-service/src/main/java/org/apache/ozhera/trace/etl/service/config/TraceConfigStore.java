@@ -0,0 +1,354 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.service.config;
+
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ozhera.trace.etl.domain.HeraTraceConfigVo;
+import org.apache.ozhera.trace.etl.domain.HeraTraceEtlConfig;
+import org.apache.ozhera.trace.etl.service.ManagerService;
+import org.apache.ozhera.trace.etl.util.SelfMetricsRegistry;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
+
+/**
+ * Local copy of the trace configs, kept current by three sources:
+ * <ul>
+ *     <li>push: the insert/update/delete broadcast by the manager, applied at once and followed by a delta read;</li>
+ *     <li>delta: every sync interval, the rows whose update_time is at or after the newest one seen;</li>
+ *     <li>full: every full sync interval, all rows, the only way a delete missed by push is noticed.</li>
+ * </ul>
+ * Push is the main source, the reads only repair what it missed. Every instance reads the same table, so the reads
+ * are spread: each interval is stretched by a random part of up to {@link #JITTER}, the delta read that follows a
+ * push waits a random delay of up to {@link #PUSH_SYNC_SPREAD_MILLIS}, pushes close together share one read, and a
+ * scheduled delta read is skipped when another read ran during the interval.
+ * Every change publishes a new {@link TraceConfigSnapshot}, so the span path reads one volatile field and
+ * gets precompiled entries. A row older than what is held, or than a recent delete of the same key, is ignored,
+ * so a slow read can not roll back a push.
+ */
+@Slf4j
+public class TraceConfigStore {
+
+    private static final Gauge VERSION = Gauge.build()
+            .name("trace_etl_config_version")
+            .help("version of the trace config snapshot, bumped on every change")
+            .register(SelfMetricsRegistry.get());
+
+    private static final Gauge SERVICES = Gauge.build()
+            .name("trace_etl_config_services")
+            .help("services with a trace config")
+            .register(SelfMetricsRegistry.get());
+
+    private static final Histogram PROPAGATION = Histogram.build()
+            .name("trace_etl_config_propagation_seconds")
+            .help("time from the update_time of a trace config to its use, by source")
+            .labelNames("source")
+            .buckets(0.1, 0.5, 1, 2, 5, 10, 30, 60, 300, 3600)
+            .register(SelfMetricsRegistry.get());
+
+    private static final String PUSH = "push";
+
+    private static final String DELTA = "delta";
+
+    private static final String FULL = "full";
+
+    /**
+     * Rows updated in the same millisecond as the watermark are read again, keep some margin for clock skew.
+     */
+    private static final long WATERMARK_OVERLAP_MILLIS = 1000;
+
+    static final double JITTER = 0.2;
+
+    static final long PUSH_SYNC_SPREAD_MILLIS = 3000;
+
+    private final UnaryOperator<HeraTraceEtlConfig> defaults;
+
+    private volatile TraceConfigSnapshot snapshot = TraceConfigSnapshot.EMPTY;
+
+    /**
+     * key -> delete time, guarded by this.
+     */
+    private final Map<String, Long> tombstones = new HashMap<>();
+
+    /**
+     * Newest update_time seen, guarded by this.
+     */
+    private long watermark;
+
+    private volatile long lastFullSync;
+
+    private volatile long lastSync;
+
+    private long syncMillis;
+
+    private long fullSyncMillis;
+
+    private final AtomicBoolean pushSyncPending = new AtomicBoolean();
+
+    private ManagerService managerService;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param defaults applied to a config before it is wrapped, the config is owned by the store afterwards
+     */
+    public TraceConfigStore(UnaryOperator<HeraTraceEtlConfig> defaults) {
+        this.defaults = defaults;
+    }
+
+    public void start(ManagerService managerService, long syncMillis, long fullSyncMillis) {
+        this.managerService = managerService;
+        this.syncMillis = syncMillis;
+        this.fullSyncMillis = fullSyncMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().daemon().name("trace-config-sync").factory());
+        // the first read loads the configs, at once
+        scheduler.execute(this::scheduledSync);
+        log.info("trace config sync every {}ms, full sync every {}ms", syncMillis, fullSyncMillis);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public TraceConfigSnapshot snapshot() {
+        return snapshot;
+    }
+
+    public TraceConfigEntry get(String serviceName) {
+        return snapshot.get(serviceName);
+    }
+
+    public synchronized void insert(HeraTraceEtlConfig config) {
+        String key = TraceConfigEntry.key(config);
+        if (snapshot.get(key) == null) {
+            Map<String, TraceConfigEntry> entries = new HashMap<>(snapshot.entries());
+            tombstones.remove(key);
+            put(entries, key, config, PUSH);
+            publish(entries);
+        }
+        requestSync();
+    }
+
+    public synchronized void update(HeraTraceEtlConfig config) {
+        String key = TraceConfigEntry.key(config);
+        Map<String, TraceConfigEntry> entries = new HashMap<>(snapshot.entries());
+        tombstones.remove(key);
+        put(entries, key, config, PUSH);
+        publish(entries);
+        requestSync();
+    }
+
+    public synchronized void delete(HeraTraceEtlConfig config) {
+        String key = TraceConfigEntry.key(config);
+        tombstones.put(key, System.currentTimeMillis());
+        if (snapshot.get(key) != null) {
+            Map<String, TraceConfigEntry> entries = new HashMap<>(snapshot.entries());
+            entries.remove(key);
+            publish(entries);
+        }
+    }
+
+    /**
+     * One delta read after a random delay, shared by the pushes received meanwhile.
+     */
+    private void requestSync() {
+        ScheduledExecutorService executor = scheduler;
+        if (executor == null || executor.isShutdown() || !pushSyncPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.schedule(() -> {
+                pushSyncPending.set(false);
+                try {
+                    deltaSync();
+                } catch (Throwable t) {
+                    log.error("sync trace config after push error : ", t);
+                }
+            }, ThreadLocalRandom.current().nextLong(PUSH_SYNC_SPREAD_MILLIS + 1), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            pushSyncPending.set(false);
+        }
+    }
+
+    private void scheduledSync() {
+        try {
+            sync();
+        } finally {
+            ScheduledExecutorService executor = scheduler;
+            if (!executor.isShutdown()) {
+                try {
+                    executor.schedule(this::scheduledSync, jittered(syncMillis), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // stopped meanwhile
+                }
+            }
+        }
+    }
+
+    static long jittered(long millis) {
+        return millis + (long) (millis * JITTER * ThreadLocalRandom.current().nextDouble());
+    }
+
+    void sync() {
+        try {
+            long now = System.currentTimeMillis();
+            if (now - lastFullSync >= fullSyncMillis) {
+                fullSync();
+            } else if (now - lastSync >= syncMillis) {
+                deltaSync();
+            }
+        } catch (Throwable t) {
+            log.error("sync trace config error : ", t);
+        }
+    }
+
+    void fullSync() {
+        long start = System.currentTimeMillis();
+        List<HeraTraceEtlConfig> all = managerService.getAll(new HeraTraceConfigVo());
+        applyFull(all, start);
+        lastFullSync = start;
+        lastSync = start;
+    }
+
+    void deltaSync() {
+        long since;
+        synchronized (this) {
+            since = watermark;
+        }
+        if (since == 0) {
+            fullSync();
+            return;
+        }
+        lastSync = System.currentTimeMillis();
+        List<HeraTraceEtlConfig> changed = managerService.getUpdatedSince(new Date(since - WATERMARK_OVERLAP_MILLIS));
+        applyDelta(changed);
+    }
+
+    synchronized void applyDelta(List<HeraTraceEtlConfig> changed) {
+        if (changed == null || changed.isEmpty()) {
+            return;
+        }
+        Map<String, TraceConfigEntry> current = snapshot.entries();
+        Map<String, TraceConfigEntry> entries = null;
+        for (HeraTraceEtlConfig config : changed) {
+            String key = TraceConfigEntry.key(config);
+            if (isStale(current.get(key), key, config)) {
+                continue;
+            }
+            if (entries == null) {
+                entries = new HashMap<>(current);
+            }
+            put(entries, key, config, DELTA);
+        }
+        if (entries != null) {
+            publish(entries);
+        }
+    }
+
+    /**
+     * @param readStart when the read began, a key deleted or pushed after it keeps its local state
+     */
+    synchronized void applyFull(List<HeraTraceEtlConfig> all, long readStart) {
+        Map<String, TraceConfigEntry> current = snapshot.entries();
+        Map<String, TraceConfigEntry> entries = new HashMap<>(all.size());
+        boolean changed = false;
+        for (HeraTraceEtlConfig config : all) {
+            String key = TraceConfigEntry.key(config);
+            TraceConfigEntry held = current.get(key);
+            if (isStale(held, key, config)) {
+                if (held != null) {
+                    entries.put(key, held);
+                }
+                continue;
+            }
+            put(entries, key, config, FULL);
+            changed = true;
+        }
+        for (Map.Entry<String, TraceConfigEntry> held : current.entrySet()) {
+            if (entries.containsKey(held.getKey())) {
+                continue;
+            }
+            if (held.getValue().getLoadTime() >= readStart) {
+                // pushed while the read was running
+                entries.put(held.getKey(), held.getValue());
+            } else {
+                changed = true;
+            }
+        }
+        Iterator<Long> deleted = tombstones.values().iterator();
+        while (deleted.hasNext()) {
+            if (deleted.next() < readStart) {
+                deleted.remove();
+            }
+        }
+        if (changed) {
+            publish(entries);
+        }
+    }
+
+    /**
+     * A read row is stale if what is held is at least as new, or if the key was deleted after the row was written.
+     */
+    private boolean isStale(TraceConfigEntry held, String key, HeraTraceEtlConfig config) {
+        long updateTime = config.getUpdateTime() == null ? 0 : config.getUpdateTime().getTime();
+        Long deleted = tombstones.get(key);
+        if (deleted != null && updateTime <= deleted) {
+            return true;
+        }
+        return held != null && updateTime != 0 && held.getUpdateTime() >= updateTime
+                && held.getConfig().getId() != null && held.getConfig().getId().equals(config.getId());
+    }
+
+    private void put(Map<String, TraceConfigEntry> entries, String key, HeraTraceEtlConfig config, String source) {
+        TraceConfigEntry entry = new TraceConfigEntry(defaults.apply(config));
+        entries.put(key, entry);
+        long updateTime = entry.getUpdateTime();
+        if (updateTime > 0) {
+            long now = System.currentTimeMillis();
+            watermark = Math.max(watermark, Math.min(updateTime, now));
+            if (snapshot != TraceConfigSnapshot.EMPTY) {
+                // the initial load says nothing about propagation
+                PROPAGATION.labels(source).observe(Math.max(0, now - updateTime) / 1000.0);
+            }
+        }
+    }
+
+    private void publish(Map<String, TraceConfigEntry> entries) {
+        TraceConfigSnapshot next = new TraceConfigSnapshot(snapshot.getVersion() + 1, entries);
+        snapshot = next;
+        VERSION.set(next.getVersion());
+        SERVICES.set(next.size());
+    }
+}
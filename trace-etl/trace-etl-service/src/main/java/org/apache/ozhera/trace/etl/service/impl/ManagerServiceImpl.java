@@ -76,6 +76,13 @@ public class ManagerServiceImpl implements ManagerService {
         return heraTraceEtlConfigMapper.selectList(qw);
     }
     @Override
+    public List<HeraTraceEtlConfig> getUpdatedSince(Date since) {
+        QueryWrapper<HeraTraceEtlConfig> qw = new QueryWrapper();
+        qw.eq("status", "1");
+        qw.ge("update_time", since);
+        return heraTraceEtlConfigMapper.selectList(qw);
+    }
+    @Override
     public PageData<List<HeraTraceEtlConfig>> getAllPage(HeraTraceConfigVo vo) {
         PageData<List<HeraTraceEtlConfig>> pageData = new PageData<>();
         pageData.setPage(vo.getPage());
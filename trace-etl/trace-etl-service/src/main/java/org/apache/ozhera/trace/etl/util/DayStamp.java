@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.util;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * The current day formatted once per day, for the daily index names, instead of a SimpleDateFormat per document.
+ * The same String instance is returned for the whole day.
+ */
+public final class DayStamp {
+
+    private final DateTimeFormatter formatter;
+
+    private final ZoneId zone;
+
+    private volatile Day current;
+
+    public DayStamp(String pattern) {
+        this(pattern, ZoneId.systemDefault());
+    }
+
+    public DayStamp(String pattern, ZoneId zone) {
+        this.formatter = DateTimeFormatter.ofPattern(pattern);
+        this.zone = zone;
+    }
+
+    public String now() {
+        return format(System.currentTimeMillis());
+    }
+
+    public String format(long epochMillis) {
+        Day day = current;
+        if (day != null && epochMillis >= day.start && epochMillis < day.end) {
+            return day.text;
+        }
+        LocalDate date = Instant.ofEpochMilli(epochMillis).atZone(zone).toLocalDate();
+        day = new Day(date.atStartOfDay(zone).toInstant().toEpochMilli(),
+                date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli(),
+                formatter.format(date));
+        current = day;
+        return day.text;
+    }
+
+    private static final class Day {
+
+        private final long start;
+
+        private final long end;
+
+        private final String text;
+
+        private Day(long start, long end, String text) {
+            this.start = start;
+            this.end = end;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A "|" separated exclude list compiled once: empty entries and duplicates are dropped, and so is every entry
+ * that contains a shorter entry, because the shorter one already matches whatever the longer one would.
+ * <p>
+ * Matchers are cached by the raw list, so a list refreshed by nacos, or changed in a {@code HeraTraceEtlConfig},
+ * is compiled again the first time it is used and the old one simply stops being looked up.
+ * <p>
+ * Kept in trace-etl-service, under the package it had in trace-etl-server, so that the config entries of both the
+ * server and the es consumer compile their lists with it. trace-etl-server gets it through the extensions, which
+ * depend on the service module, so its imports are unchanged.
+ */
+public final class ExcludeMatcher {
+
+    private static final int MAX_CACHED = 1024;
+
+    private static final ExcludeMatcher NONE = new ExcludeMatcher(new String[0]);
+
+    private static final ConcurrentHashMap<String, ExcludeMatcher> CACHE = new ConcurrentHashMap<>();
+
+    private final String[] patterns;
+
+    private ExcludeMatcher(String[] patterns) {
+        this.patterns = patterns;
+    }
+
+    public static ExcludeMatcher of(String excludeList) {
+        if (excludeList == null || excludeList.isEmpty()) {
+            return NONE;
+        }
+        ExcludeMatcher matcher = CACHE.get(excludeList);
+        if (matcher == null) {
+            if (CACHE.size() >= MAX_CACHED) {
+                CACHE.clear();
+            }
+            matcher = CACHE.computeIfAbsent(excludeList, ExcludeMatcher::compile);
+        }
+        return matcher;
+    }
+
+    static ExcludeMatcher compile(String excludeList) {
+        String[] splits = excludeList.split("\\|");
+        Arrays.sort(splits, Comparator.comparingInt(String::length));
+        List<String> patterns = new ArrayList<>(splits.length);
+        for (String split : splits) {
+            if (split.isEmpty() || containsAny(split, patterns)) {
+                continue;
+            }
+            patterns.add(split);
+        }
+        return patterns.isEmpty() ? NONE : new ExcludeMatcher(patterns.toArray(new String[0]));
+    }
+
+    private static boolean containsAny(String value, List<String> patterns) {
+        for (String pattern : patterns) {
+            if (value.contains(pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean matches(String value) {
+        if (value == null) {
+            return false;
+        }
+        for (String pattern : patterns) {
+            if (value.contains(pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return patterns.length == 0;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.util;
+
+import io.prometheus.client.CollectorRegistry;
+
+/**
+ * Registry of the metrics about the trace-etl process itself, such as queues, consumers, writers and config syncs.
+ * <p>
+ * No server exposes {@link CollectorRegistry#defaultRegistry}, so components register here instead.
+ * trace-etl-server serves this registry on /jvm together with {@code EtlSelfMetrics}, and trace-etl-es serves it
+ * on /metrics.
+ */
+public final class SelfMetricsRegistry {
+
+    private static final CollectorRegistry REGISTRY = new CollectorRegistry(true);
+
+    private SelfMetricsRegistry() {
+    }
+
+    public static CollectorRegistry get() {
+        return REGISTRY;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ozhera.trace.etl.util;
+
+import org.apache.ozhera.tspandata.TAttributes;
+import org.apache.ozhera.tspandata.TExtra;
+import org.apache.ozhera.tspandata.TKind;
+import org.apache.ozhera.tspandata.TResource;
+import org.apache.ozhera.tspandata.TSpanData;
+import org.apache.ozhera.tspandata.TStatus;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Per thread TSpanData decoder, reusing one {@link TDeserializer} and one {@link TMemoryInputTransport}
+ * instead of allocating them for every message.
+ * <p>
+ * Spans are produced as {@code new String(thriftBytes, ISO_8859_1)} and sent with the kafka StringSerializer,
+ * so the record value is the UTF-8 form of latin1 text. {@link #decodeUtf8Latin1} turns it back into the thrift
+ * bytes in a reused buffer, without the String and char[] of the StringDeserializer + getBytes round trip.
+ * <p>
+ * An agent with trace.span.binary sends the raw thrift bytes instead and marks the record with {@link #FORMAT_HEADER},
+ * those values go straight to {@link #decode}.
+ */
+public final class SpanDecoder {
+
+    /**
+     * Record header of the log-agent for spans sent as raw thrift bytes.
+     */
+    public static final String FORMAT_HEADER = "hera-span-format";
+
+    private static final ThreadLocal<SpanDecoder> LOCAL = ThreadLocal.withInitial(SpanDecoder::new);
+
+    private static final int INITIAL_BUFFER = 8 * 1024;
+
+    private final TDeserializer deserializer;
+
+    private final TMemoryInputTransport transport;
+
+    private final TProtocol protocol;
+
+    private byte[] buffer = new byte[INITIAL_BUFFER];
+
+    private SpanDecoder() {
+        try {
+            this.deserializer = new TDeserializer(ThriftUtil.PROTOCOL_FACTORY);
+            this.transport = new TMemoryInputTransport();
+        } catch (TTransportException e) {
+            throw new IllegalStateException(e);
+        }
+        this.protocol = ThriftUtil.PROTOCOL_FACTORY.getProtocol(transport);
+    }
+
+    public static SpanDecoder get() {
+        return LOCAL.get();
+    }
+
+    public TSpanData decode(byte[] bytes, int offset, int length, boolean partial) throws TException {
+        if (partial) {
+            return decodePartial(bytes, offset, length);
+        }
+        TSpanData span = new TSpanData();
+        deserializer.deserialize(span, bytes, offset, length);
+        return span;
+    }
+
+    /**
+     * Decode a record value written as UTF-8 latin1 text. The value itself is left untouched,
+     * so it can still be forwarded as is.
+     */
+    public TSpanData decodeUtf8Latin1(byte[] value, boolean partial) throws TException {
+        if (buffer.length < value.length) {
+            buffer = new byte[Math.max(value.length, buffer.length * 2)];
+        }
+        int length = utf8ToLatin1(value, buffer);
+        return decode(buffer, 0, length, partial);
+    }
+
+    /**
+     * Only what the metrics need: ids, name, kind, timestamps, status, attributes, resource and extra.
+     * Events, links and the other nested structs are skipped on the wire instead of being built.
+     */
+    private TSpanData decodePartial(byte[] bytes, int offset, int length) throws TException {
+        transport.reset(bytes, offset, length);
+        protocol.reset();
+        TSpanData span = new TSpanData();
+        protocol.readStructBegin();
+        while (true) {
+            TField field = protocol.readFieldBegin();
+            if (field.type == TType.STOP) {
+                break;
+            }
+            switch (field.id) {
+                case 1:
+                    if (field.type == TType.STRING) {
+                        span.setTraceId(protocol.readString());
+                        break;
+                    }
+                    TProtocolUtil.skip(protocol, field.type);
+                    break;
+                case 2:
+                    if (field.type == TType.STRING) {
+                        span.setSpanId(protocol.readString());
+                        break;
+                    }
+                    TProtocolUtil.skip(protocol, field.type);
+                    break;
+                case 6:
+                    if (field.type == TType.STRUCT) {
+                        TResource resource = new TResource();
+                        resource.read(protocol);
+                        span.setResouce(resource);
+                        break;
+                    }
+                    TProtocolUtil.skip(protocol, field.type);
+                    break;
+                case 8:
+                    if (field.type == TType.STRING) {
+                        span.setName(protocol.readString());
+                        break;
+                    }
+                    TProtocolUtil.skip(protocol, field.type);
+                    break;
+                case 9:
+                    if (field.type == TType.I32) {
+                        span.setKind(TKind.findByValue(protocol.readI32()));
+                        break;
+                    }
+                    TProtocolUtil.skip(protocol, field.type);
+                    break;
+                case 10:
+                    if (field.type == TType.I64) {
+                        span.setStartEpochNanos(protocol.readI64());
+                        break;
+                    }
+                    TProtocolUtil.skip(protocol, field.type);
+                    break;
+                case 11:
+                    if (field.type == TType.STRUCT) {
+                        TAttributes attributes = new TAttributes();
+                        attributes.read(protocol);
+                        span.setAttributes(attributes);
+                        break;
+                    }
+                    TProtocolUtil.skip(protocol, field.type);
+                    break;
+                case 14:
+                    if (field.type == TType.I32) {
+                        span.setStatus(TStatus.findByValue(protocol.readI32()));
+                        break;
+                    }
+                    TProtocolUtil.skip(protocol, field.type);
+                    break;
+                case 15:
+                    if (field.type == TType.I64) {
+                        span.setEndEpochNanos(protocol.readI64());
+                        break;
+                    }
+                    TProtocolUtil.skip(protocol, field.type);
+                    break;
+                case 20:
+                    if (field.type == TType.STRUCT) {
+                        TExtra extra = new TExtra();
+                        extra.read(protocol);
+                        span.setExtra(extra);
+                        break;
+                    }
+                    TProtocolUtil.skip(protocol, field.type);
+                    break;
+                default:
+                    TProtocolUtil.skip(protocol, field.type);
+                    break;
+            }
+            protocol.readFieldEnd();
+        }
+        protocol.readStructEnd();
+        return span;
+    }
+
+    /**
+     * Raw thrift bytes to the UTF-8 latin1 form, for consumers that still read spans as text.
+     */
+    public static byte[] latin1ToUtf8(byte[] bytes) {
+        int length = bytes.length;
+        for (byte b : bytes) {
+            if (b < 0) {
+                length++;
+            }
+        }
+        if (length == bytes.length) {
+            return bytes;
+        }
+        byte[] ret = new byte[length];
+        int n = 0;
+        for (byte b : bytes) {
+            if (b >= 0) {
+                ret[n++] = b;
+            } else {
+                ret[n++] = (byte) (0xC0 | ((b & 0xFF) >>> 6));
+                ret[n++] = (byte) (0x80 | (b & 0x3F));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return bytes written to target
+     * @throws IllegalArgumentException if the value holds a character above U+00FF, i.e. was not latin1 text
+     */
+    static int utf8ToLatin1(byte[] value, byte[] target) {
+        int length = 0;
+        for (int i = 0; i < value.length; i++) {
+            byte b = value[i];
+            if (b >= 0) {
+                target[length++] = b;
+            } else if ((b == (byte) 0xC2 || b == (byte) 0xC3) && i + 1 < value.length) {
+                target[length++] = (byte) (((b & 0x03) << 6) | (value[++i] & 0x3F));
+            } else {
+                throw new IllegalArgumentException("not latin1 text at " + i);
+            }
+        }
+        return length;
+    }
+}
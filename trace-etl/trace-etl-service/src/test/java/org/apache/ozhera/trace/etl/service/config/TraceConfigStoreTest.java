@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.service.config;
+
+import org.apache.ozhera.trace.etl.domain.HeraTraceEtlConfig;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.function.UnaryOperator;
+
+/**
+ * The merge of pushes, delta reads and full reads, without the scheduler: the store is never started.
+ */
+public class TraceConfigStoreTest {
+
+    private static final String KEY = "1-order";
+
+    private final TraceConfigStore store = new TraceConfigStore(UnaryOperator.identity());
+
+    @Test
+    public void testOlderReadDoesNotRollBackPush() {
+        store.update(config(1, "1", "order", 2000, "a"));
+        long version = store.snapshot().getVersion();
+
+        store.applyDelta(Collections.singletonList(config(1, "1", "order", 1000, "old")));
+        store.applyFull(Collections.singletonList(config(1, "1", "order", 1000, "old")), System.currentTimeMillis());
+        Assert.assertEquals("a", store.get(KEY).getConfig().getExcludeSql());
+        Assert.assertEquals(version, store.snapshot().getVersion());
+    }
+
+    @Test
+    public void testNewerReadApplied() {
+        store.update(config(1, "1", "order", 2000, "a"));
+        long version = store.snapshot().getVersion();
+
+        store.applyDelta(Collections.singletonList(config(1, "1", "order", 3000, "b")));
+        Assert.assertEquals("b", store.get(KEY).getConfig().getExcludeSql());
+        Assert.assertEquals(3000, store.get(KEY).getUpdateTime());
+        Assert.assertEquals(version + 1, store.snapshot().getVersion());
+        Assert.assertNotNull(store.get(KEY).getExcludeSql());
+    }
+
+    @Test
+    public void testUnchangedReadKeepsVersion() {
+        store.applyDelta(Arrays.asList(config(1, "1", "order", 2000, "a"), config(2, "2", "pay", 2000, null)));
+        long version = store.snapshot().getVersion();
+        Assert.assertEquals(2, store.snapshot().size());
+
+        store.applyDelta(Arrays.asList(config(1, "1", "order", 2000, "a"), config(2, "2", "pay", 2000, null)));
+        store.applyFull(Arrays.asList(config(1, "1", "order", 2000, "a"), config(2, "2", "pay", 2000, null)), System.currentTimeMillis());
+        Assert.assertEquals(version, store.snapshot().getVersion());
+    }
+
+    @Test
+    public void testRecreatedRowWithNewIdApplied() {
+        store.update(config(1, "1", "order", 2000, "a"));
+        // deleted and inserted again in the same millisecond, only the id tells them apart
+        store.applyDelta(Collections.singletonList(config(7, "1", "order", 2000, "b")));
+        Assert.assertEquals(Integer.valueOf(7), store.get(KEY).getConfig().getId());
+    }
+
+    @Test
+    public void testRowWithoutUpdateTimeApplied() {
+        store.update(config(1, "1", "order", 2000, "a"));
+        store.applyDelta(Collections.singletonList(config(1, "1", "order", 0, "b")));
+        Assert.assertEquals("b", store.get(KEY).getConfig().getExcludeSql());
+    }
+
+    @Test
+    public void testTombstoneHidesRowsWrittenBeforeDelete() {
+        long now = System.currentTimeMillis();
+        store.update(config(1, "1", "order", now - 10_000, "a"));
+        store.delete(config(1, "1", "order", now - 10_000, "a"));
+        Assert.assertNull(store.get(KEY));
+
+        // a read that started before the delete still returns the row
+        store.applyDelta(Collections.singletonList(config(1, "1", "order", now - 10_000, "a")));
+        Assert.assertNull(store.get(KEY));
+        store.applyFull(Collections.singletonList(config(1, "1", "order", now - 10_000, "a")), now - 5_000);
+        Assert.assertNull(store.get(KEY));
+
+        // written again after the delete
+        store.applyDelta(Collections.singletonList(config(2, "1", "order", now + 10_000, "b")));
+        Assert.assertEquals("b", store.get(KEY).getConfig().getExcludeSql());
+    }
+
+    @Test
+    public void testPushClearsTombstone() {
+        long now = System.currentTimeMillis();
+        store.delete(config(1, "1", "order", now - 10_000, "a"));
+        store.insert(config(2, "1", "order", now - 10_000, "b"));
+        Assert.assertEquals("b", store.get(KEY).getConfig().getExcludeSql());
+    }
+
+    @Test
+    public void testFullReadDropsTombstonesOlderThanRead() {
+        long now = System.currentTimeMillis();
+        store.delete(config(1, "1", "order", now - 10_000, "a"));
+        store.applyFull(Collections.emptyList(), System.currentTimeMillis() + 1);
+        // the read after the delete did not see the row, a row seen later is a new one
+        store.applyDelta(Collections.singletonList(config(1, "1", "order", now - 10_000, "a")));
+        Assert.assertNotNull(store.get(KEY));
+    }
+
+    @Test
+    public void testFullReadRemovesMissedDelete() throws InterruptedException {
+        store.applyFull(Arrays.asList(config(1, "1", "order", 2000, "a"), config(2, "2", "pay", 2000, null)), System.currentTimeMillis());
+        long version = store.snapshot().getVersion();
+        Thread.sleep(2);
+
+        store.applyFull(Collections.singletonList(config(1, "1", "order", 2000, "a")), System.currentTimeMillis());
+        Assert.assertNotNull(store.get(KEY));
+        Assert.assertNull(store.get("2-pay"));
+        Assert.assertEquals(version + 1, store.snapshot().getVersion());
+    }
+
+    @Test
+    public void testFullReadKeepsPushDuringRead() {
+        long readStart = System.currentTimeMillis();
+        store.insert(config(3, "3", "cart", System.currentTimeMillis(), null));
+        // the read began before the insert and does not have it
+        store.applyFull(Collections.singletonList(config(1, "1", "order", 2000, "a")), readStart);
+        Assert.assertNotNull(store.get("3-cart"));
+        Assert.assertNotNull(store.get(KEY));
+    }
+
+    @Test
+    public void testInsertKeepsExisting() {
+        store.update(config(1, "1", "order", 2000, "a"));
+        store.insert(config(1, "1", "order", 3000, "b"));
+        Assert.assertEquals("a", store.get(KEY).getConfig().getExcludeSql());
+    }
+
+    @Test
+    public void testJittered() {
+        for (int i = 0; i < 1000; i++) {
+            long delay = TraceConfigStore.jittered(1000);
+            Assert.assertTrue(delay >= 1000 && delay <= 1000 + (long) (1000 * TraceConfigStore.JITTER));
+        }
+    }
+
+    private static HeraTraceEtlConfig config(int id, String bindId, String appName, long updateTime, String excludeSql) {
+        HeraTraceEtlConfig config = new HeraTraceEtlConfig();
+        config.setId(id);
+        config.setBindId(bindId);
+        config.setAppName(appName);
+        config.setUpdateTime(updateTime == 0 ? null : new Date(updateTime));
+        config.setExcludeSql(excludeSql);
+        return config;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * {@link ExcludeMatcher} against the split and contains loop it replaces in MetricsParseService.exclude.
+ */
+public class ExcludeMatcherTest {
+
+    private static final String ALPHABET = "ab|";
+
+    @Test
+    public void testRandomListsMatchLegacyExclude() {
+        Random random = new Random(11);
+        for (int i = 0; i < 20000; i++) {
+            String excludeList = randomString(random, 10);
+            String value = randomString(random, 6).replace("|", "");
+            Assert.assertEquals(excludeList + " " + value, legacyExclude(excludeList, value),
+                    ExcludeMatcher.of(excludeList).matches(value));
+            Assert.assertEquals(excludeList + " " + value, legacyExclude(excludeList, value),
+                    ExcludeMatcher.compile(excludeList).matches(value));
+        }
+    }
+
+    @Test
+    public void testRedundantEntriesDropped() {
+        ExcludeMatcher matcher = ExcludeMatcher.compile("|nacos||nacos-client|Druid|nacos");
+        Assert.assertTrue(matcher.matches("nacos-client-1"));
+        Assert.assertTrue(matcher.matches("Druid-ConnectionPool"));
+        Assert.assertFalse(matcher.matches("main"));
+        Assert.assertTrue(ExcludeMatcher.compile("||").isEmpty());
+    }
+
+    @Test
+    public void testNullAndEmpty() {
+        Assert.assertTrue(ExcludeMatcher.of(null).isEmpty());
+        Assert.assertTrue(ExcludeMatcher.of("").isEmpty());
+        Assert.assertFalse(ExcludeMatcher.of("").matches("anything"));
+        // the legacy loop threw on a null value
+        Assert.assertFalse(ExcludeMatcher.of("a").matches(null));
+    }
+
+    @Test
+    public void testCachedByList() {
+        Assert.assertSame(ExcludeMatcher.of("x|y"), ExcludeMatcher.of(new String("x|y")));
+    }
+
+    private static boolean legacyExclude(String excludeList, String excludeString) {
+        String[] splits = excludeList.split("\\|");
+        for (String split : splits) {
+            if (!split.isEmpty() && excludeString.contains(split)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String randomString(Random random, int maxLength) {
+        int length = random.nextInt(maxLength + 1);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ozhera.trace.etl.util;
+
+import org.apache.ozhera.tspandata.TAttributeKey;
+import org.apache.ozhera.tspandata.TAttributeType;
+import org.apache.ozhera.tspandata.TAttributes;
+import org.apache.ozhera.tspandata.TEvent;
+import org.apache.ozhera.tspandata.TExtra;
+import org.apache.ozhera.tspandata.TInstrumentationLibraryInfo;
+import org.apache.ozhera.tspandata.TKind;
+import org.apache.ozhera.tspandata.TLink;
+import org.apache.ozhera.tspandata.TResource;
+import org.apache.ozhera.tspandata.TSpanContext;
+import org.apache.ozhera.tspandata.TSpanData;
+import org.apache.ozhera.tspandata.TStatus;
+import org.apache.ozhera.tspandata.TTraceState;
+import org.apache.ozhera.tspandata.TValue;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * {@link SpanDecoder} against the StringDeserializer + getBytes(ISO_8859_1) + new TDeserializer path it replaces.
+ */
+public class SpanDecoderTest {
+
+    @Test
+    public void testUtf8Latin1MatchesStringPath() {
+        Random random = new Random(5);
+        for (int i = 0; i < 5000; i++) {
+            byte[] thrift = new byte[random.nextInt(300)];
+            random.nextBytes(thrift);
+            // what the agent sends and the StringDeserializer reads back
+            byte[] wire = new String(thrift, StandardCharsets.ISO_8859_1).getBytes(StandardCharsets.UTF_8);
+            byte[] legacy = new String(wire, StandardCharsets.UTF_8).getBytes(StandardCharsets.ISO_8859_1);
+
+            byte[] target = new byte[wire.length];
+            int length = SpanDecoder.utf8ToLatin1(wire, target);
+            Assert.assertArrayEquals(legacy, Arrays.copyOf(target, length));
+            Assert.assertArrayEquals(wire, SpanDecoder.latin1ToUtf8(thrift));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotLatin1Rejected() {
+        byte[] wire = "span \u4e2d".getBytes(StandardCharsets.UTF_8);
+        SpanDecoder.utf8ToLatin1(wire, new byte[wire.length]);
+    }
+
+    @Test
+    public void testDecodeMatchesLegacyDeserializer() throws Exception {
+        Random random = new Random(9);
+        for (int i = 0; i < 500; i++) {
+            TSpanData span = span(random);
+            byte[] thrift = new TSerializer(ThriftUtil.PROTOCOL_FACTORY).serialize(span);
+            byte[] wire = SpanDecoder.latin1ToUtf8(thrift);
+            TSpanData legacy = legacyDecode(wire);
+            Assert.assertEquals(span, legacy);
+            Assert.assertEquals(legacy, SpanDecoder.get().decodeUtf8Latin1(wire, false));
+            Assert.assertEquals(legacy, SpanDecoder.get().decode(thrift, 0, thrift.length, false));
+        }
+    }
+
+    @Test
+    public void testPartialDecodeKeepsMetricFields() throws Exception {
+        Random random = new Random(13);
+        for (int i = 0; i < 500; i++) {
+            byte[] wire = SpanDecoder.latin1ToUtf8(new TSerializer(ThriftUtil.PROTOCOL_FACTORY).serialize(span(random)));
+            TSpanData expected = legacyDecode(wire);
+            expected.unsetSampled();
+            expected.unsetTraceState();
+            expected.unsetParentSpanContext();
+            expected.unsetInstrumentationLibraryInfo();
+            expected.unsetEvents();
+            expected.unsetLinks();
+            expected.unsetEnded();
+            expected.unsetTotalRecordedEvents();
+            expected.unsetTotalRecordedLinks();
+            expected.unsetTotalAttributeCount();
+            Assert.assertEquals(expected, SpanDecoder.get().decodeUtf8Latin1(wire, true));
+        }
+    }
+
+    @Test
+    public void testBufferReusedAcrossSizes() throws Exception {
+        Random random = new Random(17);
+        TSpanData large = span(random);
+        large.setName(new String(new char[20000]).replace('\0', '\u00e9'));
+        TSpanData small = span(random);
+        for (TSpanData span : new TSpanData[]{small, large, small}) {
+            byte[] wire = SpanDecoder.latin1ToUtf8(new TSerializer(ThriftUtil.PROTOCOL_FACTORY).serialize(span));
+            Assert.assertEquals(span, SpanDecoder.get().decodeUtf8Latin1(wire, false));
+        }
+    }
+
+    private static TSpanData legacyDecode(byte[] wire) throws Exception {
+        String value = new String(wire, StandardCharsets.UTF_8);
+        TSpanData tSpanData = new TSpanData();
+        new TDeserializer(ThriftUtil.PROTOCOL_FACTORY).deserialize(tSpanData, value.getBytes(StandardCharsets.ISO_8859_1));
+        return tSpanData;
+    }
+
+    private static TSpanData span(Random random) {
+        long start = 1_700_000_000_000_000_000L + random.nextInt(1_000_000_000);
+        TSpanData span = new TSpanData()
+                .setTraceId(Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong()))
+                .setSpanId(Long.toHexString(random.nextLong()))
+                .setSampled(random.nextBoolean())
+                .setTraceState(new TTraceState().setEntries(Collections.singletonMap("k", "v" + random.nextInt(10))))
+                .setParentSpanContext(new TSpanContext().setTraceId("parent").setSpanId(Long.toHexString(random.nextLong())))
+                .setResouce(new TResource().setAttributes(attributes(random, "service.env", "service.env.id")))
+                .setInstrumentationLibraryInfo(new TInstrumentationLibraryInfo().setName("hera").setVersion("1.0"))
+                .setName("/api/\u00e9t\u00e9/" + random.nextInt(100))
+                .setKind(TKind.values()[random.nextInt(TKind.values().length)])
+                .setStartEpochNanos(start)
+                .setAttributes(attributes(random, "http.url", "db.statement", "error"))
+                .setStatus(TStatus.values()[random.nextInt(TStatus.values().length)])
+                .setEndEpochNanos(start + random.nextInt(1_000_000_000))
+                .setEnded(true)
+                .setTotalRecordedEvents(2)
+                .setTotalRecordedLinks(1)
+                .setTotalAttributeCount(3)
+                .setExtra(new TExtra().setServiceName("1-demo").setIp("10.0.0." + random.nextInt(255)).setHostname("host"));
+        List<TEvent> events = new ArrayList<>();
+        events.add(new TEvent().setName("log").setEpochNanos(start + 1).setAttributes(attributes(random, "message")));
+        events.add(new TEvent().setName("exception").setEpochNanos(start + 2));
+        span.setEvents(events);
+        span.setLinks(Collections.singletonList(new TLink().setSpanContext(new TSpanContext().setTraceId("linked").setSpanId("1"))));
+        return span;
+    }
+
+    private static TAttributes attributes(Random random, String... keys) {
+        List<TAttributeKey> attributeKeys = new ArrayList<>();
+        List<TValue> values = new ArrayList<>();
+        for (String key : keys) {
+            attributeKeys.add(new TAttributeKey().setValue(key).setType(TAttributeType.STRING));
+            byte[] raw = new byte[random.nextInt(20)];
+            random.nextBytes(raw);
+            values.add(new TValue().setStringValue(key + new String(raw, StandardCharsets.ISO_8859_1)));
+        }
+        return new TAttributes().setKeys(attributeKeys).setValues(values);
+    }
+}